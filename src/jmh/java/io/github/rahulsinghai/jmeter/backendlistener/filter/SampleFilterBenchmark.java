@@ -0,0 +1,82 @@
+/*
+ * Copyright 2019 Rahul Singhai.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.rahulsinghai.jmeter.backendlistener.filter;
+
+import io.github.rahulsinghai.jmeter.backendlistener.model.SampleFixtures;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.apache.jmeter.samplers.SampleResult;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Per-sample cost of the sample validation of the listener with 0, 5 and 50 filters, with and without the decision cache.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SampleFilterBenchmark {
+
+  @Param({"0", "5", "50"})
+  public int filterCount;
+
+  @Param({"0", "10000"})
+  public int cacheSize;
+
+  private SampleResult[] samples;
+  private SampleFilter filter;
+  private int next;
+
+  @Setup
+  public void setUp() {
+    this.samples = SampleFixtures.samples(1024, 42);
+    // Lower-cased, as parsed by the listener
+    List<String> filters = new ArrayList<>();
+    for (int i = 0; i < this.filterCount; i++) {
+      // Mostly labels that never match, as the whole list is then scanned
+      filters.add(i % 4 == 3 ? "^post /api/v" + i + "/.*" : "/api/v1/report" + i);
+    }
+    if (this.filterCount > 0) {
+      filters.set(this.filterCount - 1, "get /api/v1/items");
+    }
+    this.filter = SampleFilter.compile(filters, this.cacheSize);
+  }
+
+  @Benchmark
+  public boolean validateSample() {
+    SampleResult sr = this.samples[this.next++ & (this.samples.length - 1)];
+    boolean errorOnly = false;
+    boolean valid = this.filter.accept(sr.getSampleLabel());
+    if (sr.isSuccessful() && errorOnly && valid) {
+      valid = false;
+    }
+    return valid;
+  }
+}
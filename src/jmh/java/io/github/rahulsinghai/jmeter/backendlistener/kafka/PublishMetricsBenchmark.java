@@ -0,0 +1,100 @@
+/*
+ * Copyright 2019 Rahul Singhai.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.rahulsinghai.jmeter.backendlistener.kafka;
+
+import io.github.rahulsinghai.jmeter.backendlistener.model.JsonRowWriter;
+import io.github.rahulsinghai.jmeter.backendlistener.model.MetricsRow;
+import io.github.rahulsinghai.jmeter.backendlistener.model.RowTemplate;
+import io.github.rahulsinghai.jmeter.backendlistener.model.SampleFixtures;
+import java.net.UnknownHostException;
+import java.util.concurrent.TimeUnit;
+import org.apache.jmeter.samplers.SampleResult;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Per-row cost of {@link KafkaMetricPublisher#publishMetrics()} on a {@link MockProducer}, for rows encoded beforehand.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+@OperationsPerInvocation(PublishMetricsBenchmark.ROWS)
+public class PublishMetricsBenchmark {
+
+  /** Rows per call, the size of a typical JMeter backend listener batch. */
+  static final int ROWS = 100;
+
+  @Param({"none", "ndjson"})
+  public String envelope;
+
+  @Param({"timestamp", "label"})
+  public String key;
+
+  private SampleResult[] samples;
+  private byte[][] rows;
+  private MockProducer<byte[], byte[]> producer;
+  private KafkaMetricPublisher publisher;
+
+  @Setup
+  public void setUp() throws UnknownHostException {
+    this.samples = SampleFixtures.samples(ROWS, 42);
+    this.rows = new byte[ROWS][];
+    RowTemplate template = SampleFixtures.template("info", "", false);
+    JsonRowWriter writer = new JsonRowWriter();
+    for (int i = 0; i < ROWS; i++) {
+      new MetricsRow(this.samples[i], template).writeRow(writer);
+      this.rows[i] = writer.toByteArray();
+    }
+    this.producer = new MockProducer<>(true, new ByteArraySerializer(), new ByteArraySerializer());
+    this.publisher =
+        new KafkaMetricPublisher(
+            this.producer,
+            "jmeter",
+            EnvelopeFormat.fromString(this.envelope),
+            500,
+            524288,
+            new RecordKeys(
+                KeyStrategy.fromString(this.key), RecordTimestamp.SEND, null, "injector-01"),
+            new ListenerMetrics());
+  }
+
+  @Benchmark
+  public void publishMetrics() {
+    for (int i = 0; i < ROWS; i++) {
+      this.publisher.addToList(this.rows[i], this.samples[i]);
+    }
+    this.publisher.publishMetrics();
+    this.publisher.clearList();
+    // The mock producer keeps every record sent
+    this.producer.clear();
+  }
+}
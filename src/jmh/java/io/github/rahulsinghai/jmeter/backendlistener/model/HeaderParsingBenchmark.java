@@ -0,0 +1,66 @@
+/*
+ * Copyright 2019 Rahul Singhai.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.rahulsinghai.jmeter.backendlistener.model;
+
+import java.net.UnknownHostException;
+import java.util.concurrent.TimeUnit;
+import org.apache.jmeter.samplers.SampleResult;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of <code>kafka.parse.all.req.headers</code> and <code>kafka.parse.all.res.headers</code> on rows without bodies.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class HeaderParsingBenchmark {
+
+  @Param({"false", "true"})
+  public boolean parseHeaders;
+
+  private SampleResult[] samples;
+  private RowTemplate template;
+  private JsonRowWriter writer;
+  private int next;
+
+  @Setup
+  public void setUp() throws UnknownHostException {
+    this.samples = SampleFixtures.samples(1024, 42);
+    this.template = SampleFixtures.template("quiet", "", this.parseHeaders);
+    this.writer = new JsonRowWriter();
+  }
+
+  @Benchmark
+  public byte[] writeJsonRow() {
+    SampleResult sr = this.samples[this.next++ & (this.samples.length - 1)];
+    new MetricsRow(sr, this.template).writeRow(this.writer);
+    return this.writer.toByteArray();
+  }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2019 Rahul Singhai.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.rahulsinghai.jmeter.backendlistener.model;
+
+import com.google.gson.Gson;
+import io.github.rahulsinghai.jmeter.backendlistener.binary.BinaryRowWriter;
+import java.net.UnknownHostException;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.apache.jmeter.samplers.SampleResult;
+import org.apache.jmeter.visualizers.backend.BackendListenerContext;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Per-sample cost of building a row, as a {@link MetricsRow#getRowAsMap} map serialized by Gson and with the {@link RowWriter}s.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MetricsRowBenchmark {
+
+  @Param({"debug", "info", "error", "quiet"})
+  public String testMode;
+
+  /** All fields, or a typical dashboard selection. */
+  @Param({"", "SampleLabel;ResponseTime;Latency;ResponseCode;Timestamp"})
+  public String fields;
+
+  private SampleResult[] samples;
+  private BackendListenerContext context;
+  private Set<String> fieldSet;
+  private RowTemplate template;
+  private Gson gson;
+  private JsonRowWriter jsonWriter;
+  private BinaryRowWriter binaryWriter;
+  private MetricsRow row;
+  private int next;
+
+  @Setup
+  public void setUp() throws UnknownHostException {
+    this.samples = SampleFixtures.samples(1024, 42);
+    this.context = SampleFixtures.context();
+    this.fieldSet = SampleFixtures.fieldSet(this.fields);
+    this.template = SampleFixtures.template(this.testMode, this.fields, false);
+    this.gson = new Gson();
+    this.jsonWriter = new JsonRowWriter();
+    this.binaryWriter = new BinaryRowWriter();
+    this.row = new MetricsRow(this.template);
+  }
+
+  private SampleResult nextSample() {
+    return this.samples[this.next++ & (this.samples.length - 1)];
+  }
+
+  /** The former hot path: a map per sample, with the settings resolved for each sample. */
+  @Benchmark
+  public Map<String, Object> getRowAsMap() throws UnknownHostException {
+    MetricsRow row =
+        new MetricsRow(
+            nextSample(),
+            this.testMode,
+            "yyyy-MM-dd'T'HH:mm:ss.SSSZZ",
+            0,
+            false,
+            false,
+            this.fieldSet);
+    return row.getRowAsMap(this.context, "kafka.");
+  }
+
+  /** The former JSON serialization: Gson over the map. */
+  @Benchmark
+  public String getRowAsMapToGson() throws UnknownHostException {
+    return this.gson.toJson(getRowAsMap());
+  }
+
+  @Benchmark
+  public byte[] writeJsonRow() {
+    new MetricsRow(nextSample(), this.template).writeRow(this.jsonWriter);
+    return this.jsonWriter.toByteArray();
+  }
+
+  /** The listener's hot path: a reused row, the bytes are then copied to the publisher's buffer. */
+  @Benchmark
+  public int writeJsonRowReused() {
+    this.row.reset(nextSample()).writeRow(this.jsonWriter);
+    return this.jsonWriter.size();
+  }
+
+  @Benchmark
+  public byte[] writeBinaryRow() {
+    new MetricsRow(nextSample(), this.template).writeRow(this.binaryWriter);
+    byte[] row = this.binaryWriter.toByteArray();
+    // Keeps the dictionary from being republished in every measurement
+    this.binaryWriter.pollControlRecord(0);
+    return row;
+  }
+}
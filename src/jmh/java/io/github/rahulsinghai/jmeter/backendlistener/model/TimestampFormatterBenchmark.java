@@ -0,0 +1,130 @@
+/*
+ * Copyright 2019 Rahul Singhai.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.rahulsinghai.jmeter.backendlistener.model;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Per-sample cost of the date fields of a row, with SimpleDateFormat and Calendar and with {@link TimestampFormatter} and {@link ElapsedTimeClock}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TimestampFormatterBenchmark {
+
+  private static final String PATTERN = "yyyy-MM-dd'T'HH:mm:ss.SSSZZ";
+
+  private TimestampFormatter formatter;
+  private ElapsedTimeClock clock;
+  private StringBuilder builder;
+  private long testStartTime;
+  private long sampleStartTime;
+
+  @Setup
+  public void setUp() {
+    this.testStartTime = System.currentTimeMillis() - 3_600_000L;
+    this.sampleStartTime = System.currentTimeMillis();
+    this.formatter = new TimestampFormatter(PATTERN);
+    this.clock = new ElapsedTimeClock(this.testStartTime, ZoneId.systemDefault());
+    this.builder = new StringBuilder(32);
+  }
+
+  @Benchmark
+  public void legacySimpleDateFormat(Blackhole blackhole) {
+    // Samples of ~250 ms, a few milliseconds apart
+    long start = (this.sampleStartTime += 3);
+    SimpleDateFormat sdf = new SimpleDateFormat(PATTERN);
+    blackhole.consume(sdf.format(new Date(start)));
+    blackhole.consume(sdf.format(new Date(start + 250)));
+    blackhole.consume(sdf.format(new Date(start + 250)));
+    blackhole.consume(sdf.format(legacyElapsedTime(true)));
+    blackhole.consume(sdf.format(legacyElapsedTime(false)));
+  }
+
+  @Benchmark
+  public void timestampFormatter(Blackhole blackhole) {
+    long start = (this.sampleStartTime += 3);
+    long now = System.currentTimeMillis();
+    format(blackhole, start);
+    format(blackhole, start + 250);
+    format(blackhole, start + 250);
+    format(blackhole, this.clock.getElapsedTimeComparison(now));
+    format(blackhole, this.clock.getElapsedTime(now));
+  }
+
+  private void format(Blackhole blackhole, long timestamp) {
+    this.builder.setLength(0);
+    this.formatter.formatTo(timestamp, this.builder);
+    blackhole.consume(this.builder.length());
+  }
+
+  /** The MetricsRow#getElapsedTime implementation replaced by {@link ElapsedTimeClock}. */
+  private Date legacyElapsedTime(boolean forBuildComparison) {
+    String sElapsed;
+    long elapsed = System.currentTimeMillis() - this.testStartTime;
+    long minutes = (elapsed / 1000) / 60;
+    long seconds = (elapsed / 1000) % 60;
+
+    Calendar cal = Calendar.getInstance();
+    cal.set(Calendar.HOUR_OF_DAY, 0);
+    cal.set(Calendar.MINUTE, (int) minutes);
+    cal.set(Calendar.SECOND, (int) seconds);
+
+    if (forBuildComparison) {
+      sElapsed =
+          String.format(
+              "2019-07-01 %02d:%02d:%02d",
+              cal.get(Calendar.HOUR_OF_DAY), cal.get(Calendar.MINUTE), cal.get(Calendar.SECOND));
+    } else {
+      sElapsed =
+          String.format(
+              "%s %02d:%02d:%02d",
+              DateTimeFormatter.ofPattern("yyyy-MM-dd").format(LocalDateTime.now()),
+              cal.get(Calendar.HOUR_OF_DAY),
+              cal.get(Calendar.MINUTE),
+              cal.get(Calendar.SECOND));
+    }
+
+    SimpleDateFormat formatter = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+    try {
+      return formatter.parse(sElapsed);
+    } catch (ParseException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
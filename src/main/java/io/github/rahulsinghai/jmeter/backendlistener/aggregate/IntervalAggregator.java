@@ -0,0 +1,95 @@
+/*
+ * Copyright 2019 Rahul Singhai.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.rahulsinghai.jmeter.backendlistener.aggregate;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.apache.jmeter.samplers.SampleResult;
+
+/**
+ * Accumulates the samples of the current interval into one {@link SampleSummary} per label.
+ * Intervals are aligned on multiples of their length since the epoch. Not thread-safe.
+ */
+public final class IntervalAggregator {
+
+  private final long intervalMillis;
+  private long intervalStart;
+  private Map<String, SampleSummary> summaries = new LinkedHashMap<>();
+
+  /**
+   * @param intervalMillis Length of the intervals, in milliseconds
+   * @param now Current time, in milliseconds since the epoch
+   * @throws IllegalArgumentException if the length is not positive
+   */
+  public IntervalAggregator(long intervalMillis, long now) {
+    if (intervalMillis <= 0) {
+      throw new IllegalArgumentException("Invalid interval: " + intervalMillis);
+    }
+    this.intervalMillis = intervalMillis;
+    this.intervalStart = align(now);
+  }
+
+  /**
+   * Adds a sample to the summary of its label in the current interval.
+   *
+   * @param sr The SampleResult
+   */
+  public void add(SampleResult sr) {
+    this.summaries.computeIfAbsent(sr.getSampleLabel(), SampleSummary::new).add(sr);
+  }
+
+  /**
+   * @param now Current time, in milliseconds since the epoch
+   * @return true if the current interval is over and should be rolled
+   */
+  public boolean isDue(long now) {
+    return now >= getIntervalEnd();
+  }
+
+  /**
+   * Closes the current interval and starts the one containing the given time.
+   *
+   * @param now Current time, in milliseconds since the epoch
+   * @return the summaries of the closed interval, in the order their labels first appeared
+   */
+  public Collection<SampleSummary> roll(long now) {
+    Collection<SampleSummary> closed = this.summaries.values();
+    this.summaries = new LinkedHashMap<>();
+    this.intervalStart = align(now);
+    return closed;
+  }
+
+  /** @return the start of the current interval, in milliseconds since the epoch */
+  public long getIntervalStart() {
+    return this.intervalStart;
+  }
+
+  /** @return the end of the current interval, excluded, in milliseconds since the epoch */
+  public long getIntervalEnd() {
+    return this.intervalStart + this.intervalMillis;
+  }
+
+  /** @return the number of labels seen in the current interval */
+  public int getLabelCount() {
+    return this.summaries.size();
+  }
+
+  private long align(long time) {
+    return time - Math.floorMod(time, this.intervalMillis);
+  }
+}
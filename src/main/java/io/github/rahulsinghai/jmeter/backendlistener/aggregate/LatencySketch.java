@@ -0,0 +1,213 @@
+/*
+ * Copyright 2019 Rahul Singhai.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.rahulsinghai.jmeter.backendlistener.aggregate;
+
+import io.github.rahulsinghai.jmeter.backendlistener.model.RowWriter;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Mergeable histogram of millisecond durations with logarithmic bins, estimating percentiles within
+ * a fixed relative accuracy. Not thread-safe.
+ */
+public final class LatencySketch {
+
+  /** Default relative accuracy of the percentiles: 1%. */
+  public static final double DEFAULT_RELATIVE_ACCURACY = 0.01;
+
+  private static final double[] PERCENTILES = {0.5, 0.9, 0.95, 0.99};
+  private static final String[] PERCENTILE_NAMES = {"p50", "p90", "p95", "p99"};
+
+  private final double relativeAccuracy;
+  private final double gamma;
+  private final double logGamma;
+  private long[] bins = new long[0];
+  private long zeroCount;
+  private long count;
+  private long sum;
+  private long min = Long.MAX_VALUE;
+  private long max = Long.MIN_VALUE;
+
+  public LatencySketch() {
+    this(DEFAULT_RELATIVE_ACCURACY);
+  }
+
+  /**
+   * @param relativeAccuracy Relative accuracy of the percentiles, strictly between 0 and 1
+   * @throws IllegalArgumentException if the accuracy is out of range
+   */
+  public LatencySketch(double relativeAccuracy) {
+    if (!(relativeAccuracy > 0 && relativeAccuracy < 1)) {
+      throw new IllegalArgumentException("Invalid relative accuracy: " + relativeAccuracy);
+    }
+    this.relativeAccuracy = relativeAccuracy;
+    this.gamma = (1 + relativeAccuracy) / (1 - relativeAccuracy);
+    this.logGamma = Math.log(this.gamma);
+  }
+
+  /**
+   * Rebuilds a sketch from the fields written by {@link #writeTo(RowWriter)}, once parsed into a
+   * map, e.g. by Gson.
+   *
+   * @param map Parsed sketch fields
+   * @return the sketch
+   */
+  public static LatencySketch fromMap(Map<String, ?> map) {
+    LatencySketch sketch = new LatencySketch(((Number) map.get("relativeAccuracy")).doubleValue());
+    sketch.count = ((Number) map.get("count")).longValue();
+    sketch.zeroCount = ((Number) map.get("zeroCount")).longValue();
+    if (sketch.count > 0) {
+      sketch.sum = ((Number) map.get("sum")).longValue();
+      sketch.min = ((Number) map.get("min")).longValue();
+      sketch.max = ((Number) map.get("max")).longValue();
+    }
+    Object bins = map.get("bins");
+    if (bins instanceof Map) {
+      for (Map.Entry<?, ?> bin : ((Map<?, ?>) bins).entrySet()) {
+        int index = Integer.parseInt(bin.getKey().toString());
+        sketch.grow(index);
+        sketch.bins[index] += ((Number) bin.getValue()).longValue();
+      }
+    }
+    return sketch;
+  }
+
+  /**
+   * Adds a duration.
+   *
+   * @param value Duration in milliseconds; negative values are counted as 0
+   */
+  public void add(long value) {
+    if (value < 0) {
+      value = 0;
+    }
+    this.count++;
+    this.sum += value;
+    this.min = Math.min(this.min, value);
+    this.max = Math.max(this.max, value);
+    if (value == 0) {
+      this.zeroCount++;
+    } else {
+      int index = (int) Math.ceil(Math.log(value) / this.logGamma);
+      grow(index);
+      this.bins[index]++;
+    }
+  }
+
+  /**
+   * Adds all the durations of another sketch to this one.
+   *
+   * @param other A sketch with the same relative accuracy
+   * @throws IllegalArgumentException if the relative accuracies differ
+   */
+  public void merge(LatencySketch other) {
+    if (other.relativeAccuracy != this.relativeAccuracy) {
+      throw new IllegalArgumentException("Cannot merge sketches of different accuracies");
+    }
+    if (other.count == 0) {
+      return;
+    }
+    grow(other.bins.length - 1);
+    for (int i = 0; i < other.bins.length; i++) {
+      this.bins[i] += other.bins[i];
+    }
+    this.zeroCount += other.zeroCount;
+    this.count += other.count;
+    this.sum += other.sum;
+    this.min = Math.min(this.min, other.min);
+    this.max = Math.max(this.max, other.max);
+  }
+
+  /**
+   * @param quantile Quantile between 0 and 1, e.g. 0.99 for the 99th percentile
+   * @return the estimated duration at the quantile, 0 if the sketch is empty
+   */
+  public long getValueAtQuantile(double quantile) {
+    if (this.count == 0) {
+      return 0;
+    }
+    long rank = (long) (Math.max(0, Math.min(1, quantile)) * (this.count - 1));
+    long seen = this.zeroCount;
+    if (seen > rank) {
+      return 0;
+    }
+    for (int i = 0; i < this.bins.length; i++) {
+      seen += this.bins[i];
+      if (seen > rank) {
+        long estimate = Math.round(2 * Math.pow(this.gamma, i) / (this.gamma + 1));
+        return Math.max(this.min, Math.min(this.max, estimate));
+      }
+    }
+    return this.max;
+  }
+
+  public long getCount() {
+    return this.count;
+  }
+
+  public long getSum() {
+    return this.sum;
+  }
+
+  /** @return the smallest duration, 0 if the sketch is empty */
+  public long getMin() {
+    return this.count > 0 ? this.min : 0;
+  }
+
+  /** @return the largest duration, 0 if the sketch is empty */
+  public long getMax() {
+    return this.count > 0 ? this.max : 0;
+  }
+
+  public double getRelativeAccuracy() {
+    return this.relativeAccuracy;
+  }
+
+  /**
+   * Writes the statistics, the usual percentiles and the bins of this sketch as fields of the
+   * current object of the given writer.
+   *
+   * @param writer The target of the fields
+   */
+  public void writeTo(RowWriter writer) {
+    writer.writeLong("count", this.count);
+    writer.writeLong("min", getMin());
+    writer.writeLong("max", getMax());
+    writer.writeLong("sum", this.sum);
+    if (this.count > 0) {
+      writer.writeDouble("mean", (double) this.sum / this.count);
+    }
+    for (int i = 0; i < PERCENTILES.length; i++) {
+      writer.writeLong(PERCENTILE_NAMES[i], getValueAtQuantile(PERCENTILES[i]));
+    }
+    writer.writeDouble("relativeAccuracy", this.relativeAccuracy);
+    writer.writeLong("zeroCount", this.zeroCount);
+    writer.beginObject("bins");
+    for (int i = 0; i < this.bins.length; i++) {
+      if (this.bins[i] != 0) {
+        writer.writeLong(Integer.toString(i), this.bins[i]);
+      }
+    }
+    writer.endObject();
+  }
+
+  private void grow(int index) {
+    if (index >= this.bins.length) {
+      this.bins = Arrays.copyOf(this.bins, Math.max(index + 1, this.bins.length * 2));
+    }
+  }
+}
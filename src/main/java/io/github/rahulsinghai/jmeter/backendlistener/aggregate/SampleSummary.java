@@ -0,0 +1,154 @@
+/*
+ * Copyright 2019 Rahul Singhai.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.rahulsinghai.jmeter.backendlistener.aggregate;
+
+import io.github.rahulsinghai.jmeter.backendlistener.model.RowTemplate;
+import io.github.rahulsinghai.jmeter.backendlistener.model.RowWriter;
+import org.apache.jmeter.samplers.SampleResult;
+
+/** Statistics of the samples of one label during one interval. Not thread-safe. */
+public final class SampleSummary {
+
+  /** Value of the RecordType field of summary rows. */
+  public static final String RECORD_TYPE = "summary";
+
+  private final String label;
+  private long sampleCount;
+  private long errorCount;
+  private long bytes;
+  private long sentBytes;
+  private final LatencySketch responseTime = new LatencySketch();
+  private final LatencySketch latency = new LatencySketch();
+  private final LatencySketch connectTime = new LatencySketch();
+
+  /** @param label The sample label */
+  public SampleSummary(String label) {
+    this.label = label;
+  }
+
+  /**
+   * Adds a sample.
+   *
+   * @param sr The SampleResult
+   */
+  public void add(SampleResult sr) {
+    this.sampleCount += sr.getSampleCount();
+    this.errorCount += sr.getErrorCount();
+    this.bytes += sr.getBytesAsLong();
+    this.sentBytes += sr.getSentBytes();
+    this.responseTime.add(sr.getTime());
+    this.latency.add(sr.getLatency());
+    this.connectTime.add(sr.getConnectTime());
+  }
+
+  /**
+   * Adds all the samples of another summary, e.g. of the same label on another injector.
+   *
+   * @param other Another summary
+   */
+  public void merge(SampleSummary other) {
+    this.sampleCount += other.sampleCount;
+    this.errorCount += other.errorCount;
+    this.bytes += other.bytes;
+    this.sentBytes += other.sentBytes;
+    this.responseTime.merge(other.responseTime);
+    this.latency.merge(other.latency);
+    this.connectTime.merge(other.connectTime);
+  }
+
+  public String getLabel() {
+    return this.label;
+  }
+
+  public long getSampleCount() {
+    return this.sampleCount;
+  }
+
+  public long getErrorCount() {
+    return this.errorCount;
+  }
+
+  public long getBytes() {
+    return this.bytes;
+  }
+
+  public long getSentBytes() {
+    return this.sentBytes;
+  }
+
+  public LatencySketch getResponseTime() {
+    return this.responseTime;
+  }
+
+  public LatencySketch getLatency() {
+    return this.latency;
+  }
+
+  public LatencySketch getConnectTime() {
+    return this.connectTime;
+  }
+
+  /**
+   * Writes this summary as a row. The identifying fields (RecordType, SampleLabel and the interval)
+   * are always written; the statistics and the test's constant fields respect the field filter.
+   *
+   * @param writer The target of the row
+   * @param template The settings and constant fields of the test
+   * @param intervalStart Start of the interval, in milliseconds since the epoch
+   * @param intervalEnd End of the interval, excluded, in milliseconds since the epoch
+   */
+  public void writeRow(
+      RowWriter writer, RowTemplate template, long intervalStart, long intervalEnd) {
+    StringBuilder timestamp = new StringBuilder(32);
+    writer.beginRow();
+    writer.writeString("RecordType", RECORD_TYPE);
+    writer.writeString("SampleLabel", this.label);
+    template.getTimestampFormatter().formatTo(intervalStart, timestamp);
+    writer.writeString("IntervalStart", timestamp);
+    timestamp.setLength(0);
+    template.getTimestampFormatter().formatTo(intervalEnd, timestamp);
+    writer.writeString("IntervalEnd", timestamp);
+    writer.writeLong("IntervalLength", intervalEnd - intervalStart);
+
+    if (template.isSelected("SampleCount")) {
+      writer.writeLong("SampleCount", this.sampleCount);
+    }
+    if (template.isSelected("ErrorCount")) {
+      writer.writeLong("ErrorCount", this.errorCount);
+    }
+    if (template.isSelected("Bytes")) {
+      writer.writeLong("Bytes", this.bytes);
+    }
+    if (template.isSelected("SentBytes")) {
+      writer.writeLong("SentBytes", this.sentBytes);
+    }
+    writeSketch(writer, template, "ResponseTime", this.responseTime);
+    writeSketch(writer, template, "Latency", this.latency);
+    writeSketch(writer, template, "ConnectTime", this.connectTime);
+    writer.writeConstants(template.getConstants());
+    writer.endRow();
+  }
+
+  private static void writeSketch(
+      RowWriter writer, RowTemplate template, String key, LatencySketch sketch) {
+    if (template.isSelected(key)) {
+      writer.beginObject(key);
+      sketch.writeTo(writer);
+      writer.endObject();
+    }
+  }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2019 Rahul Singhai.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.rahulsinghai.jmeter.backendlistener.binary;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Constants of the binary record format written by {@link BinaryRowWriter} and read by {@link
+ * BinaryRecordDecoder}.
+ *
+ * <p>A record starts with {@link #MAGIC}, its type and the 4-byte id of the dictionary of its
+ * writer. A {@link #ROW} then holds its fields up to an {@link #END} byte, each one the varint
+ * <code>ref &lt;&lt; 4 | type</code> followed by its value; a {@link #DICTIONARY} holds the varint
+ * index of its first entry, the number of entries and the entries.
+ */
+public final class BinaryFormat {
+
+  /** First byte of every binary record. */
+  public static final byte MAGIC = (byte) 0xB1;
+
+  /** Record type of a row. */
+  public static final byte ROW = 0;
+
+  /** Record type of dictionary entries. */
+  public static final byte DICTIONARY = 1;
+
+  static final int END = 0;
+  static final int LONG = 1;
+  static final int DOUBLE = 2;
+  static final int STRING = 3;
+  static final int STRING_REF = 4;
+  static final int TRUE = 5;
+  static final int FALSE = 6;
+  static final int OBJECT = 7;
+  static final int ARRAY = 8;
+
+  static final int REF_NONE = 0;
+  static final int REF_INLINE = 1;
+
+  /**
+   * Field names with a fixed index, starting at 1. New names may only be appended, so that records
+   * of older writers keep their meaning.
+   */
+  static final List<String> FIELDS =
+      Collections.unmodifiableList(
+          Arrays.asList(
+              null,
+              "AllThreads",
+              "BodySize",
+              "Bytes",
+              "SentBytes",
+              "ConnectTime",
+              "ContentType",
+              "DataType",
+              "ErrorCount",
+              "GrpThreads",
+              "IdleTime",
+              "Latency",
+              "ResponseTime",
+              "SampleCount",
+              "SampleLabel",
+              "ThreadName",
+              "URL",
+              "ResponseCode",
+              "SampleStartTime",
+              "SampleEndTime",
+              "Timestamp",
+              "RequestHeaders",
+              "RequestBody",
+              "ResponseHeaders",
+              "ResponseBody",
+              "ResponseMessage",
+              "AssertionResults",
+              "failure",
+              "failureMessage",
+              "name",
+              "FailureMessage",
+              "Success",
+              "ElapsedTimeComparison",
+              "ElapsedTime",
+              "TestStartTime",
+              "InjectorHostname",
+              "BuildNumber",
+              "RecordType",
+              "IntervalStart",
+              "IntervalEnd",
+              "IntervalLength",
+              "count",
+              "min",
+              "max",
+              "sum",
+              "mean",
+              "p50",
+              "p90",
+              "p95",
+              "p99",
+              "relativeAccuracy",
+              "zeroCount",
+              "bins"));
+
+  static final Map<String, Integer> FIELD_INDEXES = new HashMap<>();
+
+  /** Fields whose values repeat across rows and are worth a dictionary entry. */
+  static final Set<String> DICTIONARY_VALUES =
+      new HashSet<>(
+          Arrays.asList(
+              "ContentType",
+              "DataType",
+              "SampleLabel",
+              "ThreadName",
+              "URL",
+              "ResponseCode",
+              "ResponseMessage",
+              "failureMessage",
+              "name",
+              "FailureMessage",
+              "InjectorHostname",
+              "RecordType"));
+
+  static {
+    for (int i = 1; i < FIELDS.size(); i++) {
+      FIELD_INDEXES.put(FIELDS.get(i), i);
+    }
+  }
+
+  private BinaryFormat() {}
+
+  /**
+   * @param value Value of a Kafka message
+   * @return true if the value is a binary record rather than a JSON document
+   */
+  public static boolean isBinary(byte[] value) {
+    return value.length > 0 && value[0] == MAGIC;
+  }
+}
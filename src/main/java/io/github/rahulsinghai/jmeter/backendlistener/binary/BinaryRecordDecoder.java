@@ -0,0 +1,195 @@
+/*
+ * Copyright 2019 Rahul Singhai.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.rahulsinghai.jmeter.backendlistener.binary;
+
+import io.github.rahulsinghai.jmeter.backendlistener.model.JsonRowWriter;
+import io.github.rahulsinghai.jmeter.backendlistener.model.RowWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Decodes the records of the {@link BinaryFormat} into any {@link RowWriter}. All the records of a
+ * partition must go through the same decoder, in order. Not thread-safe.
+ */
+public final class BinaryRecordDecoder {
+
+  private final Map<Integer, List<String>> dictionaries = new HashMap<>();
+
+  private byte[] record;
+  private int position;
+  private List<String> dictionary;
+
+  /**
+   * Decodes a record.
+   *
+   * @param value Value of a Kafka message in the binary format
+   * @param target Writer receiving the row
+   * @return true if the record was a row, written to the target, false if it was a dictionary
+   * @throws IllegalArgumentException if the value is not a valid binary record
+   * @throws IllegalStateException if the row uses a dictionary entry that was not received yet
+   */
+  public boolean decode(byte[] value, RowWriter target) {
+    if (!BinaryFormat.isBinary(value) || value.length < 6) {
+      throw new IllegalArgumentException("Not a binary record");
+    }
+    this.record = value;
+    this.position = 6;
+    int dictionaryId =
+        (value[2] & 0xff) << 24
+            | (value[3] & 0xff) << 16
+            | (value[4] & 0xff) << 8
+            | value[5] & 0xff;
+    this.dictionary = this.dictionaries.computeIfAbsent(dictionaryId, id -> new ArrayList<>());
+
+    try {
+      if (value[1] == BinaryFormat.DICTIONARY) {
+        readDictionary();
+        return false;
+      }
+      target.beginRow();
+      readFields(target);
+      target.endRow();
+      return true;
+    } catch (IndexOutOfBoundsException e) {
+      throw new IllegalArgumentException("Truncated binary record, or field of a newer format", e);
+    } finally {
+      this.record = null;
+    }
+  }
+
+  /**
+   * Decodes a record into the JSON document the listener would have published in JSON format.
+   *
+   * @param value Value of a Kafka message in the binary format
+   * @return the JSON document, or null if the record was a dictionary
+   */
+  public String toJson(byte[] value) {
+    JsonRowWriter writer = new JsonRowWriter();
+    return decode(value, writer) ? writer.toString() : null;
+  }
+
+  private void readDictionary() {
+    int first = (int) readVarLong();
+    int count = (int) readVarLong();
+    for (int i = 0; i < count; i++) {
+      String entry = readUtf8();
+      int index = first + i;
+      while (this.dictionary.size() <= index) {
+        this.dictionary.add(null);
+      }
+      this.dictionary.set(index, entry);
+    }
+  }
+
+  private void readFields(RowWriter target) {
+    while (true) {
+      long key = readVarLong();
+      int type = (int) (key & 0xf);
+      long ref = key >>> 4;
+      if (type == BinaryFormat.END) {
+        return;
+      }
+
+      String name;
+      if (ref == BinaryFormat.REF_NONE) {
+        name = null;
+      } else if (ref == BinaryFormat.REF_INLINE) {
+        name = readUtf8();
+      } else if ((ref & 1) == 0) {
+        name = BinaryFormat.FIELDS.get((int) (ref >>> 1));
+      } else {
+        name = lookup((int) (ref >>> 1) - 1);
+      }
+
+      switch (type) {
+        case BinaryFormat.LONG:
+          long zigzag = readVarLong();
+          target.writeLong(name, (zigzag >>> 1) ^ -(zigzag & 1));
+          break;
+        case BinaryFormat.DOUBLE:
+          long bits = 0;
+          for (int i = 0; i < 8; i++) {
+            bits |= (this.record[this.position++] & 0xffL) << (i * 8);
+          }
+          target.writeDouble(name, Double.longBitsToDouble(bits));
+          break;
+        case BinaryFormat.STRING:
+          target.writeString(name, readUtf8());
+          break;
+        case BinaryFormat.STRING_REF:
+          target.writeString(name, lookup((int) readVarLong()));
+          break;
+        case BinaryFormat.TRUE:
+          target.writeBoolean(name, true);
+          break;
+        case BinaryFormat.FALSE:
+          target.writeBoolean(name, false);
+          break;
+        case BinaryFormat.OBJECT:
+          if (name == null) {
+            target.beginObject();
+          } else {
+            target.beginObject(name);
+          }
+          readFields(target);
+          target.endObject();
+          break;
+        case BinaryFormat.ARRAY:
+          target.beginArray(name);
+          readFields(target);
+          target.endArray();
+          break;
+        default:
+          throw new IllegalArgumentException("Unknown field type " + type);
+      }
+    }
+  }
+
+  private String lookup(int index) {
+    String entry = index < this.dictionary.size() ? this.dictionary.get(index) : null;
+    if (entry == null) {
+      throw new IllegalStateException(
+          "Dictionary entry " + index + " was not received yet, its row cannot be decoded");
+    }
+    return entry;
+  }
+
+  private String readUtf8() {
+    int length = (int) readVarLong();
+    if (this.position + length > this.record.length) {
+      throw new ArrayIndexOutOfBoundsException(this.position + length);
+    }
+    String value = new String(this.record, this.position, length, StandardCharsets.UTF_8);
+    this.position += length;
+    return value;
+  }
+
+  private long readVarLong() {
+    long value = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      byte b = this.record[this.position++];
+      value |= (long) (b & 0x7f) << shift;
+      if (b >= 0) {
+        return value;
+      }
+    }
+    throw new IllegalArgumentException("Malformed varint");
+  }
+}
@@ -0,0 +1,337 @@
+/*
+ * Copyright 2019 Rahul Singhai.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.rahulsinghai.jmeter.backendlistener.binary;
+
+import io.github.rahulsinghai.jmeter.backendlistener.model.ConstantFields;
+import io.github.rahulsinghai.jmeter.backendlistener.model.EncodingRowWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * {@link EncodingRowWriter} encoding rows in the {@link BinaryFormat}, with a dictionary of its own
+ * for repeated strings. Not thread-safe.
+ */
+public final class BinaryRowWriter implements EncodingRowWriter {
+
+  /** Strings longer than this are always written inline. */
+  private static final int MAX_ENTRY_LENGTH = 256;
+
+  private final int dictionaryId;
+  private final int maxEntries;
+  private final long fullDictionaryIntervalMillis;
+  private final Map<String, Integer> dictionary = new HashMap<>();
+  private final List<String> entries = new ArrayList<>();
+  private int publishedEntries;
+  private long lastFullDictionary;
+
+  private byte[] buffer = new byte[512];
+  private int size;
+
+  private ConstantFields lastConstants;
+  private byte[] constantsFragment;
+
+  public BinaryRowWriter() {
+    this(10000, 60000L);
+  }
+
+  /**
+   * @param maxEntries Maximum number of dictionary entries
+   * @param fullDictionaryIntervalMillis How often the whole dictionary is republished
+   */
+  public BinaryRowWriter(int maxEntries, long fullDictionaryIntervalMillis) {
+    this.dictionaryId = ThreadLocalRandom.current().nextInt();
+    this.maxEntries = maxEntries;
+    this.fullDictionaryIntervalMillis = fullDictionaryIntervalMillis;
+  }
+
+  /** @return the id of the dictionary of this writer, written in all its records */
+  public int getDictionaryId() {
+    return this.dictionaryId;
+  }
+
+  /** @return the number of entries of the dictionary */
+  public int getDictionarySize() {
+    return this.entries.size();
+  }
+
+  @Override
+  public void beginRow() {
+    this.size = 0;
+    writeHeader(BinaryFormat.ROW);
+  }
+
+  @Override
+  public void endRow() {
+    writeByte(BinaryFormat.END);
+  }
+
+  @Override
+  public void writeLong(String key, long value) {
+    writeKey(key, BinaryFormat.LONG);
+    writeVarLong((value << 1) ^ (value >> 63));
+  }
+
+  @Override
+  public void writeDouble(String key, double value) {
+    if (Double.isFinite(value)) {
+      writeKey(key, BinaryFormat.DOUBLE);
+      long bits = Double.doubleToRawLongBits(value);
+      ensureCapacity(8);
+      for (int i = 0; i < 8; i++) {
+        this.buffer[this.size++] = (byte) (bits >>> (i * 8));
+      }
+    }
+  }
+
+  @Override
+  public void writeBoolean(String key, boolean value) {
+    writeKey(key, value ? BinaryFormat.TRUE : BinaryFormat.FALSE);
+  }
+
+  @Override
+  public void writeString(String key, CharSequence value) {
+    if (value == null) {
+      return;
+    }
+    int entry = BinaryFormat.DICTIONARY_VALUES.contains(key) ? intern(value) : -1;
+    if (entry >= 0) {
+      writeKey(key, BinaryFormat.STRING_REF);
+      writeVarLong(entry);
+    } else {
+      writeKey(key, BinaryFormat.STRING);
+      writeUtf8(value);
+    }
+  }
+
+  @Override
+  public void writeConstants(ConstantFields constants) {
+    // Constants are the same for every row: encode them once, their entries are never reassigned
+    if (constants != this.lastConstants) {
+      int start = this.size;
+      constants.writeFieldsTo(this);
+      this.constantsFragment = Arrays.copyOfRange(this.buffer, start, this.size);
+      this.lastConstants = constants;
+    } else {
+      ensureCapacity(this.constantsFragment.length);
+      System.arraycopy(
+          this.constantsFragment, 0, this.buffer, this.size, this.constantsFragment.length);
+      this.size += this.constantsFragment.length;
+    }
+  }
+
+  @Override
+  public void beginArray(String key) {
+    writeKey(key, BinaryFormat.ARRAY);
+  }
+
+  @Override
+  public void endArray() {
+    writeByte(BinaryFormat.END);
+  }
+
+  @Override
+  public void beginObject() {
+    writeVarLong(BinaryFormat.REF_NONE << 4 | BinaryFormat.OBJECT);
+  }
+
+  @Override
+  public void beginObject(String key) {
+    writeKey(key, BinaryFormat.OBJECT);
+  }
+
+  @Override
+  public void endObject() {
+    writeByte(BinaryFormat.END);
+  }
+
+  @Override
+  public byte[] toByteArray() {
+    return Arrays.copyOf(this.buffer, this.size);
+  }
+
+  @Override
+  public int size() {
+    return this.size;
+  }
+
+  @Override
+  public void copyTo(byte[] target, int offset) {
+    System.arraycopy(this.buffer, 0, target, offset, this.size);
+  }
+
+  /**
+   * Returns the entries added to the dictionary since the previous call or, if there are none and
+   * the whole dictionary was not published for a while, the whole dictionary.
+   *
+   * @param now Current time, in milliseconds since the epoch
+   * @return a dictionary record, or null if there is nothing to publish
+   */
+  @Override
+  public byte[] pollControlRecord(long now) {
+    int from;
+    if (this.publishedEntries < this.entries.size()) {
+      from = this.publishedEntries;
+    } else if (!this.entries.isEmpty()
+        && now - this.lastFullDictionary >= this.fullDictionaryIntervalMillis) {
+      from = 0;
+    } else {
+      return null;
+    }
+    if (from == 0) {
+      this.lastFullDictionary = now;
+    }
+
+    // The row being encoded, if any, is kept apart
+    byte[] row = toByteArray();
+    this.size = 0;
+    writeHeader(BinaryFormat.DICTIONARY);
+    writeVarLong(from);
+    writeVarLong(this.entries.size() - from);
+    for (int i = from; i < this.entries.size(); i++) {
+      writeUtf8(this.entries.get(i));
+    }
+    byte[] record = toByteArray();
+    this.publishedEntries = this.entries.size();
+
+    this.size = 0;
+    ensureCapacity(row.length);
+    System.arraycopy(row, 0, this.buffer, 0, row.length);
+    this.size = row.length;
+    return record;
+  }
+
+  private void writeHeader(byte recordType) {
+    ensureCapacity(6);
+    this.buffer[this.size++] = BinaryFormat.MAGIC;
+    this.buffer[this.size++] = recordType;
+    this.buffer[this.size++] = (byte) (this.dictionaryId >>> 24);
+    this.buffer[this.size++] = (byte) (this.dictionaryId >>> 16);
+    this.buffer[this.size++] = (byte) (this.dictionaryId >>> 8);
+    this.buffer[this.size++] = (byte) this.dictionaryId;
+  }
+
+  private void writeKey(String key, int type) {
+    Integer index = BinaryFormat.FIELD_INDEXES.get(key);
+    if (index != null) {
+      writeVarLong((long) index << 5 | type);
+      return;
+    }
+    int entry = intern(key);
+    if (entry >= 0) {
+      writeVarLong(((long) entry + 1) << 5 | 1 << 4 | type);
+    } else {
+      writeVarLong(BinaryFormat.REF_INLINE << 4 | type);
+      writeUtf8(key);
+    }
+  }
+
+  /** @return the dictionary index of the value, or -1 if it is not in the dictionary */
+  private int intern(CharSequence value) {
+    if (value.length() > MAX_ENTRY_LENGTH) {
+      return -1;
+    }
+    String string = value.toString();
+    Integer entry = this.dictionary.get(string);
+    if (entry != null) {
+      return entry;
+    }
+    if (this.entries.size() >= this.maxEntries) {
+      return -1;
+    }
+    entry = this.entries.size();
+    this.dictionary.put(string, entry);
+    this.entries.add(string);
+    return entry;
+  }
+
+  private void writeUtf8(CharSequence value) {
+    int length = value.length();
+    int bytes = 0;
+    for (int i = 0; i < length; i++) {
+      char c = value.charAt(i);
+      if (c < 0x80) {
+        bytes++;
+      } else if (c < 0x800) {
+        bytes += 2;
+      } else if (Character.isHighSurrogate(c)
+          && i + 1 < length
+          && Character.isLowSurrogate(value.charAt(i + 1))) {
+        bytes += 4;
+        i++;
+      } else if (Character.isSurrogate(c)) {
+        bytes++;
+      } else {
+        bytes += 3;
+      }
+    }
+
+    writeVarLong(bytes);
+    ensureCapacity(bytes);
+    byte[] buf = this.buffer;
+    int pos = this.size;
+    for (int i = 0; i < length; i++) {
+      char c = value.charAt(i);
+      if (c < 0x80) {
+        buf[pos++] = (byte) c;
+      } else if (c < 0x800) {
+        buf[pos++] = (byte) (0xc0 | (c >> 6));
+        buf[pos++] = (byte) (0x80 | (c & 0x3f));
+      } else if (Character.isHighSurrogate(c)
+          && i + 1 < length
+          && Character.isLowSurrogate(value.charAt(i + 1))) {
+        int codePoint = Character.toCodePoint(c, value.charAt(++i));
+        buf[pos++] = (byte) (0xf0 | (codePoint >> 18));
+        buf[pos++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+        buf[pos++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+        buf[pos++] = (byte) (0x80 | (codePoint & 0x3f));
+      } else if (Character.isSurrogate(c)) {
+        // Same replacement as String.getBytes(UTF_8) for a lone surrogate
+        buf[pos++] = '?';
+      } else {
+        buf[pos++] = (byte) (0xe0 | (c >> 12));
+        buf[pos++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+        buf[pos++] = (byte) (0x80 | (c & 0x3f));
+      }
+    }
+    this.size = pos;
+  }
+
+  private void writeVarLong(long value) {
+    ensureCapacity(10);
+    while ((value & ~0x7fL) != 0) {
+      this.buffer[this.size++] = (byte) ((value & 0x7f) | 0x80);
+      value >>>= 7;
+    }
+    this.buffer[this.size++] = (byte) value;
+  }
+
+  private void writeByte(int b) {
+    ensureCapacity(1);
+    this.buffer[this.size++] = (byte) b;
+  }
+
+  private void ensureCapacity(int extra) {
+    if (this.size + extra > this.buffer.length) {
+      this.buffer =
+          Arrays.copyOf(this.buffer, Math.max(this.buffer.length << 1, this.size + extra));
+    }
+  }
+}
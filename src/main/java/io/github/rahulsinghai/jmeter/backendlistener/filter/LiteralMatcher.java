@@ -0,0 +1,167 @@
+/*
+ * Copyright 2019 Rahul Singhai.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.rahulsinghai.jmeter.backendlistener.filter;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Aho-Corasick automaton checking in one pass whether a lower-cased, trimmed text contains any of a
+ * set of literals.
+ */
+final class LiteralMatcher {
+
+  private static final int ROOT = 0;
+
+  /** Sorted transition characters of each state. */
+  private final char[][] keys;
+
+  /** Target states, parallel to {@link #keys}. */
+  private final int[][] targets;
+
+  /** Failure link of each state. */
+  private final int[] fail;
+
+  /** Whether reaching a state means that at least one literal has been found. */
+  private final boolean[] output;
+
+  private LiteralMatcher(char[][] keys, int[][] targets, int[] fail, boolean[] output) {
+    this.keys = keys;
+    this.targets = targets;
+    this.fail = fail;
+    this.output = output;
+  }
+
+  /**
+   * Builds the automaton for the given literals.
+   *
+   * @param literals lower-cased literals; an empty literal matches every text
+   * @return the compiled matcher
+   */
+  static LiteralMatcher compile(Collection<String> literals) {
+    List<TreeMap<Character, Integer>> trie = new ArrayList<>();
+    List<Boolean> terminal = new ArrayList<>();
+    trie.add(new TreeMap<>());
+    terminal.add(Boolean.FALSE);
+
+    for (String literal : literals) {
+      int state = ROOT;
+      for (int i = 0; i < literal.length(); i++) {
+        Integer next = trie.get(state).get(literal.charAt(i));
+        if (next == null) {
+          next = trie.size();
+          trie.add(new TreeMap<>());
+          terminal.add(Boolean.FALSE);
+          trie.get(state).put(literal.charAt(i), next);
+        }
+        state = next;
+      }
+      terminal.set(state, Boolean.TRUE);
+    }
+
+    int size = trie.size();
+    char[][] keys = new char[size][];
+    int[][] targets = new int[size][];
+    int[] fail = new int[size];
+    boolean[] output = new boolean[size];
+    for (int s = 0; s < size; s++) {
+      TreeMap<Character, Integer> edges = trie.get(s);
+      keys[s] = new char[edges.size()];
+      targets[s] = new int[edges.size()];
+      int i = 0;
+      for (Map.Entry<Character, Integer> edge : edges.entrySet()) {
+        keys[s][i] = edge.getKey();
+        targets[s][i] = edge.getValue();
+        i++;
+      }
+      output[s] = terminal.get(s);
+    }
+
+    // Breadth-first computation of the failure links; a state inherits the output of its failure
+    // state so that a single flag check is enough while scanning.
+    ArrayDeque<Integer> queue = new ArrayDeque<>();
+    for (int child : targets[ROOT]) {
+      fail[child] = ROOT;
+      queue.add(child);
+    }
+    while (!queue.isEmpty()) {
+      int state = queue.poll();
+      for (int i = 0; i < keys[state].length; i++) {
+        char c = keys[state][i];
+        int child = targets[state][i];
+        int f = fail[state];
+        int next = step(keys, targets, f, c);
+        while (next < 0 && f != ROOT) {
+          f = fail[f];
+          next = step(keys, targets, f, c);
+        }
+        fail[child] = next < 0 ? ROOT : next;
+        output[child] = output[child] || output[fail[child]];
+        queue.add(child);
+      }
+    }
+    return new LiteralMatcher(keys, targets, fail, output);
+  }
+
+  /**
+   * Scans the text once and reports whether any of the literals occurs in it.
+   *
+   * @param text The lower-cased and trimmed text to scan, usually a sample label
+   * @return true if at least one literal is contained in the text
+   */
+  boolean containsAny(String text) {
+    if (this.output[ROOT]) {
+      return true;
+    }
+
+    int state = ROOT;
+    for (int i = 0; i < text.length(); i++) {
+      char c = text.charAt(i);
+      int next = step(this.keys, this.targets, state, c);
+      while (next < 0 && state != ROOT) {
+        state = this.fail[state];
+        next = step(this.keys, this.targets, state, c);
+      }
+      state = next < 0 ? ROOT : next;
+      if (this.output[state]) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static int step(char[][] keys, int[][] targets, int state, char c) {
+    char[] edges = keys[state];
+    int low = 0;
+    int high = edges.length - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      if (edges[mid] < c) {
+        low = mid + 1;
+      } else if (edges[mid] > c) {
+        high = mid - 1;
+      } else {
+        return targets[state][mid];
+      }
+    }
+    return -1;
+  }
+}
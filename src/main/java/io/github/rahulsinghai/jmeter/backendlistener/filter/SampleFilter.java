@@ -0,0 +1,149 @@
+/*
+ * Copyright 2019 Rahul Singhai.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.rahulsinghai.jmeter.backendlistener.filter;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sample label filter compiled once per test from the <code>kafka.sample.filter</code> parameter,
+ * with a bounded cache of decisions per label.
+ */
+public final class SampleFilter {
+
+  private static final Logger logger = LoggerFactory.getLogger(SampleFilter.class);
+
+  private static final String REGEX_META_CHARACTERS = "\\^$.|?*+()[]{}";
+
+  /** Filter accepting every sample. */
+  public static final SampleFilter ACCEPT_ALL = new SampleFilter(null, new String[0], null, 0);
+
+  private final LiteralMatcher literals;
+  private final String[] regexSources;
+  private final Pattern[] regexes;
+  private final int cacheSize;
+  private final ConcurrentHashMap<String, Boolean> decisions;
+
+  private SampleFilter(
+      LiteralMatcher literals, String[] regexSources, Pattern[] regexes, int cacheSize) {
+    this.literals = literals;
+    this.regexSources = regexSources;
+    this.regexes = regexes;
+    this.cacheSize = cacheSize;
+    this.decisions = cacheSize > 0 ? new ConcurrentHashMap<>(Math.min(cacheSize, 1024)) : null;
+  }
+
+  /**
+   * Compiles the given filters.
+   *
+   * @param filters lower-cased and trimmed filters, as parsed from <code>kafka.sample.filter</code>
+   * @param cacheSize maximum number of labels whose decision is remembered; 0 disables the cache
+   * @return a filter accepting every sample if there is no filter, the compiled filter otherwise
+   */
+  public static SampleFilter compile(Collection<String> filters, int cacheSize) {
+    if (filters == null || filters.isEmpty()) {
+      return ACCEPT_ALL;
+    }
+
+    List<String> literalFilters = new ArrayList<>();
+    List<String> regexSources = new ArrayList<>();
+    List<Pattern> regexes = new ArrayList<>();
+    for (String filter : filters) {
+      if (!isRegex(filter)) {
+        literalFilters.add(filter);
+        continue;
+      }
+      try {
+        regexes.add(Pattern.compile(filter));
+        regexSources.add(filter);
+      } catch (PatternSyntaxException e) {
+        logger.warn(
+            "Sample filter \"{}\" is not a valid regular expression, it will only be matched as a"
+                + " plain substring.",
+            filter);
+        literalFilters.add(filter);
+      }
+    }
+
+    return new SampleFilter(
+        literalFilters.isEmpty() ? null : LiteralMatcher.compile(literalFilters),
+        regexSources.toArray(new String[0]),
+        regexes.toArray(new Pattern[0]),
+        Math.max(cacheSize, 0));
+  }
+
+  /**
+   * This method checks whether the sample label matches at least one of the filters.
+   *
+   * @param sampleLabel The label of the current SampleResult
+   * @return true if the sample should be sent, false otherwise
+   */
+  public boolean accept(String sampleLabel) {
+    if (this == ACCEPT_ALL) {
+      return true;
+    }
+    String label = sampleLabel == null ? "" : sampleLabel;
+    if (this.decisions == null) {
+      return evaluate(label);
+    }
+
+    Boolean decision = this.decisions.get(label);
+    if (decision == null) {
+      decision = evaluate(label);
+      // Once full, the cache stops growing: labels with unbounded cardinality (e.g. URLs) are then
+      // simply evaluated every time instead of evicting the frequent ones.
+      if (this.decisions.size() < this.cacheSize) {
+        this.decisions.put(label, decision);
+      }
+    }
+    return decision;
+  }
+
+  /** @return the number of labels whose decision is currently cached */
+  public int getCachedLabelCount() {
+    return this.decisions == null ? 0 : this.decisions.size();
+  }
+
+  private boolean evaluate(String label) {
+    // Folded like the filters themselves, with the default locale
+    String normalized = label.toLowerCase().trim();
+    if (this.literals != null && this.literals.containsAny(normalized)) {
+      return true;
+    }
+    for (int i = 0; i < this.regexes.length; i++) {
+      if (normalized.contains(this.regexSources[i]) || this.regexes[i].matcher(normalized).find()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static boolean isRegex(String filter) {
+    for (int i = 0; i < filter.length(); i++) {
+      if (REGEX_META_CHARACTERS.indexOf(filter.charAt(i)) >= 0) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
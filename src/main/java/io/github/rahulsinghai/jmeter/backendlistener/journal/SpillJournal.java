@@ -0,0 +1,341 @@
+/*
+ * Copyright 2019 Rahul Singhai.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.rahulsinghai.jmeter.backendlistener.journal;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Append-only journal of records in memory-mapped segment files, replayed and deleted oldest first.
+ * An entry is made of:
+ *
+ * <pre>
+ * int length | int partition (-1 for none) | long timestamp
+ * | int key length (-1 for none) | key | value
+ * </pre>
+ *
+ * <p>A segment ends at the first zero length, or at the first damaged entry. Thread-safe.
+ */
+public final class SpillJournal implements Closeable {
+
+  private static final Pattern SEGMENT_NAME = Pattern.compile("spill-(\\d{20})\\.log");
+
+  private static final int HEADER_BYTES = 4 + 4 + 8 + 4;
+
+  /** Receives the entries of a segment. */
+  public interface EntryVisitor {
+
+    /**
+     * @param partition Partition of the record, -1 for none
+     * @param timestamp Timestamp of the record, in milliseconds since the epoch
+     * @param key Key of the record, or null
+     * @param value Value of the record
+     * @return false to stop reading the segment
+     */
+    boolean visit(int partition, long timestamp, byte[] key, byte[] value);
+  }
+
+  private final Path directory;
+  private final int segmentBytes;
+  private final long maxBytes;
+  private final FileChannel lockChannel;
+  private final FileLock lock;
+  /** Sealed segments, oldest first, with the number of bytes of their entries. */
+  private final LinkedHashMap<Path, Long> sealed = new LinkedHashMap<>();
+
+  private long sealedBytes;
+
+  private long nextSequence;
+  private Path activePath;
+  private MappedByteBuffer active;
+  private long appended;
+  private long dropped;
+
+  private SpillJournal(
+      Path directory, int segmentBytes, long maxBytes, FileChannel lockChannel, FileLock lock) {
+    this.directory = directory;
+    this.segmentBytes = segmentBytes;
+    this.maxBytes = maxBytes;
+    this.lockChannel = lockChannel;
+    this.lock = lock;
+  }
+
+  /**
+   * Opens the journal of a directory, creating it if needed. Segments left in the directory are
+   * kept to be replayed.
+   *
+   * @param directory Directory of the segment files
+   * @param segmentBytes Size of each segment file, in bytes
+   * @param maxBytes Maximum size of the entries of the sealed segments plus the active segment;
+   *     records are dropped beyond it
+   * @return the journal
+   * @throws IOException if the directory cannot be created or read, or is used by another journal
+   */
+  public static SpillJournal open(Path directory, int segmentBytes, long maxBytes)
+      throws IOException {
+    if (segmentBytes <= HEADER_BYTES) {
+      throw new IllegalArgumentException("Segment size too small: " + segmentBytes);
+    }
+    Files.createDirectories(directory);
+    FileChannel lockChannel =
+        FileChannel.open(
+            directory.resolve("spill.lock"), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+    FileLock lock = lockChannel.tryLock();
+    if (lock == null) {
+      lockChannel.close();
+      throw new IOException("Spill directory " + directory + " is used by another listener");
+    }
+
+    SpillJournal journal = new SpillJournal(directory, segmentBytes, maxBytes, lockChannel, lock);
+    List<Path> segments = new ArrayList<>();
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "spill-*.log")) {
+      for (Path file : files) {
+        Matcher matcher = SEGMENT_NAME.matcher(file.getFileName().toString());
+        if (matcher.matches()) {
+          segments.add(file);
+          journal.nextSequence = Math.max(journal.nextSequence, Long.parseLong(matcher.group(1)));
+        }
+      }
+    }
+    // Zero padded sequence numbers sort in creation order
+    Collections.sort(segments);
+    for (Path segment : segments) {
+      // Segment files keep their full size, count the bytes of their entries only
+      long size = entryBytes(segment);
+      journal.sealed.put(segment, size);
+      journal.sealedBytes += size;
+    }
+    journal.nextSequence++;
+    return journal;
+  }
+
+  /**
+   * Appends a record to the active segment, creating a new segment if it is full.
+   *
+   * @param partition Partition of the record, -1 for none
+   * @param timestamp Timestamp of the record, in milliseconds since the epoch
+   * @param key Key of the record, or null
+   * @param value Value of the record
+   * @return false if the record was dropped, because the journal is full or the record larger than
+   *     a segment
+   */
+  public synchronized boolean append(int partition, long timestamp, byte[] key, byte[] value) {
+    int keyLength = key == null ? 0 : key.length;
+    int length = HEADER_BYTES + keyLength + value.length;
+    if (length > this.segmentBytes) {
+      this.dropped++;
+      return false;
+    }
+    if (this.active == null || this.active.remaining() < length) {
+      try {
+        if (!rotate()) {
+          this.dropped++;
+          return false;
+        }
+      } catch (IOException e) {
+        this.dropped++;
+        throw new IllegalStateException("Unable to create a spill segment in " + this.directory, e);
+      }
+    }
+
+    int start = this.active.position();
+    this.active.position(start + 4);
+    this.active.putInt(partition);
+    this.active.putLong(timestamp);
+    this.active.putInt(key == null ? -1 : key.length);
+    if (key != null) {
+      this.active.put(key);
+    }
+    this.active.put(value);
+    this.active.putInt(start, length - 4);
+    this.appended++;
+    return true;
+  }
+
+  /**
+   * Seals the active segment and creates the next one, unless the journal is full.
+   *
+   * @return false if the journal is full
+   */
+  private boolean rotate() throws IOException {
+    seal();
+    if (this.sealedBytes + this.segmentBytes > this.maxBytes) {
+      return false;
+    }
+    Path path = this.directory.resolve(String.format("spill-%020d.log", this.nextSequence++));
+    try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+      file.setLength(this.segmentBytes);
+      // The mapping stays valid once the file is closed
+      this.active = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, this.segmentBytes);
+    }
+    this.activePath = path;
+    return true;
+  }
+
+  /** Seals the active segment, if it has entries, so that it can be replayed. */
+  public synchronized void seal() {
+    if (this.active != null && this.active.position() > 0) {
+      this.active.force();
+      this.sealed.put(this.activePath, (long) this.active.position());
+      this.sealedBytes += this.active.position();
+      this.active = null;
+      this.activePath = null;
+    }
+  }
+
+  /** @return the oldest sealed segment, or null if there is none */
+  public synchronized Path oldestSegment() {
+    return this.sealed.isEmpty() ? null : this.sealed.keySet().iterator().next();
+  }
+
+  /** @return the sealed segments, oldest first; a copy, which is not changed by later appends */
+  public synchronized List<Path> getSealedSegments() {
+    return new ArrayList<>(this.sealed.keySet());
+  }
+
+  /**
+   * Deletes a segment once its entries have been replayed.
+   *
+   * @param segment A sealed segment
+   * @throws IOException if the file cannot be deleted
+   */
+  public synchronized void delete(Path segment) throws IOException {
+    Long size = this.sealed.remove(segment);
+    if (size != null) {
+      this.sealedBytes -= size;
+    }
+    Files.deleteIfExists(segment);
+  }
+
+  /**
+   * Reads the entries of a segment, oldest first.
+   *
+   * @param segment A sealed segment
+   * @param visitor Receives the entries
+   * @return the number of entries visited
+   * @throws IOException if the segment cannot be read
+   */
+  public static int read(Path segment, EntryVisitor visitor) throws IOException {
+    return read(map(segment), visitor);
+  }
+
+  /**
+   * @param segment A segment file
+   * @return the number of bytes of the entries of the segment
+   * @throws IOException if the segment cannot be read
+   */
+  private static long entryBytes(Path segment) throws IOException {
+    ByteBuffer buffer = map(segment);
+    read(buffer, (partition, timestamp, key, value) -> true);
+    return buffer.position();
+  }
+
+  private static ByteBuffer map(Path segment) throws IOException {
+    try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ)) {
+      return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+  }
+
+  /**
+   * Reads the entries of a segment from the position of its buffer, which is left at the end of the
+   * last entry read.
+   */
+  private static int read(ByteBuffer buffer, EntryVisitor visitor) {
+    int count = 0;
+    while (buffer.remaining() >= HEADER_BYTES) {
+      int start = buffer.position();
+      int length = buffer.getInt();
+      if (length < HEADER_BYTES - 4 || length > buffer.remaining()) {
+        buffer.position(start);
+        break;
+      }
+      int partition = buffer.getInt();
+      long timestamp = buffer.getLong();
+      int keyLength = buffer.getInt();
+      if (keyLength < -1 || keyLength > length - (HEADER_BYTES - 4)) {
+        buffer.position(start);
+        break;
+      }
+      byte[] key = null;
+      if (keyLength >= 0) {
+        key = new byte[keyLength];
+        buffer.get(key);
+      }
+      byte[] value = new byte[length - (HEADER_BYTES - 4) - Math.max(0, keyLength)];
+      buffer.get(value);
+      count++;
+      if (!visitor.visit(partition, timestamp, key, value)) {
+        break;
+      }
+    }
+    return count;
+  }
+
+  /** @return true if there is no entry to replay */
+  public synchronized boolean isEmpty() {
+    return this.sealed.isEmpty() && (this.active == null || this.active.position() == 0);
+  }
+
+  /** @return the number of segments holding entries to replay, including the active one */
+  public synchronized int getSegmentCount() {
+    return this.sealed.size() + (this.active == null || this.active.position() == 0 ? 0 : 1);
+  }
+
+  /** @return the number of records appended since the journal was opened */
+  public synchronized long getAppendedCount() {
+    return this.appended;
+  }
+
+  /** @return the number of records dropped because the journal was full */
+  public synchronized long getDroppedCount() {
+    return this.dropped;
+  }
+
+  /** @return the directory of the segment files */
+  public Path getDirectory() {
+    return this.directory;
+  }
+
+  /** Seals the active segment and releases the directory; the segments stay on disk. */
+  @Override
+  public synchronized void close() throws IOException {
+    seal();
+    if (this.activePath != null) {
+      // Empty active segment
+      this.active = null;
+      Files.deleteIfExists(this.activePath);
+      this.activePath = null;
+    }
+    this.lock.release();
+    this.lockChannel.close();
+  }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2019 Rahul Singhai.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.rahulsinghai.jmeter.backendlistener.kafka;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Decides how long rows are accumulated before they are handed to the producer, and how many rows
+ * are packed per envelope, from the sample rate and the producer's metrics.
+ */
+class AdaptiveBatchController {
+
+  private static final Logger logger = LoggerFactory.getLogger(AdaptiveBatchController.class);
+
+  /** Number of samples per maximum linger below which rows are published in real time. */
+  static final int MIN_BATCH_SAMPLES = 50;
+
+  private static final long RATE_WINDOW_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+  private final long maxLingerNanos;
+  private final int maxBatchSamples;
+  private final int minEnvelopeSamples;
+  private final int producerBatchSize;
+  private final Supplier<Map<String, Double>> producerMetrics;
+
+  private long windowStart;
+  private long windowSamples;
+
+  private volatile double rate;
+  private volatile long lingerNanos;
+  private volatile int envelopeSamples;
+
+  /**
+   * @param maxLingerMillis Maximum time a row may wait before it is handed to the producer
+   * @param maxBatchSamples Number of rows of a full flush, and maximum envelope size
+   * @param producerBatchSize The producer's batch.size, in bytes
+   * @param producerMetrics Current values of the producer's metrics, by name
+   * @param nowNanos Current {@link System#nanoTime()}
+   */
+  AdaptiveBatchController(
+      long maxLingerMillis,
+      int maxBatchSamples,
+      int producerBatchSize,
+      Supplier<Map<String, Double>> producerMetrics,
+      long nowNanos) {
+    this.maxLingerNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, maxLingerMillis));
+    this.maxBatchSamples = Math.max(1, maxBatchSamples);
+    this.producerBatchSize = producerBatchSize;
+    this.producerMetrics = producerMetrics;
+    this.windowStart = nowNanos;
+    this.minEnvelopeSamples = Math.max(1, this.maxBatchSamples / 8);
+    this.envelopeSamples = this.maxBatchSamples;
+  }
+
+  /**
+   * Counts samples received from JMeter, and adapts the settings once per second. Must be called
+   * from a single thread.
+   *
+   * @param count Number of samples received
+   * @param nowNanos Current {@link System#nanoTime()}
+   */
+  void recordSamples(int count, long nowNanos) {
+    this.windowSamples += count;
+    long elapsed = nowNanos - this.windowStart;
+    if (elapsed < RATE_WINDOW_NANOS) {
+      return;
+    }
+    double windowRate = this.windowSamples * 1e9 / elapsed;
+    // Smoothed, so that a single slow or busy second does not swing the settings
+    this.rate = this.rate == 0 ? windowRate : (this.rate + windowRate) / 2;
+    this.windowStart = nowNanos;
+    this.windowSamples = 0;
+    Map<String, Double> metrics = this.producerMetrics.get();
+    adapt(metrics == null ? Collections.emptyMap() : metrics);
+  }
+
+  /**
+   * Recomputes the linger and the envelope size.
+   *
+   * @param metrics Current values of the producer's metrics, by name
+   */
+  void adapt(Map<String, Double> metrics) {
+    double samplesPerMaxLinger = this.rate * this.maxLingerNanos / 1e9;
+    if (samplesPerMaxLinger < MIN_BATCH_SAMPLES) {
+      this.lingerNanos = 0;
+    } else {
+      long fullBatchNanos = (long) (this.maxBatchSamples * 1e9 / this.rate);
+      double batchSizeAvg = metrics.getOrDefault("batch-size-avg", 0.0);
+      boolean underfilled = batchSizeAvg > 0 && batchSizeAvg < this.producerBatchSize / 4.0;
+      this.lingerNanos =
+          underfilled ? this.maxLingerNanos : Math.min(this.maxLingerNanos, fullBatchNanos);
+    }
+
+    double queueTimeMillis = metrics.getOrDefault("record-queue-time-avg", 0.0);
+    if (queueTimeMillis * 2 > TimeUnit.NANOSECONDS.toMillis(this.maxLingerNanos)) {
+      this.envelopeSamples = Math.min(this.maxBatchSamples, this.envelopeSamples * 2);
+    } else {
+      this.envelopeSamples = Math.max(this.minEnvelopeSamples, this.envelopeSamples / 2);
+    }
+
+    if (logger.isDebugEnabled()) {
+      logger.debug(
+          "Sample rate {}/s: linger {} ms, {} samples per envelope.",
+          Math.round(this.rate),
+          TimeUnit.NANOSECONDS.toMillis(this.lingerNanos),
+          this.envelopeSamples);
+    }
+  }
+
+  /** @return the smoothed sample rate, in samples per second */
+  double getRate() {
+    return this.rate;
+  }
+
+  /** @return how long rows are accumulated, in nanoseconds; 0 to publish them at once */
+  long getLingerNanos() {
+    return this.lingerNanos;
+  }
+
+  /** @return the number of rows to pack per envelope */
+  int getEnvelopeSamples() {
+    return this.envelopeSamples;
+  }
+
+  /**
+   * @param pendingRows Number of rows accumulated and not published yet
+   * @param oldestNanos {@link System#nanoTime()} when the oldest of them was encoded
+   * @param nowNanos Current {@link System#nanoTime()}
+   * @return true if the accumulated rows must be published now
+   */
+  boolean shouldFlush(int pendingRows, long oldestNanos, long nowNanos) {
+    return pendingRows > 0
+        && (pendingRows >= this.maxBatchSamples || nowNanos - oldestNanos >= this.lingerNanos);
+  }
+}
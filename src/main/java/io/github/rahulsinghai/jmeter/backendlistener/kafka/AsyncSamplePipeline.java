@@ -0,0 +1,378 @@
+/*
+ * Copyright 2019 Rahul Singhai.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.rahulsinghai.jmeter.backendlistener.kafka;
+
+import io.github.rahulsinghai.jmeter.backendlistener.model.EncodingRowWriter;
+import io.github.rahulsinghai.jmeter.backendlistener.model.MetricsRow;
+import io.github.rahulsinghai.jmeter.backendlistener.model.RowTemplate;
+import io.github.rahulsinghai.jmeter.backendlistener.sink.RecordSink;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+import org.apache.jmeter.samplers.SampleResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Moves the encoding and sending of the rows off the JMeter backend listener thread, through a
+ * bounded {@link SampleRingBuffer} drained by sender threads.
+ */
+class AsyncSamplePipeline {
+
+  private static final Logger logger = LoggerFactory.getLogger(AsyncSamplePipeline.class);
+
+  /** Maximum number of rows encoded before they are handed to the producer. */
+  private static final int BATCH_SIZE = 256;
+
+  private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+  private static final long FULL_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+  private final Supplier<? extends RecordSink> publishers;
+  private final Supplier<EncodingRowWriter> writers;
+  private final RowTemplate template;
+  private final SampleRingBuffer buffer;
+  private final OverflowPolicy overflowPolicy;
+  private final int successThreshold;
+  private final AdaptiveBatchController controller;
+  private final Thread[] senders;
+  private final AtomicLong droppedSuccesses = new AtomicLong();
+  private final AtomicLong droppedFailures = new AtomicLong();
+  private final AtomicLong bufferedBytes = new AtomicLong();
+  private long maxBufferBytes;
+  private long successBytesThreshold;
+  private LoadShedder shedder;
+  private ListenerMetrics metrics;
+  private volatile boolean closed;
+
+  /**
+   * @param publishers Creates the sink of each sender thread, all sharing one producer or writer
+   * @param writers Creates the row writer of each sender thread
+   * @param template The settings and constant fields of the test
+   * @param bufferSize Maximum number of samples waiting to be sent
+   * @param threads Number of sender threads
+   * @param overflowPolicy What to do with a sample when the buffer is full
+   */
+  AsyncSamplePipeline(
+      Supplier<? extends RecordSink> publishers,
+      Supplier<EncodingRowWriter> writers,
+      RowTemplate template,
+      int bufferSize,
+      int threads,
+      OverflowPolicy overflowPolicy) {
+    this(publishers, writers, template, bufferSize, threads, overflowPolicy, null);
+  }
+
+  /**
+   * @param publishers Creates the sink of each sender thread, all sharing one producer or writer
+   * @param writers Creates the row writer of each sender thread
+   * @param template The settings and constant fields of the test
+   * @param bufferSize Maximum number of samples waiting to be sent
+   * @param threads Number of sender threads
+   * @param overflowPolicy What to do with a sample when the buffer is full
+   * @param controller Decides when the encoded rows are handed to the producer, null to hand them
+   *     over after each batch
+   */
+  AsyncSamplePipeline(
+      Supplier<? extends RecordSink> publishers,
+      Supplier<EncodingRowWriter> writers,
+      RowTemplate template,
+      int bufferSize,
+      int threads,
+      OverflowPolicy overflowPolicy,
+      AdaptiveBatchController controller) {
+    this.controller = controller;
+    this.publishers = publishers;
+    this.writers = writers;
+    this.template = template;
+    this.buffer = new SampleRingBuffer(bufferSize);
+    this.overflowPolicy = overflowPolicy;
+    this.successThreshold = this.buffer.capacity() - this.buffer.capacity() / 4;
+    this.senders = new Thread[Math.max(1, threads)];
+    for (int i = 0; i < this.senders.length; i++) {
+      this.senders[i] = new Thread(this::run, "kafka-backend-listener-sender-" + i);
+      this.senders[i].setDaemon(true);
+    }
+  }
+
+  /**
+   * Thins the rows according to the level of a load shedder. Must be called before {@link
+   * #start()}.
+   *
+   * @param shedder The load shedder of the listener
+   */
+  void setLoadShedder(LoadShedder shedder) {
+    this.shedder = shedder;
+  }
+
+  /**
+   * Bounds the buffer by the size of the bodies and headers of its samples. Must be called before
+   * {@link #start()}.
+   *
+   * @param maxBufferBytes Maximum size, in bytes (characters of the text parts); 0 for no maximum.
+   *     A sample larger than the maximum is still taken when the buffer is empty.
+   */
+  void setMaxBufferBytes(long maxBufferBytes) {
+    this.maxBufferBytes = Math.max(0, maxBufferBytes);
+    this.successBytesThreshold = this.maxBufferBytes - this.maxBufferBytes / 4;
+  }
+
+  /**
+   * Records the time spent encoding the rows and the samples which could not be encoded. Must be
+   * called before {@link #start()}.
+   *
+   * @param metrics The metrics of the listener
+   */
+  void setMetrics(ListenerMetrics metrics) {
+    this.metrics = metrics;
+  }
+
+  /** Starts the sender threads. */
+  void start() {
+    for (Thread sender : this.senders) {
+      sender.start();
+    }
+  }
+
+  /**
+   * Adds a sample to the buffer, applying the overflow policy if it is full.
+   *
+   * @param sr The sample
+   * @return false if the sample was dropped
+   */
+  boolean submit(SampleResult sr) {
+    long now = System.currentTimeMillis();
+    boolean success = sr.isSuccessful();
+    long bytes = this.maxBufferBytes > 0 ? retainedBytes(sr) : 0;
+    if (!this.closed) {
+      switch (this.overflowPolicy) {
+        case BLOCK:
+          while (!offer(sr, now, bytes)) {
+            if (this.closed || Thread.currentThread().isInterrupted()) {
+              return dropped(success);
+            }
+            LockSupport.parkNanos(FULL_PARK_NANOS);
+          }
+          return true;
+        case DROP_SUCCESSES_FIRST:
+          if (success
+              && (this.buffer.size() >= this.successThreshold
+                  || (this.maxBufferBytes > 0
+                      && this.bufferedBytes.get() >= this.successBytesThreshold))) {
+            return dropped(true);
+          }
+          // fall through
+        default:
+          if (offer(sr, now, bytes)) {
+            return true;
+          }
+      }
+    }
+    return dropped(success);
+  }
+
+  /**
+   * Adds a sample to the buffer, if it is full neither by count nor by size.
+   *
+   * @param sr The sample
+   * @param now The time the sample was received, in milliseconds since the epoch
+   * @param bytes The size the buffer keeps for it, see {@link #retainedBytes(SampleResult)}
+   * @return false if the buffer is full
+   */
+  private boolean offer(SampleResult sr, long now, long bytes) {
+    if (this.maxBufferBytes > 0) {
+      long buffered = this.bufferedBytes.get();
+      if (buffered > 0 && buffered + bytes > this.maxBufferBytes) {
+        return false;
+      }
+      this.bufferedBytes.addAndGet(bytes);
+    }
+    if (this.buffer.offer(sr, now)) {
+      return true;
+    }
+    this.bufferedBytes.addAndGet(-bytes);
+    return false;
+  }
+
+  /**
+   * @param sr A sample
+   * @return an estimate of the memory the buffer keeps for it: the lengths of its bodies and
+   *     headers, and of those of its sub-results
+   */
+  static long retainedBytes(SampleResult sr) {
+    byte[] responseData = sr.getResponseData();
+    long bytes =
+        (responseData == null ? 0 : responseData.length)
+            + length(sr.getSamplerData())
+            + length(sr.getRequestHeaders())
+            + length(sr.getResponseHeaders());
+    for (SampleResult subResult : sr.getSubResults()) {
+      bytes += retainedBytes(subResult);
+    }
+    return bytes;
+  }
+
+  private static int length(String text) {
+    return text == null ? 0 : text.length();
+  }
+
+  private boolean dropped(boolean success) {
+    (success ? this.droppedSuccesses : this.droppedFailures).incrementAndGet();
+    return false;
+  }
+
+  /** @return the number of successful samples dropped because the buffer was full */
+  long getDroppedSuccesses() {
+    return this.droppedSuccesses.get();
+  }
+
+  /** @return the number of failed samples dropped because the buffer was full */
+  long getDroppedFailures() {
+    return this.droppedFailures.get();
+  }
+
+  /** @return the approximate number of samples waiting to be sent */
+  int getPendingCount() {
+    return this.buffer.size();
+  }
+
+  /**
+   * Stops accepting samples and waits for the sender threads to send the ones left in the buffer.
+   *
+   * @param timeoutMillis Maximum time to wait
+   * @return true if all the samples were handed to the producer in time
+   * @throws InterruptedException if interrupted while waiting
+   */
+  boolean close(long timeoutMillis) throws InterruptedException {
+    this.closed = true;
+    long deadline = System.currentTimeMillis() + timeoutMillis;
+    for (Thread sender : this.senders) {
+      if (sender.isAlive()) {
+        sender.join(Math.max(1, deadline - System.currentTimeMillis()));
+      }
+    }
+
+    boolean drained = true;
+    for (Thread sender : this.senders) {
+      if (sender.isAlive()) {
+        drained = false;
+        sender.interrupt();
+      }
+    }
+    if (!drained) {
+      logger.warn(
+          "Kafka Backend Listener did not send the last {} samples within {} ms.",
+          this.buffer.size(),
+          timeoutMillis);
+    }
+    if (getDroppedSuccesses() > 0 || getDroppedFailures() > 0) {
+      logger.warn(
+          "Kafka Backend Listener dropped {} successful and {} failed samples because its buffer"
+              + " was full.",
+          getDroppedSuccesses(),
+          getDroppedFailures());
+    }
+    return drained;
+  }
+
+  private void run() {
+    EncodingRowWriter writer = this.writers.get();
+    RecordSink publisher = this.publishers.get();
+    MetricsRow row = new MetricsRow(this.template);
+    if (publisher instanceof KafkaMetricPublisher) {
+      ((KafkaMetricPublisher) publisher).setRow(row);
+    }
+    SampleResult[] samples = new SampleResult[BATCH_SIZE];
+    long[] receivedAt = new long[BATCH_SIZE];
+    long pendingSince = 0;
+
+    while (!Thread.currentThread().isInterrupted()) {
+      int count = this.buffer.drainTo(samples, receivedAt, BATCH_SIZE);
+      if (count == 0) {
+        if (publisher.getListSize() > 0 && (this.closed || shouldFlush(publisher, pendingSince))) {
+          publish(writer, publisher);
+        }
+        if (this.closed && this.buffer.size() == 0 && publisher.getListSize() == 0) {
+          return;
+        }
+        LockSupport.parkNanos(IDLE_PARK_NANOS);
+        continue;
+      }
+
+      if (publisher.getListSize() == 0) {
+        pendingSince = System.nanoTime();
+      }
+      long encodeStart = System.nanoTime();
+      if (this.shedder != null) {
+        this.shedder.thin(row);
+      }
+      long released = 0;
+      int unencoded = 0;
+      for (int i = 0; i < count; i++) {
+        if (this.maxBufferBytes > 0) {
+          released += retainedBytes(samples[i]);
+        }
+        try {
+          row.reset(samples[i]).writeRow(writer, receivedAt[i]);
+          publisher.addToList(writer, samples[i]);
+        } catch (Exception e) {
+          logger.error("The Kafka Backend Listener was unable to encode a sample.", e);
+          unencoded++;
+        } finally {
+          samples[i] = null;
+        }
+      }
+      row.reset(null);
+      this.bufferedBytes.addAndGet(-released);
+      if (this.metrics != null) {
+        this.metrics.recordEncoding(System.nanoTime() - encodeStart);
+        this.metrics.recordSamplesUnencoded(unencoded);
+      }
+
+      if (shouldFlush(publisher, pendingSince)) {
+        publish(writer, publisher);
+      }
+    }
+  }
+
+  /**
+   * @param publisher The sink of the sender thread
+   * @param pendingSince {@link System#nanoTime()} when its oldest row was encoded
+   * @return true if the rows of the publisher must be handed to the producer now
+   */
+  private boolean shouldFlush(RecordSink publisher, long pendingSince) {
+    return this.controller == null
+        || this.controller.shouldFlush(publisher.getListSize(), pendingSince, System.nanoTime());
+  }
+
+  private void publish(EncodingRowWriter writer, RecordSink publisher) {
+    try {
+      if (this.controller != null) {
+        publisher.setEnvelopeMaxDocuments(this.controller.getEnvelopeSamples());
+      }
+      byte[] controlRecord = writer.pollControlRecord(System.currentTimeMillis());
+      if (controlRecord != null) {
+        publisher.publishControlRecord(controlRecord);
+      }
+      publisher.publishMetrics();
+    } catch (Exception e) {
+      logger.error("Error occurred while publishing to Kafka topic.", e);
+    } finally {
+      publisher.clearList();
+    }
+  }
+}
@@ -0,0 +1,346 @@
+/*
+ * Copyright 2019 Rahul Singhai.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.rahulsinghai.jmeter.backendlistener.kafka;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.clients.producer.Callback;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.Metric;
+import org.apache.kafka.common.MetricName;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.record.CompressionType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A producer choosing its compression codec from the records of the test, for <code>
+ * kafka.compression.type=auto</code>. Thread-safe.
+ */
+final class AutoCompressionProducer implements Producer<byte[], byte[]> {
+
+  private static final Logger logger = LoggerFactory.getLogger(AutoCompressionProducer.class);
+
+  /** The value of <code>compression.type</code> which enables the automatic choice. */
+  static final String AUTO = "auto";
+
+  private final Properties props;
+  private final Function<Properties, Producer<byte[], byte[]>> factory;
+  private final CompressionCalibrator calibrator;
+  private final long calibrationNanos;
+  private final LongSupplier clock;
+  private final Executor executor;
+  /** Sends take the read lock, the switch to the replacement producer takes the write lock. */
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+  private final byte[][] reservoir;
+  private final long start;
+  private long seen;
+  private volatile boolean calibrating = true;
+  private volatile CompressionType chosen;
+  private Producer<byte[], byte[]> producer;
+  private boolean closed;
+
+  /**
+   * @param props Producer configuration, whose compression type is replaced
+   * @param factory Creates the producers
+   * @param sampleRecords Maximum number of records measured
+   * @param calibrationMillis Time during which the records are sampled
+   * @param byteCostNanos Cost of sending a byte, in nanoseconds of CPU time
+   */
+  AutoCompressionProducer(
+      Properties props,
+      Function<Properties, Producer<byte[], byte[]>> factory,
+      int sampleRecords,
+      long calibrationMillis,
+      double byteCostNanos) {
+    this(
+        props,
+        factory,
+        sampleRecords,
+        calibrationMillis,
+        byteCostNanos,
+        System::nanoTime,
+        task -> {
+          Thread thread = new Thread(task, "kafka-backend-listener-compression");
+          thread.setDaemon(true);
+          thread.start();
+        });
+  }
+
+  /**
+   * @param props Producer configuration, whose compression type is replaced
+   * @param factory Creates the producers
+   * @param sampleRecords Maximum number of records measured
+   * @param calibrationMillis Time during which the records are sampled
+   * @param byteCostNanos Cost of sending a byte, in nanoseconds of CPU time
+   * @param clock Source of {@link System#nanoTime()}
+   * @param executor Runs the measurements
+   */
+  AutoCompressionProducer(
+      Properties props,
+      Function<Properties, Producer<byte[], byte[]>> factory,
+      int sampleRecords,
+      long calibrationMillis,
+      double byteCostNanos,
+      LongSupplier clock,
+      Executor executor) {
+    this.props = props;
+    this.factory = factory;
+    this.calibrator = new CompressionCalibrator(getBatchSize(props), byteCostNanos);
+    this.calibrationNanos = TimeUnit.MILLISECONDS.toNanos(calibrationMillis);
+    this.clock = clock;
+    this.executor = executor;
+    this.reservoir = new byte[Math.max(1, sampleRecords)][];
+    this.start = clock.getAsLong();
+    this.producer = factory.apply(withCompression(CompressionType.NONE));
+  }
+
+  /**
+   * @param props Producer configuration
+   * @return true if it asks for the automatic choice of the codec
+   */
+  static boolean isAuto(Properties props) {
+    return AUTO.equalsIgnoreCase(String.valueOf(props.get(ProducerConfig.COMPRESSION_TYPE_CONFIG)));
+  }
+
+  /** @return the chosen codec, null until the records are switched to it */
+  CompressionType getChosen() {
+    return this.chosen;
+  }
+
+  private static int getBatchSize(Properties props) {
+    Object batchSize = props.get(ProducerConfig.BATCH_SIZE_CONFIG);
+    try {
+      return batchSize == null ? 16384 : Integer.parseInt(batchSize.toString().trim());
+    } catch (NumberFormatException e) {
+      return 16384;
+    }
+  }
+
+  private Properties withCompression(CompressionType type) {
+    Properties producerProps = new Properties();
+    producerProps.putAll(this.props);
+    producerProps.put(ProducerConfig.COMPRESSION_TYPE_CONFIG, type.name);
+    return producerProps;
+  }
+
+  @Override
+  public Future<RecordMetadata> send(ProducerRecord<byte[], byte[]> record) {
+    return send(record, null);
+  }
+
+  @Override
+  public Future<RecordMetadata> send(ProducerRecord<byte[], byte[]> record, Callback callback) {
+    if (this.calibrating) {
+      sample(record.value());
+    }
+    this.lock.readLock().lock();
+    try {
+      return this.producer.send(record, callback);
+    } finally {
+      this.lock.readLock().unlock();
+    }
+  }
+
+  /** Adds a value to the reservoir, and starts the measurements when the calibration is over. */
+  private synchronized void sample(byte[] value) {
+    if (!this.calibrating) {
+      return;
+    }
+    if (value != null) {
+      long index = this.seen++;
+      if (index < this.reservoir.length) {
+        this.reservoir[(int) index] = value;
+      } else {
+        long slot = ThreadLocalRandom.current().nextLong(index + 1);
+        if (slot < this.reservoir.length) {
+          this.reservoir[(int) slot] = value;
+        }
+      }
+    }
+    if (this.clock.getAsLong() - this.start >= this.calibrationNanos && this.seen > 0) {
+      this.calibrating = false;
+      int size = (int) Math.min(this.seen, this.reservoir.length);
+      List<byte[]> records = new ArrayList<>(Arrays.asList(this.reservoir).subList(0, size));
+      Arrays.fill(this.reservoir, null);
+      this.executor.execute(() -> calibrate(records));
+    }
+  }
+
+  private void calibrate(List<byte[]> records) {
+    try {
+      List<CompressionCalibrator.Measurement> measurements = this.calibrator.measure(records);
+      CompressionCalibrator.Measurement best = this.calibrator.choose(measurements);
+      if (best == null) {
+        logger.warn("Kafka Backend Listener could not measure any compression, it keeps none.");
+        return;
+      }
+      StringBuilder report = new StringBuilder();
+      for (CompressionCalibrator.Measurement measurement : measurements) {
+        report
+            .append(System.lineSeparator())
+            .append("  ")
+            .append(measurement)
+            .append(String.format(", cost %.3f ms", this.calibrator.cost(measurement) / 1e6));
+      }
+      logger.info(
+          "Kafka Backend Listener chose the {} compression from {} records of {} bytes:{}",
+          best.getType().name,
+          records.size(),
+          best.getUncompressedBytes(),
+          report);
+      if (best.getType() != CompressionType.NONE) {
+        switchProducer(best.getType());
+      }
+    } catch (RuntimeException e) {
+      logger.error("Kafka Backend Listener could not choose a compression, it keeps none.", e);
+    }
+  }
+
+  /**
+   * Replaces the uncompressed producer with one using the chosen codec. Sends only wait for the
+   * switch of the reference; the previous producer is closed, which sends its last records,
+   * afterwards.
+   */
+  private void switchProducer(CompressionType type) {
+    Properties producerProps = withCompression(type);
+    Object clientId = this.props.get(ProducerConfig.CLIENT_ID_CONFIG);
+    if (clientId != null && !clientId.toString().isEmpty()) {
+      // Both producers are open for a while, and register their JMX metrics under their client.id
+      producerProps.put(ProducerConfig.CLIENT_ID_CONFIG, clientId + "-" + type.name);
+    }
+    Producer<byte[], byte[]> replacement = this.factory.apply(producerProps);
+    Producer<byte[], byte[]> previous;
+    this.lock.writeLock().lock();
+    try {
+      if (this.closed) {
+        previous = replacement;
+      } else {
+        previous = this.producer;
+        this.producer = replacement;
+        this.chosen = type;
+      }
+    } finally {
+      this.lock.writeLock().unlock();
+    }
+    previous.close();
+  }
+
+  @Override
+  public void flush() {
+    this.lock.readLock().lock();
+    try {
+      this.producer.flush();
+    } finally {
+      this.lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public List<PartitionInfo> partitionsFor(String topic) {
+    this.lock.readLock().lock();
+    try {
+      return this.producer.partitionsFor(topic);
+    } finally {
+      this.lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public Map<MetricName, ? extends Metric> metrics() {
+    this.lock.readLock().lock();
+    try {
+      return this.producer.metrics();
+    } finally {
+      this.lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public void close() {
+    close(producer -> producer.close());
+  }
+
+  @Override
+  @Deprecated
+  public void close(long timeout, TimeUnit unit) {
+    close(producer -> producer.close(timeout, unit));
+  }
+
+  @Override
+  public void close(Duration timeout) {
+    close(producer -> producer.close(timeout));
+  }
+
+  private void close(Consumer<Producer<byte[], byte[]>> closer) {
+    this.lock.writeLock().lock();
+    try {
+      this.closed = true;
+      this.calibrating = false;
+      closer.accept(this.producer);
+    } finally {
+      this.lock.writeLock().unlock();
+    }
+  }
+
+  // The listener does not use transactions; they go to the current producer.
+
+  @Override
+  public void initTransactions() {
+    this.producer.initTransactions();
+  }
+
+  @Override
+  public void beginTransaction() {
+    this.producer.beginTransaction();
+  }
+
+  @Override
+  public void sendOffsetsToTransaction(
+      Map<TopicPartition, OffsetAndMetadata> offsets, String consumerGroupId) {
+    this.producer.sendOffsetsToTransaction(offsets, consumerGroupId);
+  }
+
+  @Override
+  public void commitTransaction() {
+    this.producer.commitTransaction();
+  }
+
+  @Override
+  public void abortTransaction() {
+    this.producer.abortTransaction();
+  }
+}
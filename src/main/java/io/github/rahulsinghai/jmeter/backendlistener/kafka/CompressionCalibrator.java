@@ -0,0 +1,196 @@
+/*
+ * Copyright 2019 Rahul Singhai.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.rahulsinghai.jmeter.backendlistener.kafka;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.kafka.common.record.CompressionType;
+import org.apache.kafka.common.record.RecordBatch;
+import org.apache.kafka.common.utils.ByteBufferOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Measures each codec of the producer on a sample of records and chooses the one with the lowest
+ * cost.
+ */
+final class CompressionCalibrator {
+
+  private static final Logger logger = LoggerFactory.getLogger(CompressionCalibrator.class);
+
+  /** Number of timed passes over the sample, after the warm-up one. */
+  private static final int PASSES = 3;
+
+  private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+  private final int batchSize;
+  private final double byteCostNanos;
+
+  /**
+   * @param batchSize Batch size of the producer, in bytes
+   * @param byteCostNanos Cost of sending a byte, in nanoseconds of CPU time: the higher, the more
+   *     CPU time is spent to save bytes
+   */
+  CompressionCalibrator(int batchSize, double byteCostNanos) {
+    this.batchSize = Math.max(1, batchSize);
+    this.byteCostNanos = Math.max(0, byteCostNanos);
+  }
+
+  /**
+   * @param records Sample of encoded records
+   * @return the measurements of the codecs which could compress the sample
+   */
+  List<Measurement> measure(List<byte[]> records) {
+    List<byte[]> batches = toBatches(records);
+    List<Measurement> measurements = new ArrayList<>();
+    for (CompressionType type : CompressionType.values()) {
+      try {
+        measurements.add(measure(type, batches));
+      } catch (IOException | RuntimeException | LinkageError e) {
+        logger.debug("Kafka Backend Listener cannot use the {} compression.", type.name, e);
+      }
+    }
+    return measurements;
+  }
+
+  /**
+   * @param measurements Measurements of the codecs
+   * @return the one with the lowest cost, null if there is none
+   */
+  Measurement choose(List<Measurement> measurements) {
+    Measurement best = null;
+    for (Measurement measurement : measurements) {
+      if (best == null || cost(measurement) < cost(best)) {
+        best = measurement;
+      }
+    }
+    return best;
+  }
+
+  /**
+   * @param measurement Measurement of a codec
+   * @return its CPU time plus the cost of the bytes it leaves to send, in nanoseconds
+   */
+  double cost(Measurement measurement) {
+    return measurement.getNanos() + this.byteCostNanos * measurement.getCompressedBytes();
+  }
+
+  private List<byte[]> toBatches(List<byte[]> records) {
+    List<byte[]> batches = new ArrayList<>();
+    ByteBufferOutputStream batch = new ByteBufferOutputStream(this.batchSize);
+    for (byte[] record : records) {
+      if (batch.position() > 0 && batch.position() + record.length > this.batchSize) {
+        batches.add(toArray(batch));
+        batch = new ByteBufferOutputStream(this.batchSize);
+      }
+      batch.write(record, 0, record.length);
+    }
+    if (batch.position() > 0) {
+      batches.add(toArray(batch));
+    }
+    return batches;
+  }
+
+  private static byte[] toArray(ByteBufferOutputStream stream) {
+    byte[] array = new byte[stream.position()];
+    System.arraycopy(stream.buffer().array(), 0, array, 0, array.length);
+    return array;
+  }
+
+  private static Measurement measure(CompressionType type, List<byte[]> batches)
+      throws IOException {
+    long uncompressedBytes = 0;
+    long compressedBytes = 0;
+    long nanos = Long.MAX_VALUE;
+    for (int pass = 0; pass <= PASSES; pass++) {
+      long start = cpuTime();
+      compressedBytes = 0;
+      for (byte[] batch : batches) {
+        ByteBufferOutputStream buffer = new ByteBufferOutputStream(batch.length / 2 + 64);
+        try (OutputStream out = type.wrapForOutput(buffer, RecordBatch.CURRENT_MAGIC_VALUE)) {
+          out.write(batch);
+        }
+        compressedBytes += buffer.position();
+      }
+      if (pass > 0) {
+        nanos = Math.min(nanos, cpuTime() - start);
+      }
+    }
+    for (byte[] batch : batches) {
+      uncompressedBytes += batch.length;
+    }
+    return new Measurement(type, uncompressedBytes, compressedBytes, nanos);
+  }
+
+  /** @return the CPU time of the current thread, or the wall-clock time if the JVM has none */
+  private static long cpuTime() {
+    return THREADS.isCurrentThreadCpuTimeSupported()
+        ? THREADS.getCurrentThreadCpuTime()
+        : System.nanoTime();
+  }
+
+  /** The size and CPU time of a codec's compression of the sample. */
+  static final class Measurement {
+    private final CompressionType type;
+    private final long uncompressedBytes;
+    private final long compressedBytes;
+    private final long nanos;
+
+    Measurement(CompressionType type, long uncompressedBytes, long compressedBytes, long nanos) {
+      this.type = type;
+      this.uncompressedBytes = uncompressedBytes;
+      this.compressedBytes = compressedBytes;
+      this.nanos = nanos;
+    }
+
+    /** @return the codec */
+    CompressionType getType() {
+      return this.type;
+    }
+
+    /** @return the size of the sample */
+    long getUncompressedBytes() {
+      return this.uncompressedBytes;
+    }
+
+    /** @return the size of the compressed sample */
+    long getCompressedBytes() {
+      return this.compressedBytes;
+    }
+
+    /** @return the CPU time of the compression of the sample, in nanoseconds */
+    long getNanos() {
+      return this.nanos;
+    }
+
+    /** @return the size of the sample divided by its compressed size */
+    double getRatio() {
+      return this.compressedBytes == 0 ? 1 : (double) this.uncompressedBytes / this.compressedBytes;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          "%s: ratio %.2f, %d bytes, %.3f ms",
+          this.type.name, getRatio(), this.compressedBytes, this.nanos / 1e6);
+    }
+  }
+}
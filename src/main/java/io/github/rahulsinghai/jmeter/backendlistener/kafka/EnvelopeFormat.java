@@ -0,0 +1,63 @@
+/*
+ * Copyright 2019 Rahul Singhai.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.rahulsinghai.jmeter.backendlistener.kafka;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+/** How several rows are packed into one Kafka message. */
+enum EnvelopeFormat {
+  /** One message per row. */
+  NONE("", "", ""),
+
+  /** Newline delimited JSON: one row per line, each line terminated by a newline. */
+  NDJSON("", "\n", "\n"),
+
+  /** A JSON array of rows. */
+  ARRAY("[", ",", "]");
+
+  private final byte[] prefix;
+  private final byte[] separator;
+  private final byte[] suffix;
+
+  EnvelopeFormat(String prefix, String separator, String suffix) {
+    this.prefix = prefix.getBytes(StandardCharsets.UTF_8);
+    this.separator = separator.getBytes(StandardCharsets.UTF_8);
+    this.suffix = suffix.getBytes(StandardCharsets.UTF_8);
+  }
+
+  byte[] getPrefix() {
+    return this.prefix;
+  }
+
+  byte[] getSeparator() {
+    return this.separator;
+  }
+
+  byte[] getSuffix() {
+    return this.suffix;
+  }
+
+  /**
+   * @param value One of "none", "ndjson" or "array", case insensitive
+   * @return the matching format
+   * @throws IllegalArgumentException if the value is not a known format
+   */
+  static EnvelopeFormat fromString(String value) {
+    return valueOf(value.trim().toUpperCase(Locale.ROOT));
+  }
+}
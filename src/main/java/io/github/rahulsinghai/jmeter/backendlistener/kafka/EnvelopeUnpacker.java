@@ -0,0 +1,104 @@
+/*
+ * Copyright 2019 Rahul Singhai.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.rahulsinghai.jmeter.backendlistener.kafka;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Splits the value of a Kafka message published by this listener back into its JSON documents,
+ * whatever its envelope format.
+ */
+public final class EnvelopeUnpacker {
+
+  private EnvelopeUnpacker() {}
+
+  /**
+   * @param value UTF-8 encoded value of a Kafka message
+   * @return the UTF-8 encoded JSON documents it contains, in order
+   */
+  public static List<byte[]> unpack(byte[] value) {
+    int start = skipWhitespace(value, 0);
+    if (start < value.length && value[start] == '[') {
+      return unpackArray(value, start);
+    }
+
+    // Rows never contain a raw newline, control characters being escaped in JSON strings
+    List<byte[]> documents = new ArrayList<>();
+    int lineStart = 0;
+    for (int i = 0; i <= value.length; i++) {
+      if (i == value.length || value[i] == '\n') {
+        addTrimmed(documents, value, lineStart, i);
+        lineStart = i + 1;
+      }
+    }
+    return documents;
+  }
+
+  private static List<byte[]> unpackArray(byte[] value, int start) {
+    List<byte[]> documents = new ArrayList<>();
+    int depth = 0;
+    boolean inString = false;
+    int elementStart = start + 1;
+    for (int i = start; i < value.length; i++) {
+      byte b = value[i];
+      if (inString) {
+        if (b == '\\') {
+          i++;
+        } else if (b == '"') {
+          inString = false;
+        }
+      } else if (b == '"') {
+        inString = true;
+      } else if (b == '{' || b == '[') {
+        depth++;
+      } else if (b == '}' || b == ']') {
+        depth--;
+        if (depth == 0) {
+          addTrimmed(documents, value, elementStart, i);
+          break;
+        }
+      } else if (b == ',' && depth == 1) {
+        addTrimmed(documents, value, elementStart, i);
+        elementStart = i + 1;
+      }
+    }
+    return documents;
+  }
+
+  private static void addTrimmed(List<byte[]> documents, byte[] value, int from, int to) {
+    from = skipWhitespace(value, from);
+    while (to > from && isWhitespace(value[to - 1])) {
+      to--;
+    }
+    if (to > from) {
+      documents.add(Arrays.copyOfRange(value, from, to));
+    }
+  }
+
+  private static int skipWhitespace(byte[] value, int from) {
+    while (from < value.length && isWhitespace(value[from])) {
+      from++;
+    }
+    return from;
+  }
+
+  private static boolean isWhitespace(byte b) {
+    return b == ' ' || b == '\t' || b == '\r' || b == '\n';
+  }
+}
@@ -17,20 +17,44 @@
 package io.github.rahulsinghai.jmeter.backendlistener.kafka;
 
 import com.google.common.base.Strings;
-import com.google.gson.Gson;
+import io.github.rahulsinghai.jmeter.backendlistener.aggregate.IntervalAggregator;
+import io.github.rahulsinghai.jmeter.backendlistener.aggregate.SampleSummary;
+import io.github.rahulsinghai.jmeter.backendlistener.binary.BinaryRowWriter;
+import io.github.rahulsinghai.jmeter.backendlistener.filter.SampleFilter;
+import io.github.rahulsinghai.jmeter.backendlistener.journal.SpillJournal;
+import io.github.rahulsinghai.jmeter.backendlistener.model.BodyEncoder;
+import io.github.rahulsinghai.jmeter.backendlistener.model.BodyEncoding;
+import io.github.rahulsinghai.jmeter.backendlistener.model.BodyTruncation;
+import io.github.rahulsinghai.jmeter.backendlistener.model.EncodingRowWriter;
+import io.github.rahulsinghai.jmeter.backendlistener.model.JsonRowWriter;
 import io.github.rahulsinghai.jmeter.backendlistener.model.MetricsRow;
+import io.github.rahulsinghai.jmeter.backendlistener.model.RowTemplate;
+import io.github.rahulsinghai.jmeter.backendlistener.sink.RecordSink;
+import io.github.rahulsinghai.jmeter.backendlistener.sink.RecordSinkFactory;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
 import org.apache.jmeter.config.Arguments;
 import org.apache.jmeter.samplers.SampleResult;
 import org.apache.jmeter.util.JMeterUtils;
 import org.apache.jmeter.visualizers.backend.AbstractBackendListenerClient;
 import org.apache.jmeter.visualizers.backend.BackendListenerContext;
 import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.Producer;
 import org.apache.kafka.clients.producer.ProducerConfig;
-import org.apache.kafka.common.serialization.LongSerializer;
-import org.apache.kafka.common.serialization.StringSerializer;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -46,16 +70,263 @@ public class KafkaBackendClient extends AbstractBackendListenerClient {
 
   private static final String BUILD_NUMBER = "BuildNumber";
 
+  /** Prefix to skip from adding service specific parameters to the metrics row */
+  private static final String SERVICE_PREFIX_NAME = "kafka.";
+
   /** Parameter for setting the Kafka topic name. */
-  private static final String KAFKA_TOPIC = "kafka.topic";
+  static final String KAFKA_TOPIC = "kafka.topic";
 
   private static final String KAFKA_FIELDS = "kafka.fields";
   private static final String KAFKA_TIMESTAMP = "kafka.timestamp";
   private static final String KAFKA_SAMPLE_FILTER = "kafka.sample.filter";
+
+  /**
+   * Maximum number of distinct sample labels whose filter decision is cached. 0 disables the cache.
+   */
+  private static final String KAFKA_SAMPLE_FILTER_CACHE_SIZE = "kafka.sample.filter.cache.size";
+
   private static final String KAFKA_TEST_MODE = "kafka.test.mode";
   private static final String KAFKA_PARSE_REQ_HEADERS = "kafka.parse.all.req.headers";
   private static final String KAFKA_PARSE_RES_HEADERS = "kafka.parse.all.res.headers";
 
+  /**
+   * Semicolon separated names of the headers parsed into fields by kafka.parse.all.req.headers and
+   * kafka.parse.all.res.headers, e.g. <code>Content-Type;X-Request-Id</code>; all headers if empty.
+   */
+  private static final String KAFKA_PARSE_HEADER_NAMES = "kafka.parse.header.names";
+
+  /**
+   * Maximum size of the request and response bodies of the debug and error test modes, in bytes; 0
+   * for no maximum.
+   */
+  private static final String KAFKA_BODY_MAX_BYTES = "kafka.body.max.bytes";
+
+  /**
+   * Which part of a larger body is kept: <code>head</code>, <code>tail</code> or <code>head-tail
+   * </code>.
+   */
+  private static final String KAFKA_BODY_TRUNCATION = "kafka.body.truncation";
+
+  /**
+   * How the bodies are written: <code>text</code>, <code>base64</code>, <code>gzip-base64</code> or
+   * <code>sha256</code> (hash of the whole body only).
+   */
+  private static final String KAFKA_BODY_ENCODING = "kafka.body.encoding";
+
+  /**
+   * Parameter for setting what is published: <code>raw</code>, one row per sample, or <code>
+   * aggregate</code>, one summary row per label and interval.
+   */
+  private static final String KAFKA_MODE = "kafka.mode";
+
+  /** Length of the aggregation intervals, in milliseconds. */
+  private static final String KAFKA_AGGREGATE_INTERVAL_MS = "kafka.aggregate.interval.ms";
+
+  /** Whether failed samples are also published as raw rows in aggregate mode; "true" or "false". */
+  private static final String KAFKA_AGGREGATE_RAW_ERRORS = "kafka.aggregate.raw.errors";
+
+  /**
+   * Parameter for setting the format of the records: <code>json</code>, or <code>binary</code> for
+   * the compact format of {@link BinaryRowWriter}, decoded with {@link
+   * io.github.rahulsinghai.jmeter.backendlistener.binary.BinaryRecordDecoder}.
+   */
+  private static final String KAFKA_FORMAT = "kafka.format";
+
+  /** Maximum number of strings in the dictionary of each encoder of the binary format. */
+  private static final String KAFKA_BINARY_DICTIONARY_MAX_ENTRIES =
+      "kafka.binary.dictionary.max.entries";
+
+  /** How often the whole dictionary of the binary format is republished, in milliseconds. */
+  private static final String KAFKA_BINARY_DICTIONARY_INTERVAL_MS =
+      "kafka.binary.dictionary.interval.ms";
+
+  /**
+   * Parameter for packing several rows into one Kafka message: <code>none</code>, <code>ndjson
+   * </code> (newline delimited JSON) or <code>array</code> (JSON array).
+   */
+  private static final String KAFKA_ENVELOPE = "kafka.envelope";
+
+  /** Maximum number of rows per envelope. */
+  private static final String KAFKA_ENVELOPE_MAX_SAMPLES = "kafka.envelope.max.samples";
+
+  /**
+   * Maximum size of an envelope in bytes; should stay below the producer's max.request.size (1 MB
+   * by default).
+   */
+  private static final String KAFKA_ENVELOPE_MAX_BYTES = "kafka.envelope.max.bytes";
+
+  /**
+   * Whether rows are encoded and sent by dedicated threads instead of the JMeter backend listener
+   * thread; "true" or "false".
+   */
+  private static final String KAFKA_ASYNC_ENABLED = "kafka.async.enabled";
+
+  /** Maximum number of samples waiting for the sender threads, rounded up to a power of two. */
+  private static final String KAFKA_ASYNC_BUFFER_SIZE = "kafka.async.buffer.size";
+
+  /**
+   * Maximum size of the bodies and headers of the samples waiting for the sender threads, in bytes;
+   * 0 for no maximum.
+   */
+  private static final String KAFKA_ASYNC_BUFFER_BYTES = "kafka.async.buffer.bytes";
+
+  /** Number of threads encoding and sending the rows. */
+  private static final String KAFKA_ASYNC_THREADS = "kafka.async.threads";
+
+  /**
+   * What to do with a sample when the buffer is full: <code>block</code>, <code>drop-newest</code>
+   * or <code>drop-successes-first</code>.
+   */
+  private static final String KAFKA_ASYNC_OVERFLOW_POLICY = "kafka.async.overflow.policy";
+
+  /**
+   * Parameter for setting the key of the records: <code>timestamp</code> (send time plus sequence
+   * number), <code>none</code>, <code>label</code>, <code>thread</code>, <code>host</code> or
+   * <code>fields</code>.
+   */
+  private static final String KAFKA_KEY = "kafka.key";
+
+  /** Semicolon separated fields hashed into the key by the <code>fields</code> key strategy. */
+  private static final String KAFKA_KEY_FIELDS = "kafka.key.fields";
+
+  /**
+   * Parameter for setting the timestamp of the records: <code>send</code> (set by the producer),
+   * <code>start</code> or <code>end</code> of the sample.
+   */
+  private static final String KAFKA_RECORD_TIMESTAMP = "kafka.record.timestamp";
+
+  /**
+   * Whether the rows are accumulated and handed to the producer according to the observed sample
+   * rate and producer metrics, see {@link AdaptiveBatchController}; "true" or "false".
+   */
+  private static final String KAFKA_ADAPTIVE_ENABLED = "kafka.adaptive.enabled";
+
+  /** Maximum time a row is accumulated in adaptive mode, in milliseconds. */
+  private static final String KAFKA_ADAPTIVE_MAX_LINGER_MS = "kafka.adaptive.max.linger.ms";
+
+  /**
+   * Whether the rows are thinned, and then the successful samples sampled, while the producer is
+   * under pressure, see {@link LoadShedder}; "true" or "false".
+   */
+  private static final String KAFKA_SHEDDING_ENABLED = "kafka.shedding.enabled";
+
+  /** Percentage of the producer's buffer in use above which rows are shed. */
+  private static final String KAFKA_SHEDDING_BUFFER_PERCENT = "kafka.shedding.buffer.percent";
+
+  /** Send latency above which rows are shed, in milliseconds. */
+  private static final String KAFKA_SHEDDING_LATENCY_MS = "kafka.shedding.latency.ms";
+
+  /**
+   * Prefix of the parameters passed as is to the producer, e.g. <code>kafka.producer.linger.ms
+   * </code>, <code>kafka.producer.buffer.memory</code>, <code>
+   * kafka.producer.max.in.flight.requests.per.connection</code> or <code>
+   * kafka.producer.enable.idempotence</code>. They override the settings derived from the other
+   * parameters.
+   */
+  private static final String KAFKA_PRODUCER_PREFIX = "kafka.producer.";
+
+  /**
+   * Whether the records Kafka cannot take in time go to a local journal, to be replayed once it
+   * can, instead of being lost; "true" or "false".
+   */
+  private static final String KAFKA_SPILL_ENABLED = "kafka.spill.enabled";
+
+  /**
+   * Directory of the spill journal; by default <code>kafka-backend-listener-spill-&lt;topic&gt;
+   * </code> in the temporary directory. Each listener needs its own.
+   */
+  private static final String KAFKA_SPILL_DIRECTORY = "kafka.spill.directory";
+
+  /** Size of each segment file of the spill journal, in bytes. */
+  private static final String KAFKA_SPILL_SEGMENT_BYTES = "kafka.spill.segment.bytes";
+
+  /** Maximum size of the spill journal, in bytes; records are dropped beyond it. */
+  private static final String KAFKA_SPILL_MAX_BYTES = "kafka.spill.max.bytes";
+
+  /**
+   * Maximum time the producer may block a send before the record is spilled, in milliseconds; sets
+   * the producer's max.block.ms.
+   */
+  private static final String KAFKA_SPILL_DEADLINE_MS = "kafka.spill.deadline.ms";
+
+  /** Time between two attempts to replay the spill journal, in milliseconds. */
+  private static final String KAFKA_SPILL_REPLAY_INTERVAL_MS = "kafka.spill.replay.interval.ms";
+
+  /** Maximum time the end of the test spends replaying the spill journal, in milliseconds. */
+  private static final String KAFKA_SPILL_TEARDOWN_BUDGET_MS = "kafka.spill.teardown.budget.ms";
+
+  /**
+   * Prefix of the routing parameters of each {@link RecordTier}: <code>kafka.route.success.topic
+   * </code>, <code>kafka.route.failure.topic</code> or <code>kafka.route.detail.topic</code> send
+   * the rows of the tier to another topic than kafka.topic, and <code>
+   * kafka.route.&lt;tier&gt;.producer.*</code> parameters override the producer settings of the
+   * tier, e.g. <code>kafka.route.success.producer.acks=0</code>.
+   */
+  private static final String KAFKA_ROUTE_PREFIX = "kafka.route.";
+
+  /**
+   * Number of threads encoding the rows of a large batch of samples in parallel, see {@link
+   * ParallelRowEncoder}; 1 encodes them on the listener thread. Not used with the asynchronous
+   * pipeline, which has threads of its own, nor with the binary format.
+   */
+  private static final String KAFKA_ENCODER_THREADS = "kafka.encoder.threads";
+
+  /** Minimum number of samples of a batch for its rows to be encoded in parallel. */
+  private static final String KAFKA_ENCODER_MIN_BATCH = "kafka.encoder.min.batch";
+
+  /**
+   * Whether the listeners of the JVM with identical producer configurations share one producer, see
+   * {@link ProducerRegistry}; "true" or "false".
+   */
+  private static final String KAFKA_SHARED_PRODUCER = "kafka.shared.producer";
+
+  /**
+   * Where the rows go: <code>kafka</code>, <code>file</code> to write them as NDJSON lines to local
+   * files instead, see {@link NdjsonFileSinkFactory}, or the class name of another {@link
+   * RecordSinkFactory}. Sinks other than Kafka only take JSON rows, and ignore the producer, spill,
+   * routing and parallel encoding parameters.
+   */
+  private static final String KAFKA_SINK = "kafka.sink";
+
+  /**
+   * Directory of the files of the file sink; by default <code>kafka-backend-listener-&lt;topic&gt;
+   * </code> in the current directory, or <code>kafka-backend-listener-files</code> without topic.
+   */
+  static final String KAFKA_SINK_FILE_DIRECTORY = "kafka.sink.file.directory";
+
+  /** Size from which a file of the file sink is completed and the next one created, in bytes. */
+  static final String KAFKA_SINK_FILE_SEGMENT_BYTES = "kafka.sink.file.segment.bytes";
+
+  /** Compression of the files of the file sink: <code>gzip</code> or <code>none</code>. */
+  static final String KAFKA_SINK_FILE_COMPRESSION = "kafka.sink.file.compression";
+
+  /** Size of the buffer between the compression and the files of the file sink, in bytes. */
+  static final String KAFKA_SINK_FILE_BUFFER_BYTES = "kafka.sink.file.buffer.bytes";
+
+  /**
+   * With <code>kafka.compression.type=auto</code>, time during which the records are sent
+   * uncompressed and sampled to choose the codec, see {@link AutoCompressionProducer}.
+   */
+  private static final String KAFKA_COMPRESSION_AUTO_CALIBRATION_MS =
+      "kafka.compression.auto.calibration.ms";
+
+  /** With <code>kafka.compression.type=auto</code>, maximum number of records measured. */
+  private static final String KAFKA_COMPRESSION_AUTO_SAMPLE_RECORDS =
+      "kafka.compression.auto.sample.records";
+
+  /**
+   * With <code>kafka.compression.type=auto</code>, cost of sending a byte in nanoseconds of CPU
+   * time: the higher, the more CPU time is spent to save bytes. 0 never compresses.
+   */
+  private static final String KAFKA_COMPRESSION_AUTO_BYTE_COST_NS =
+      "kafka.compression.auto.byte.cost.ns";
+
+  /** Maximum time the end of the test waits for the samples left in the buffer to be sent. */
+  private static final long ASYNC_CLOSE_TIMEOUT_MS = 30000L;
+
+  /** Default maximum size of the bodies and headers waiting for the sender threads: 64 MiB. */
+  private static final long DEFAULT_ASYNC_BUFFER_BYTES = 64L << 20;
+
   /** Parameter for setting the Kafka security protocol; "true" or "false". */
   private static final String KAFKA_SSL_ENABLED = "kafka.ssl.enabled";
 
@@ -135,8 +406,9 @@ public class KafkaBackendClient extends AbstractBackendListenerClient {
   /**
    * Optional compression type for all data generated by the producer. The default is none (i.e. no
    * compression). Valid values are <code>none</code>, <code>gzip</code>, <code>snappy</code>,
-   * <code>lz4</code>, or <code>zstd</code>. Compression is of full batches of data, so the efficacy
-   * of batching will also impact the compression ratio (more batching means better compression).
+   * <code>lz4</code>, <code>zstd</code>, or <code>auto</code> to choose one from the records of the
+   * test. Compression is of full batches of data, so the efficacy of batching will also impact the
+   * compression ratio (more batching means better compression).
    */
   private static final String KAFKA_COMPRESSION_TYPE_CONFIG = "kafka.compression.type";
 
@@ -175,12 +447,60 @@ public class KafkaBackendClient extends AbstractBackendListenerClient {
     DEFAULT_ARGS.put(KAFKA_BOOTSTRAP_SERVERS_CONFIG, null);
     DEFAULT_ARGS.put(KAFKA_TOPIC, null);
     DEFAULT_ARGS.put(KAFKA_SAMPLE_FILTER, null);
+    DEFAULT_ARGS.put(KAFKA_SAMPLE_FILTER_CACHE_SIZE, Integer.toString(10000));
     DEFAULT_ARGS.put(KAFKA_FIELDS, null);
     DEFAULT_ARGS.put(KAFKA_TEST_MODE, "info");
     DEFAULT_ARGS.put(KAFKA_PARSE_REQ_HEADERS, "false");
     DEFAULT_ARGS.put(KAFKA_PARSE_RES_HEADERS, "false");
+    DEFAULT_ARGS.put(KAFKA_PARSE_HEADER_NAMES, null);
     DEFAULT_ARGS.put(KAFKA_TIMESTAMP, "yyyy-MM-dd'T'HH:mm:ss.SSSZZ");
+    DEFAULT_ARGS.put(KAFKA_BODY_MAX_BYTES, Integer.toString(65536));
+    DEFAULT_ARGS.put(KAFKA_BODY_TRUNCATION, "head-tail");
+    DEFAULT_ARGS.put(KAFKA_BODY_ENCODING, "text");
+    DEFAULT_ARGS.put(KAFKA_MODE, "raw");
+    DEFAULT_ARGS.put(KAFKA_AGGREGATE_INTERVAL_MS, Long.toString(10000L));
+    DEFAULT_ARGS.put(KAFKA_AGGREGATE_RAW_ERRORS, "true");
+    DEFAULT_ARGS.put(KAFKA_FORMAT, "json");
+    DEFAULT_ARGS.put(KAFKA_BINARY_DICTIONARY_MAX_ENTRIES, Integer.toString(10000));
+    DEFAULT_ARGS.put(KAFKA_BINARY_DICTIONARY_INTERVAL_MS, Long.toString(60000L));
+    DEFAULT_ARGS.put(KAFKA_ENVELOPE, "none");
+    DEFAULT_ARGS.put(KAFKA_ENVELOPE_MAX_SAMPLES, Integer.toString(500));
+    DEFAULT_ARGS.put(KAFKA_ENVELOPE_MAX_BYTES, Integer.toString(524288));
+    DEFAULT_ARGS.put(KAFKA_ASYNC_ENABLED, "false");
+    DEFAULT_ARGS.put(KAFKA_ASYNC_BUFFER_SIZE, Integer.toString(65536));
+    DEFAULT_ARGS.put(KAFKA_ASYNC_BUFFER_BYTES, Long.toString(DEFAULT_ASYNC_BUFFER_BYTES));
+    DEFAULT_ARGS.put(KAFKA_ASYNC_THREADS, Integer.toString(1));
+    DEFAULT_ARGS.put(KAFKA_ASYNC_OVERFLOW_POLICY, "block");
+    DEFAULT_ARGS.put(KAFKA_ADAPTIVE_ENABLED, "false");
+    DEFAULT_ARGS.put(KAFKA_ADAPTIVE_MAX_LINGER_MS, Long.toString(100L));
+    DEFAULT_ARGS.put(KAFKA_SHEDDING_ENABLED, "false");
+    DEFAULT_ARGS.put(KAFKA_SHEDDING_BUFFER_PERCENT, Integer.toString(80));
+    DEFAULT_ARGS.put(KAFKA_SHEDDING_LATENCY_MS, Long.toString(1000L));
+    DEFAULT_ARGS.put(KAFKA_SPILL_ENABLED, "false");
+    DEFAULT_ARGS.put(KAFKA_SPILL_DIRECTORY, null);
+    DEFAULT_ARGS.put(KAFKA_SPILL_SEGMENT_BYTES, Integer.toString(64 * 1024 * 1024));
+    DEFAULT_ARGS.put(KAFKA_SPILL_MAX_BYTES, Long.toString(1024L * 1024 * 1024));
+    DEFAULT_ARGS.put(KAFKA_SPILL_DEADLINE_MS, Long.toString(5000L));
+    DEFAULT_ARGS.put(KAFKA_SPILL_REPLAY_INTERVAL_MS, Long.toString(5000L));
+    DEFAULT_ARGS.put(KAFKA_SPILL_TEARDOWN_BUDGET_MS, Long.toString(60000L));
+    for (RecordTier tier : RecordTier.values()) {
+      DEFAULT_ARGS.put(KAFKA_ROUTE_PREFIX + tier.getName() + ".topic", null);
+    }
+    DEFAULT_ARGS.put(KAFKA_ENCODER_THREADS, Integer.toString(1));
+    DEFAULT_ARGS.put(KAFKA_ENCODER_MIN_BATCH, Integer.toString(1000));
+    DEFAULT_ARGS.put(KAFKA_SHARED_PRODUCER, "true");
+    DEFAULT_ARGS.put(KAFKA_SINK, "kafka");
+    DEFAULT_ARGS.put(KAFKA_SINK_FILE_DIRECTORY, null);
+    DEFAULT_ARGS.put(KAFKA_SINK_FILE_SEGMENT_BYTES, Long.toString(128L * 1024 * 1024));
+    DEFAULT_ARGS.put(KAFKA_SINK_FILE_COMPRESSION, "gzip");
+    DEFAULT_ARGS.put(KAFKA_SINK_FILE_BUFFER_BYTES, Integer.toString(1024 * 1024));
+    DEFAULT_ARGS.put(KAFKA_KEY, "timestamp");
+    DEFAULT_ARGS.put(KAFKA_KEY_FIELDS, null);
+    DEFAULT_ARGS.put(KAFKA_RECORD_TIMESTAMP, "send");
     DEFAULT_ARGS.put(KAFKA_COMPRESSION_TYPE_CONFIG, null);
+    DEFAULT_ARGS.put(KAFKA_COMPRESSION_AUTO_CALIBRATION_MS, Long.toString(10000L));
+    DEFAULT_ARGS.put(KAFKA_COMPRESSION_AUTO_SAMPLE_RECORDS, Integer.toString(500));
+    DEFAULT_ARGS.put(KAFKA_COMPRESSION_AUTO_BYTE_COST_NS, Long.toString(10L));
     DEFAULT_ARGS.put(KAFKA_SSL_ENABLED, "false");
     DEFAULT_ARGS.put(KAFKA_SSL_KEY_PASSWORD, null);
     DEFAULT_ARGS.put(KAFKA_SSL_KEYSTORE_LOCATION, null);
@@ -197,11 +517,31 @@ public class KafkaBackendClient extends AbstractBackendListenerClient {
     DEFAULT_ARGS.put(KAFKA_CONNECTIONS_MAX_IDLE_MS_CONFIG, Long.toString(180000L));
   }
 
-  private KafkaMetricPublisher publisher;
+  private RecordSink publisher;
+  private RecordSinkFactory sinkFactory;
   private Set<String> modes;
   private Set<String> filters;
+  private SampleFilter sampleFilter;
   private Set<String> fields;
   private int buildNumber;
+  private boolean errorOnly;
+  private RowTemplate rowTemplate;
+  private EncodingRowWriter rowWriter;
+  private MetricsRow row;
+  private AsyncSamplePipeline pipeline;
+  private ProducerRegistry.Lease producerLease;
+  private final List<ProducerRegistry.Lease> routeLeases = new ArrayList<>();
+  private ParallelRowEncoder encoder;
+  private IntervalAggregator aggregator;
+  private boolean aggregateRawErrors;
+  private ListenerMetrics metrics;
+  private ObjectName metricsName;
+  private AdaptiveBatchController batchController;
+  private ScheduledExecutorService lingerTimer;
+  private LoadShedder shedder;
+  private Spillover spillover;
+  private long spillTeardownBudget;
+  private long pendingSince;
 
   @Override
   public Arguments getDefaultParameters() {
@@ -226,8 +566,8 @@ public class KafkaBackendClient extends AbstractBackendListenerClient {
         ProducerConfig.BOOTSTRAP_SERVERS_CONFIG,
         context.getParameter(KAFKA_BOOTSTRAP_SERVERS_CONFIG));
     props.put(ProducerConfig.CLIENT_ID_CONFIG, context.getParameter(KAFKA_CLIENT_ID_CONFIG));
-    props.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, LongSerializer.class.getName());
-    props.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, StringSerializer.class.getName());
+    props.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, ByteArraySerializer.class.getName());
+    props.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, ByteArraySerializer.class.getName());
     props.put(ProducerConfig.ACKS_CONFIG, context.getParameter(KAFKA_ACKS_CONFIG));
 
     String compressionType = context.getParameter(KAFKA_COMPRESSION_TYPE_CONFIG);
@@ -255,12 +595,208 @@ public class KafkaBackendClient extends AbstractBackendListenerClient {
     props.put(
         ProducerConfig.CONNECTIONS_MAX_IDLE_MS_CONFIG,
         Long.parseLong(context.getParameter(KAFKA_CONNECTIONS_MAX_IDLE_MS_CONFIG)));
+    boolean spill = context.getBooleanParameter(KAFKA_SPILL_ENABLED, false);
+    if (spill) {
+      props.put(
+          ProducerConfig.MAX_BLOCK_MS_CONFIG,
+          context.getLongParameter(KAFKA_SPILL_DEADLINE_MS, 5000L));
+    }
+    Iterator<String> names = context.getParameterNamesIterator();
+    while (names.hasNext()) {
+      String name = names.next();
+      if (name.startsWith(KAFKA_PRODUCER_PREFIX)
+          && name.length() > KAFKA_PRODUCER_PREFIX.length()) {
+        props.put(name.substring(KAFKA_PRODUCER_PREFIX.length()), context.getParameter(name));
+      }
+    }
 
     convertParameterToSet(context, KAFKA_SAMPLE_FILTER, this.filters);
     convertParameterToSet(context, KAFKA_FIELDS, this.fields);
+    Set<String> headerNames = new HashSet<>();
+    for (String name : context.getParameter(KAFKA_PARSE_HEADER_NAMES, "").split(";")) {
+      if (!name.trim().isEmpty()) {
+        headerNames.add(name.trim());
+      }
+    }
+    this.sampleFilter =
+        SampleFilter.compile(
+            this.filters, context.getIntParameter(KAFKA_SAMPLE_FILTER_CACHE_SIZE, 10000));
+
+    // Everything that does not change during the test is resolved once here, not per sample
+    String testMode = context.getParameter(KAFKA_TEST_MODE);
+    this.errorOnly = testMode.trim().equalsIgnoreCase("error");
+    this.rowTemplate =
+        customizeRowTemplate(
+            RowTemplate.create(
+                    context,
+                    SERVICE_PREFIX_NAME,
+                    testMode,
+                    context.getParameter(KAFKA_TIMESTAMP),
+                    this.buildNumber,
+                    context.getBooleanParameter(KAFKA_PARSE_REQ_HEADERS, false),
+                    context.getBooleanParameter(KAFKA_PARSE_RES_HEADERS, false),
+                    this.fields)
+                .withBodyEncoder(getBodyEncoder(context))
+                .withHeaderNames(headerNames));
+    this.row = new MetricsRow(this.rowTemplate);
+    RecordSinkFactory sinkFactory = createSinkFactory(context.getParameter(KAFKA_SINK, "kafka"));
+    boolean binary = context.getParameter(KAFKA_FORMAT, "json").trim().equalsIgnoreCase("binary");
+    if (binary && sinkFactory != null) {
+      logger.warn(
+          "Binary rows need the control records of Kafka, \"kafka.format\" is ignored unless"
+              + " \"kafka.sink=kafka\".");
+      binary = false;
+    }
+    Supplier<EncodingRowWriter> writers;
+    if (binary) {
+      int maxEntries = context.getIntParameter(KAFKA_BINARY_DICTIONARY_MAX_ENTRIES, 10000);
+      long interval = context.getLongParameter(KAFKA_BINARY_DICTIONARY_INTERVAL_MS, 60000L);
+      writers = () -> new BinaryRowWriter(maxEntries, interval);
+    } else {
+      writers = JsonRowWriter::new;
+    }
+    this.rowWriter = writers.get();
+
+    // Binary records are not JSON documents, they cannot be packed into JSON envelopes
+    EnvelopeFormat envelopeFormat =
+        binary
+            ? EnvelopeFormat.NONE
+            : getEnvelopeFormat(context.getParameter(KAFKA_ENVELOPE, "none"));
+    RecordKeys keys = getRecordKeys(context);
+    ListenerMetrics listenerMetrics = new ListenerMetrics();
+    this.metrics = listenerMetrics;
+    String topic = context.getParameter(KAFKA_TOPIC);
+    int envelopeMaxSamples = context.getIntParameter(KAFKA_ENVELOPE_MAX_SAMPLES, 500);
+    int envelopeMaxBytes = context.getIntParameter(KAFKA_ENVELOPE_MAX_BYTES, 524288);
+    TierRouter router;
+    Supplier<RecordSink> publishers;
+    if (sinkFactory != null) {
+      sinkFactory.open(context, listenerMetrics);
+      this.sinkFactory = sinkFactory;
+      router = new TierRouter(new TierRouter.Route(topic, null));
+      publishers = sinkFactory::newSink;
+    } else {
+      ProducerRegistry producers =
+          context.getBooleanParameter(KAFKA_SHARED_PRODUCER, true)
+              ? ProducerRegistry.SHARED
+              : new ProducerRegistry();
+      Function<Properties, Producer<byte[], byte[]>> factory = getProducerFactory(context);
+      this.producerLease = producers.acquire(props, factory);
+      Producer<byte[], byte[]> producer = this.producerLease.getProducer();
+      listenerMetrics.setProducer(producer);
+      router =
+          createRouter(
+              context,
+              producers,
+              factory,
+              props,
+              new TierRouter.Route(topic, producer),
+              "debug".equals(testMode.trim()));
+      Spillover spillover =
+          spill ? createSpillover(context, producer, topic, listenerMetrics) : null;
+      this.spillover = spillover;
+      publishers =
+          () -> {
+            KafkaMetricPublisher publisher =
+                new KafkaMetricPublisher(
+                    producer,
+                    topic,
+                    envelopeFormat,
+                    envelopeMaxSamples,
+                    envelopeMaxBytes,
+                    keys,
+                    listenerMetrics);
+            publisher.setSpillover(spillover);
+            publisher.setRouter(router);
+            return publisher;
+          };
+    }
+    this.publisher = publishers.get();
+    if (this.publisher instanceof KafkaMetricPublisher) {
+      ((KafkaMetricPublisher) this.publisher).setRow(this.row);
+    }
+    if (context.getBooleanParameter(KAFKA_ADAPTIVE_ENABLED, false)) {
+      this.batchController =
+          new AdaptiveBatchController(
+              context.getLongParameter(KAFKA_ADAPTIVE_MAX_LINGER_MS, 100L),
+              envelopeMaxSamples,
+              Integer.parseInt(props.get(ProducerConfig.BATCH_SIZE_CONFIG).toString()),
+              listenerMetrics::getProducerMetrics,
+              System.nanoTime());
+    }
+    if (context.getBooleanParameter(KAFKA_SHEDDING_ENABLED, false)) {
+      this.shedder =
+          new LoadShedder(
+              context.getIntParameter(KAFKA_SHEDDING_BUFFER_PERCENT, 80) / 100.0,
+              context.getLongParameter(KAFKA_SHEDDING_LATENCY_MS, 1000L),
+              listenerMetrics::getProducerMetrics,
+              System.nanoTime());
+    }
+    if (context.getBooleanParameter(KAFKA_ASYNC_ENABLED, false)) {
+      this.pipeline =
+          new AsyncSamplePipeline(
+              publishers,
+              writers,
+              this.rowTemplate,
+              context.getIntParameter(KAFKA_ASYNC_BUFFER_SIZE, 65536),
+              context.getIntParameter(KAFKA_ASYNC_THREADS, 1),
+              getOverflowPolicy(context.getParameter(KAFKA_ASYNC_OVERFLOW_POLICY, "block")),
+              this.batchController);
+      this.pipeline.setLoadShedder(this.shedder);
+      this.pipeline.setMaxBufferBytes(
+          context.getLongParameter(KAFKA_ASYNC_BUFFER_BYTES, DEFAULT_ASYNC_BUFFER_BYTES));
+      this.pipeline.setMetrics(listenerMetrics);
+      this.pipeline.start();
+      this.metrics.setPipeline(this.pipeline);
+    } else if (context.getIntParameter(KAFKA_ENCODER_THREADS, 1) > 1) {
+      if (binary) {
+        logger.warn(
+            "The rows of the binary format refer to the dictionary of their writer, they cannot be"
+                + " encoded in parallel; \"kafka.encoder.threads\" is ignored.");
+      } else if (!(this.publisher instanceof RowBufferSink)) {
+        logger.warn(
+            "The sink {} takes the rows one by one, \"kafka.encoder.threads\" is ignored.",
+            this.publisher.getClass().getName());
+      } else {
+        this.encoder =
+            new ParallelRowEncoder(
+                this.rowTemplate,
+                writers,
+                keys,
+                router,
+                context.getIntParameter(KAFKA_ENCODER_THREADS, 1),
+                context.getIntParameter(KAFKA_ENCODER_MIN_BATCH, 1000));
+        this.encoder.setLoadShedder(this.shedder);
+        this.encoder.setMetrics(listenerMetrics);
+      }
+    }
+    if (this.batchController != null && this.pipeline == null) {
+      // Rows accumulated by this thread are published on time even if no sample follows them
+      long period = Math.max(1L, context.getLongParameter(KAFKA_ADAPTIVE_MAX_LINGER_MS, 100L) / 10);
+      this.lingerTimer =
+          Executors.newSingleThreadScheduledExecutor(
+              task -> {
+                Thread thread = new Thread(task, "kafka-backend-listener-linger");
+                thread.setDaemon(true);
+                return thread;
+              });
+      this.lingerTimer.scheduleWithFixedDelay(
+          this::publishLingeringRows, period, period, TimeUnit.MILLISECONDS);
+    }
+    registerMetrics(topic);
 
-    KafkaProducer<Long, String> producer = new KafkaProducer<>(props);
-    this.publisher = new KafkaMetricPublisher(producer, context.getParameter(KAFKA_TOPIC));
+    String mode = context.getParameter(KAFKA_MODE, "raw").trim();
+    if (mode.equalsIgnoreCase("aggregate")) {
+      this.aggregator =
+          new IntervalAggregator(
+              context.getLongParameter(KAFKA_AGGREGATE_INTERVAL_MS, 10000L),
+              System.currentTimeMillis());
+      this.aggregateRawErrors = context.getBooleanParameter(KAFKA_AGGREGATE_RAW_ERRORS, true);
+    } else if (!mode.equalsIgnoreCase("raw")) {
+      logger.warn(
+          "The parameter \"kafka.mode\" isn't set properly, \"raw\" will be used. Allowed values"
+              + " are: raw and aggregate.");
+    }
 
     checkTestMode(context.getParameter(KAFKA_TEST_MODE));
     super.setupTest(context);
@@ -283,33 +819,508 @@ public class KafkaBackendClient extends AbstractBackendListenerClient {
     }
   }
 
+  /**
+   * Creates the producer shared by all the publishers of the test, and by the listeners of the JVM
+   * with the same configuration. Overridden by the load harness to run the listener against a
+   * simulated broker, and by the JTL replay to write the records to a file.
+   *
+   * @param props Producer configuration
+   * @return a new producer
+   */
+  protected Producer<byte[], byte[]> createProducer(Properties props) {
+    return new KafkaProducer<>(props);
+  }
+
+  /**
+   * Customizes the template of the rows, as resolved from the parameters. Overridden by the JTL
+   * replay, whose samples belong to a past test.
+   *
+   * @param template Template of the rows
+   * @return the template of the rows of the test
+   */
+  protected RowTemplate customizeRowTemplate(RowTemplate template) {
+    return template;
+  }
+
+  /**
+   * @param context BackendListenerContext
+   * @return the factory of the producers, which chooses their codec when their compression type is
+   *     <code>auto</code>
+   */
+  private Function<Properties, Producer<byte[], byte[]>> getProducerFactory(
+      BackendListenerContext context) {
+    return new ProducerFactory(
+        this,
+        context.getIntParameter(KAFKA_COMPRESSION_AUTO_SAMPLE_RECORDS, 500),
+        context.getLongParameter(KAFKA_COMPRESSION_AUTO_CALIBRATION_MS, 10000L),
+        context.getLongParameter(KAFKA_COMPRESSION_AUTO_BYTE_COST_NS, 10L));
+  }
+
+  /**
+   * Creates the routes of the tiers which have a topic or producer settings of their own. Their
+   * producers come from the same registry as the listener's, so that tiers with the same settings
+   * share a producer.
+   *
+   * @param context BackendListenerContext
+   * @param producers Registry of the producers
+   * @param factory Creates the producers
+   * @param props Producer configuration of the listener
+   * @param defaultRoute The listener's topic and producer
+   * @param debug Whether the rows of successful samples have details
+   * @return the router of the rows
+   */
+  private TierRouter createRouter(
+      BackendListenerContext context,
+      ProducerRegistry producers,
+      Function<Properties, Producer<byte[], byte[]>> factory,
+      Properties props,
+      TierRouter.Route defaultRoute,
+      boolean debug) {
+    Map<RecordTier, TierRouter.Route> tierRoutes = new EnumMap<>(RecordTier.class);
+    for (RecordTier tier : RecordTier.values()) {
+      String prefix = KAFKA_ROUTE_PREFIX + tier.getName() + ".";
+      String producerPrefix = prefix + "producer.";
+      String topic = context.getParameter(prefix + "topic", "").trim();
+      Properties tierProps = new Properties();
+      tierProps.putAll(props);
+      boolean overridden = false;
+      Iterator<String> names = context.getParameterNamesIterator();
+      while (names.hasNext()) {
+        String name = names.next();
+        if (name.startsWith(producerPrefix) && name.length() > producerPrefix.length()) {
+          tierProps.put(name.substring(producerPrefix.length()), context.getParameter(name));
+          overridden = true;
+        }
+      }
+      if (topic.isEmpty() && !overridden) {
+        continue;
+      }
+      if (overridden
+          && context.getParameter(producerPrefix + ProducerConfig.CLIENT_ID_CONFIG) == null) {
+        // Producers register their JMX metrics under their client.id
+        tierProps.put(
+            ProducerConfig.CLIENT_ID_CONFIG,
+            props.getProperty(ProducerConfig.CLIENT_ID_CONFIG) + "-" + tier.getName());
+      }
+      ProducerRegistry.Lease lease = producers.acquire(tierProps, factory);
+      this.routeLeases.add(lease);
+      TierRouter.Route route =
+          new TierRouter.Route(
+              topic.isEmpty() ? defaultRoute.getTopic() : topic, lease.getProducer());
+      tierRoutes.put(tier, route);
+      logger.info(
+          "Kafka Backend Listener sends the {} rows to the topic {}.",
+          tier.getName(),
+          route.getTopic());
+    }
+    return new TierRouter(defaultRoute, tierRoutes, debug);
+  }
+
+  /**
+   * Opens the spill journal and starts its background replay.
+   *
+   * @param context BackendListenerContext
+   * @param producer Producer replaying the spilled records
+   * @param topic Kafka topic
+   * @param listenerMetrics Metrics of the listener
+   * @return the spillover, or null if the journal cannot be opened
+   */
+  private Spillover createSpillover(
+      BackendListenerContext context,
+      Producer<byte[], byte[]> producer,
+      String topic,
+      ListenerMetrics listenerMetrics) {
+    String directory = context.getParameter(KAFKA_SPILL_DIRECTORY, "");
+    Path path =
+        directory.trim().isEmpty()
+            ? Paths.get(
+                System.getProperty("java.io.tmpdir"), "kafka-backend-listener-spill-" + topic)
+            : Paths.get(directory.trim());
+    SpillJournal journal;
+    try {
+      journal =
+          SpillJournal.open(
+              path,
+              context.getIntParameter(KAFKA_SPILL_SEGMENT_BYTES, 64 * 1024 * 1024),
+              context.getLongParameter(KAFKA_SPILL_MAX_BYTES, 1024L * 1024 * 1024));
+    } catch (IOException | IllegalArgumentException e) {
+      logger.warn("Unable to open the spill journal, failed records will be lost.", e);
+      return null;
+    }
+    if (!journal.isEmpty()) {
+      logger.info(
+          "Kafka Backend Listener found {} segments of spilled records in {}, replaying them.",
+          journal.getSegmentCount(),
+          path);
+    }
+    listenerMetrics.setJournal(journal);
+    this.spillTeardownBudget = context.getLongParameter(KAFKA_SPILL_TEARDOWN_BUDGET_MS, 60000L);
+    Spillover spillover =
+        new Spillover(
+            journal,
+            producer,
+            topic,
+            listenerMetrics,
+            context.getLongParameter(KAFKA_SPILL_REPLAY_INTERVAL_MS, 5000L));
+    spillover.start();
+    return spillover;
+  }
+
+  /**
+   * Registers the metrics of the listener in the platform MBean server, if no other listener of the
+   * JVM publishing to the same topic did.
+   *
+   * @param topic Kafka topic
+   */
+  private void registerMetrics(String topic) {
+    try {
+      ObjectName name =
+          new ObjectName(
+              "io.github.rahulsinghai.jmeter.backendlistener:type=KafkaBackendListener,topic="
+                  + ObjectName.quote(topic));
+      ManagementFactory.getPlatformMBeanServer()
+          .registerMBean(new StandardMBean(this.metrics, ListenerMetricsMXBean.class, true), name);
+      this.metricsName = name;
+    } catch (JMException e) {
+      logger.warn("Unable to register the metrics of the Kafka Backend Listener in JMX.", e);
+    }
+  }
+
+  /**
+   * Parses the envelope format, falling back to <code>none</code>.
+   *
+   * @param format The value of the kafka.envelope parameter
+   * @return the envelope format
+   */
+  private EnvelopeFormat getEnvelopeFormat(String format) {
+    try {
+      return EnvelopeFormat.fromString(format);
+    } catch (IllegalArgumentException e) {
+      logger.warn(
+          "The parameter \"kafka.envelope\" isn't set properly, \"none\" will be used. Allowed"
+              + " values are: none, ndjson and array.");
+      return EnvelopeFormat.NONE;
+    }
+  }
+
+  /**
+   * Resolves how the request and response bodies are written, falling back to <code>head-tail
+   * </code> and <code>text</code>.
+   *
+   * @param context BackendListenerContext
+   * @return the body encoder
+   */
+  private BodyEncoder getBodyEncoder(BackendListenerContext context) {
+    BodyTruncation truncation;
+    try {
+      truncation =
+          BodyTruncation.fromString(context.getParameter(KAFKA_BODY_TRUNCATION, "head-tail"));
+    } catch (IllegalArgumentException e) {
+      logger.warn(
+          "The parameter \"kafka.body.truncation\" isn't set properly, \"head-tail\" will be used."
+              + " Allowed values are: head, tail and head-tail.");
+      truncation = BodyTruncation.HEAD_TAIL;
+    }
+    BodyEncoding encoding;
+    try {
+      encoding = BodyEncoding.fromString(context.getParameter(KAFKA_BODY_ENCODING, "text"));
+    } catch (IllegalArgumentException e) {
+      logger.warn(
+          "The parameter \"kafka.body.encoding\" isn't set properly, \"text\" will be used."
+              + " Allowed values are: text, base64, gzip-base64 and sha256.");
+      encoding = BodyEncoding.TEXT;
+    }
+    return new BodyEncoder(
+        context.getIntParameter(KAFKA_BODY_MAX_BYTES, 65536), truncation, encoding);
+  }
+
+  /**
+   * Resolves the key strategy and record timestamp, falling back to <code>timestamp</code> and
+   * <code>send</code>.
+   *
+   * @param context BackendListenerContext
+   * @return the keys and timestamps of the records
+   * @throws UnknownHostException If unable to determine injector host name.
+   */
+  private RecordKeys getRecordKeys(BackendListenerContext context) throws UnknownHostException {
+    KeyStrategy strategy;
+    try {
+      strategy = KeyStrategy.fromString(context.getParameter(KAFKA_KEY, "timestamp"));
+    } catch (IllegalArgumentException e) {
+      logger.warn(
+          "The parameter \"kafka.key\" isn't set properly, \"timestamp\" will be used. Allowed"
+              + " values are: timestamp, none, label, thread, host and fields.");
+      strategy = KeyStrategy.TIMESTAMP;
+    }
+    RecordTimestamp timestamp;
+    try {
+      timestamp = RecordTimestamp.fromString(context.getParameter(KAFKA_RECORD_TIMESTAMP, "send"));
+    } catch (IllegalArgumentException e) {
+      logger.warn(
+          "The parameter \"kafka.record.timestamp\" isn't set properly, \"send\" will be used."
+              + " Allowed values are: send, start and end.");
+      timestamp = RecordTimestamp.SEND;
+    }
+
+    List<String> keyFields = new ArrayList<>();
+    for (String field : context.getParameter(KAFKA_KEY_FIELDS, "").split(";")) {
+      if (!field.trim().isEmpty()) {
+        keyFields.add(field.trim());
+      }
+    }
+    String hostName = InetAddress.getLocalHost().getHostName();
+    try {
+      return new RecordKeys(strategy, timestamp, keyFields, hostName);
+    } catch (IllegalArgumentException e) {
+      logger.warn(
+          "The parameter \"kafka.key.fields\" isn't set properly ({}), \"timestamp\" keys will"
+              + " be used. Allowed fields are: {}.",
+          e.getMessage(),
+          RecordKeys.HASHABLE_FIELDS);
+      return new RecordKeys(KeyStrategy.TIMESTAMP, timestamp, null, hostName);
+    }
+  }
+
+  /**
+   * Parses the overflow policy of the asynchronous mode, falling back to <code>block</code>.
+   *
+   * @param policy The value of the kafka.async.overflow.policy parameter
+   * @return the overflow policy
+   */
+  private OverflowPolicy getOverflowPolicy(String policy) {
+    try {
+      return OverflowPolicy.fromString(policy);
+    } catch (IllegalArgumentException e) {
+      logger.warn(
+          "The parameter \"kafka.async.overflow.policy\" isn't set properly, \"block\" will be"
+              + " used. Allowed values are: block, drop-newest and drop-successes-first.");
+      return OverflowPolicy.BLOCK;
+    }
+  }
+
+  /**
+   * Creates the factory of the sinks of the rows, unless they go to Kafka.
+   *
+   * @param sink The value of the kafka.sink parameter
+   * @return the factory, or null to send the rows to Kafka
+   */
+  private RecordSinkFactory createSinkFactory(String sink) {
+    if (sink.trim().equalsIgnoreCase("kafka")) {
+      return null;
+    }
+    if (sink.trim().equalsIgnoreCase("file")) {
+      return new NdjsonFileSinkFactory();
+    }
+    try {
+      return Class.forName(sink.trim())
+          .asSubclass(RecordSinkFactory.class)
+          .getDeclaredConstructor()
+          .newInstance();
+    } catch (ReflectiveOperationException | ClassCastException e) {
+      logger.warn(
+          "The parameter \"kafka.sink\" isn't set properly, \"kafka\" will be used. Allowed"
+              + " values are: kafka, file and the class name of a RecordSinkFactory.",
+          e);
+      return null;
+    }
+  }
+
+  /**
+   * Publishes or aggregates a batch of samples. Synchronized, so that batches handed by several
+   * JMeter worker threads sharing this listener are processed one at a time.
+   */
   @Override
-  public void handleSampleResults(List<SampleResult> results, BackendListenerContext context) {
+  public synchronized void handleSampleResults(
+      List<SampleResult> results, BackendListenerContext context) {
+    this.metrics.recordSamplesIn(results.size());
+    if (this.shedder != null && this.shedder.update(System.nanoTime())) {
+      publishSheddingRow();
+    }
+    if (this.aggregator != null) {
+      aggregateSamples(results);
+    } else {
+      publishRows(results);
+    }
+  }
+
+  /**
+   * Adds the samples to the summaries of the current interval, publishing the summaries of the
+   * previous interval first if it is over. Failed samples are also published as raw rows if
+   * kafka.aggregate.raw.errors is set.
+   *
+   * @param results The samples received from JMeter
+   */
+  private void aggregateSamples(List<SampleResult> results) {
+    long now = System.currentTimeMillis();
+    if (this.aggregator.isDue(now)) {
+      publishSummaries(now);
+    }
+
+    List<SampleResult> errors = new ArrayList<>();
+    int filtered = 0;
     for (SampleResult sr : results) {
-      MetricsRow row =
-          new MetricsRow(
-              sr,
-              context.getParameter(KAFKA_TEST_MODE),
-              context.getParameter(KAFKA_TIMESTAMP),
-              this.buildNumber,
-              context.getBooleanParameter(KAFKA_PARSE_REQ_HEADERS, false),
-              context.getBooleanParameter(KAFKA_PARSE_RES_HEADERS, false),
-              fields);
-
-      if (validateSample(context, sr)) {
-        try {
-          // Prefix to skip from adding service specific parameters to the metrics row
-          String servicePrefixName = "kafka.";
-          this.publisher.addToList(new Gson().toJson(row.getRowAsMap(context, servicePrefixName)));
-        } catch (Exception e) {
-          logger.error(
-              "The Kafka Backend Listener was unable to add sampler to the list of samplers to send... More info in JMeter's console.");
-          e.printStackTrace();
+      if (this.sampleFilter.accept(sr.getSampleLabel())) {
+        this.aggregator.add(sr);
+        if (this.aggregateRawErrors && !sr.isSuccessful()) {
+          errors.add(sr);
         }
+      } else {
+        filtered++;
       }
     }
+    this.metrics.recordSamplesFiltered(filtered);
+    if (!errors.isEmpty()) {
+      publishRows(errors);
+    }
+  }
 
+  /**
+   * Publishes one summary row per label of the current interval, and starts the next interval.
+   *
+   * @param now Current time, in milliseconds since the epoch
+   */
+  private void publishSummaries(long now) {
+    long intervalStart = this.aggregator.getIntervalStart();
+    long intervalEnd = this.aggregator.getIntervalEnd();
+    long encodeStart = System.nanoTime();
+    for (SampleSummary summary : this.aggregator.roll(now)) {
+      summary.writeRow(this.rowWriter, this.rowTemplate, intervalStart, intervalEnd);
+      this.publisher.addToList(
+          this.rowWriter.toByteArray(), summary.getLabel(), intervalStart, intervalEnd);
+    }
+    this.metrics.recordEncoding(System.nanoTime() - encodeStart);
+    publishList();
+  }
+
+  /**
+   * Publishes the row telling the new level of the load shedder to every topic, after the rows
+   * encoded by this thread at the previous level. The rows of the asynchronous pipeline may be
+   * encoded on either side of it; they carry the level they were thinned at.
+   */
+  private void publishSheddingRow() {
+    this.shedder.writeRow(this.rowWriter, this.rowTemplate, System.currentTimeMillis());
+    this.publisher.addToEveryDestination(this.rowWriter.toByteArray());
+    publishList();
+  }
+
+  /**
+   * Publishes one row per valid sample, from this thread or through the asynchronous pipeline.
+   * Successful samples may be shed by the load shedder.
+   *
+   * @param results The samples to publish
+   */
+  private void publishRows(List<SampleResult> results) {
+    int filtered = 0;
+    if (this.shedder != null && this.shedder.getLevel() >= LoadShedder.SUCCESSES) {
+      List<SampleResult> admitted = new ArrayList<>(results.size());
+      for (SampleResult sr : results) {
+        if (this.shedder.admit(sr)) {
+          admitted.add(sr);
+        }
+      }
+      this.metrics.recordSamplesShed(results.size() - admitted.size());
+      results = admitted;
+    }
+    if (this.pipeline != null) {
+      // Samples are encoded and sent by the pipeline's threads
+      for (SampleResult sr : results) {
+        if (validateSample(sr)) {
+          this.pipeline.submit(sr);
+        } else {
+          filtered++;
+        }
+      }
+      this.metrics.recordSamplesFiltered(filtered);
+      recordRows(results.size() - filtered);
+      return;
+    }
+
+    if (this.publisher.getListSize() == 0) {
+      this.pendingSince = System.nanoTime();
+    }
+    long encodeStart = System.nanoTime();
+    if (this.encoder != null && this.encoder.isParallel(results.size())) {
+      List<SampleResult> valid = new ArrayList<>(results.size());
+      for (SampleResult sr : results) {
+        if (validateSample(sr)) {
+          valid.add(sr);
+        } else {
+          filtered++;
+        }
+      }
+      try {
+        this.encoder.encode(valid, (RowBufferSink) this.publisher);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        logger.warn("The Kafka Backend Listener was interrupted while encoding samples.");
+      }
+    } else {
+      if (this.shedder != null) {
+        this.shedder.thin(this.row);
+      }
+      int unencoded = 0;
+      for (SampleResult sr : results) {
+        if (!validateSample(sr)) {
+          filtered++;
+        } else {
+          try {
+            this.row.reset(sr).writeRow(this.rowWriter);
+            this.publisher.addToList(this.rowWriter, sr);
+          } catch (Exception e) {
+            logger.error("The Kafka Backend Listener was unable to encode a sample.", e);
+            unencoded++;
+          }
+        }
+      }
+      this.metrics.recordSamplesUnencoded(unencoded);
+    }
+    this.metrics.recordSamplesFiltered(filtered);
+    this.metrics.recordEncoding(System.nanoTime() - encodeStart);
+    recordRows(results.size() - filtered);
+    // In adaptive mode, rows may wait for the next samples, or the linger timer, to be sent
+    if (this.batchController == null
+        || this.batchController.shouldFlush(
+            this.publisher.getListSize(), this.pendingSince, System.nanoTime())) {
+      publishList();
+    }
+  }
+
+  /**
+   * Publishes the rows accumulated in adaptive mode once the oldest one waited as long as it may,
+   * when no sample came to publish them.
+   */
+  private synchronized void publishLingeringRows() {
+    if (this.lingerTimer != null
+        && this.batchController.shouldFlush(
+            this.publisher.getListSize(), this.pendingSince, System.nanoTime())) {
+      publishList();
+    }
+  }
+
+  /**
+   * Counts the rows published, which the adaptive mode derives the sample rate from.
+   *
+   * @param count Number of rows
+   */
+  private void recordRows(int count) {
+    if (this.batchController != null) {
+      this.batchController.recordSamples(count, System.nanoTime());
+    }
+  }
+
+  /**
+   * Publishes the rows of the publisher's list, preceded by the control record of the row writer if
+   * it has one.
+   */
+  private void publishList() {
     try {
+      if (this.batchController != null) {
+        this.publisher.setEnvelopeMaxDocuments(this.batchController.getEnvelopeSamples());
+      }
+      byte[] controlRecord = this.rowWriter.pollControlRecord(System.currentTimeMillis());
+      if (controlRecord != null) {
+        this.publisher.publishControlRecord(controlRecord);
+      }
       this.publisher.publishMetrics();
     } catch (Exception e) {
       logger.error("Error occurred while publishing to Kafka topic.", e);
@@ -319,11 +1330,54 @@ public class KafkaBackendClient extends AbstractBackendListenerClient {
   }
 
   @Override
-  public void teardownTest(BackendListenerContext context) throws Exception {
+  public synchronized void teardownTest(BackendListenerContext context) throws Exception {
+    if (this.lingerTimer != null) {
+      this.lingerTimer.shutdownNow();
+      this.lingerTimer = null;
+    }
+    if (this.pipeline != null) {
+      this.pipeline.close(ASYNC_CLOSE_TIMEOUT_MS);
+    }
+    if (this.encoder != null) {
+      this.encoder.close();
+    }
+    if (this.aggregator != null && this.aggregator.getLabelCount() > 0) {
+      // The last interval is cut short by the end of the test
+      publishSummaries(System.currentTimeMillis());
+    }
     if (this.publisher.getListSize() > 0) {
-      this.publisher.publishMetrics();
+      publishList();
+    }
+    this.publisher.flush();
+    if (this.spillover != null) {
+      this.spillover.close(this.spillTeardownBudget);
+    }
+    logger.info(this.metrics.toSummaryTable());
+    if (this.metricsName != null) {
+      try {
+        ManagementFactory.getPlatformMBeanServer().unregisterMBean(this.metricsName);
+      } catch (JMException e) {
+        logger.warn("Unable to unregister the metrics of the Kafka Backend Listener.", e);
+      }
+      this.metricsName = null;
+    }
+    if (this.sinkFactory != null) {
+      try {
+        this.sinkFactory.close();
+      } catch (IOException e) {
+        logger.error("Unable to complete the last rows of the Kafka Backend Listener.", e);
+      }
+      this.sinkFactory = null;
+    }
+    // The producers are closed with the last listener using them
+    if (this.producerLease != null) {
+      this.producerLease.close();
+      this.producerLease = null;
+    }
+    for (ProducerRegistry.Lease lease : this.routeLeases) {
+      lease.close();
     }
-    this.publisher.closeProducer();
+    this.routeLeases.clear();
     super.teardownTest(context);
   }
 
@@ -347,35 +1401,71 @@ public class KafkaBackendClient extends AbstractBackendListenerClient {
   /**
    * This method will validate the current sample to see if it is part of the filters or not.
    *
-   * @param context The Backend Listener's context
    * @param sr The current SampleResult
    * @return true or false depending on whether or not the sample is valid
    */
-  private boolean validateSample(BackendListenerContext context, SampleResult sr) {
-    boolean valid = true;
-    String sampleLabel = sr.getSampleLabel().toLowerCase().trim();
-
-    if (this.filters.size() > 0) {
-      for (String filter : filters) {
-        Pattern pattern = Pattern.compile(filter);
-        Matcher matcher = pattern.matcher(sampleLabel);
-
-        if (sampleLabel.contains(filter) || matcher.find()) {
-          valid = true;
-          break;
-        } else {
-          valid = false;
-        }
-      }
-    }
+  private boolean validateSample(SampleResult sr) {
+    boolean valid = this.sampleFilter.accept(sr.getSampleLabel());
 
     // if sample is successful but test mode is "error" only
-    if (sr.isSuccessful()
-        && context.getParameter(KAFKA_TEST_MODE).trim().equalsIgnoreCase("error")
-        && valid) {
+    if (sr.isSuccessful() && this.errorOnly && valid) {
       valid = false;
     }
 
     return valid;
   }
+
+  /**
+   * Creates the producers of a listener with {@link #createProducer(Properties)}. Equal to the
+   * factory of any listener of the same class with the same calibration settings, so that the
+   * {@link ProducerRegistry} lets them share their producers.
+   */
+  private static final class ProducerFactory
+      implements Function<Properties, Producer<byte[], byte[]>> {
+    private final KafkaBackendClient listener;
+    private final int sampleRecords;
+    private final long calibrationMillis;
+    private final long byteCostNanos;
+
+    ProducerFactory(
+        KafkaBackendClient listener,
+        int sampleRecords,
+        long calibrationMillis,
+        long byteCostNanos) {
+      this.listener = listener;
+      this.sampleRecords = sampleRecords;
+      this.calibrationMillis = calibrationMillis;
+      this.byteCostNanos = byteCostNanos;
+    }
+
+    @Override
+    public Producer<byte[], byte[]> apply(Properties props) {
+      return AutoCompressionProducer.isAuto(props)
+          ? new AutoCompressionProducer(
+              props,
+              this.listener::createProducer,
+              this.sampleRecords,
+              this.calibrationMillis,
+              this.byteCostNanos)
+          : this.listener.createProducer(props);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof ProducerFactory)) {
+        return false;
+      }
+      ProducerFactory other = (ProducerFactory) o;
+      return this.listener.getClass() == other.listener.getClass()
+          && this.sampleRecords == other.sampleRecords
+          && this.calibrationMillis == other.calibrationMillis
+          && this.byteCostNanos == other.byteCostNanos;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(
+          this.listener.getClass(), this.sampleRecords, this.calibrationMillis, this.byteCostNanos);
+    }
+  }
 }
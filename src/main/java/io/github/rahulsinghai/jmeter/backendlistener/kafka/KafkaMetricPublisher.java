@@ -16,31 +16,116 @@
 
 package io.github.rahulsinghai.jmeter.backendlistener.kafka;
 
-import java.util.LinkedList;
+import io.github.rahulsinghai.jmeter.backendlistener.model.EncodingRowWriter;
+import io.github.rahulsinghai.jmeter.backendlistener.model.MetricsRow;
+import io.github.rahulsinghai.jmeter.backendlistener.sink.RecordSink;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
-import org.apache.kafka.clients.producer.KafkaProducer;
+import java.util.Map;
+import org.apache.jmeter.samplers.SampleResult;
+import org.apache.kafka.clients.producer.Producer;
 import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.PartitionInfo;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * A wrapper around Kafka Producer to publish messages.
+ * A wrapper around Kafka Producer to publish messages; the {@link RecordSink} of the listener
+ * unless <code>kafka.sink</code> names another one.
+ *
+ * <p>With an {@link EnvelopeFormat} other than NONE, the documents of the list are packed into
+ * envelopes of at most a given number of documents and bytes, each sent as one Kafka message. A
+ * document larger than the byte limit is sent alone in its envelope.
+ *
+ * <p>The key and timestamp of the records come from {@link RecordKeys}. Unless the documents are
+ * keyed by sequence number, only documents with the same key are packed together, so that the
+ * envelopes go to the same partitions as the documents would.
+ *
+ * <p>A {@link TierRouter} may send the rows of some samples to other topics, with other producers.
+ * Only the records of the listener's own topic go to the spill journal.
  *
  * @author rahulsinghai
  * @since 20190624
  */
-class KafkaMetricPublisher {
+class KafkaMetricPublisher implements RowBufferSink {
 
   private static final Logger logger = LoggerFactory.getLogger(KafkaMetricPublisher.class);
 
-  private KafkaProducer<Long, String> producer;
   private String topic;
-  private List<String> metricList;
+  private RowBuffer rows;
+  private int[] nextInGroup;
+  private RecordKeys keys;
+  private MetricsRow row;
+  private ListenerMetrics metrics;
+  private EnvelopeFormat envelopeFormat;
+  private int envelopeMaxDocuments;
+  private int envelopeMaxBytes;
+  private ByteArrayOutputStream envelope;
+  private int envelopeCount;
+  private Spillover spillover;
+  private List<PartitionInfo> partitions;
+  private TierRouter router;
+
+  KafkaMetricPublisher(Producer<byte[], byte[]> producer, String topic) {
+    this(
+        producer,
+        topic,
+        EnvelopeFormat.NONE,
+        1,
+        Integer.MAX_VALUE,
+        RecordKeys.DEFAULT,
+        new ListenerMetrics());
+  }
+
+  KafkaMetricPublisher(
+      Producer<byte[], byte[]> producer,
+      String topic,
+      EnvelopeFormat envelopeFormat,
+      int envelopeMaxDocuments,
+      int envelopeMaxBytes) {
+    this(
+        producer,
+        topic,
+        envelopeFormat,
+        envelopeMaxDocuments,
+        envelopeMaxBytes,
+        RecordKeys.DEFAULT,
+        new ListenerMetrics());
+  }
 
-  KafkaMetricPublisher(KafkaProducer<Long, String> producer, String topic) {
-    this.producer = producer;
+  /**
+   * @param producer Kafka producer
+   * @param topic Kafka topic
+   * @param envelopeFormat How documents are packed into messages
+   * @param envelopeMaxDocuments Maximum number of documents per envelope
+   * @param envelopeMaxBytes Maximum size of an envelope, in bytes
+   * @param keys Keys and timestamps of the records
+   * @param metrics Metrics of the listener, updated when records are sent and acknowledged
+   */
+  KafkaMetricPublisher(
+      Producer<byte[], byte[]> producer,
+      String topic,
+      EnvelopeFormat envelopeFormat,
+      int envelopeMaxDocuments,
+      int envelopeMaxBytes,
+      RecordKeys keys,
+      ListenerMetrics metrics) {
     this.topic = topic;
-    this.metricList = new LinkedList<>();
+    this.rows = new RowBuffer();
+    this.router = new TierRouter(new TierRouter.Route(topic, producer));
+    this.nextInGroup = new int[64];
+    this.keys = keys;
+    this.metrics = metrics;
+    this.envelopeFormat = envelopeFormat;
+    this.envelopeMaxDocuments = Math.max(1, envelopeMaxDocuments);
+    this.envelopeMaxBytes = envelopeMaxBytes;
+    if (envelopeFormat != EnvelopeFormat.NONE) {
+      this.envelope = new ByteArrayOutputStream(Math.min(envelopeMaxBytes, 1 << 16));
+    }
   }
 
   /**
@@ -48,61 +133,359 @@ class KafkaMetricPublisher {
    *
    * @return integer representing the size of the JSON documents list
    */
+  @Override
   public int getListSize() {
-    return this.metricList.size();
+    return this.rows.size();
   }
 
-  /** This method closes the producer */
-  public void closeProducer() {
-    this.producer.flush();
-    this.producer.close();
+  /**
+   * This method changes the maximum number of documents of the next envelopes
+   *
+   * @param envelopeMaxDocuments Maximum number of documents per envelope
+   */
+  @Override
+  public void setEnvelopeMaxDocuments(int envelopeMaxDocuments) {
+    this.envelopeMaxDocuments = Math.max(1, envelopeMaxDocuments);
+  }
+
+  /**
+   * This method makes the records failing with a retriable error go to the spill journal
+   *
+   * @param spillover Keeps and replays the records Kafka cannot take, or null to log and lose them
+   */
+  void setSpillover(Spillover spillover) {
+    this.spillover = spillover;
+  }
+
+  /**
+   * This method routes the rows of the samples to the topics of their tiers
+   *
+   * @param router Routes of the tiers; its default route must be this publisher's topic and
+   *     producer
+   */
+  void setRouter(TierRouter router) {
+    this.router = router;
+  }
+
+  /**
+   * This method sets the row encoding the samples added to this publisher, on the same thread,
+   * whose thinning by the {@link LoadShedder} decides whether they go to the DETAIL tier
+   *
+   * @param row The row of the thread of this publisher
+   */
+  void setRow(MetricsRow row) {
+    this.row = row;
+  }
+
+  /** @return the metrics of the listener, updated when records are sent and acknowledged */
+  public ListenerMetrics getMetrics() {
+    return this.metrics;
+  }
+
+  /** This method waits for the records sent so far, whatever their route, to be acknowledged */
+  @Override
+  public void flush() {
+    for (int route = 0; route < this.router.size(); route++) {
+      this.router.get(route).getProducer().flush();
+    }
   }
 
   /** This method clears the JSON documents list */
+  @Override
   public void clearList() {
-    this.metricList.clear();
+    this.rows.clear();
+  }
+
+  /**
+   * This method adds a metric to the list, without key nor timestamp of its own.
+   *
+   * @param metric UTF-8 encoded JSON document for Kafka
+   */
+  @Override
+  public void addToList(byte[] metric) {
+    this.rows.add(metric, null, RecordKeys.NO_TIMESTAMP, TierRouter.DEFAULT_ROUTE);
+  }
+
+  /**
+   * This method adds the row of a sample to the list.
+   *
+   * @param metric Encoded row
+   * @param sr Sample of the row, giving the key and timestamp of its record
+   */
+  public void addToList(byte[] metric, SampleResult sr) {
+    this.rows.add(metric, this.keys.keyOf(sr), this.keys.timestampOf(sr), routeOf(sr));
   }
 
   /**
-   * This method adds a metric to the list (metricList).
+   * This method copies the current row of a writer, which can then encode the next one, to the
+   * list. Unlike {@link #addToList(byte[], SampleResult)}, it allocates no copy of the row.
+   *
+   * @param writer Writer of the row of the sample
+   * @param sr Sample of the row, giving the key and timestamp of its record
+   */
+  @Override
+  public void addToList(EncodingRowWriter writer, SampleResult sr) {
+    this.rows.add(writer, this.keys.keyOf(sr), this.keys.timestampOf(sr), routeOf(sr));
+  }
+
+  /**
+   * @param sr Sample of a row
+   * @return the number of the route of its record, depending on whether the row of this thread left
+   *     the details out
+   */
+  private int routeOf(SampleResult sr) {
+    return this.router.routeOf(sr, this.row == null || !this.row.isWithoutDetails());
+  }
+
+  /**
+   * This method adds rows encoded elsewhere, with their keys and timestamps, to the list.
+   *
+   * @param rows Encoded rows
+   */
+  @Override
+  public void addAll(RowBuffer rows) {
+    this.rows.addAll(rows);
+  }
+
+  /**
+   * This method adds a row to the list once per route, without key nor timestamp of its own, so
+   * that the consumers of every topic receive it.
+   *
+   * @param metric Encoded row
+   */
+  @Override
+  public void addToEveryDestination(byte[] metric) {
+    for (int route = 0; route < this.router.size(); route++) {
+      this.rows.add(metric, null, RecordKeys.NO_TIMESTAMP, route);
+    }
+  }
+
+  /**
+   * This method adds the row of a summary to the list.
+   *
+   * @param metric Encoded row
+   * @param label Label of the summary
+   * @param intervalStart Start of the interval of the summary, in milliseconds since the epoch
+   * @param intervalEnd End of the interval of the summary, in milliseconds since the epoch
+   */
+  @Override
+  public void addToList(byte[] metric, String label, long intervalStart, long intervalEnd) {
+    this.rows.add(
+        metric,
+        this.keys.keyOfSummary(label),
+        this.keys.timestampOf(intervalStart, intervalEnd),
+        TierRouter.DEFAULT_ROUTE);
+  }
+
+  /**
+   * This method adds a metric to the list.
    *
    * @param metric String parameter representing a JSON document for Kafka
    */
   public void addToList(String metric) {
-    this.metricList.add(metric);
+    addToList(metric.getBytes(StandardCharsets.UTF_8));
   }
 
-  /** This method publishes the documents present in the list (metricList). */
+  /** This method publishes the documents present in the list. */
+  @Override
   public void publishMetrics() {
 
     long time = System.currentTimeMillis();
-    for (int i = 0; i < this.metricList.size(); i++) {
-      final ProducerRecord<Long, String> record =
-          new ProducerRecord<>(this.topic, i + time, metricList.get(i));
+    if (this.envelopeFormat == EnvelopeFormat.NONE) {
+      for (int i = 0; i < this.rows.size(); i++) {
+        byte[] key = this.keys.isSequential() ? RecordKeys.toBytes(i + time) : this.rows.key(i);
+        int route = this.rows.route(i);
+        send(route, record(route, key, this.rows.timestamp(i), this.rows.copyOf(i)), time);
+      }
+      return;
+    }
+
+    // Documents with the same route and key are packed together, in the order of their first
+    // document; documents keyed by sequence number are only grouped by route. The documents of a
+    // group are chained by index, from its first to its last one.
+    this.envelopeCount = 0;
+    int count = this.rows.size();
+    if (this.nextInGroup.length < count) {
+      this.nextInGroup = new int[Math.max(count, this.nextInGroup.length * 2)];
+    }
+    List<Map<ByteBuffer, int[]>> routeGroups = new ArrayList<>(this.router.size());
+    for (int route = 0; route < this.router.size(); route++) {
+      routeGroups.add(new LinkedHashMap<>());
+    }
+    for (int i = 0; i < count; i++) {
+      byte[] key = this.keys.isSequential() ? null : this.rows.key(i);
+      ByteBuffer group = key == null ? null : ByteBuffer.wrap(key);
+      Map<ByteBuffer, int[]> groups = routeGroups.get(this.rows.route(i));
+      int[] firstAndLast = groups.get(group);
+      this.nextInGroup[i] = -1;
+      if (firstAndLast == null) {
+        groups.put(group, new int[] {i, i});
+      } else {
+        this.nextInGroup[firstAndLast[1]] = i;
+        firstAndLast[1] = i;
+      }
+    }
+    for (int route = 0; route < routeGroups.size(); route++) {
+      for (Map.Entry<ByteBuffer, int[]> group : routeGroups.get(route).entrySet()) {
+        byte[] key = group.getKey() == null ? null : group.getKey().array();
+        publishEnvelopes(group.getValue()[0], route, key, time);
+      }
+    }
+  }
+
+  /**
+   * Packs documents into envelopes and sends them. An envelope has the timestamp of its first
+   * document.
+   *
+   * @param first Index of the first document of a group chained by {@link #nextInGroup}
+   * @param route Number of the route of the documents
+   * @param key Key of the envelopes, unless they are keyed by sequence number
+   * @param time Time of the publication
+   */
+  private void publishEnvelopes(int first, int route, byte[] key, long time) {
+    byte[] separator = this.envelopeFormat.getSeparator();
+    int suffixLength = this.envelopeFormat.getSuffix().length;
+    int documents = 0;
+    long timestamp = RecordKeys.NO_TIMESTAMP;
+    for (int i = first; i >= 0; i = this.nextInGroup[i]) {
+      int length = this.rows.length(i);
+      if (documents > 0
+          && (documents == this.envelopeMaxDocuments
+              || this.envelope.size() + separator.length + length + suffixLength
+                  > this.envelopeMaxBytes)) {
+        sendEnvelope(route, key, timestamp, time);
+        documents = 0;
+      }
+      if (documents == 0) {
+        byte[] prefix = this.envelopeFormat.getPrefix();
+        this.envelope.reset();
+        this.envelope.write(prefix, 0, prefix.length);
+        timestamp = this.rows.timestamp(i);
+      } else {
+        this.envelope.write(separator, 0, separator.length);
+      }
+      this.rows.writeTo(i, this.envelope);
+      documents++;
+    }
+    if (documents > 0) {
+      sendEnvelope(route, key, timestamp, time);
+    }
+  }
+
+  private void sendEnvelope(int route, byte[] key, long timestamp, long time) {
+    byte[] envelopeKey =
+        this.keys.isSequential() ? RecordKeys.toBytes(this.envelopeCount++ + time) : key;
+    send(route, record(route, envelopeKey, timestamp, closeEnvelope()), time);
+  }
+
+  private ProducerRecord<byte[], byte[]> record(
+      int route, byte[] key, long timestamp, byte[] value) {
+    return new ProducerRecord<>(
+        this.router.get(route).getTopic(),
+        null,
+        timestamp == RecordKeys.NO_TIMESTAMP ? null : timestamp,
+        key,
+        value);
+  }
+
+  private byte[] closeEnvelope() {
+    byte[] suffix = this.envelopeFormat.getSuffix();
+    this.envelope.write(suffix, 0, suffix.length);
+    return this.envelope.toByteArray();
+  }
+
+  /**
+   * This method sends a control record, e.g. the dictionary of the binary format, to every
+   * partition of the topic of every route, so that it precedes the documents published afterwards
+   * whatever their partition.
+   *
+   * @param controlRecord Value of the control record
+   */
+  @Override
+  public void publishControlRecord(byte[] controlRecord) {
+    long time = System.currentTimeMillis();
+    for (int route = 0; route < this.router.size(); route++) {
+      String topic = this.router.get(route).getTopic();
+      List<PartitionInfo> partitions = partitionsFor(route);
+      if (partitions == null || partitions.isEmpty()) {
+        send(route, new ProducerRecord<>(topic, null, controlRecord), time);
+        continue;
+      }
+      for (PartitionInfo partition : partitions) {
+        send(route, new ProducerRecord<>(topic, partition.partition(), null, controlRecord), time);
+      }
+    }
+  }
+
+  /**
+   * @param route Number of a route
+   * @return the partitions of the topic of the route; with a spillover, the last known ones of the
+   *     listener's topic if the cluster is unreachable
+   */
+  private List<PartitionInfo> partitionsFor(int route) {
+    TierRouter.Route target = this.router.get(route);
+    if (route != TierRouter.DEFAULT_ROUTE || this.spillover == null) {
+      return target.getProducer().partitionsFor(target.getTopic());
+    }
+    if (!this.spillover.isDegraded()) {
+      try {
+        this.partitions = target.getProducer().partitionsFor(target.getTopic());
+      } catch (RuntimeException e) {
+        this.spillover.degrade(e);
+      }
+    }
+    return this.partitions;
+  }
+
+  private void send(int route, ProducerRecord<byte[], byte[]> record, long time) {
+    // The spill journal replays its records to the listener's topic only
+    Spillover spillover = route == TierRouter.DEFAULT_ROUTE ? this.spillover : null;
+    if (spillover != null && spillover.isDegraded()) {
+      // Not worth waiting for the producer until the journal has been replayed
+      spillover.spill(record, time, null);
+      return;
+    }
+    long sentAt = System.nanoTime();
+    this.metrics.recordSend();
+    Producer<byte[], byte[]> producer = this.router.get(route).getProducer();
+    try {
       producer.send(
           record,
           (metadata, exception) -> {
             long elapsedTime = System.currentTimeMillis() - time;
             if (metadata != null) {
+              this.metrics.recordAck(System.nanoTime() - sentAt, size(record));
               if (logger.isDebugEnabled()) {
                 logger.debug(
-                    "Record sent with (key=%s value=%s) "
-                        + "meta(partition=%d, offset=%d) time=%d\n",
-                    record.key(),
-                    record.value(),
+                    "Record sent with (key={} bytes, value={} bytes) meta(partition={},"
+                        + " offset={}) time={}",
+                    record.key() == null ? 0 : record.key().length,
+                    record.value().length,
                     metadata.partition(),
                     metadata.offset(),
                     elapsedTime);
               }
             } else {
-              if (logger.isErrorEnabled()) {
-                logger.error("Exception: " + exception);
+              this.metrics.recordFailure();
+              if (spillover != null && spillover.spill(record, time, exception)) {
+                logger.debug("Record spilled: {}", exception.toString());
+              } else if (logger.isErrorEnabled()) {
                 logger.error(
                     "Kafka Backend Listener was unable to publish to the Kafka topic {}.",
-                    this.topic);
+                    record.topic(),
+                    exception);
               }
             }
           });
+    } catch (RuntimeException e) {
+      this.metrics.recordFailure();
+      if (spillover == null || !spillover.spill(record, time, e)) {
+        throw e;
+      }
     }
   }
+
+  private static int size(ProducerRecord<byte[], byte[]> record) {
+    return (record.key() == null ? 0 : record.key().length) + record.value().length;
+  }
 }
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2019 Rahul Singhai.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.rahulsinghai.jmeter.backendlistener.kafka;
+
+import java.util.Locale;
+
+/** How the key of the Kafka records is chosen. */
+enum KeyStrategy {
+  /**
+   * A sequence number added to the send time, encoded as a big-endian long: the former behavior,
+   * which spreads the samples of a label randomly across the partitions.
+   */
+  TIMESTAMP,
+
+  /**
+   * No key: the producer's partitioner picks the partition. With kafka-clients 2.3, it spreads such
+   * records across the partitions one record at a time (round-robin), so every batch fills slowly;
+   * a constant key, e.g. the host, gives fuller batches.
+   */
+  NONE,
+
+  /** The sample label, so that all the samples of a label go to the same partition. */
+  LABEL,
+
+  /** The name of the JMeter thread. */
+  THREAD,
+
+  /** The host name of the injector, so that each injector uses a single partition. */
+  HOST,
+
+  /** A 64-bit hash of the values of chosen fields. */
+  FIELDS;
+
+  /**
+   * @param value One of "timestamp", "none", "label", "thread", "host" or "fields", case
+   *     insensitive
+   * @return the matching strategy
+   * @throws IllegalArgumentException if the value is not a known strategy
+   */
+  static KeyStrategy fromString(String value) {
+    return valueOf(value.trim().toUpperCase(Locale.ROOT));
+  }
+}
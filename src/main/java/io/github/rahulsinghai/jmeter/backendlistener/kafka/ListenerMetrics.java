@@ -0,0 +1,337 @@
+/*
+ * Copyright 2019 Rahul Singhai.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.rahulsinghai.jmeter.backendlistener.kafka;
+
+import io.github.rahulsinghai.jmeter.backendlistener.aggregate.LatencySketch;
+import io.github.rahulsinghai.jmeter.backendlistener.journal.SpillJournal;
+import io.github.rahulsinghai.jmeter.backendlistener.sink.SinkMetrics;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.common.Metric;
+import org.apache.kafka.common.MetricName;
+
+/**
+ * Counters of the Kafka Backend Listener itself, to tell whether it is the bottleneck of a test.
+ */
+class ListenerMetrics implements ListenerMetricsMXBean, SinkMetrics {
+
+  /** Producer metrics of the "producer-metrics" group reported by {@link #getProducerMetrics()}. */
+  static final List<String> PRODUCER_METRICS =
+      Arrays.asList(
+          "batch-size-avg",
+          "records-per-request-avg",
+          "record-queue-time-avg",
+          "record-queue-time-max",
+          "request-latency-avg",
+          "record-send-rate",
+          "record-error-rate",
+          "compression-rate-avg",
+          "buffer-available-bytes",
+          "buffer-total-bytes");
+
+  private final LongAdder samplesIn = new LongAdder();
+  private final LongAdder samplesFiltered = new LongAdder();
+  private final LongAdder samplesShed = new LongAdder();
+  private final LongAdder samplesUnencoded = new LongAdder();
+  private final LongAdder encodeBatches = new LongAdder();
+  private final LongAdder encodeNanos = new LongAdder();
+  private final LongAdder recordsSent = new LongAdder();
+  private final LongAdder recordsFailed = new LongAdder();
+  private final LongAdder recordsInFlight = new LongAdder();
+  private final LongAdder bytesSent = new LongAdder();
+  private final LongAdder recordsSpilled = new LongAdder();
+  private final LongAdder recordsReplayed = new LongAdder();
+  private final LongAdder recordsSpillDropped = new LongAdder();
+
+  /** Send to acknowledgment latencies, in microseconds. */
+  private final LatencySketch sendLatency = new LatencySketch();
+
+  private volatile AsyncSamplePipeline pipeline;
+  private volatile Producer<?, ?> producer;
+  private volatile SpillJournal journal;
+
+  void setPipeline(AsyncSamplePipeline pipeline) {
+    this.pipeline = pipeline;
+  }
+
+  void setProducer(Producer<?, ?> producer) {
+    this.producer = producer;
+  }
+
+  void setJournal(SpillJournal journal) {
+    this.journal = journal;
+  }
+
+  /** @param received Number of samples received from JMeter */
+  void recordSamplesIn(int received) {
+    this.samplesIn.add(received);
+  }
+
+  /** @param filtered Number of samples rejected by the filters or the error test mode */
+  void recordSamplesFiltered(int filtered) {
+    this.samplesFiltered.add(filtered);
+  }
+
+  /** @param shed Number of successful samples shed by the {@link LoadShedder} */
+  void recordSamplesShed(int shed) {
+    this.samplesShed.add(shed);
+  }
+
+  /** @param unencoded Number of samples dropped because their row could not be encoded */
+  void recordSamplesUnencoded(int unencoded) {
+    this.samplesUnencoded.add(unencoded);
+  }
+
+  /** @param nanos Time spent encoding a batch of rows, in nanoseconds */
+  void recordEncoding(long nanos) {
+    this.encodeBatches.increment();
+    this.encodeNanos.add(nanos);
+  }
+
+  /** Records that a record was handed to the producer. */
+  void recordSend() {
+    this.recordsInFlight.increment();
+  }
+
+  /**
+   * Records the acknowledgment of a record.
+   *
+   * @param latencyNanos Time between the send of the record and its acknowledgment
+   * @param bytes Size of the key and value of the record
+   */
+  void recordAck(long latencyNanos, int bytes) {
+    this.recordsInFlight.decrement();
+    this.recordsSent.increment();
+    this.bytesSent.add(bytes);
+    synchronized (this.sendLatency) {
+      this.sendLatency.add(TimeUnit.NANOSECONDS.toMicros(latencyNanos));
+    }
+  }
+
+  /** Records that the producer failed to send a record. */
+  void recordFailure() {
+    this.recordsInFlight.decrement();
+    this.recordsFailed.increment();
+  }
+
+  @Override
+  public void recordSends(int records) {
+    this.recordsInFlight.add(records);
+  }
+
+  @Override
+  public void recordAcks(int records, long latencyNanos, long bytes) {
+    this.recordsInFlight.add(-records);
+    this.recordsSent.add(records);
+    this.bytesSent.add(bytes);
+    synchronized (this.sendLatency) {
+      this.sendLatency.add(TimeUnit.NANOSECONDS.toMicros(latencyNanos));
+    }
+  }
+
+  @Override
+  public void recordFailures(int records) {
+    this.recordsInFlight.add(-records);
+    this.recordsFailed.add(records);
+  }
+
+  /** Records that a record was handed over to the spill journal. */
+  void recordSpill() {
+    this.recordsSpilled.increment();
+  }
+
+  /** Records that a record was dropped before it reached the spill journal. */
+  void recordSpillDropped() {
+    this.recordsSpillDropped.increment();
+  }
+
+  /** Records the acknowledgment of a record replayed from the spill journal. */
+  void recordReplay() {
+    this.recordsReplayed.increment();
+  }
+
+  @Override
+  public long getSamplesIn() {
+    return this.samplesIn.sum();
+  }
+
+  @Override
+  public long getSamplesFiltered() {
+    return this.samplesFiltered.sum();
+  }
+
+  @Override
+  public long getSamplesShed() {
+    return this.samplesShed.sum();
+  }
+
+  @Override
+  public long getSamplesDropped() {
+    AsyncSamplePipeline pipeline = this.pipeline;
+    long dropped = this.samplesUnencoded.sum();
+    return pipeline == null
+        ? dropped
+        : dropped + pipeline.getDroppedSuccesses() + pipeline.getDroppedFailures();
+  }
+
+  @Override
+  public long getQueueDepth() {
+    AsyncSamplePipeline pipeline = this.pipeline;
+    return pipeline == null ? 0 : pipeline.getPendingCount();
+  }
+
+  @Override
+  public long getEncodeBatches() {
+    return this.encodeBatches.sum();
+  }
+
+  @Override
+  public double getEncodeTimeAvgMillis() {
+    long batches = this.encodeBatches.sum();
+    return batches == 0 ? 0 : this.encodeNanos.sum() / 1e6 / batches;
+  }
+
+  @Override
+  public long getRecordsSent() {
+    return this.recordsSent.sum();
+  }
+
+  @Override
+  public long getRecordsFailed() {
+    return this.recordsFailed.sum();
+  }
+
+  @Override
+  public long getRecordsInFlight() {
+    return this.recordsInFlight.sum();
+  }
+
+  @Override
+  public long getBytesSent() {
+    return this.bytesSent.sum();
+  }
+
+  @Override
+  public long getRecordsSpilled() {
+    return this.recordsSpilled.sum();
+  }
+
+  @Override
+  public long getRecordsReplayed() {
+    return this.recordsReplayed.sum();
+  }
+
+  @Override
+  public long getRecordsSpillDropped() {
+    SpillJournal journal = this.journal;
+    return this.recordsSpillDropped.sum() + (journal == null ? 0 : journal.getDroppedCount());
+  }
+
+  @Override
+  public long getSpillSegments() {
+    SpillJournal journal = this.journal;
+    return journal == null ? 0 : journal.getSegmentCount();
+  }
+
+  @Override
+  public double getSendLatencyP50Millis() {
+    return getSendLatencyMillis(0.5);
+  }
+
+  @Override
+  public double getSendLatencyP99Millis() {
+    return getSendLatencyMillis(0.99);
+  }
+
+  @Override
+  public double getSendLatencyMaxMillis() {
+    return getSendLatencyMillis(1);
+  }
+
+  private double getSendLatencyMillis(double quantile) {
+    synchronized (this.sendLatency) {
+      if (this.sendLatency.getCount() == 0) {
+        return 0;
+      }
+      long micros =
+          quantile >= 1 ? this.sendLatency.getMax() : this.sendLatency.getValueAtQuantile(quantile);
+      return micros / 1000.0;
+    }
+  }
+
+  @Override
+  public Map<String, Double> getProducerMetrics() {
+    Producer<?, ?> producer = this.producer;
+    if (producer == null) {
+      return Collections.emptyMap();
+    }
+    Map<String, Double> values = new TreeMap<>();
+    for (Map.Entry<MetricName, ? extends Metric> entry : producer.metrics().entrySet()) {
+      MetricName name = entry.getKey();
+      if ("producer-metrics".equals(name.group()) && PRODUCER_METRICS.contains(name.name())) {
+        Object value = entry.getValue().metricValue();
+        if (value instanceof Number) {
+          values.put(name.name(), ((Number) value).doubleValue());
+        }
+      }
+    }
+    return values;
+  }
+
+  /** @return the metrics as a table, one line per metric */
+  String toSummaryTable() {
+    StringBuilder table = new StringBuilder("Kafka Backend Listener metrics:");
+    appendLine(table, "samples in", getSamplesIn());
+    appendLine(table, "samples filtered", getSamplesFiltered());
+    appendLine(table, "samples shed", getSamplesShed());
+    appendLine(table, "samples dropped", getSamplesDropped());
+    appendLine(table, "queue depth", getQueueDepth());
+    appendLine(table, "encoded batches", getEncodeBatches());
+    appendLine(table, "encode time avg (ms/batch)", getEncodeTimeAvgMillis());
+    appendLine(table, "records sent", getRecordsSent());
+    appendLine(table, "records failed", getRecordsFailed());
+    appendLine(table, "records in flight", getRecordsInFlight());
+    appendLine(table, "bytes sent", getBytesSent());
+    if (this.journal != null) {
+      appendLine(table, "records spilled", getRecordsSpilled());
+      appendLine(table, "records replayed", getRecordsReplayed());
+      appendLine(table, "records spill dropped", getRecordsSpillDropped());
+      appendLine(table, "spill segments", getSpillSegments());
+    }
+    appendLine(table, "send latency p50 (ms)", getSendLatencyP50Millis());
+    appendLine(table, "send latency p99 (ms)", getSendLatencyP99Millis());
+    appendLine(table, "send latency max (ms)", getSendLatencyMaxMillis());
+    for (Map.Entry<String, Double> metric : getProducerMetrics().entrySet()) {
+      appendLine(table, "producer " + metric.getKey(), metric.getValue());
+    }
+    return table.toString();
+  }
+
+  private static void appendLine(StringBuilder table, String name, long value) {
+    table.append(String.format("%n  %-32s %,15d", name, value));
+  }
+
+  private static void appendLine(StringBuilder table, String name, double value) {
+    table.append(String.format("%n  %-32s %,15.3f", name, value));
+  }
+}
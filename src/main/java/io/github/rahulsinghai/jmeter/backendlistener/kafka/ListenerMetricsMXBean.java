@@ -0,0 +1,83 @@
+/*
+ * Copyright 2019 Rahul Singhai.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.rahulsinghai.jmeter.backendlistener.kafka;
+
+import java.util.Map;
+
+/** JMX view of the {@link ListenerMetrics} of a Kafka Backend Listener. */
+public interface ListenerMetricsMXBean {
+
+  /** @return number of samples received from JMeter */
+  long getSamplesIn();
+
+  /** @return number of samples rejected by the filters or the error test mode */
+  long getSamplesFiltered();
+
+  /** @return number of successful samples shed while the producer was under pressure */
+  long getSamplesShed();
+
+  /**
+   * @return number of samples dropped because the asynchronous buffer was full or they could not be
+   *     encoded
+   */
+  long getSamplesDropped();
+
+  /** @return number of samples waiting in the asynchronous buffer */
+  long getQueueDepth();
+
+  /** @return number of batches of rows encoded */
+  long getEncodeBatches();
+
+  /** @return average time spent encoding a batch of rows, in milliseconds */
+  double getEncodeTimeAvgMillis();
+
+  /** @return number of records acknowledged by the brokers */
+  long getRecordsSent();
+
+  /** @return number of records the producer failed to send */
+  long getRecordsFailed();
+
+  /** @return number of records handed to the producer and not acknowledged yet */
+  long getRecordsInFlight();
+
+  /** @return number of key and value bytes of the acknowledged records */
+  long getBytesSent();
+
+  /** @return number of records handed over to the spill journal */
+  long getRecordsSpilled();
+
+  /** @return number of spilled records replayed and acknowledged */
+  long getRecordsReplayed();
+
+  /** @return number of records dropped because the spill journal, or the queue to it, was full */
+  long getRecordsSpillDropped();
+
+  /** @return number of spill journal segments waiting to be replayed */
+  long getSpillSegments();
+
+  /** @return median time between the send of a record and its acknowledgment, in milliseconds */
+  double getSendLatencyP50Millis();
+
+  /** @return 99th percentile of the send to acknowledgment time, in milliseconds */
+  double getSendLatencyP99Millis();
+
+  /** @return maximum send to acknowledgment time, in milliseconds */
+  double getSendLatencyMaxMillis();
+
+  /** @return a selection of the producer's own metrics, by name */
+  Map<String, Double> getProducerMetrics();
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright 2019 Rahul Singhai.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.rahulsinghai.jmeter.backendlistener.kafka;
+
+import io.github.rahulsinghai.jmeter.backendlistener.model.MetricsRow;
+import io.github.rahulsinghai.jmeter.backendlistener.model.RowTemplate;
+import io.github.rahulsinghai.jmeter.backendlistener.model.RowWriter;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import org.apache.jmeter.samplers.SampleResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Thins the rows step by step while the producer is under pressure, and restores them when the
+ * pressure eases. Failed samples are always published.
+ */
+class LoadShedder {
+
+  private static final Logger logger = LoggerFactory.getLogger(LoadShedder.class);
+
+  /** Value of the RecordType field of the rows telling a change of level. */
+  static final String RECORD_TYPE = "shedding";
+
+  /** Level from which the details are left out. */
+  static final int DETAILS = 1;
+
+  /** Level from which the fields parsed from the headers are left out. */
+  static final int HEADER_FIELDS = 2;
+
+  /** Level from which successful samples are sampled, one in two at this level. */
+  static final int SUCCESSES = 3;
+
+  /** Highest level, publishing one successful sample in 16. */
+  static final int MAX_LEVEL = 6;
+
+  private static final long EVALUATION_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+  private final double maxBufferUsage;
+  private final double maxLatencyMillis;
+  private final Supplier<Map<String, Double>> producerMetrics;
+
+  private long lastEvaluation;
+  private long successes;
+  private double bufferUsage;
+  private double latencyMillis;
+
+  private volatile int level;
+
+  /**
+   * @param maxBufferUsage Fraction of the producer's buffer in use above which rows are shed
+   * @param maxLatencyMillis Send latency above which rows are shed
+   * @param producerMetrics Current values of the producer's metrics, by name
+   * @param nowNanos Current {@link System#nanoTime()}
+   */
+  LoadShedder(
+      double maxBufferUsage,
+      double maxLatencyMillis,
+      Supplier<Map<String, Double>> producerMetrics,
+      long nowNanos) {
+    this.maxBufferUsage = maxBufferUsage;
+    this.maxLatencyMillis = maxLatencyMillis;
+    this.producerMetrics = producerMetrics;
+    this.lastEvaluation = nowNanos;
+  }
+
+  /**
+   * Updates the level once per second. Must be called from a single thread.
+   *
+   * @param nowNanos Current {@link System#nanoTime()}
+   * @return true if the level changed
+   */
+  boolean update(long nowNanos) {
+    if (nowNanos - this.lastEvaluation < EVALUATION_NANOS) {
+      return false;
+    }
+    this.lastEvaluation = nowNanos;
+    Map<String, Double> metrics = this.producerMetrics.get();
+    return adapt(metrics == null ? Collections.emptyMap() : metrics);
+  }
+
+  /**
+   * Raises or lowers the level by one depending on the pressure on the producer.
+   *
+   * @param metrics Current values of the producer's metrics, by name
+   * @return true if the level changed
+   */
+  boolean adapt(Map<String, Double> metrics) {
+    double total = metrics.getOrDefault("buffer-total-bytes", 0.0);
+    double available = metrics.getOrDefault("buffer-available-bytes", total);
+    this.bufferUsage = total > 0 ? 1 - available / total : 0;
+    this.latencyMillis =
+        metrics.getOrDefault("record-queue-time-avg", 0.0)
+            + metrics.getOrDefault("request-latency-avg", 0.0);
+
+    int previous = this.level;
+    if (this.bufferUsage > this.maxBufferUsage || this.latencyMillis > this.maxLatencyMillis) {
+      this.level = Math.min(MAX_LEVEL, previous + 1);
+    } else if (this.bufferUsage < this.maxBufferUsage / 2
+        && this.latencyMillis < this.maxLatencyMillis / 2) {
+      this.level = Math.max(0, previous - 1);
+    }
+    if (this.level != previous) {
+      logger.info(
+          "Kafka Backend Listener shedding level {} ({}): buffer usage {}%, send latency {} ms.",
+          this.level,
+          getStep(),
+          Math.round(this.bufferUsage * 100),
+          Math.round(this.latencyMillis));
+      return true;
+    }
+    return false;
+  }
+
+  /** @return the current level, from 0 to {@link #MAX_LEVEL} */
+  int getLevel() {
+    return this.level;
+  }
+
+  /** @return the name of the last step reached */
+  String getStep() {
+    int current = this.level;
+    if (current >= SUCCESSES) {
+      return "successes";
+    }
+    if (current == HEADER_FIELDS) {
+      return "header-fields";
+    }
+    return current == DETAILS ? "details" : "none";
+  }
+
+  /** @return the fraction of the successful samples published */
+  double getSuccessRate() {
+    int current = this.level;
+    return current < SUCCESSES ? 1 : 1.0 / (1L << (current - SUCCESSES + 1));
+  }
+
+  /**
+   * Decides whether a sample is published. Must be called from a single thread.
+   *
+   * @param sr A sample
+   * @return false if the sample is shed
+   */
+  boolean admit(SampleResult sr) {
+    int current = this.level;
+    if (current < SUCCESSES || !sr.isSuccessful()) {
+      return true;
+    }
+    long mask = (1L << (current - SUCCESSES + 1)) - 1;
+    return (this.successes++ & mask) == 0;
+  }
+
+  /**
+   * Thins the rows a row writes next according to the current level, which they carry.
+   *
+   * @param row A row
+   * @return the row
+   */
+  MetricsRow thin(MetricsRow row) {
+    int current = this.level;
+    return row.thin(current, current >= DETAILS, current >= HEADER_FIELDS);
+  }
+
+  /**
+   * Writes the row telling the current level. The identifying fields and the test's constant fields
+   * are written like those of a summary.
+   *
+   * @param writer The target of the row
+   * @param template The settings and constant fields of the test
+   * @param now Time of the change, in milliseconds since the epoch
+   */
+  void writeRow(RowWriter writer, RowTemplate template, long now) {
+    StringBuilder timestamp = new StringBuilder(32);
+    template.getTimestampFormatter().formatTo(now, timestamp);
+    writer.beginRow();
+    writer.writeString("RecordType", RECORD_TYPE);
+    writer.writeString("Timestamp", timestamp);
+    writer.writeLong("SheddingLevel", this.level);
+    writer.writeString("SheddingStep", getStep());
+    writer.writeDouble("SuccessRate", getSuccessRate());
+    writer.writeDouble("BufferUsage", this.bufferUsage);
+    writer.writeDouble("SendLatency", this.latencyMillis);
+    writer.writeConstants(template.getConstants());
+    writer.endRow();
+  }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2019 Rahul Singhai.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.rahulsinghai.jmeter.backendlistener.kafka;
+
+import io.github.rahulsinghai.jmeter.backendlistener.model.EncodingRowWriter;
+import io.github.rahulsinghai.jmeter.backendlistener.sink.RecordSink;
+import io.github.rahulsinghai.jmeter.backendlistener.sink.RollingNdjsonWriter;
+import io.github.rahulsinghai.jmeter.backendlistener.sink.SinkMetrics;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import org.apache.jmeter.samplers.SampleResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link RecordSink} writing the rows as NDJSON lines to a {@link RollingNdjsonWriter} instead of
+ * Kafka.
+ */
+class NdjsonFileSink implements RowBufferSink {
+
+  private static final Logger logger = LoggerFactory.getLogger(NdjsonFileSink.class);
+
+  private final RollingNdjsonWriter writer;
+  private final SinkMetrics metrics;
+  private final RowBuffer rows = new RowBuffer();
+  private final ByteArrayOutputStream lines = new ByteArrayOutputStream(1 << 16);
+
+  /**
+   * @param writer Writer of the segment files, shared by the sinks of the listener
+   * @param metrics Metrics of the listener, updated when blocks are written
+   */
+  NdjsonFileSink(RollingNdjsonWriter writer, SinkMetrics metrics) {
+    this.writer = writer;
+    this.metrics = metrics;
+  }
+
+  @Override
+  public int getListSize() {
+    return this.rows.size();
+  }
+
+  @Override
+  public void addToList(EncodingRowWriter writer, SampleResult sr) {
+    this.rows.add(writer, null, RecordKeys.NO_TIMESTAMP, TierRouter.DEFAULT_ROUTE);
+  }
+
+  @Override
+  public void addToList(byte[] row) {
+    this.rows.add(row, null, RecordKeys.NO_TIMESTAMP, TierRouter.DEFAULT_ROUTE);
+  }
+
+  @Override
+  public void addAll(RowBuffer rows) {
+    this.rows.addAll(rows);
+  }
+
+  @Override
+  public void publishMetrics() {
+    int count = this.rows.size();
+    if (count == 0) {
+      return;
+    }
+    for (int i = 0; i < count; i++) {
+      this.rows.writeTo(i, this.lines);
+      this.lines.write('\n');
+    }
+    byte[] block = this.lines.toByteArray();
+    this.lines.reset();
+
+    long sentAt = System.nanoTime();
+    this.metrics.recordSends(count);
+    try {
+      this.writer.append(
+          block,
+          exception -> {
+            if (exception == null) {
+              this.metrics.recordAcks(count, System.nanoTime() - sentAt, block.length);
+            } else {
+              this.metrics.recordFailures(count);
+              logger.error(
+                  "Kafka Backend Listener was unable to write {} rows to {}.",
+                  count,
+                  this.writer.getDirectory(),
+                  exception);
+            }
+          });
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      this.metrics.recordFailures(count);
+      logger.warn("Kafka Backend Listener was interrupted before writing {} rows.", count);
+    }
+  }
+
+  @Override
+  public void clearList() {
+    this.rows.clear();
+  }
+
+  @Override
+  public void flush() {
+    try {
+      this.writer.flush();
+    } catch (IOException e) {
+      logger.error(
+          "Kafka Backend Listener was unable to write to {}.", this.writer.getDirectory(), e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
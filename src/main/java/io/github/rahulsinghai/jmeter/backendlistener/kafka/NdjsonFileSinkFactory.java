@@ -0,0 +1,86 @@
+/*
+ * Copyright 2019 Rahul Singhai.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.rahulsinghai.jmeter.backendlistener.kafka;
+
+import io.github.rahulsinghai.jmeter.backendlistener.sink.RecordSink;
+import io.github.rahulsinghai.jmeter.backendlistener.sink.RecordSinkFactory;
+import io.github.rahulsinghai.jmeter.backendlistener.sink.RollingNdjsonWriter;
+import io.github.rahulsinghai.jmeter.backendlistener.sink.SinkMetrics;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import org.apache.jmeter.visualizers.backend.BackendListenerContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/** The {@link RecordSinkFactory} of <code>kafka.sink=file</code>. */
+public class NdjsonFileSinkFactory implements RecordSinkFactory {
+
+  private static final Logger logger = LoggerFactory.getLogger(NdjsonFileSinkFactory.class);
+
+  /** Directory of the files when neither it nor the topic is set. */
+  private static final String DEFAULT_DIRECTORY = "kafka-backend-listener-files";
+
+  /** Maximum number of blocks of rows waiting to be written. */
+  private static final int QUEUE_CAPACITY = 256;
+
+  private RollingNdjsonWriter writer;
+  private SinkMetrics metrics;
+
+  @Override
+  public void open(BackendListenerContext context, SinkMetrics metrics) throws IOException {
+    String directory =
+        context.getParameter(KafkaBackendClient.KAFKA_SINK_FILE_DIRECTORY, "").trim();
+    String topic = context.getParameter(KafkaBackendClient.KAFKA_TOPIC, "").trim();
+    if (directory.isEmpty()) {
+      // The file sink runs without Kafka, the topic may not be set
+      directory = topic.isEmpty() ? DEFAULT_DIRECTORY : "kafka-backend-listener-" + topic;
+    }
+    Path path = Paths.get(directory);
+    String compression =
+        context.getParameter(KafkaBackendClient.KAFKA_SINK_FILE_COMPRESSION, "gzip").trim();
+    boolean gzip = !compression.equalsIgnoreCase("none");
+    if (gzip && !compression.equalsIgnoreCase("gzip")) {
+      logger.warn(
+          "The parameter \"kafka.sink.file.compression\" isn't set properly, \"gzip\" will be"
+              + " used. Allowed values are: gzip and none.");
+    }
+    this.writer =
+        RollingNdjsonWriter.open(
+            path,
+            context.getLongParameter(
+                KafkaBackendClient.KAFKA_SINK_FILE_SEGMENT_BYTES, 128L * 1024 * 1024),
+            gzip,
+            context.getIntParameter(KafkaBackendClient.KAFKA_SINK_FILE_BUFFER_BYTES, 1024 * 1024),
+            QUEUE_CAPACITY);
+    this.metrics = metrics;
+    logger.info("Kafka Backend Listener writes the rows to files in {}.", path.toAbsolutePath());
+  }
+
+  @Override
+  public RecordSink newSink() {
+    return new NdjsonFileSink(this.writer, this.metrics);
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      this.writer.close();
+    } catch (IOException e) {
+      throw new IOException("Unable to complete the last file of " + this.writer.getDirectory(), e);
+    }
+  }
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright 2019 Rahul Singhai.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.rahulsinghai.jmeter.backendlistener.kafka;
+
+import java.util.Locale;
+
+/** What the asynchronous pipeline does with a sample when its buffer is full. */
+enum OverflowPolicy {
+  /** Wait for the sender threads to make room, i.e. apply backpressure to JMeter. */
+  BLOCK,
+
+  /** Drop the sample being added. */
+  DROP_NEWEST,
+
+  /**
+   * Drop successful samples once the buffer is three quarters full, keeping the last quarter for
+   * failed samples, which are only dropped when the buffer is completely full.
+   */
+  DROP_SUCCESSES_FIRST;
+
+  /**
+   * @param value One of "block", "drop-newest" or "drop-successes-first", case insensitive
+   * @return the matching policy
+   * @throws IllegalArgumentException if the value is not a known policy
+   */
+  static OverflowPolicy fromString(String value) {
+    return valueOf(value.trim().toUpperCase(Locale.ROOT).replace('-', '_'));
+  }
+}
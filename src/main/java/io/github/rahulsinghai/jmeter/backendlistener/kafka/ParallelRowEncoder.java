@@ -0,0 +1,212 @@
+/*
+ * Copyright 2019 Rahul Singhai.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.rahulsinghai.jmeter.backendlistener.kafka;
+
+import io.github.rahulsinghai.jmeter.backendlistener.model.EncodingRowWriter;
+import io.github.rahulsinghai.jmeter.backendlistener.model.MetricsRow;
+import io.github.rahulsinghai.jmeter.backendlistener.model.RowTemplate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import org.apache.jmeter.samplers.SampleResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Encodes the rows of a large batch of samples on a pool of threads, keeping the order of the
+ * samples. {@link #encode} must not be called concurrently.
+ */
+final class ParallelRowEncoder implements AutoCloseable {
+
+  private static final Logger logger = LoggerFactory.getLogger(ParallelRowEncoder.class);
+
+  /** Minimum number of samples per chunk, below which splitting costs more than it saves. */
+  private static final int MIN_CHUNK_SIZE = 128;
+
+  private final RecordKeys keys;
+  private final TierRouter router;
+  private final int threads;
+  private final int minBatchSize;
+  private final ExecutorService pool;
+  private final ThreadLocal<Encoder> encoders;
+  private RowBuffer[] chunks = new RowBuffer[0];
+  private LoadShedder shedder;
+  private ListenerMetrics metrics;
+
+  /**
+   * @param template The settings and constant fields of the test
+   * @param writers Creates the row writer of each pool thread
+   * @param keys Keys and timestamps of the records
+   * @param router Routes of the records
+   * @param threads Number of pool threads
+   * @param minBatchSize Minimum number of samples of a batch encoded in parallel
+   */
+  ParallelRowEncoder(
+      RowTemplate template,
+      Supplier<EncodingRowWriter> writers,
+      RecordKeys keys,
+      TierRouter router,
+      int threads,
+      int minBatchSize) {
+    this.keys = keys;
+    this.router = router;
+    this.threads = Math.max(1, threads);
+    this.minBatchSize = Math.max(minBatchSize, MIN_CHUNK_SIZE * 2);
+    this.encoders = ThreadLocal.withInitial(() -> new Encoder(template, writers.get()));
+    AtomicInteger count = new AtomicInteger();
+    this.pool =
+        Executors.newFixedThreadPool(
+            this.threads,
+            runnable -> {
+              Thread thread =
+                  new Thread(runnable, "kafka-backend-listener-encoder-" + count.getAndIncrement());
+              thread.setDaemon(true);
+              return thread;
+            });
+  }
+
+  /**
+   * Thins the rows according to the level of a load shedder.
+   *
+   * @param shedder The load shedder of the listener
+   */
+  void setLoadShedder(LoadShedder shedder) {
+    this.shedder = shedder;
+  }
+
+  /**
+   * Records the samples which could not be encoded.
+   *
+   * @param metrics The metrics of the listener
+   */
+  void setMetrics(ListenerMetrics metrics) {
+    this.metrics = metrics;
+  }
+
+  /**
+   * @param batchSize Number of samples of a batch
+   * @return true if the batch is large enough to be encoded in parallel
+   */
+  boolean isParallel(int batchSize) {
+    return batchSize >= this.minBatchSize;
+  }
+
+  /**
+   * Encodes the rows of the samples and adds them, in the order of the samples, to the list of the
+   * sink. A sample which cannot be encoded is logged and skipped; if a pool thread fails, the whole
+   * batch is.
+   *
+   * @param samples The samples, all to be published
+   * @param publisher The sink of the rows
+   * @throws InterruptedException if interrupted while waiting for the pool threads
+   */
+  void encode(List<SampleResult> samples, RowBufferSink publisher) throws InterruptedException {
+    int size = samples.size();
+    int chunkCount = Math.max(1, Math.min(this.threads * 4, size / MIN_CHUNK_SIZE));
+    if (this.chunks.length < chunkCount) {
+      int previous = this.chunks.length;
+      this.chunks = Arrays.copyOf(this.chunks, chunkCount);
+      for (int i = previous; i < chunkCount; i++) {
+        this.chunks[i] = new RowBuffer();
+      }
+    }
+
+    int level = this.shedder == null ? 0 : this.shedder.getLevel();
+    boolean withoutDetails = level >= LoadShedder.DETAILS;
+    boolean withoutHeaderFields = level >= LoadShedder.HEADER_FIELDS;
+    List<Callable<Integer>> tasks = new ArrayList<>(chunkCount);
+    for (int i = 0; i < chunkCount; i++) {
+      RowBuffer chunk = this.chunks[i];
+      int from = (int) ((long) size * i / chunkCount);
+      int to = (int) ((long) size * (i + 1) / chunkCount);
+      List<SampleResult> part = samples.subList(from, to);
+      tasks.add(
+          () -> {
+            Encoder encoder = this.encoders.get();
+            encoder.row.thin(level, withoutDetails, withoutHeaderFields);
+            return encoder.encode(part, chunk, this.keys, this.router, !withoutDetails);
+          });
+    }
+    // Until the chunks are added, none of the samples is published
+    int unencoded = size;
+    try {
+      int failed = 0;
+      for (Future<Integer> task : this.pool.invokeAll(tasks)) {
+        failed += task.get();
+      }
+      for (int i = 0; i < chunkCount; i++) {
+        publisher.addAll(this.chunks[i]);
+      }
+      unencoded = failed;
+    } catch (ExecutionException e) {
+      logger.error("The Kafka Backend Listener was unable to encode a batch of samples.", e);
+    } finally {
+      for (int i = 0; i < chunkCount; i++) {
+        this.chunks[i].clear();
+      }
+      if (this.metrics != null) {
+        this.metrics.recordSamplesUnencoded(unencoded);
+      }
+    }
+  }
+
+  /** Stops the pool threads. */
+  @Override
+  public void close() {
+    this.pool.shutdownNow();
+  }
+
+  /** The row and row writer of a pool thread. */
+  private static final class Encoder {
+    private final MetricsRow row;
+    private final EncodingRowWriter writer;
+
+    Encoder(RowTemplate template, EncodingRowWriter writer) {
+      this.row = new MetricsRow(template);
+      this.writer = writer;
+    }
+
+    /** @return the number of samples which could not be encoded */
+    int encode(
+        List<SampleResult> samples,
+        RowBuffer chunk,
+        RecordKeys keys,
+        TierRouter router,
+        boolean withDetails) {
+      int failed = 0;
+      for (SampleResult sr : samples) {
+        try {
+          this.row.reset(sr).writeRow(this.writer);
+          int route = router.routeOf(sr, withDetails);
+          chunk.add(this.writer, keys.keyOf(sr), keys.timestampOf(sr), route);
+        } catch (Exception e) {
+          logger.error("The Kafka Backend Listener was unable to encode a sample.", e);
+          failed++;
+        }
+      }
+      this.row.reset(null);
+      return failed;
+    }
+  }
+}
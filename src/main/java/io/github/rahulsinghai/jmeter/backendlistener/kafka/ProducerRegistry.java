@@ -0,0 +1,128 @@
+/*
+ * Copyright 2019 Rahul Singhai.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.rahulsinghai.jmeter.backendlistener.kafka;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.function.Function;
+import org.apache.kafka.clients.producer.Producer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Producers shared by the listeners of a JVM whose producer configurations and factories are equal.
+ * Thread-safe.
+ */
+final class ProducerRegistry {
+
+  private static final Logger logger = LoggerFactory.getLogger(ProducerRegistry.class);
+
+  /** The registry shared by all the listeners of the JVM. */
+  static final ProducerRegistry SHARED = new ProducerRegistry();
+
+  private final Map<List<Object>, Shared> producers = new HashMap<>();
+
+  /**
+   * Leases the producer of a configuration and factory, creating it if there is none.
+   *
+   * @param props Producer configuration; two configurations with the same values, whatever their
+   *     type, get the same producer
+   * @param factory Creates the producer if there is none; only equal factories share a producer
+   * @return the lease of the producer, to close when it is no longer used
+   */
+  Lease acquire(Properties props, Function<Properties, Producer<byte[], byte[]>> factory) {
+    Map<String, String> values = new TreeMap<>();
+    props.forEach((name, value) -> values.put(String.valueOf(name), String.valueOf(value)));
+    List<Object> key = Arrays.asList(values, factory);
+    Shared shared;
+    synchronized (this) {
+      shared = this.producers.get(key);
+      if (shared == null) {
+        shared = new Shared(key, factory.apply(props));
+        this.producers.put(key, shared);
+      } else {
+        logger.info(
+            "Kafka Backend Listener shares the producer of {} other listeners.", shared.leases);
+      }
+      shared.leases++;
+    }
+    return new Lease(shared);
+  }
+
+  /** @return the number of producers in use */
+  synchronized int size() {
+    return this.producers.size();
+  }
+
+  /**
+   * Releases a lease, removing the producer from the registry if it was the last one. The producer
+   * is flushed and closed outside the lock, so that a listener starting meanwhile gets a new one.
+   */
+  private void release(Shared shared) {
+    synchronized (this) {
+      if (--shared.leases > 0) {
+        return;
+      }
+      this.producers.remove(shared.key);
+    }
+    shared.producer.flush();
+    shared.producer.close();
+  }
+
+  /** A producer with the number of its leases. */
+  private static final class Shared {
+    final List<Object> key;
+    final Producer<byte[], byte[]> producer;
+    int leases;
+
+    Shared(List<Object> key, Producer<byte[], byte[]> producer) {
+      this.key = key;
+      this.producer = producer;
+    }
+  }
+
+  /** The use of a shared producer by a listener. */
+  final class Lease implements AutoCloseable {
+    private final Shared shared;
+    private boolean closed;
+
+    private Lease(Shared shared) {
+      this.shared = shared;
+    }
+
+    /** @return the producer, not to be closed directly */
+    Producer<byte[], byte[]> getProducer() {
+      return this.shared.producer;
+    }
+
+    /** Ends the lease; the producer is flushed and closed if it was the last one. */
+    @Override
+    public void close() {
+      synchronized (this) {
+        if (this.closed) {
+          return;
+        }
+        this.closed = true;
+      }
+      release(this.shared);
+    }
+  }
+}
@@ -0,0 +1,225 @@
+/*
+ * Copyright 2019 Rahul Singhai.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.rahulsinghai.jmeter.backendlistener.kafka;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import org.apache.jmeter.samplers.SampleResult;
+
+/** Computes the key and the timestamp of the Kafka record of each row. Immutable. */
+final class RecordKeys {
+
+  /** The former keys and timestamps: send time plus a sequence number, timestamp set on send. */
+  static final RecordKeys DEFAULT =
+      new RecordKeys(KeyStrategy.TIMESTAMP, RecordTimestamp.SEND, null, "");
+
+  /** Returned by the timestamp methods when the producer sets the timestamp. */
+  static final long NO_TIMESTAMP = -1L;
+
+  /** Names, lower-cased, of the fields that can be hashed by {@link KeyStrategy#FIELDS}. */
+  static final List<String> HASHABLE_FIELDS =
+      Arrays.asList(
+          "samplelabel",
+          "threadname",
+          "responsecode",
+          "url",
+          "contenttype",
+          "datatype",
+          "injectorhostname");
+
+  private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+  private static final long FNV_PRIME = 0x100000001b3L;
+
+  private final KeyStrategy strategy;
+  private final RecordTimestamp timestamp;
+  private final String[] hashedFields;
+  private final String hostName;
+  private final byte[] hostKey;
+
+  /**
+   * @param strategy How the keys are chosen
+   * @param timestamp Which time becomes the timestamp of the records
+   * @param hashedFields Names of the fields hashed by {@link KeyStrategy#FIELDS}, in any case
+   * @param hostName Host name of the injector
+   * @throws IllegalArgumentException if a hashed field is not one of {@link #HASHABLE_FIELDS}, or
+   *     if the strategy is FIELDS without any field
+   */
+  RecordKeys(
+      KeyStrategy strategy,
+      RecordTimestamp timestamp,
+      Collection<String> hashedFields,
+      String hostName) {
+    this.strategy = strategy;
+    this.timestamp = timestamp;
+    this.hostName = hostName;
+    this.hostKey = hostName.getBytes(StandardCharsets.UTF_8);
+    if (strategy != KeyStrategy.FIELDS) {
+      this.hashedFields = new String[0];
+      return;
+    }
+    if (hashedFields == null || hashedFields.isEmpty()) {
+      throw new IllegalArgumentException("No field to hash");
+    }
+    this.hashedFields = new String[hashedFields.size()];
+    int i = 0;
+    for (String field : hashedFields) {
+      String name = field.trim().toLowerCase(Locale.ROOT);
+      if (!HASHABLE_FIELDS.contains(name)) {
+        throw new IllegalArgumentException("Field " + field + " cannot be hashed");
+      }
+      this.hashedFields[i++] = name;
+    }
+  }
+
+  /**
+   * @return true if the rows have no key of their own, and are keyed by send time and sequence
+   *     number
+   */
+  boolean isSequential() {
+    return this.strategy == KeyStrategy.TIMESTAMP;
+  }
+
+  /**
+   * @param sr Sample of the row
+   * @return the key of the record of the sample, null if it has no key of its own
+   */
+  byte[] keyOf(SampleResult sr) {
+    switch (this.strategy) {
+      case LABEL:
+        return utf8(sr.getSampleLabel());
+      case THREAD:
+        return utf8(sr.getThreadName());
+      case HOST:
+        return this.hostKey;
+      case FIELDS:
+        long hash = FNV_OFFSET_BASIS;
+        for (String field : this.hashedFields) {
+          hash = hash(hash, fieldValue(sr, field));
+        }
+        return toBytes(hash);
+      default:
+        return null;
+    }
+  }
+
+  /**
+   * Keys summaries like the samples they summarize, as far as possible: summaries have no thread,
+   * and only their label and the injector host name can be hashed.
+   *
+   * @param label Label of the summary
+   * @return the key of the record of the summary, null if it has no key of its own
+   */
+  byte[] keyOfSummary(String label) {
+    switch (this.strategy) {
+      case LABEL:
+        return utf8(label);
+      case HOST:
+        return this.hostKey;
+      case FIELDS:
+        long hash = FNV_OFFSET_BASIS;
+        for (String field : this.hashedFields) {
+          String value = null;
+          if (field.equals("samplelabel")) {
+            value = label;
+          } else if (field.equals("injectorhostname")) {
+            value = this.hostName;
+          }
+          hash = hash(hash, value);
+        }
+        return toBytes(hash);
+      default:
+        return null;
+    }
+  }
+
+  /**
+   * @param sr Sample of the row
+   * @return the timestamp of the record of the sample, or {@link #NO_TIMESTAMP}
+   */
+  long timestampOf(SampleResult sr) {
+    return timestampOf(sr.getStartTime(), sr.getEndTime());
+  }
+
+  /**
+   * @param start Start time of the sample or interval, in milliseconds since the epoch
+   * @param end End time of the sample or interval, in milliseconds since the epoch
+   * @return the timestamp of the record, or {@link #NO_TIMESTAMP}
+   */
+  long timestampOf(long start, long end) {
+    switch (this.timestamp) {
+      case START:
+        return start;
+      case END:
+        return end;
+      default:
+        return NO_TIMESTAMP;
+    }
+  }
+
+  /**
+   * @param value A long
+   * @return the value as 8 big-endian bytes, as encoded by Kafka's LongSerializer
+   */
+  static byte[] toBytes(long value) {
+    byte[] bytes = new byte[8];
+    for (int i = 7; i >= 0; i--) {
+      bytes[i] = (byte) value;
+      value >>>= 8;
+    }
+    return bytes;
+  }
+
+  private String fieldValue(SampleResult sr, String field) {
+    switch (field) {
+      case "samplelabel":
+        return sr.getSampleLabel();
+      case "threadname":
+        return sr.getThreadName();
+      case "responsecode":
+        return sr.getResponseCode();
+      case "url":
+        return sr.getUrlAsString();
+      case "contenttype":
+        return sr.getContentType();
+      case "datatype":
+        return sr.getDataType();
+      case "injectorhostname":
+        return this.hostName;
+      default:
+        return null;
+    }
+  }
+
+  /**
+   * FNV-1a of the characters of the value, followed by a separator so that "ab","c" != "a","bc".
+   */
+  private static long hash(long hash, String value) {
+    if (value != null) {
+      for (int i = 0; i < value.length(); i++) {
+        hash = (hash ^ value.charAt(i)) * FNV_PRIME;
+      }
+    }
+    return (hash ^ 0xFFFF) * FNV_PRIME;
+  }
+
+  private static byte[] utf8(String value) {
+    return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright 2019 Rahul Singhai.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.rahulsinghai.jmeter.backendlistener.kafka;
+
+import java.util.Locale;
+
+/** The kinds of records that can be routed to a topic of their own by {@link TierRouter}. */
+enum RecordTier {
+  /** Rows of successful samples without request/response details: the bulk of the records. */
+  SUCCESS,
+
+  /** Rows of failed samples. */
+  FAILURE,
+
+  /** Rows of successful samples with their request/response details, in debug mode. */
+  DETAIL;
+
+  /** @return the name of the tier in the parameters, e.g. "success" */
+  String getName() {
+    return name().toLowerCase(Locale.ROOT);
+  }
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright 2019 Rahul Singhai.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.rahulsinghai.jmeter.backendlistener.kafka;
+
+import java.util.Locale;
+
+/** Which time is set as the timestamp of the Kafka records. */
+enum RecordTimestamp {
+  /** None: the producer uses the time the record is sent. */
+  SEND,
+
+  /** The start time of the sample, or of the interval of a summary. */
+  START,
+
+  /** The end time of the sample, or of the interval of a summary. */
+  END;
+
+  /**
+   * @param value One of "send", "start" or "end", case insensitive
+   * @return the matching timestamp
+   * @throws IllegalArgumentException if the value is not a known timestamp
+   */
+  static RecordTimestamp fromString(String value) {
+    return valueOf(value.trim().toUpperCase(Locale.ROOT));
+  }
+}
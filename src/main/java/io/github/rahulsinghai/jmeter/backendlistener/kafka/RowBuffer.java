@@ -0,0 +1,159 @@
+/*
+ * Copyright 2019 Rahul Singhai.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.rahulsinghai.jmeter.backendlistener.kafka;
+
+import io.github.rahulsinghai.jmeter.backendlistener.model.EncodingRowWriter;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+/**
+ * Reusable storage of the encoded rows waiting to be published, with their keys, timestamps and
+ * routes. Not thread-safe.
+ */
+final class RowBuffer {
+
+  private byte[] data = new byte[1 << 14];
+  private int dataSize;
+  private int[] offsets = new int[65];
+  private byte[][] keys = new byte[64][];
+  private long[] timestamps = new long[64];
+  private int[] routes = new int[64];
+  private int count;
+
+  /** @return the number of rows */
+  int size() {
+    return this.count;
+  }
+
+  /** Removes all the rows, keeping the arrays for the next ones. */
+  void clear() {
+    Arrays.fill(this.keys, 0, this.count, null);
+    this.count = 0;
+    this.dataSize = 0;
+  }
+
+  /**
+   * Adds the current row of a writer.
+   *
+   * @param writer Writer of the row
+   * @param key Key of its record, or null
+   * @param timestamp Timestamp of its record, or {@link RecordKeys#NO_TIMESTAMP}
+   * @param route Number of the {@link TierRouter} route of its record
+   */
+  void add(EncodingRowWriter writer, byte[] key, long timestamp, int route) {
+    int length = writer.size();
+    int offset = reserve(length, key, timestamp, route);
+    writer.copyTo(this.data, offset);
+  }
+
+  /**
+   * Adds an encoded row.
+   *
+   * @param row Encoded row
+   * @param key Key of its record, or null
+   * @param timestamp Timestamp of its record, or {@link RecordKeys#NO_TIMESTAMP}
+   * @param route Number of the {@link TierRouter} route of its record
+   */
+  void add(byte[] row, byte[] key, long timestamp, int route) {
+    int offset = reserve(row.length, key, timestamp, route);
+    System.arraycopy(row, 0, this.data, offset, row.length);
+  }
+
+  /**
+   * Adds all the rows of another buffer, after the rows of this one.
+   *
+   * @param other Another buffer
+   */
+  void addAll(RowBuffer other) {
+    for (int i = 0; i < other.count; i++) {
+      int offset = reserve(other.length(i), other.keys[i], other.timestamps[i], other.routes[i]);
+      System.arraycopy(other.data, other.offsets[i], this.data, offset, other.length(i));
+    }
+  }
+
+  private int reserve(int length, byte[] key, long timestamp, int route) {
+    if (this.count == this.keys.length) {
+      int capacity = this.count * 2;
+      this.offsets = Arrays.copyOf(this.offsets, capacity + 1);
+      this.keys = Arrays.copyOf(this.keys, capacity);
+      this.timestamps = Arrays.copyOf(this.timestamps, capacity);
+      this.routes = Arrays.copyOf(this.routes, capacity);
+    }
+    if (this.dataSize + length > this.data.length) {
+      this.data = Arrays.copyOf(this.data, Math.max(this.data.length << 1, this.dataSize + length));
+    }
+    int offset = this.dataSize;
+    this.offsets[this.count] = offset;
+    this.keys[this.count] = key;
+    this.timestamps[this.count] = timestamp;
+    this.routes[this.count] = route;
+    this.count++;
+    this.dataSize += length;
+    this.offsets[this.count] = this.dataSize;
+    return offset;
+  }
+
+  /**
+   * @param index Index of a row
+   * @return its length, in bytes
+   */
+  int length(int index) {
+    return this.offsets[index + 1] - this.offsets[index];
+  }
+
+  /**
+   * @param index Index of a row
+   * @return its key, or null
+   */
+  byte[] key(int index) {
+    return this.keys[index];
+  }
+
+  /**
+   * @param index Index of a row
+   * @return its timestamp, or {@link RecordKeys#NO_TIMESTAMP}
+   */
+  long timestamp(int index) {
+    return this.timestamps[index];
+  }
+
+  /**
+   * @param index Index of a row
+   * @return the number of the {@link TierRouter} route of its record
+   */
+  int route(int index) {
+    return this.routes[index];
+  }
+
+  /**
+   * @param index Index of a row
+   * @return a copy of the row, owned by the caller, e.g. as the value of a record
+   */
+  byte[] copyOf(int index) {
+    return Arrays.copyOfRange(this.data, this.offsets[index], this.offsets[index + 1]);
+  }
+
+  /**
+   * Appends a row to a stream, without copying it first.
+   *
+   * @param index Index of a row
+   * @param out Target of the row
+   */
+  void writeTo(int index, ByteArrayOutputStream out) {
+    out.write(this.data, this.offsets[index], length(index));
+  }
+}
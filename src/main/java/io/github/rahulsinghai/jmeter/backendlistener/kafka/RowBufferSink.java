@@ -0,0 +1,29 @@
+/*
+ * Copyright 2019 Rahul Singhai.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.rahulsinghai.jmeter.backendlistener.kafka;
+
+import io.github.rahulsinghai.jmeter.backendlistener.sink.RecordSink;
+
+/** A {@link RecordSink} also taking the rows encoded by the {@link ParallelRowEncoder}. */
+interface RowBufferSink extends RecordSink {
+
+  /**
+   * Adds rows encoded elsewhere to the list.
+   *
+   * @param rows Encoded rows
+   */
+  void addAll(RowBuffer rows);
+}
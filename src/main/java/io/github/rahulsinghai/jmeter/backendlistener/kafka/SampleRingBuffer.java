@@ -0,0 +1,130 @@
+/*
+ * Copyright 2019 Rahul Singhai.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.rahulsinghai.jmeter.backendlistener.kafka;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import org.apache.jmeter.samplers.SampleResult;
+
+/**
+ * Bounded lock-free multi-producer multi-consumer queue of samples, each stored with the time it
+ * was received.
+ */
+final class SampleRingBuffer {
+
+  private final int mask;
+  private final SampleResult[] samples;
+  private final long[] receivedAt;
+  private final AtomicLongArray sequences;
+  private final AtomicLong head = new AtomicLong();
+  private final AtomicLong tail = new AtomicLong();
+
+  /** @param capacity Maximum number of samples, rounded up to a power of two */
+  SampleRingBuffer(int capacity) {
+    if (capacity < 1 || capacity > 1 << 30) {
+      throw new IllegalArgumentException("Invalid buffer capacity: " + capacity);
+    }
+    int size = Integer.highestOneBit(capacity);
+    if (size < capacity) {
+      size <<= 1;
+    }
+    this.mask = size - 1;
+    this.samples = new SampleResult[size];
+    this.receivedAt = new long[size];
+    this.sequences = new AtomicLongArray(size);
+    for (int i = 0; i < size; i++) {
+      this.sequences.set(i, i);
+    }
+  }
+
+  /**
+   * Adds a sample, if the buffer is not full.
+   *
+   * @param sample The sample
+   * @param time The time the sample was received, in milliseconds since the epoch
+   * @return false if the buffer is full
+   */
+  boolean offer(SampleResult sample, long time) {
+    long position = this.tail.get();
+    int index;
+    while (true) {
+      index = (int) (position & this.mask);
+      long difference = this.sequences.get(index) - position;
+      if (difference == 0) {
+        if (this.tail.compareAndSet(position, position + 1)) {
+          break;
+        }
+        position = this.tail.get();
+      } else if (difference < 0) {
+        return false;
+      } else {
+        position = this.tail.get();
+      }
+    }
+    this.samples[index] = sample;
+    this.receivedAt[index] = time;
+    this.sequences.lazySet(index, position + 1);
+    return true;
+  }
+
+  /**
+   * Moves up to <code>max</code> samples, oldest first, to the given arrays.
+   *
+   * @param sampleBatch Array receiving the samples
+   * @param timeBatch Array receiving the times the samples were received
+   * @param max Maximum number of samples to move
+   * @return the number of samples moved, 0 if the buffer is empty
+   */
+  int drainTo(SampleResult[] sampleBatch, long[] timeBatch, int max) {
+    int count = 0;
+    while (count < max) {
+      long position = this.head.get();
+      int index;
+      while (true) {
+        index = (int) (position & this.mask);
+        long difference = this.sequences.get(index) - (position + 1);
+        if (difference == 0) {
+          if (this.head.compareAndSet(position, position + 1)) {
+            break;
+          }
+          position = this.head.get();
+        } else if (difference < 0) {
+          return count;
+        } else {
+          position = this.head.get();
+        }
+      }
+      sampleBatch[count] = this.samples[index];
+      timeBatch[count] = this.receivedAt[index];
+      this.samples[index] = null;
+      this.sequences.lazySet(index, position + this.mask + 1);
+      count++;
+    }
+    return count;
+  }
+
+  /** @return the approximate number of samples in the buffer */
+  int size() {
+    long size = this.tail.get() - this.head.get();
+    return (int) Math.max(0, Math.min(size, capacity()));
+  }
+
+  /** @return the maximum number of samples in the buffer */
+  int capacity() {
+    return this.mask + 1;
+  }
+}
@@ -0,0 +1,351 @@
+/*
+ * Copyright 2019 Rahul Singhai.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.rahulsinghai.jmeter.backendlistener.kafka;
+
+import io.github.rahulsinghai.jmeter.backendlistener.journal.SpillJournal;
+import java.io.IOException;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.errors.RetriableException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/** Keeps the records Kafka cannot take in a {@link SpillJournal}, and replays them once it can. */
+class Spillover {
+
+  private static final Logger logger = LoggerFactory.getLogger(Spillover.class);
+
+  /** Maximum number of replayed records waiting for their acknowledgment. */
+  private static final int REPLAY_CHUNK = 1000;
+
+  /** Maximum number of spilled records waiting to be appended to the journal. */
+  private static final int PENDING_CAPACITY = 8192;
+
+  /** Time the writer thread waits for a record before checking whether it must stop. */
+  private static final long WRITER_POLL_MILLIS = 100L;
+
+  private final SpillJournal journal;
+  private final Producer<byte[], byte[]> producer;
+  private final String topic;
+  private final ListenerMetrics metrics;
+  private final long replayIntervalMillis;
+  private final Thread replayer;
+  private final Thread writer;
+  private final BlockingQueue<ProducerRecord<byte[], byte[]>> pending =
+      new ArrayBlockingQueue<>(PENDING_CAPACITY);
+  private final AtomicLong pendingDropped = new AtomicLong();
+  private volatile boolean degraded;
+  private volatile boolean closed;
+
+  /**
+   * @param journal Journal of the records not sent
+   * @param producer Producer replaying the records
+   * @param topic Kafka topic
+   * @param metrics Metrics of the listener
+   * @param replayIntervalMillis Time between two replays of the journal
+   */
+  Spillover(
+      SpillJournal journal,
+      Producer<byte[], byte[]> producer,
+      String topic,
+      ListenerMetrics metrics,
+      long replayIntervalMillis) {
+    this.journal = journal;
+    this.producer = producer;
+    this.topic = topic;
+    this.metrics = metrics;
+    this.replayIntervalMillis = replayIntervalMillis;
+    // Segments left by a previous test are replayed first
+    this.degraded = !journal.isEmpty();
+    this.replayer = new Thread(this::run, "kafka-backend-listener-replayer");
+    this.replayer.setDaemon(true);
+    this.writer = new Thread(this::write, "kafka-backend-listener-spill-writer");
+    this.writer.setDaemon(true);
+  }
+
+  /** Starts the background replay, and the writing of the spilled records. */
+  void start() {
+    this.writer.start();
+    this.replayer.start();
+  }
+
+  /** @return true if records must be spilled without trying the producer */
+  boolean isDegraded() {
+    return this.degraded;
+  }
+
+  /**
+   * Spills a record if it failed with a retriable error, handing it over to the writer thread.
+   *
+   * @param record The record
+   * @param time Time the record was published, its timestamp if it has none
+   * @param exception Why the record failed, or null if it was not handed to the producer
+   * @return true if the record was spilled
+   */
+  boolean spill(ProducerRecord<byte[], byte[]> record, long time, Exception exception) {
+    if (exception != null && !(exception instanceof RetriableException)) {
+      return false;
+    }
+    this.degraded = true;
+    ProducerRecord<byte[], byte[]> spilled =
+        new ProducerRecord<>(
+            record.topic(),
+            record.partition(),
+            record.timestamp() == null ? time : record.timestamp(),
+            record.key(),
+            record.value());
+    if (this.pending.offer(spilled)) {
+      this.metrics.recordSpill();
+      return true;
+    }
+    this.pendingDropped.incrementAndGet();
+    this.metrics.recordSpillDropped();
+    return false;
+  }
+
+  /**
+   * Marks the spillover as degraded after a failure outside of a send, e.g. while fetching the
+   * partitions of the topic.
+   *
+   * @param exception The failure
+   */
+  void degrade(RuntimeException exception) {
+    if (!(exception instanceof RetriableException)) {
+      throw exception;
+    }
+    this.degraded = true;
+  }
+
+  /**
+   * Stops the background replay, and replays what is left of the journal within a time budget. What
+   * cannot be replayed in time stays in the journal's directory for the next test.
+   *
+   * @param budgetMillis Maximum time spent replaying
+   * @return true if the whole journal was replayed
+   * @throws InterruptedException if interrupted while waiting for the background replay to stop
+   */
+  boolean close(long budgetMillis) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + budgetMillis;
+    this.closed = true;
+    this.replayer.interrupt();
+    this.replayer.join(Math.max(1, budgetMillis));
+    this.writer.join(Math.max(1, deadline - System.currentTimeMillis()));
+    if (!this.writer.isAlive()) {
+      appendPending();
+    }
+
+    // Two replays of the same segment would send it twice
+    if (!this.replayer.isAlive()) {
+      while (!this.journal.isEmpty() && System.currentTimeMillis() < deadline) {
+        if (!replay(deadline)) {
+          long wait = Math.min(this.replayIntervalMillis, deadline - System.currentTimeMillis());
+          Thread.sleep(Math.max(0, wait));
+        }
+      }
+    }
+    boolean replayed = this.journal.isEmpty();
+    if (!replayed) {
+      logger.warn(
+          "Kafka Backend Listener could not replay {} segments of spilled records within {} ms,"
+              + " they are kept in {} for the next test.",
+          this.journal.getSegmentCount(),
+          budgetMillis,
+          this.journal.getDirectory());
+    }
+    long dropped = this.journal.getDroppedCount() + this.pendingDropped.get();
+    if (dropped > 0) {
+      logger.warn(
+          "Kafka Backend Listener dropped {} records because its spill journal was full.", dropped);
+    }
+    try {
+      this.journal.close();
+    } catch (IOException e) {
+      logger.warn("Unable to close the spill journal of the Kafka Backend Listener.", e);
+    }
+    return replayed;
+  }
+
+  private void run() {
+    while (!this.closed) {
+      try {
+        Thread.sleep(this.replayIntervalMillis);
+      } catch (InterruptedException e) {
+        return;
+      }
+      if (!this.journal.isEmpty()) {
+        replay(Long.MAX_VALUE);
+      }
+    }
+  }
+
+  private void write() {
+    // Not interrupted: mapping a segment file would fail, and lose the record
+    while (!this.closed) {
+      ProducerRecord<byte[], byte[]> record;
+      try {
+        record = this.pending.poll(WRITER_POLL_MILLIS, TimeUnit.MILLISECONDS);
+      } catch (InterruptedException e) {
+        return;
+      }
+      if (record != null) {
+        append(record);
+        appendPending();
+      }
+    }
+  }
+
+  /** Appends the records handed over by {@link #spill} to the journal. */
+  private void appendPending() {
+    ProducerRecord<byte[], byte[]> record;
+    while ((record = this.pending.poll()) != null) {
+      append(record);
+    }
+  }
+
+  private void append(ProducerRecord<byte[], byte[]> record) {
+    try {
+      // A full journal counts the record as dropped
+      this.journal.append(
+          record.partition() == null ? -1 : record.partition(),
+          record.timestamp(),
+          record.key(),
+          record.value());
+    } catch (IllegalStateException e) {
+      logger.error("Kafka Backend Listener was unable to spill a record.", e);
+    }
+  }
+
+  /**
+   * Replays the segments sealed when the replay starts, oldest first; records spilled meanwhile are
+   * replayed by the next replay. A segment is deleted once all its records have been acknowledged,
+   * or failed with a non-retriable error. The replay stops at the first record failing again, or at
+   * the deadline: that segment and the following ones stay in the journal, untouched.
+   *
+   * @param deadline Time to stop at, in milliseconds since the epoch
+   * @return true if all the segments were replayed
+   */
+  boolean replay(long deadline) {
+    appendPending();
+    this.journal.seal();
+    for (Path segment : this.journal.getSealedSegments()) {
+      if (System.currentTimeMillis() >= deadline) {
+        return false;
+      }
+      try {
+        if (!replaySegment(segment, deadline)) {
+          return false;
+        }
+        this.journal.delete(segment);
+      } catch (ClosedByInterruptException e) {
+        return false;
+      } catch (IOException e) {
+        logger.error("Kafka Backend Listener was unable to replay {}.", segment, e);
+        return false;
+      }
+    }
+    this.degraded = false;
+    return true;
+  }
+
+  /**
+   * @param segment A sealed segment
+   * @param deadline Time to stop at, in milliseconds since the epoch
+   * @return true if all the records of the segment were acknowledged
+   */
+  private boolean replaySegment(Path segment, long deadline) throws IOException {
+    Replay replay = new Replay(deadline);
+    SpillJournal.read(segment, replay);
+    replay.awaitAll();
+    return replay.acknowledged;
+  }
+
+  /** Sends the entries of a segment, until one of them fails with a retriable error. */
+  private final class Replay implements SpillJournal.EntryVisitor {
+
+    private final long deadline;
+    private final List<Future<RecordMetadata>> futures = new ArrayList<>();
+    private boolean acknowledged = true;
+
+    Replay(long deadline) {
+      this.deadline = deadline;
+    }
+
+    @Override
+    public boolean visit(int partition, long timestamp, byte[] key, byte[] value) {
+      if (System.currentTimeMillis() >= this.deadline) {
+        this.acknowledged = false;
+        return false;
+      }
+      try {
+        this.futures.add(
+            producer.send(
+                new ProducerRecord<>(
+                    topic, partition < 0 ? null : partition, timestamp, key, value)));
+      } catch (RuntimeException e) {
+        logger.debug("Replay of spilled records interrupted: {}", e.toString());
+        this.acknowledged = false;
+        return false;
+      }
+      // A failed send is often known at once, e.g. when the metadata cannot be fetched
+      Future<RecordMetadata> last = this.futures.get(this.futures.size() - 1);
+      if (last.isDone() || this.futures.size() == REPLAY_CHUNK) {
+        awaitAll();
+      }
+      return this.acknowledged;
+    }
+
+    /** Waits for the records sent, until one of them fails with a retriable error. */
+    void awaitAll() {
+      for (Future<RecordMetadata> future : this.futures) {
+        if (!this.acknowledged) {
+          break;
+        }
+        try {
+          long timeout = Math.max(0, this.deadline - System.currentTimeMillis());
+          future.get(timeout, TimeUnit.MILLISECONDS);
+          metrics.recordReplay();
+        } catch (ExecutionException e) {
+          if (e.getCause() instanceof RetriableException) {
+            logger.debug("Replay of spilled records interrupted: {}", e.getCause().toString());
+            this.acknowledged = false;
+          } else {
+            // Would fail at every replay
+            logger.error("Kafka Backend Listener dropped a spilled record.", e.getCause());
+          }
+        } catch (java.util.concurrent.TimeoutException e) {
+          // Possibly sent, possibly replayed twice
+          this.acknowledged = false;
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          this.acknowledged = false;
+        }
+      }
+      this.futures.clear();
+    }
+  }
+}
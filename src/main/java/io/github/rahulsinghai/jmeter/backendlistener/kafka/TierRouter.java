@@ -0,0 +1,140 @@
+/*
+ * Copyright 2019 Rahul Singhai.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.rahulsinghai.jmeter.backendlistener.kafka;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import org.apache.jmeter.samplers.SampleResult;
+import org.apache.kafka.clients.producer.Producer;
+
+/**
+ * Chooses the topic and the producer of the row of each sample according to its {@link RecordTier}.
+ * Immutable.
+ */
+final class TierRouter {
+
+  /** Number of the route of the listener's topic and producer. */
+  static final int DEFAULT_ROUTE = 0;
+
+  private final Route[] routes;
+  private final int[] tierRoutes = new int[RecordTier.values().length];
+  private final boolean detailsOnSuccess;
+
+  /**
+   * A router sending every row to the listener's topic.
+   *
+   * @param defaultRoute The listener's topic and producer
+   */
+  TierRouter(Route defaultRoute) {
+    this(defaultRoute, new EnumMap<>(RecordTier.class), false);
+  }
+
+  /**
+   * @param defaultRoute The listener's topic and producer
+   * @param tierRoutes Routes of the tiers which have their own
+   * @param detailsOnSuccess Whether the rows of successful samples have details (debug mode)
+   */
+  TierRouter(Route defaultRoute, Map<RecordTier, Route> tierRoutes, boolean detailsOnSuccess) {
+    List<Route> routes = new ArrayList<>();
+    routes.add(defaultRoute);
+    for (Map.Entry<RecordTier, Route> tierRoute : tierRoutes.entrySet()) {
+      int route = routes.indexOf(tierRoute.getValue());
+      if (route < 0) {
+        route = routes.size();
+        routes.add(tierRoute.getValue());
+      }
+      this.tierRoutes[tierRoute.getKey().ordinal()] = route;
+    }
+    this.routes = routes.toArray(new Route[0]);
+    this.detailsOnSuccess = detailsOnSuccess;
+  }
+
+  /**
+   * @param sr A sample
+   * @param withDetails Whether its row was written with the details of the test mode, i.e. they
+   *     were not left out by the {@link LoadShedder}
+   * @return the tier of its row
+   */
+  RecordTier tierOf(SampleResult sr, boolean withDetails) {
+    if (!sr.isSuccessful()) {
+      return RecordTier.FAILURE;
+    }
+    return this.detailsOnSuccess && withDetails ? RecordTier.DETAIL : RecordTier.SUCCESS;
+  }
+
+  /**
+   * @param sr A sample
+   * @param withDetails Whether its row was written with the details of the test mode
+   * @return the number of the route of its row
+   */
+  int routeOf(SampleResult sr, boolean withDetails) {
+    return this.tierRoutes[tierOf(sr, withDetails).ordinal()];
+  }
+
+  /**
+   * @param route Number of a route
+   * @return the route
+   */
+  Route get(int route) {
+    return this.routes[route];
+  }
+
+  /** @return the number of routes, including the default one */
+  int size() {
+    return this.routes.length;
+  }
+
+  /** A topic and the producer sending to it. */
+  static final class Route {
+    private final String topic;
+    private final Producer<byte[], byte[]> producer;
+
+    /**
+     * @param topic Kafka topic
+     * @param producer Producer of the records of the topic
+     */
+    Route(String topic, Producer<byte[], byte[]> producer) {
+      this.topic = topic;
+      this.producer = producer;
+    }
+
+    String getTopic() {
+      return this.topic;
+    }
+
+    Producer<byte[], byte[]> getProducer() {
+      return this.producer;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Route)) {
+        return false;
+      }
+      Route other = (Route) o;
+      return Objects.equals(this.topic, other.topic) && this.producer == other.producer;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hashCode(this.topic) * 31 + System.identityHashCode(this.producer);
+    }
+  }
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright 2019 Rahul Singhai.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.rahulsinghai.jmeter.backendlistener.model;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes the request and response bodies within a maximum size, truncated and encoded as
+ * configured. Immutable.
+ */
+public final class BodyEncoder {
+
+  /** Writes the bodies in full, as text. */
+  public static final BodyEncoder UNBOUNDED =
+      new BodyEncoder(0, BodyTruncation.HEAD_TAIL, BodyEncoding.TEXT);
+
+  private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+  private final int maxBytes;
+  private final BodyTruncation truncation;
+  private final BodyEncoding encoding;
+
+  /**
+   * @param maxBytes Maximum size of a body, in bytes (in characters for bodies JMeter keeps as
+   *     text); 0 for no maximum
+   * @param truncation Which part of a larger body is kept
+   * @param encoding How the body is written to the row
+   */
+  public BodyEncoder(int maxBytes, BodyTruncation truncation, BodyEncoding encoding) {
+    this.maxBytes = Math.max(0, maxBytes);
+    this.truncation = truncation;
+    this.encoding = encoding;
+  }
+
+  public int getMaxBytes() {
+    return this.maxBytes;
+  }
+
+  public BodyTruncation getTruncation() {
+    return this.truncation;
+  }
+
+  public BodyEncoding getEncoding() {
+    return this.encoding;
+  }
+
+  /**
+   * Encodes a body JMeter keeps as bytes, e.g. the response data, without decoding more of it than
+   * is kept.
+   *
+   * @param body The body
+   * @param charset Name of the encoding of the body, used to decode it as text
+   * @return the bounded and encoded body, or null if the body is null
+   */
+  public String encode(byte[] body, String charset) {
+    if (body == null) {
+      return null;
+    }
+    if (this.encoding == BodyEncoding.SHA256) {
+      return sha256(body);
+    }
+    Charset decoder = charset(charset);
+    int headLength = body.length;
+    int tailLength = 0;
+    if (isTruncated(body.length)) {
+      headLength = headLength(this.maxBytes);
+      tailLength = this.maxBytes - headLength;
+      if (StandardCharsets.UTF_8.equals(decoder)) {
+        // Cut between the characters, never within the bytes of one
+        while (headLength > 0 && isContinuationByte(body[headLength])) {
+          headLength--;
+        }
+        while (tailLength > 0 && isContinuationByte(body[body.length - tailLength])) {
+          tailLength--;
+        }
+      }
+    }
+    int removed = body.length - headLength - tailLength;
+
+    if (this.encoding == BodyEncoding.TEXT) {
+      if (removed == 0) {
+        return new String(body, decoder);
+      }
+      StringBuilder text = new StringBuilder(this.maxBytes + 48);
+      text.append(new String(body, 0, headLength, decoder));
+      appendMarker(text, removed);
+      text.append(new String(body, body.length - tailLength, tailLength, decoder));
+      return text.toString();
+    }
+
+    byte[] kept = body;
+    if (removed > 0) {
+      byte[] marker =
+          appendMarker(new StringBuilder(), removed).toString().getBytes(StandardCharsets.US_ASCII);
+      kept = new byte[headLength + marker.length + tailLength];
+      System.arraycopy(body, 0, kept, 0, headLength);
+      System.arraycopy(marker, 0, kept, headLength, marker.length);
+      System.arraycopy(
+          body, body.length - tailLength, kept, headLength + marker.length, tailLength);
+    }
+    return Base64.getEncoder()
+        .encodeToString(this.encoding == BodyEncoding.GZIP_BASE64 ? gzip(kept) : kept);
+  }
+
+  /**
+   * Encodes a body JMeter keeps as text, e.g. the sampler data of the request.
+   *
+   * @param body The body
+   * @return the bounded and encoded body, or null if the body is null
+   */
+  public String encode(String body) {
+    if (body == null) {
+      return null;
+    }
+    if (this.encoding != BodyEncoding.TEXT) {
+      return encode(body.getBytes(StandardCharsets.UTF_8), StandardCharsets.UTF_8.name());
+    }
+    if (!isTruncated(body.length())) {
+      return body;
+    }
+    int headLength = headLength(this.maxBytes);
+    int tailLength = this.maxBytes - headLength;
+    // Cut between the characters, never between the two halves of a surrogate pair
+    if (headLength > 0 && Character.isHighSurrogate(body.charAt(headLength - 1))) {
+      headLength--;
+    }
+    if (tailLength > 0 && Character.isLowSurrogate(body.charAt(body.length() - tailLength))) {
+      tailLength--;
+    }
+    int removed = body.length() - headLength - tailLength;
+    StringBuilder text = new StringBuilder(this.maxBytes + 48);
+    text.append(body, 0, headLength);
+    appendMarker(text, removed);
+    text.append(body, body.length() - tailLength, body.length());
+    return text.toString();
+  }
+
+  private boolean isTruncated(int length) {
+    return this.maxBytes > 0 && length > this.maxBytes;
+  }
+
+  /**
+   * @param kept Number of bytes kept
+   * @return the number of bytes kept from the beginning of the body
+   */
+  private int headLength(int kept) {
+    switch (this.truncation) {
+      case HEAD:
+        return kept;
+      case TAIL:
+        return 0;
+      default:
+        return kept - kept / 2;
+    }
+  }
+
+  /** @return true if the byte continues the UTF-8 encoding of a character, without starting it */
+  private static boolean isContinuationByte(byte b) {
+    return (b & 0xc0) == 0x80;
+  }
+
+  private static StringBuilder appendMarker(StringBuilder text, int removed) {
+    return text.append("\n[... ").append(removed).append(" bytes truncated ...]\n");
+  }
+
+  private static Charset charset(String name) {
+    try {
+      return name == null ? StandardCharsets.UTF_8 : Charset.forName(name);
+    } catch (IllegalArgumentException e) {
+      return StandardCharsets.UTF_8;
+    }
+  }
+
+  private static byte[] gzip(byte[] bytes) {
+    ByteArrayOutputStream compressed = new ByteArrayOutputStream(bytes.length / 4 + 32);
+    try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+      gzip.write(bytes);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return compressed.toByteArray();
+  }
+
+  private static String sha256(byte[] bytes) {
+    byte[] hash;
+    try {
+      hash = MessageDigest.getInstance("SHA-256").digest(bytes);
+    } catch (NoSuchAlgorithmException e) {
+      // Every Java platform supports SHA-256
+      throw new IllegalStateException(e);
+    }
+    char[] hex = new char[7 + hash.length * 2];
+    "sha256:".getChars(0, 7, hex, 0);
+    for (int i = 0; i < hash.length; i++) {
+      hex[7 + 2 * i] = HEX_DIGITS[(hash[i] >> 4) & 0xf];
+      hex[8 + 2 * i] = HEX_DIGITS[hash[i] & 0xf];
+    }
+    return new String(hex);
+  }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2019 Rahul Singhai.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.rahulsinghai.jmeter.backendlistener.model;
+
+import java.util.Locale;
+
+/** How a request or response body is written to the row. */
+public enum BodyEncoding {
+  /** As text, decoded with the encoding of the sample. */
+  TEXT,
+
+  /** As the Base64 encoding of its bytes, for binary bodies. */
+  BASE64,
+
+  /** As the Base64 encoding of its bytes compressed with gzip. */
+  GZIP_BASE64,
+
+  /**
+   * As <code>sha256:</code> followed by the hexadecimal SHA-256 hash of the whole body, to tell
+   * whether bodies differ without sending them.
+   */
+  SHA256;
+
+  /**
+   * @param value One of "text", "base64", "gzip-base64" or "sha256", case insensitive
+   * @return the matching encoding
+   * @throws IllegalArgumentException if the value is not a known encoding
+   */
+  public static BodyEncoding fromString(String value) {
+    return valueOf(value.trim().toUpperCase(Locale.ROOT).replace('-', '_'));
+  }
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright 2019 Rahul Singhai.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.rahulsinghai.jmeter.backendlistener.model;
+
+import java.util.Locale;
+
+/** Which part of a body is kept when it is larger than the maximum size. */
+public enum BodyTruncation {
+  /** Keep the beginning of the body. */
+  HEAD,
+
+  /** Keep the end of the body. */
+  TAIL,
+
+  /** Keep the beginning and the end of the body, half of the maximum size each. */
+  HEAD_TAIL;
+
+  /**
+   * @param value One of "head", "tail" or "head-tail", case insensitive
+   * @return the matching truncation
+   * @throws IllegalArgumentException if the value is not a known truncation
+   */
+  public static BodyTruncation fromString(String value) {
+    return valueOf(value.trim().toUpperCase(Locale.ROOT).replace('-', '_'));
+  }
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright 2019 Rahul Singhai.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.rahulsinghai.jmeter.backendlistener.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Ordered fields whose value is the same for every sample of a test, pre-serialized as a JSON
+ * fragment. Immutable.
+ */
+public final class ConstantFields {
+
+  /** Constant fields without any field. */
+  public static final ConstantFields EMPTY = new Builder().build();
+
+  private final String[] keys;
+  private final Object[] values;
+  private final byte[] json;
+  /** Position of each field in the fragment: of its key for the first, of its comma otherwise. */
+  private final int[] offsets;
+
+  private ConstantFields(String[] keys, Object[] values) {
+    this.keys = keys;
+    this.values = values;
+    this.offsets = new int[keys.length];
+
+    JsonRowWriter jsonRowWriter = new JsonRowWriter();
+    jsonRowWriter.beginRow();
+    for (int i = 0; i < keys.length; i++) {
+      // Without the opening brace
+      this.offsets[i] = jsonRowWriter.size() - 1;
+      writeFieldTo(jsonRowWriter, i);
+    }
+    jsonRowWriter.endRow();
+    byte[] document = jsonRowWriter.toByteArray();
+    this.json = Arrays.copyOfRange(document, 1, document.length - 1);
+  }
+
+  /** @return the number of fields */
+  public int size() {
+    return this.keys.length;
+  }
+
+  /** @return the UTF-8 JSON fragment, e.g. <code>"a":1,"b":"c"</code>; must not be modified */
+  byte[] getJson() {
+    return this.json;
+  }
+
+  /**
+   * @param index Index of a field
+   * @return its key
+   */
+  String getKey(int index) {
+    return this.keys[index];
+  }
+
+  /**
+   * @param index Index of a field
+   * @return its position in the fragment: of its key for the first field, of the comma before its
+   *     key otherwise
+   */
+  int getOffset(int index) {
+    return this.offsets[index];
+  }
+
+  /**
+   * @param key Field name
+   * @param value New value of the field
+   * @return a copy of these fields with the value of the given one replaced, these fields if they
+   *     do not contain it
+   */
+  public ConstantFields with(String key, long value) {
+    for (int i = 0; i < this.keys.length; i++) {
+      if (this.keys[i].equals(key)) {
+        Object[] copy = this.values.clone();
+        copy[i] = value;
+        return new ConstantFields(this.keys, copy);
+      }
+    }
+    return this;
+  }
+
+  /**
+   * Writes the fields one by one, for writers that cannot use the pre-serialized fragment.
+   *
+   * @param rowWriter The target of the fields
+   */
+  public void writeFieldsTo(RowWriter rowWriter) {
+    for (int i = 0; i < this.keys.length; i++) {
+      writeFieldTo(rowWriter, i);
+    }
+  }
+
+  private void writeFieldTo(RowWriter rowWriter, int index) {
+    if (this.values[index] instanceof Long) {
+      rowWriter.writeLong(this.keys[index], (Long) this.values[index]);
+    } else {
+      rowWriter.writeString(this.keys[index], (String) this.values[index]);
+    }
+  }
+
+  /** Collects the constant fields of a test; the order of the fields is preserved. */
+  public static final class Builder {
+
+    private final List<String> keys = new ArrayList<>();
+    private final List<Object> values = new ArrayList<>();
+
+    public Builder add(String key, long value) {
+      remove(key);
+      this.keys.add(key);
+      this.values.add(value);
+      return this;
+    }
+
+    public Builder add(String key, String value) {
+      if (value != null) {
+        remove(key);
+        this.keys.add(key);
+        this.values.add(value);
+      }
+      return this;
+    }
+
+    /**
+     * Adds a field whose value is a number if it can be parsed as such, and a string otherwise.
+     *
+     * @param key Field name
+     * @param value Field value, as configured by the user
+     * @return this builder
+     */
+    public Builder addTyped(String key, String value) {
+      return isLong(value) ? add(key, Long.parseLong(value)) : add(key, value);
+    }
+
+    /** Removes the former value of a key added again, which replaces it. */
+    private void remove(String key) {
+      int index = this.keys.indexOf(key);
+      if (index >= 0) {
+        this.keys.remove(index);
+        this.values.remove(index);
+      }
+    }
+
+    public ConstantFields build() {
+      return new ConstantFields(this.keys.toArray(new String[0]), this.values.toArray());
+    }
+
+    private static boolean isLong(String value) {
+      int length = value.length();
+      int start = length > 1 && (value.charAt(0) == '-' || value.charAt(0) == '+') ? 1 : 0;
+      if (length == 0 || length - start > 19) {
+        return false;
+      }
+      for (int i = start; i < length; i++) {
+        if (value.charAt(i) < '0' || value.charAt(i) > '9') {
+          return false;
+        }
+      }
+      if (length - start < 19) {
+        return true;
+      }
+      try {
+        Long.parseLong(value);
+        return true;
+      } catch (NumberFormatException e) {
+        return false;
+      }
+    }
+  }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2019 Rahul Singhai.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.rahulsinghai.jmeter.backendlistener.model;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+import java.time.zone.ZoneOffsetTransition;
+
+/**
+ * Computes the ElapsedTime and ElapsedTimeComparison fields: the time elapsed since the start of
+ * the test as a time of the current day, or of 2019-07-01. Thread-safe.
+ */
+public final class ElapsedTimeClock {
+
+  private static final long SECONDS_PER_DAY = 86400L;
+
+  private final long testStartTime;
+  private final ZoneId zone;
+  private final boolean sampleTimes;
+  private final Day comparisonDay;
+  private volatile Day today;
+
+  /**
+   * @param testStartTime Start time of the test, in milliseconds since the epoch
+   * @param zone Time zone in which the times of day are expressed
+   */
+  public ElapsedTimeClock(long testStartTime, ZoneId zone) {
+    this(testStartTime, zone, false);
+  }
+
+  private ElapsedTimeClock(long testStartTime, ZoneId zone, boolean sampleTimes) {
+    this.testStartTime = testStartTime;
+    this.zone = zone;
+    this.sampleTimes = sampleTimes;
+    this.comparisonDay = new Day(LocalDate.of(2019, 7, 1), zone);
+  }
+
+  /**
+   * @param testStartTime Start time of a past test, in milliseconds since the epoch
+   * @return a clock in the same time zone computing the elapsed times of the samples of that test
+   *     at their end time
+   */
+  public ElapsedTimeClock forPastTest(long testStartTime) {
+    return new ElapsedTimeClock(testStartTime, this.zone, true);
+  }
+
+  /**
+   * @return true if the elapsed time of a sample is computed at its end time, false if at the time
+   *     it is received
+   */
+  public boolean isSampleTimes() {
+    return this.sampleTimes;
+  }
+
+  /**
+   * @param now Current time, in milliseconds since the epoch
+   * @return the elapsed time of the test as a time of the current day, in milliseconds since the
+   *     epoch
+   */
+  public long getElapsedTime(long now) {
+    Day day = this.today;
+    if (day == null || now < day.midnight || now >= day.nextMidnight) {
+      day = new Day(Instant.ofEpochMilli(now).atZone(this.zone).toLocalDate(), this.zone);
+      this.today = day;
+    }
+    return getTime(day, getTimeOfDay(now));
+  }
+
+  /**
+   * @param now Current time, in milliseconds since the epoch
+   * @return the elapsed time of the test as a time of 2019-07-01, in milliseconds since the epoch
+   */
+  public long getElapsedTimeComparison(long now) {
+    return getTime(this.comparisonDay, getTimeOfDay(now));
+  }
+
+  private long getTime(Day day, long timeOfDay) {
+    if (day.fixedOffset) {
+      return day.midnight + timeOfDay;
+    }
+    return day.date
+        .atStartOfDay()
+        .plus(timeOfDay, ChronoUnit.MILLIS)
+        .atZone(this.zone)
+        .toInstant()
+        .toEpochMilli();
+  }
+
+  private long getTimeOfDay(long now) {
+    long elapsedSeconds = (now - this.testStartTime) / 1000L;
+    return Math.floorMod(elapsedSeconds, SECONDS_PER_DAY) * 1000L;
+  }
+
+  private static final class Day {
+    final LocalDate date;
+    final long midnight;
+    final long nextMidnight;
+    /** Whether the UTC offset is the same for the whole day, starting at 00:00. */
+    final boolean fixedOffset;
+
+    Day(LocalDate date, ZoneId zone) {
+      ZonedDateTime start = date.atStartOfDay(zone);
+      this.date = date;
+      this.midnight = start.toInstant().toEpochMilli();
+      this.nextMidnight = date.plusDays(1).atStartOfDay(zone).toInstant().toEpochMilli();
+      ZoneOffsetTransition transition = zone.getRules().nextTransition(start.toInstant());
+      this.fixedOffset =
+          start.toLocalTime().equals(LocalTime.MIDNIGHT)
+              && (transition == null || transition.toEpochSecond() * 1000L >= this.nextMidnight);
+    }
+  }
+}
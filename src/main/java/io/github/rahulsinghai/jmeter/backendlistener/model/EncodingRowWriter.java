@@ -0,0 +1,47 @@
+/*
+ * Copyright 2019 Rahul Singhai.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.rahulsinghai.jmeter.backendlistener.model;
+
+/** {@link RowWriter} encoding each row as the value of a Kafka message. */
+public interface EncodingRowWriter extends RowWriter {
+
+  /** @return a copy of the encoded bytes of the current row */
+  byte[] toByteArray();
+
+  /** @return the number of encoded bytes of the current row */
+  int size();
+
+  /**
+   * Copies the encoded bytes of the current row, without allocating a copy of them.
+   *
+   * @param target Array of at least <code>offset + size()</code> bytes
+   * @param offset Index in the target of the first byte
+   */
+  void copyTo(byte[] target, int offset);
+
+  /**
+   * Returns the control record to publish before the rows encoded since the previous call, if any.
+   * Formats whose rows refer to state shared with the consumers, like a string dictionary, publish
+   * that state this way.
+   *
+   * @param now Current time, in milliseconds since the epoch
+   * @return the control record, or null if there is none to publish
+   */
+  default byte[] pollControlRecord(long now) {
+    return null;
+  }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2019 Rahul Singhai.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.rahulsinghai.jmeter.backendlistener.model;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/** The {@link SampleField}s selected by the <code>kafka.fields</code> filter. Immutable. */
+public final class FieldProjection {
+
+  private static final EnumSet<SampleField> SAMPLE_FIELDS =
+      EnumSet.range(SampleField.ALL_THREADS, SampleField.TIMESTAMP);
+  private static final EnumSet<SampleField> DETAIL_FIELDS =
+      EnumSet.range(SampleField.REQUEST_HEADERS, SampleField.RESPONSE_MESSAGE);
+
+  private final EnumSet<SampleField> selected;
+  private final SampleField[] sampleFields;
+  private final SampleField[] detailFields;
+
+  private FieldProjection(EnumSet<SampleField> selected) {
+    this.selected = selected;
+    this.sampleFields = inOrder(selected, SAMPLE_FIELDS);
+    this.detailFields = inOrder(selected, DETAIL_FIELDS);
+  }
+
+  /**
+   * @param fields Lower-cased names of the fields to send, all fields if empty
+   * @return the projection of the given fields
+   */
+  public static FieldProjection compile(Set<String> fields) {
+    EnumSet<SampleField> selected = EnumSet.noneOf(SampleField.class);
+    for (SampleField field : SampleField.values()) {
+      if (fields.isEmpty() || fields.contains(field.getKey().toLowerCase(Locale.ROOT))) {
+        selected.add(field);
+      }
+    }
+    return new FieldProjection(selected);
+  }
+
+  private static SampleField[] inOrder(EnumSet<SampleField> selected, EnumSet<SampleField> group) {
+    List<SampleField> fields = new ArrayList<>();
+    for (SampleField field : group) {
+      if (selected.contains(field)) {
+        fields.add(field);
+      }
+    }
+    return fields.toArray(new SampleField[0]);
+  }
+
+  /**
+   * @param field A field
+   * @return true if the field is selected
+   */
+  public boolean contains(SampleField field) {
+    return this.selected.contains(field);
+  }
+
+  /** @return the selected fields read from every sample, in order; not to be modified */
+  SampleField[] getSampleFields() {
+    return this.sampleFields;
+  }
+
+  /** @return the selected details, in order; not to be modified */
+  SampleField[] getDetailFields() {
+    return this.detailFields;
+  }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2019 Rahul Singhai.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.rahulsinghai.jmeter.backendlistener.model;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Turns the request or response headers of a sample into fields of its row, in a single pass over
+ * the header text. Thread-safe.
+ */
+public final class HeaderScanner {
+
+  /** Number of slots of the name cache, a power of two. */
+  private static final int CACHE_SIZE = 512;
+
+  private final Set<String> allowedNames;
+  private final Name[] cache = new Name[CACHE_SIZE];
+
+  /**
+   * @param allowedNames Field names of the headers to turn into fields, case insensitive; all
+   *     headers if empty
+   */
+  public HeaderScanner(Set<String> allowedNames) {
+    Set<String> names = new HashSet<>();
+    for (String name : allowedNames) {
+      names.add(name.trim().toLowerCase(Locale.ROOT));
+    }
+    this.allowedNames = Collections.unmodifiableSet(names);
+  }
+
+  /** @return the lower-cased field names of the headers turned into fields, all if empty */
+  public Set<String> getAllowedNames() {
+    return this.allowedNames;
+  }
+
+  /**
+   * Writes the headers as fields.
+   *
+   * @param headers Header lines, separated by new lines
+   * @param writer Target of the fields
+   */
+  public void scan(String headers, RowWriter writer) {
+    if (headers == null) {
+      return;
+    }
+    Slice value = null;
+    int length = headers.length();
+    int lineStart = 0;
+    while (lineStart < length) {
+      int colon = -1;
+      int lineEnd = lineStart;
+      for (; lineEnd < length; lineEnd++) {
+        char c = headers.charAt(lineEnd);
+        if (c == '\n') {
+          break;
+        }
+        if (c == ':' && colon < 0) {
+          colon = lineEnd;
+        }
+      }
+
+      if (colon >= 0) {
+        Name name = nameOf(headers, lineStart, colon);
+        if (name.allowed) {
+          int valueStart = colon + 1;
+          int valueEnd = lineEnd;
+          // Same as String.trim()
+          while (valueStart < valueEnd && headers.charAt(valueStart) <= ' ') {
+            valueStart++;
+          }
+          while (valueEnd > valueStart && headers.charAt(valueEnd - 1) <= ' ') {
+            valueEnd--;
+          }
+          if (value == null) {
+            value = new Slice(headers);
+          }
+          value.set(valueStart, valueEnd);
+          writer.writeString(name.field, value);
+        }
+      }
+      lineStart = lineEnd + 1;
+    }
+  }
+
+  private Name nameOf(String headers, int start, int end) {
+    int hash = 0;
+    for (int i = start; i < end; i++) {
+      hash = 31 * hash + headers.charAt(i);
+    }
+    int slot = (hash ^ (hash >>> 16)) & (CACHE_SIZE - 1);
+    Name name = this.cache[slot];
+    if (name != null
+        && name.hash == hash
+        && name.raw.length() == end - start
+        && headers.regionMatches(start, name.raw, 0, end - start)) {
+      return name;
+    }
+
+    String raw = headers.substring(start, end);
+    String field = raw.replace("kafka-", "").trim();
+    name =
+        new Name(
+            raw,
+            hash,
+            field,
+            this.allowedNames.isEmpty()
+                || this.allowedNames.contains(field.toLowerCase(Locale.ROOT)));
+    this.cache[slot] = name;
+    return name;
+  }
+
+  /** Field name of a raw header name. */
+  private static final class Name {
+    final String raw;
+    final int hash;
+    final String field;
+    final boolean allowed;
+
+    Name(String raw, int hash, String field, boolean allowed) {
+      this.raw = raw;
+      this.hash = hash;
+      this.field = field;
+      this.allowed = allowed;
+    }
+  }
+
+  /** View of a part of the header text, only valid until the next value. */
+  private static final class Slice implements CharSequence {
+    private final String text;
+    private int start;
+    private int end;
+
+    Slice(String text) {
+      this.text = text;
+    }
+
+    void set(int start, int end) {
+      this.start = start;
+      this.end = end;
+    }
+
+    @Override
+    public int length() {
+      return this.end - this.start;
+    }
+
+    @Override
+    public char charAt(int index) {
+      return this.text.charAt(this.start + index);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+      return this.text.subSequence(this.start + start, this.start + end);
+    }
+
+    @Override
+    public String toString() {
+      return this.text.substring(this.start, this.end);
+    }
+  }
+}
@@ -0,0 +1,459 @@
+/*
+ * Copyright 2019 Rahul Singhai.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.rahulsinghai.jmeter.backendlistener.model;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * {@link RowWriter} encoding a row as a JSON document into a reusable UTF-8 byte buffer, like Gson
+ * does. Not thread-safe.
+ */
+public final class JsonRowWriter implements EncodingRowWriter {
+
+  private static final byte[] HEX = "0123456789abcdef".getBytes();
+  private static final byte[] TRUE = "true".getBytes();
+  private static final byte[] FALSE = "false".getBytes();
+  private static final byte[] MIN_LONG = Long.toString(Long.MIN_VALUE).getBytes();
+  private static final int MAX_DEPTH = 8;
+  // Chars escaped per capacity check: bounds the bytes reserved ahead of what is written
+  private static final int ESCAPE_CHUNK = 1024;
+  // Largest buffer kept from one row to the next, so that one huge body is not retained forever
+  private static final int MAX_RETAINED_CAPACITY = 1 << 20;
+  private static final int MAX_CAPACITY = Integer.MAX_VALUE - 8;
+
+  private final int initialCapacity;
+  private byte[] buffer;
+  private int size;
+  private int depth;
+  private final boolean[] needsComma = new boolean[MAX_DEPTH];
+
+  // Top-level fields of the row: key, and position of its comma, or of its key for the first one
+  private String[] fieldKeys = new String[32];
+  private int[] fieldStarts = new int[32];
+  private int fieldCount;
+  // Open-addressing index of the keys: field index of each slot, valid if stamped with the row
+  private int[] slots = new int[64];
+  private int[] slotStamps = new int[64];
+  private int stamp;
+
+  public JsonRowWriter() {
+    this(1024);
+  }
+
+  /** @param initialCapacity initial size of the internal buffer, in bytes */
+  public JsonRowWriter(int initialCapacity) {
+    this.initialCapacity = Math.max(initialCapacity, 16);
+    this.buffer = new byte[this.initialCapacity];
+  }
+
+  @Override
+  public void beginRow() {
+    if (this.buffer.length > Math.max(this.initialCapacity, MAX_RETAINED_CAPACITY)) {
+      this.buffer = new byte[this.initialCapacity];
+    }
+    this.size = 0;
+    this.depth = 0;
+    this.needsComma[0] = false;
+    this.fieldCount = 0;
+    clearIndex();
+    writeByte('{');
+  }
+
+  @Override
+  public void endRow() {
+    writeByte('}');
+  }
+
+  @Override
+  public void writeLong(String key, long value) {
+    writeKey(key);
+    writeNumber(value);
+  }
+
+  @Override
+  public void writeDouble(String key, double value) {
+    if (Double.isFinite(value)) {
+      writeKey(key);
+      // Same representation as Gson's for a Double
+      writeAscii(Double.toString(value));
+    }
+  }
+
+  @Override
+  public void writeBoolean(String key, boolean value) {
+    writeKey(key);
+    writeBytes(value ? TRUE : FALSE);
+  }
+
+  @Override
+  public void writeString(String key, CharSequence value) {
+    if (value == null) {
+      return;
+    }
+    writeKey(key);
+    writeQuoted(value);
+  }
+
+  @Override
+  public void writeConstants(ConstantFields constants) {
+    byte[] fragment = constants.getJson();
+    if (fragment.length == 0) {
+      return;
+    }
+    if (this.depth == 0) {
+      for (int i = 0; i < constants.size(); i++) {
+        if (find(constants.getKey(i)) >= 0) {
+          // Rare: the fields are written one by one, replacing the former values
+          constants.writeFieldsTo(this);
+          return;
+        }
+      }
+      int start = this.size;
+      separate();
+      int fragmentStart = this.size;
+      writeBytes(fragment);
+      for (int i = 0; i < constants.size(); i++) {
+        addField(constants.getKey(i), i == 0 ? start : fragmentStart + constants.getOffset(i));
+      }
+    } else {
+      separate();
+      writeBytes(fragment);
+    }
+  }
+
+  @Override
+  public void beginArray(String key) {
+    writeKey(key);
+    writeByte('[');
+    push();
+  }
+
+  @Override
+  public void endArray() {
+    this.depth--;
+    writeByte(']');
+  }
+
+  @Override
+  public void beginObject() {
+    separate();
+    writeByte('{');
+    push();
+  }
+
+  @Override
+  public void beginObject(String key) {
+    writeKey(key);
+    writeByte('{');
+    push();
+  }
+
+  @Override
+  public void endObject() {
+    this.depth--;
+    writeByte('}');
+  }
+
+  /** @return the number of bytes of the current row */
+  @Override
+  public int size() {
+    return this.size;
+  }
+
+  @Override
+  public void copyTo(byte[] target, int offset) {
+    System.arraycopy(this.buffer, 0, target, offset, this.size);
+  }
+
+  /** @return a copy of the current row's bytes */
+  @Override
+  public byte[] toByteArray() {
+    return Arrays.copyOf(this.buffer, this.size);
+  }
+
+  /** @return the current row as a String, mainly meant for tests and logging */
+  @Override
+  public String toString() {
+    return new String(this.buffer, 0, this.size, StandardCharsets.UTF_8);
+  }
+
+  private void push() {
+    this.depth++;
+    this.needsComma[this.depth] = false;
+  }
+
+  private void separate() {
+    if (this.needsComma[this.depth]) {
+      writeByte(',');
+    } else {
+      this.needsComma[this.depth] = true;
+    }
+  }
+
+  private void writeKey(String key) {
+    if (this.depth == 0) {
+      int field = find(key);
+      if (field >= 0) {
+        removeField(field);
+      }
+      addField(key, this.size);
+    }
+    separate();
+    writeQuoted(key);
+    writeByte(':');
+  }
+
+  /**
+   * Cuts a complete top-level field out of the row.
+   *
+   * @param field Index of the field
+   */
+  private void removeField(int field) {
+    int start = this.fieldStarts[field];
+    int end = field + 1 < this.fieldCount ? this.fieldStarts[field + 1] : this.size;
+    if (field == 0) {
+      if (field + 1 < this.fieldCount) {
+        // The next field becomes the first one, without its comma
+        end++;
+      } else {
+        this.needsComma[0] = false;
+      }
+    }
+    int removed = end - start;
+    System.arraycopy(this.buffer, end, this.buffer, start, this.size - end);
+    this.size -= removed;
+    for (int i = field + 1; i < this.fieldCount; i++) {
+      this.fieldKeys[i - 1] = this.fieldKeys[i];
+      this.fieldStarts[i - 1] = this.fieldStarts[i] - removed;
+    }
+    this.fieldCount--;
+    if (field == 0 && this.fieldCount > 0) {
+      this.fieldStarts[0] = start;
+    }
+    // Field indexes have moved
+    clearIndex();
+    for (int i = 0; i < this.fieldCount; i++) {
+      index(i);
+    }
+  }
+
+  private void addField(String key, int start) {
+    if (this.fieldCount == this.fieldKeys.length) {
+      this.fieldKeys = Arrays.copyOf(this.fieldKeys, this.fieldCount << 1);
+      this.fieldStarts = Arrays.copyOf(this.fieldStarts, this.fieldCount << 1);
+    }
+    this.fieldKeys[this.fieldCount] = key;
+    this.fieldStarts[this.fieldCount] = start;
+    this.fieldCount++;
+    if (this.fieldCount << 1 > this.slots.length) {
+      this.slots = new int[this.slots.length << 1];
+      this.slotStamps = new int[this.slotStamps.length << 1];
+      this.stamp = 0;
+      clearIndex();
+      for (int i = 0; i < this.fieldCount; i++) {
+        index(i);
+      }
+    } else {
+      index(this.fieldCount - 1);
+    }
+  }
+
+  /**
+   * @param key Key of a field
+   * @return the index of the top-level field with this key, -1 if the row has none
+   */
+  private int find(String key) {
+    int mask = this.slots.length - 1;
+    for (int slot = slotOf(key, mask);
+        this.slotStamps[slot] == this.stamp;
+        slot = (slot + 1) & mask) {
+      String fieldKey = this.fieldKeys[this.slots[slot]];
+      if (fieldKey == key || fieldKey.equals(key)) {
+        return this.slots[slot];
+      }
+    }
+    return -1;
+  }
+
+  private void index(int field) {
+    int mask = this.slots.length - 1;
+    int slot = slotOf(this.fieldKeys[field], mask);
+    while (this.slotStamps[slot] == this.stamp) {
+      slot = (slot + 1) & mask;
+    }
+    this.slots[slot] = field;
+    this.slotStamps[slot] = this.stamp;
+  }
+
+  private static int slotOf(String key, int mask) {
+    int hash = key.hashCode();
+    return (hash ^ (hash >>> 16)) & mask;
+  }
+
+  /** Empties the index of the keys, without clearing its arrays. */
+  private void clearIndex() {
+    if (++this.stamp == 0) {
+      Arrays.fill(this.slotStamps, 0);
+      this.stamp = 1;
+    }
+  }
+
+  private void writeNumber(long value) {
+    if (value == Long.MIN_VALUE) {
+      writeBytes(MIN_LONG);
+      return;
+    }
+    ensureCapacity(20);
+    if (value < 0) {
+      this.buffer[this.size++] = '-';
+      value = -value;
+    }
+    int digits = 1;
+    for (long v = value; v >= 10; v /= 10) {
+      digits++;
+    }
+    int pos = this.size + digits;
+    do {
+      this.buffer[--pos] = (byte) ('0' + (value % 10));
+      value /= 10;
+    } while (value != 0);
+    this.size += digits;
+  }
+
+  private void writeQuoted(CharSequence value) {
+    writeByte('"');
+    int length = value.length();
+    int i = 0;
+    while (i < length) {
+      // Worst case is 6 bytes per char (\\uXXXX): reserved chunk by chunk, not for the whole value
+      int end = Math.min(length, i + ESCAPE_CHUNK);
+      ensureCapacity((end - i) * 6);
+      byte[] buf = this.buffer;
+      int pos = this.size;
+      for (; i < end; i++) {
+        char c = value.charAt(i);
+        if (c < 0x80) {
+          switch (c) {
+            case '"':
+            case '\\':
+              buf[pos++] = '\\';
+              buf[pos++] = (byte) c;
+              break;
+            case '\t':
+              buf[pos++] = '\\';
+              buf[pos++] = 't';
+              break;
+            case '\b':
+              buf[pos++] = '\\';
+              buf[pos++] = 'b';
+              break;
+            case '\n':
+              buf[pos++] = '\\';
+              buf[pos++] = 'n';
+              break;
+            case '\r':
+              buf[pos++] = '\\';
+              buf[pos++] = 'r';
+              break;
+            case '\f':
+              buf[pos++] = '\\';
+              buf[pos++] = 'f';
+              break;
+            case '<':
+            case '>':
+            case '&':
+            case '=':
+            case '\'':
+              pos = writeUnicodeEscape(buf, pos, c);
+              break;
+            default:
+              if (c < 0x20) {
+                pos = writeUnicodeEscape(buf, pos, c);
+              } else {
+                buf[pos++] = (byte) c;
+              }
+          }
+        } else if (c < 0x800) {
+          buf[pos++] = (byte) (0xc0 | (c >> 6));
+          buf[pos++] = (byte) (0x80 | (c & 0x3f));
+        } else if (c == 0x2028 || c == 0x2029) {
+          pos = writeUnicodeEscape(buf, pos, c);
+        } else if (Character.isSurrogate(c)) {
+          if (Character.isHighSurrogate(c)
+              && i + 1 < length
+              && Character.isLowSurrogate(value.charAt(i + 1))) {
+            int codePoint = Character.toCodePoint(c, value.charAt(++i));
+            buf[pos++] = (byte) (0xf0 | (codePoint >> 18));
+            buf[pos++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+            buf[pos++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+            buf[pos++] = (byte) (0x80 | (codePoint & 0x3f));
+          } else {
+            // Same replacement as String.getBytes(UTF_8) for a lone surrogate
+            buf[pos++] = '?';
+          }
+        } else {
+          buf[pos++] = (byte) (0xe0 | (c >> 12));
+          buf[pos++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+          buf[pos++] = (byte) (0x80 | (c & 0x3f));
+        }
+      }
+      this.size = pos;
+    }
+    writeByte('"');
+  }
+
+  private static int writeUnicodeEscape(byte[] buf, int pos, char c) {
+    buf[pos++] = '\\';
+    buf[pos++] = 'u';
+    buf[pos++] = HEX[(c >> 12) & 0xf];
+    buf[pos++] = HEX[(c >> 8) & 0xf];
+    buf[pos++] = HEX[(c >> 4) & 0xf];
+    buf[pos++] = HEX[c & 0xf];
+    return pos;
+  }
+
+  private void writeAscii(String value) {
+    int length = value.length();
+    ensureCapacity(length);
+    for (int i = 0; i < length; i++) {
+      this.buffer[this.size++] = (byte) value.charAt(i);
+    }
+  }
+
+  private void writeByte(char c) {
+    ensureCapacity(1);
+    this.buffer[this.size++] = (byte) c;
+  }
+
+  private void writeBytes(byte[] bytes) {
+    ensureCapacity(bytes.length);
+    System.arraycopy(bytes, 0, this.buffer, this.size, bytes.length);
+    this.size += bytes.length;
+  }
+
+  private void ensureCapacity(int extra) {
+    long needed = (long) this.size + extra;
+    if (needed > this.buffer.length) {
+      if (needed > MAX_CAPACITY) {
+        throw new OutOfMemoryError("JSON row exceeds " + MAX_CAPACITY + " bytes");
+      }
+      long doubled = Math.min(MAX_CAPACITY, (long) this.buffer.length << 1);
+      this.buffer = Arrays.copyOf(this.buffer, (int) Math.max(doubled, needed));
+    }
+  }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2019 Rahul Singhai.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.rahulsinghai.jmeter.backendlistener.model;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/** {@link RowWriter} collecting a row into a {@code HashMap<String, Object>}. */
+class MapRowWriter implements RowWriter {
+
+  private HashMap<String, Object> metricsMap = new HashMap<>();
+
+  /** Arrays and objects being written, innermost first, above the row itself. */
+  private final Deque<Object> containers = new ArrayDeque<>();
+
+  /** @return the map of the last written row */
+  HashMap<String, Object> getMetricsMap() {
+    return this.metricsMap;
+  }
+
+  @Override
+  public void beginRow() {
+    this.metricsMap = new HashMap<>();
+    this.containers.clear();
+  }
+
+  @Override
+  public void endRow() {}
+
+  @Override
+  public void writeLong(String key, long value) {
+    put(key, value);
+  }
+
+  @Override
+  public void writeDouble(String key, double value) {
+    if (Double.isFinite(value)) {
+      put(key, value);
+    }
+  }
+
+  @Override
+  public void writeBoolean(String key, boolean value) {
+    put(key, value);
+  }
+
+  @Override
+  public void writeString(String key, CharSequence value) {
+    put(key, value != null ? value.toString() : null);
+  }
+
+  @Override
+  public void writeConstants(ConstantFields constants) {
+    constants.writeFieldsTo(this);
+  }
+
+  @Override
+  public void beginArray(String key) {
+    List<Map<String, Object>> array = new ArrayList<>();
+    put(key, array);
+    this.containers.push(array);
+  }
+
+  @Override
+  public void endArray() {
+    this.containers.pop();
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public void beginObject() {
+    Map<String, Object> object = new HashMap<>();
+    ((List<Map<String, Object>>) this.containers.peek()).add(object);
+    this.containers.push(object);
+  }
+
+  @Override
+  public void beginObject(String key) {
+    Map<String, Object> object = new HashMap<>();
+    put(key, object);
+    this.containers.push(object);
+  }
+
+  @Override
+  public void endObject() {
+    this.containers.pop();
+  }
+
+  @SuppressWarnings("unchecked")
+  private void put(String key, Object value) {
+    if (this.containers.isEmpty()) {
+      this.metricsMap.put(key, value);
+    } else {
+      ((Map<String, Object>) this.containers.peek()).put(key, value);
+    }
+  }
+}
@@ -16,37 +16,29 @@
 
 package io.github.rahulsinghai.jmeter.backendlistener.model;
 
-import java.net.InetAddress;
 import java.net.UnknownHostException;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
-import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
-import java.util.Calendar;
-import java.util.Date;
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.Map;
 import java.util.Set;
 import org.apache.jmeter.assertions.AssertionResult;
 import org.apache.jmeter.samplers.SampleResult;
-import org.apache.jmeter.threads.JMeterContextService;
 import org.apache.jmeter.visualizers.backend.BackendListenerContext;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
 public class MetricsRow {
 
-  private static final Logger logger = LoggerFactory.getLogger(MetricsRow.class);
   private SampleResult sampleResult;
   private String kafkaTestMode;
   private String kafkaTimestamp;
   private int ciBuildNumber;
-  private HashMap<String, Object> metricsMap;
+  private RowWriter writer;
   private Set<String> fields;
   private boolean allReqHeaders;
   private boolean allResHeaders;
+  private RowTemplate template;
+  private boolean withoutDetails;
+  private boolean withoutHeaderFields;
+  private int sheddingLevel;
+  private final StringBuilder timestampBuilder = new StringBuilder(32);
+  private final StringBuilder failureMessageBuilder = new StringBuilder();
 
   public MetricsRow(
       SampleResult sr,
@@ -60,12 +52,71 @@ public class MetricsRow {
     this.kafkaTestMode = testMode.trim();
     this.kafkaTimestamp = timeStamp.trim();
     this.ciBuildNumber = buildNumber;
-    this.metricsMap = new HashMap<>();
     this.allReqHeaders = parseReqHeaders;
     this.allResHeaders = parseResHeaders;
     this.fields = fields;
   }
 
+  /**
+   * Creates the row of a sample from the settings resolved once per test.
+   *
+   * @param sr The SampleResult
+   * @param template The settings and constant fields of the test
+   */
+  public MetricsRow(SampleResult sr, RowTemplate template) {
+    this(
+        sr,
+        template.getTestMode(),
+        template.getTimestampPattern(),
+        template.getBuildNumber(),
+        template.isParseReqHeaders(),
+        template.isParseResHeaders(),
+        null);
+    this.template = template;
+  }
+
+  /**
+   * Creates a row to be reused for the samples of a thread, see {@link #reset(SampleResult)}.
+   *
+   * @param template The settings and constant fields of the test
+   */
+  public MetricsRow(RowTemplate template) {
+    this(null, template);
+  }
+
+  /**
+   * Makes this row the row of another sample, keeping its buffers. A reused row is not thread-safe.
+   *
+   * @param sr The SampleResult
+   * @return this row
+   */
+  public MetricsRow reset(SampleResult sr) {
+    this.sampleResult = sr;
+    return this;
+  }
+
+  /**
+   * Thins the rows written next, e.g. while the producer cannot keep up with the samples. Like the
+   * buffers, the setting is kept when the row is reset.
+   *
+   * @param sheddingLevel Level of the load shedder the rows are thinned at, written to them as
+   *     SheddingLevel unless 0
+   * @param withoutDetails Whether to leave the details of the test mode out
+   * @param withoutHeaderFields Whether to leave the fields parsed from the headers out
+   * @return this row
+   */
+  public MetricsRow thin(int sheddingLevel, boolean withoutDetails, boolean withoutHeaderFields) {
+    this.sheddingLevel = sheddingLevel;
+    this.withoutDetails = withoutDetails;
+    this.withoutHeaderFields = withoutHeaderFields;
+    return this;
+  }
+
+  /** @return true if the rows written next leave the details of the test mode out */
+  public boolean isWithoutDetails() {
+    return this.withoutDetails;
+  }
+
   /**
    * This method returns the current row as a Map(String, Object) for the provided sampleResult
    *
@@ -77,143 +128,246 @@ public class MetricsRow {
    */
   public Map<String, Object> getRowAsMap(BackendListenerContext context, String servicePrefixName)
       throws UnknownHostException {
-    SimpleDateFormat sdf = new SimpleDateFormat(this.kafkaTimestamp);
+    if (this.template == null) {
+      this.template =
+          RowTemplate.create(
+              context,
+              servicePrefixName,
+              this.kafkaTestMode,
+              this.kafkaTimestamp,
+              this.ciBuildNumber,
+              this.allReqHeaders,
+              this.allResHeaders,
+              this.fields);
+    }
+    MapRowWriter mapRowWriter = new MapRowWriter();
+    writeRow(mapRowWriter);
+    return mapRowWriter.getMetricsMap();
+  }
+
+  /**
+   * This method writes the current row, field by field, to the given {@link RowWriter}. The row
+   * must have been created from a {@link RowTemplate}.
+   *
+   * @param rowWriter The target of the row, e.g. a {@link JsonRowWriter}
+   */
+  public void writeRow(RowWriter rowWriter) {
+    writeRow(rowWriter, System.currentTimeMillis());
+  }
 
-    // add all the default SampleResult parameters
-    addFilteredMetricToMetricsMap("AllThreads", this.sampleResult.getAllThreads());
-    addFilteredMetricToMetricsMap("BodySize", this.sampleResult.getBodySizeAsLong());
-    addFilteredMetricToMetricsMap("Bytes", this.sampleResult.getBytesAsLong());
-    addFilteredMetricToMetricsMap("SentBytes", this.sampleResult.getSentBytes());
-    addFilteredMetricToMetricsMap("ConnectTime", this.sampleResult.getConnectTime());
-    addFilteredMetricToMetricsMap("ContentType", this.sampleResult.getContentType());
-    addFilteredMetricToMetricsMap("DataType", this.sampleResult.getDataType());
-    addFilteredMetricToMetricsMap("ErrorCount", this.sampleResult.getErrorCount());
-    addFilteredMetricToMetricsMap("GrpThreads", this.sampleResult.getGroupThreads());
-    addFilteredMetricToMetricsMap("IdleTime", this.sampleResult.getIdleTime());
-    addFilteredMetricToMetricsMap("Latency", this.sampleResult.getLatency());
-    addFilteredMetricToMetricsMap("ResponseTime", this.sampleResult.getTime());
-    addFilteredMetricToMetricsMap("SampleCount", this.sampleResult.getSampleCount());
-    addFilteredMetricToMetricsMap("SampleLabel", this.sampleResult.getSampleLabel());
-    addFilteredMetricToMetricsMap("ThreadName", this.sampleResult.getThreadName());
-    addFilteredMetricToMetricsMap("URL", this.sampleResult.getURL());
-    addFilteredMetricToMetricsMap("ResponseCode", this.sampleResult.getResponseCode());
-    addFilteredMetricToMetricsMap("TestStartTime", JMeterContextService.getTestStartTime());
-    addFilteredMetricToMetricsMap(
-        "SampleStartTime", sdf.format(new Date(this.sampleResult.getStartTime())));
-    addFilteredMetricToMetricsMap(
-        "SampleEndTime", sdf.format(new Date(this.sampleResult.getEndTime())));
-    addFilteredMetricToMetricsMap(
-        "Timestamp", sdf.format(new Date(this.sampleResult.getTimeStamp())));
-    addFilteredMetricToMetricsMap("InjectorHostname", InetAddress.getLocalHost().getHostName());
+  /**
+   * This method writes the current row as if it was written at the given time, which is the time
+   * the ElapsedTime fields are computed from. Rows encoded after the sample was received, e.g. on
+   * another thread, use the time of reception.
+   *
+   * @param rowWriter The target of the row, e.g. a {@link JsonRowWriter}
+   * @param now The time the sample was received, in milliseconds since the epoch
+   */
+  public void writeRow(RowWriter rowWriter, long now) {
+    this.writer = rowWriter;
 
-    // Add the details according to the mode that is set
-    switch (this.kafkaTestMode) {
-      case "debug":
-      case "error":
-        addDetails();
-        break;
-      case "info":
-        if (!this.sampleResult.isSuccessful()) {
-          addDetails();
-        }
-        break;
-      default:
-        break;
+    this.writer.beginRow();
+    // add the selected default SampleResult parameters
+    FieldProjection projection = this.template.getProjection();
+    for (SampleField field : projection.getSampleFields()) {
+      writeField(field);
     }
 
-    addAssertions();
-    addElapsedTime(sdf);
-    addCustomFields(context, servicePrefixName);
-    parseHeadersAsJsonProps(this.allReqHeaders, this.allResHeaders);
+    // Add the details according to the mode that is set, unless the row is thinned
+    if (!this.withoutDetails) {
+      switch (this.kafkaTestMode) {
+        case "debug":
+        case "error":
+          addDetails();
+          break;
+        case "info":
+          if (!this.sampleResult.isSuccessful()) {
+            addDetails();
+          }
+          break;
+        default:
+          break;
+      }
+    }
 
-    return this.metricsMap;
+    addAssertions(projection);
+    addElapsedTime(projection, now);
+    if (this.sheddingLevel > 0) {
+      this.writer.writeLong("SheddingLevel", this.sheddingLevel);
+    }
+    // Injector host name, build number, test start time and custom fields
+    this.writer.writeConstants(this.template.getConstants());
+    if (!this.withoutHeaderFields) {
+      parseHeadersAsJsonProps(this.allReqHeaders, this.allResHeaders);
+    }
+    this.writer.endRow();
   }
 
   /** This method adds all the assertions for the current sampleResult */
-  private void addAssertions() {
+  private void addAssertions(FieldProjection projection) {
     AssertionResult[] assertionResults = this.sampleResult.getAssertionResults();
-    if (assertionResults != null) {
-      @SuppressWarnings("unchecked")
-      HashMap<String, Object>[] assertionArray = new HashMap[assertionResults.length];
-      int i = 0;
-      StringBuilder failureMessageStringBuilder = new StringBuilder();
+    boolean writeAssertions = projection.contains(SampleField.ASSERTION_RESULTS);
+    boolean writeFailureMessage = projection.contains(SampleField.FAILURE_MESSAGE);
+    boolean writeSuccess = projection.contains(SampleField.SUCCESS);
+    if (assertionResults != null && (writeAssertions || writeFailureMessage || writeSuccess)) {
+      if (writeAssertions) {
+        this.writer.beginArray("AssertionResults");
+      }
+      StringBuilder failureMessageStringBuilder = this.failureMessageBuilder;
+      failureMessageStringBuilder.setLength(0);
       boolean isFailure = false;
       for (AssertionResult assertionResult : assertionResults) {
-        HashMap<String, Object> assertionMap = new HashMap<>();
         boolean failure = assertionResult.isFailure() || assertionResult.isError();
-        isFailure = isFailure || assertionResult.isFailure() || assertionResult.isError();
-        assertionMap.put("failure", failure);
-        assertionMap.put("failureMessage", assertionResult.getFailureMessage());
-        failureMessageStringBuilder.append(assertionResult.getFailureMessage());
-        failureMessageStringBuilder.append("\n");
-        assertionMap.put("name", assertionResult.getName());
-        assertionArray[i] = assertionMap;
-        i++;
+        isFailure = isFailure || failure;
+        if (writeAssertions) {
+          this.writer.beginObject();
+          this.writer.writeBoolean("failure", failure);
+          this.writer.writeString("failureMessage", assertionResult.getFailureMessage());
+          this.writer.writeString("name", assertionResult.getName());
+          this.writer.endObject();
+        }
+        if (writeFailureMessage) {
+          failureMessageStringBuilder.append(assertionResult.getFailureMessage());
+          failureMessageStringBuilder.append("\n");
+        }
+      }
+      if (writeAssertions) {
+        this.writer.endArray();
+      }
+      if (writeFailureMessage) {
+        this.writer.writeString("FailureMessage", failureMessageStringBuilder);
+      }
+      if (writeSuccess) {
+        this.writer.writeBoolean("Success", !isFailure);
       }
-      addFilteredMetricToMetricsMap("AssertionResults", assertionArray);
-      addFilteredMetricToMetricsMap("FailureMessage", failureMessageStringBuilder.toString());
-      addFilteredMetricToMetricsMap("Success", !isFailure);
     }
   }
 
   /**
    * This method adds the ElapsedTime as a key:value pair in the metricsMap object. Also, depending
    * on whether or not the tests were launched from a CI tool (i.e Jenkins), it will add a
-   * hard-coded version of the ElapsedTime for results comparison purposes
+   * hard-coded version of the ElapsedTime for results comparison purposes. The purpose of this is
+   * mostly for build comparison in Kibana: the user is able to set the X-axis of his graph to this
+   * date and split the series by build numbers, to overlap test results and see if there is
+   * regression or not.
    *
-   * @param sdf SimpleDateFormat
+   * @param projection The selected fields
+   * @param now The current time, in milliseconds since the epoch; the end time of the sample is
+   *     used instead for the results of a past test
    */
-  private void addElapsedTime(SimpleDateFormat sdf) {
-    Date elapsedTime;
-
-    if (this.ciBuildNumber != 0) {
-      elapsedTime = getElapsedTime(true);
-      addFilteredMetricToMetricsMap("BuildNumber", this.ciBuildNumber);
-
-      if (elapsedTime != null) {
-        addFilteredMetricToMetricsMap("ElapsedTimeComparison", sdf.format(elapsedTime));
-      }
+  private void addElapsedTime(FieldProjection projection, long now) {
+    ElapsedTimeClock clock = this.template.getElapsedTimeClock();
+    long time = clock.isSampleTimes() ? this.sampleResult.getEndTime() : now;
+    if (this.ciBuildNumber != 0 && projection.contains(SampleField.ELAPSED_TIME_COMPARISON)) {
+      writeTimestamp("ElapsedTimeComparison", clock.getElapsedTimeComparison(time));
     }
-
-    elapsedTime = getElapsedTime(false);
-    if (elapsedTime != null) {
-      addFilteredMetricToMetricsMap("ElapsedTime", sdf.format(elapsedTime));
+    if (projection.contains(SampleField.ELAPSED_TIME)) {
+      writeTimestamp("ElapsedTime", clock.getElapsedTime(time));
     }
   }
 
   /**
-   * Methods that add all custom fields added by the user in the Backend Listener's GUI panel
+   * Writes a field read from the sample.
    *
-   * @param context BackendListenerContext
+   * @param field One of the sample fields or details
    */
-  private void addCustomFields(BackendListenerContext context, String servicePrefixName) {
-    Iterator<String> pluginParameters = context.getParameterNamesIterator();
-    while (pluginParameters.hasNext()) {
-      String parameterName = pluginParameters.next();
-
-      if (!parameterName.startsWith(servicePrefixName)
-          && !context.getParameter(parameterName).trim().equals("")) {
-        String parameter = context.getParameter(parameterName).trim();
-
-        try {
-          addFilteredMetricToMetricsMap(parameterName, Long.parseLong(parameter));
-        } catch (Exception e) {
-          if (logger.isDebugEnabled()) {
-            logger.debug("Cannot convert custom field to number");
-          }
-          addFilteredMetricToMetricsMap(parameterName, context.getParameter(parameterName).trim());
-        }
-      }
+  private void writeField(SampleField field) {
+    String key = field.getKey();
+    SampleResult sr = this.sampleResult;
+    switch (field) {
+      case ALL_THREADS:
+        this.writer.writeLong(key, sr.getAllThreads());
+        break;
+      case BODY_SIZE:
+        this.writer.writeLong(key, sr.getBodySizeAsLong());
+        break;
+      case BYTES:
+        this.writer.writeLong(key, sr.getBytesAsLong());
+        break;
+      case SENT_BYTES:
+        this.writer.writeLong(key, sr.getSentBytes());
+        break;
+      case CONNECT_TIME:
+        this.writer.writeLong(key, sr.getConnectTime());
+        break;
+      case CONTENT_TYPE:
+        this.writer.writeString(key, sr.getContentType());
+        break;
+      case DATA_TYPE:
+        this.writer.writeString(key, sr.getDataType());
+        break;
+      case ERROR_COUNT:
+        this.writer.writeLong(key, sr.getErrorCount());
+        break;
+      case GRP_THREADS:
+        this.writer.writeLong(key, sr.getGroupThreads());
+        break;
+      case IDLE_TIME:
+        this.writer.writeLong(key, sr.getIdleTime());
+        break;
+      case LATENCY:
+        this.writer.writeLong(key, sr.getLatency());
+        break;
+      case RESPONSE_TIME:
+        this.writer.writeLong(key, sr.getTime());
+        break;
+      case SAMPLE_COUNT:
+        this.writer.writeLong(key, sr.getSampleCount());
+        break;
+      case SAMPLE_LABEL:
+        this.writer.writeString(key, sr.getSampleLabel());
+        break;
+      case THREAD_NAME:
+        this.writer.writeString(key, sr.getThreadName());
+        break;
+      case URL:
+        this.writer.writeString(key, sr.getURL() != null ? sr.getURL().toString() : null);
+        break;
+      case RESPONSE_CODE:
+        this.writer.writeString(key, sr.getResponseCode());
+        break;
+      case SAMPLE_START_TIME:
+        writeTimestamp(key, sr.getStartTime());
+        break;
+      case SAMPLE_END_TIME:
+        writeTimestamp(key, sr.getEndTime());
+        break;
+      case TIMESTAMP:
+        writeTimestamp(key, sr.getTimeStamp());
+        break;
+      case REQUEST_HEADERS:
+        this.writer.writeString(key, sr.getRequestHeaders());
+        break;
+      case REQUEST_BODY:
+        this.writer.writeString(key, this.template.getBodyEncoder().encode(sr.getSamplerData()));
+        break;
+      case RESPONSE_HEADERS:
+        this.writer.writeString(key, sr.getResponseHeaders());
+        break;
+      case RESPONSE_BODY:
+        // From the bytes, getResponseDataAsString() would decode and keep the whole body
+        this.writer.writeString(
+            key,
+            this.template
+                .getBodyEncoder()
+                .encode(sr.getResponseData(), sr.getDataEncodingWithDefault()));
+        break;
+      case RESPONSE_MESSAGE:
+        this.writer.writeString(key, sr.getResponseMessage());
+        break;
+      default:
+        throw new IllegalArgumentException("Not a sample field: " + field);
     }
   }
 
-  /** Method that adds the request and response's body/headers */
+  /**
+   * Method that adds the request and response's body/headers. The bodies are bounded by the
+   * template's {@link BodyEncoder}; fields excluded by the field filter are not read at all.
+   */
   private void addDetails() {
-    addFilteredMetricToMetricsMap("RequestHeaders", this.sampleResult.getRequestHeaders());
-    addFilteredMetricToMetricsMap("RequestBody", this.sampleResult.getSamplerData());
-    addFilteredMetricToMetricsMap("ResponseHeaders", this.sampleResult.getResponseHeaders());
-    addFilteredMetricToMetricsMap("ResponseBody", this.sampleResult.getResponseDataAsString());
-    addFilteredMetricToMetricsMap("ResponseMessage", this.sampleResult.getResponseMessage());
+    for (SampleField field : this.template.getProjection().getDetailFields()) {
+      writeField(field);
+    }
   }
 
   /**
@@ -227,92 +381,22 @@ public class MetricsRow {
    * @param allResHeaders boolean to determine if the user wants to separate ALL response headers
    *     into different JSON properties.
    *     <p>NOTE: This will be fixed as soon as a patch comes in for JMeter to change the behaviour.
+   * @see HeaderScanner
    */
   private void parseHeadersAsJsonProps(boolean allReqHeaders, boolean allResHeaders) {
-    LinkedList<String[]> headersArrayList = new LinkedList<>();
-
+    HeaderScanner scanner = this.template.getHeaderScanner();
     if (allReqHeaders) {
-      headersArrayList.add(this.sampleResult.getRequestHeaders().split("\n"));
+      scanner.scan(this.sampleResult.getRequestHeaders(), this.writer);
     }
-
     if (allResHeaders) {
-      headersArrayList.add(this.sampleResult.getResponseHeaders().split("\n"));
-    }
-
-    for (String[] lines : headersArrayList) {
-      for (String line : lines) {
-        String[] header = line.split(":", 2);
-
-        // if not all req headers and header contains special X-tag
-        if (header.length > 1) {
-          if (!this.allReqHeaders && header[0].startsWith("X-kafka-backend")) {
-            this.metricsMap.put(header[0].replaceAll("kafka-", "").trim(), header[1].trim());
-          } else {
-            this.metricsMap.put(header[0].replaceAll("kafka-", "").trim(), header[1].trim());
-          }
-        }
-      }
+      scanner.scan(this.sampleResult.getResponseHeaders(), this.writer);
     }
   }
 
-  /**
-   * Adds a given key-value pair to metricsMap if the key is contained in the field filter or in
-   * case of empty field filter
-   */
-  private void addFilteredMetricToMetricsMap(String key, Object value) {
-    if (this.fields.size() == 0 || this.fields.contains(key.toLowerCase())) {
-      this.metricsMap.put(key, value);
-    }
-  }
-
-  /**
-   * This method is meant to return the elapsed time in a human readable format. The purpose of this
-   * is mostly for build comparison in Kibana. By doing this, the user is able to set the X-axis of
-   * his graph to this date and split the series by build numbers. It allows him to overlap test
-   * results and see if there is regression or not.
-   *
-   * @param forBuildComparison boolean to determine if there is CI (continuous integration) or not
-   * @return The elapsed time in YYYY-MM-dd HH:mm:ss format
-   */
-  private Date getElapsedTime(boolean forBuildComparison) {
-    String sElapsed;
-    // Calculate the elapsed time (Starting from midnight on a random day - enables us to compare of
-    // two loads over their duration)
-    long start = JMeterContextService.getTestStartTime();
-    long end = System.currentTimeMillis();
-    long elapsed = (end - start);
-    long minutes = (elapsed / 1000) / 60;
-    long seconds = (elapsed / 1000) % 60;
-
-    Calendar cal = Calendar.getInstance();
-    cal.set(
-        Calendar.HOUR_OF_DAY,
-        0); // If there is more than an hour of data, the number of minutes/seconds will increment
-    // this
-    cal.set(Calendar.MINUTE, (int) minutes);
-    cal.set(Calendar.SECOND, (int) seconds);
-
-    if (forBuildComparison) {
-      sElapsed =
-          String.format(
-              "2019-07-01 %02d:%02d:%02d",
-              cal.get(Calendar.HOUR_OF_DAY), cal.get(Calendar.MINUTE), cal.get(Calendar.SECOND));
-    } else {
-      sElapsed =
-          String.format(
-              "%s %02d:%02d:%02d",
-              DateTimeFormatter.ofPattern("yyyy-MM-dd").format(LocalDateTime.now()),
-              cal.get(Calendar.HOUR_OF_DAY),
-              cal.get(Calendar.MINUTE),
-              cal.get(Calendar.SECOND));
-    }
-
-    SimpleDateFormat formatter = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-    try {
-      return formatter.parse(sElapsed);
-    } catch (ParseException e) {
-      logger.error("Unexpected error occurred computing elapsed date", e);
-      return null;
-    }
+  /** Adds a timestamp, formatted with the <code>kafka.timestamp</code> pattern, to the row */
+  private void writeTimestamp(String key, long epochMillis) {
+    this.timestampBuilder.setLength(0);
+    this.template.getTimestampFormatter().formatTo(epochMillis, this.timestampBuilder);
+    this.writer.writeString(key, this.timestampBuilder);
   }
 }
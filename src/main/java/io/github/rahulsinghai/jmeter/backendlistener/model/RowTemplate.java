@@ -0,0 +1,246 @@
+/*
+ * Copyright 2019 Rahul Singhai.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.rahulsinghai.jmeter.backendlistener.model;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.time.ZoneId;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Set;
+import org.apache.jmeter.threads.JMeterContextService;
+import org.apache.jmeter.visualizers.backend.BackendListenerContext;
+
+/** Everything a {@link MetricsRow} needs that does not change during a test. Immutable. */
+public final class RowTemplate {
+
+  private final String testMode;
+  private final TimestampFormatter timestampFormatter;
+  private final ElapsedTimeClock elapsedTimeClock;
+  private final int buildNumber;
+  private final boolean parseReqHeaders;
+  private final boolean parseResHeaders;
+  private final Set<String> fields;
+  private final ConstantFields constants;
+  private final BodyEncoder bodyEncoder;
+  private final HeaderScanner headerScanner;
+  private final FieldProjection projection;
+
+  private RowTemplate(
+      String testMode,
+      TimestampFormatter timestampFormatter,
+      ElapsedTimeClock elapsedTimeClock,
+      int buildNumber,
+      boolean parseReqHeaders,
+      boolean parseResHeaders,
+      Set<String> fields,
+      ConstantFields constants,
+      BodyEncoder bodyEncoder,
+      HeaderScanner headerScanner) {
+    this.testMode = testMode;
+    this.timestampFormatter = timestampFormatter;
+    this.elapsedTimeClock = elapsedTimeClock;
+    this.buildNumber = buildNumber;
+    this.parseReqHeaders = parseReqHeaders;
+    this.parseResHeaders = parseResHeaders;
+    this.fields = fields;
+    this.constants = constants;
+    this.bodyEncoder = bodyEncoder;
+    this.headerScanner = headerScanner;
+    this.projection = FieldProjection.compile(fields);
+  }
+
+  /**
+   * Resolves the template of a test.
+   *
+   * @param context BackendListenerContext, whose parameters not starting with servicePrefixName
+   *     become custom fields
+   * @param servicePrefixName Prefix string denoting the service name. This will allow to skip
+   *     adding all service specific parameters to the metrics row.
+   * @param testMode One of "debug", "info", "error" or "quiet"
+   * @param timestampPattern SimpleDateFormat pattern of the date fields
+   * @param buildNumber CI build number, 0 if the test is not run from a CI tool
+   * @param parseReqHeaders Whether all request headers become fields
+   * @param parseResHeaders Whether all response headers become fields
+   * @param fields Lower-cased names of the fields to send, all fields if empty
+   * @return the template
+   * @throws UnknownHostException If unable to determine injector host name.
+   */
+  public static RowTemplate create(
+      BackendListenerContext context,
+      String servicePrefixName,
+      String testMode,
+      String timestampPattern,
+      int buildNumber,
+      boolean parseReqHeaders,
+      boolean parseResHeaders,
+      Set<String> fields)
+      throws UnknownHostException {
+    Set<String> selectedFields = Collections.unmodifiableSet(new HashSet<>(fields));
+
+    ConstantFields.Builder constants = new ConstantFields.Builder();
+    if (isSelected(selectedFields, "TestStartTime")) {
+      constants.add("TestStartTime", JMeterContextService.getTestStartTime());
+    }
+    if (isSelected(selectedFields, "InjectorHostname")) {
+      constants.add("InjectorHostname", InetAddress.getLocalHost().getHostName());
+    }
+    if (buildNumber != 0 && isSelected(selectedFields, "BuildNumber")) {
+      constants.add("BuildNumber", buildNumber);
+    }
+
+    // Custom fields added by the user in the Backend Listener's GUI panel
+    Iterator<String> pluginParameters = context.getParameterNamesIterator();
+    while (pluginParameters.hasNext()) {
+      String parameterName = pluginParameters.next();
+      String parameter = context.getParameter(parameterName);
+      if (!parameterName.startsWith(servicePrefixName)
+          && parameter != null
+          && !parameter.trim().equals("")
+          && isSelected(selectedFields, parameterName)) {
+        constants.addTyped(parameterName, parameter.trim());
+      }
+    }
+
+    return new RowTemplate(
+        testMode.trim(),
+        new TimestampFormatter(timestampPattern.trim()),
+        new ElapsedTimeClock(JMeterContextService.getTestStartTime(), ZoneId.systemDefault()),
+        buildNumber,
+        parseReqHeaders,
+        parseResHeaders,
+        selectedFields,
+        constants.build(),
+        BodyEncoder.UNBOUNDED,
+        new HeaderScanner(Collections.emptySet()));
+  }
+
+  /**
+   * @param encoder How the request and response bodies are written
+   * @return a copy of this template writing the bodies with the given encoder
+   */
+  public RowTemplate withBodyEncoder(BodyEncoder encoder) {
+    return new RowTemplate(
+        this.testMode,
+        this.timestampFormatter,
+        this.elapsedTimeClock,
+        this.buildNumber,
+        this.parseReqHeaders,
+        this.parseResHeaders,
+        this.fields,
+        this.constants,
+        encoder,
+        this.headerScanner);
+  }
+
+  /**
+   * @param headerNames Field names of the headers to turn into fields, case insensitive; all
+   *     headers if empty
+   * @return a copy of this template only turning the given headers into fields
+   */
+  public RowTemplate withHeaderNames(Set<String> headerNames) {
+    return new RowTemplate(
+        this.testMode,
+        this.timestampFormatter,
+        this.elapsedTimeClock,
+        this.buildNumber,
+        this.parseReqHeaders,
+        this.parseResHeaders,
+        this.fields,
+        this.constants,
+        this.bodyEncoder,
+        new HeaderScanner(headerNames));
+  }
+
+  /**
+   * @param testStartTime Start time of a past test whose results are written, in milliseconds since
+   *     the epoch
+   * @return a copy of this template writing it as the TestStartTime field, and computing the
+   *     ElapsedTime fields at the end time of the samples rather than when they are received
+   */
+  public RowTemplate withPastTestStartTime(long testStartTime) {
+    return new RowTemplate(
+        this.testMode,
+        this.timestampFormatter,
+        this.elapsedTimeClock.forPastTest(testStartTime),
+        this.buildNumber,
+        this.parseReqHeaders,
+        this.parseResHeaders,
+        this.fields,
+        this.constants.with("TestStartTime", testStartTime),
+        this.bodyEncoder,
+        this.headerScanner);
+  }
+
+  public String getTestMode() {
+    return this.testMode;
+  }
+
+  public String getTimestampPattern() {
+    return this.timestampFormatter.getPattern();
+  }
+
+  public TimestampFormatter getTimestampFormatter() {
+    return this.timestampFormatter;
+  }
+
+  public ElapsedTimeClock getElapsedTimeClock() {
+    return this.elapsedTimeClock;
+  }
+
+  public int getBuildNumber() {
+    return this.buildNumber;
+  }
+
+  public boolean isParseReqHeaders() {
+    return this.parseReqHeaders;
+  }
+
+  public boolean isParseResHeaders() {
+    return this.parseResHeaders;
+  }
+
+  public ConstantFields getConstants() {
+    return this.constants;
+  }
+
+  public BodyEncoder getBodyEncoder() {
+    return this.bodyEncoder;
+  }
+
+  public HeaderScanner getHeaderScanner() {
+    return this.headerScanner;
+  }
+
+  public FieldProjection getProjection() {
+    return this.projection;
+  }
+
+  /**
+   * @param key Field name
+   * @return true if the field filter is empty or contains the given field
+   */
+  public boolean isSelected(String key) {
+    return isSelected(this.fields, key);
+  }
+
+  private static boolean isSelected(Set<String> fields, String key) {
+    return fields.isEmpty() || fields.contains(key.toLowerCase(Locale.ROOT));
+  }
+}
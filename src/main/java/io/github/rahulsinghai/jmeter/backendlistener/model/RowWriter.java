@@ -0,0 +1,90 @@
+/*
+ * Copyright 2019 Rahul Singhai.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.rahulsinghai.jmeter.backendlistener.model;
+
+/** Target of a {@link MetricsRow}: receives the fields of one row, in order, as typed values. */
+public interface RowWriter {
+
+  /** Starts a new row, discarding anything written for the previous one. */
+  void beginRow();
+
+  /** Completes the current row. */
+  void endRow();
+
+  /**
+   * Writes a numeric field.
+   *
+   * @param key Field name
+   * @param value Field value
+   */
+  void writeLong(String key, long value);
+
+  /**
+   * Writes a decimal field. Non-finite values, which JSON cannot represent, are skipped.
+   *
+   * @param key Field name
+   * @param value Field value
+   */
+  void writeDouble(String key, double value);
+
+  /**
+   * Writes a boolean field.
+   *
+   * @param key Field name
+   * @param value Field value
+   */
+  void writeBoolean(String key, boolean value);
+
+  /**
+   * Writes a text field. A null value is skipped, like Gson does for null map values.
+   *
+   * @param key Field name
+   * @param value Field value, may be null
+   */
+  void writeString(String key, CharSequence value);
+
+  /**
+   * Writes all the fields of a test's {@link ConstantFields}.
+   *
+   * @param constants Fields shared by every row of the test
+   */
+  void writeConstants(ConstantFields constants);
+
+  /**
+   * Starts an array field; its elements are written as objects between {@link #beginObject()} and
+   * {@link #endObject()}.
+   *
+   * @param key Field name
+   */
+  void beginArray(String key);
+
+  /** Ends the array field started last. */
+  void endArray();
+
+  /** Starts an object element of the current array. */
+  void beginObject();
+
+  /**
+   * Starts an object field; its fields are written until the matching {@link #endObject()}.
+   *
+   * @param key Field name
+   */
+  void beginObject(String key);
+
+  /** Ends the current object element or field. */
+  void endObject();
+}
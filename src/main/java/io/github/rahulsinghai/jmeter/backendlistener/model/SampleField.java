@@ -0,0 +1,68 @@
+/*
+ * Copyright 2019 Rahul Singhai.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.rahulsinghai.jmeter.backendlistener.model;
+
+/** The fields a {@link MetricsRow} reads from its sample, in the order they are written. */
+public enum SampleField {
+  ALL_THREADS("AllThreads"),
+  BODY_SIZE("BodySize"),
+  BYTES("Bytes"),
+  SENT_BYTES("SentBytes"),
+  CONNECT_TIME("ConnectTime"),
+  CONTENT_TYPE("ContentType"),
+  DATA_TYPE("DataType"),
+  ERROR_COUNT("ErrorCount"),
+  GRP_THREADS("GrpThreads"),
+  IDLE_TIME("IdleTime"),
+  LATENCY("Latency"),
+  RESPONSE_TIME("ResponseTime"),
+  SAMPLE_COUNT("SampleCount"),
+  SAMPLE_LABEL("SampleLabel"),
+  THREAD_NAME("ThreadName"),
+  URL("URL"),
+  RESPONSE_CODE("ResponseCode"),
+  SAMPLE_START_TIME("SampleStartTime"),
+  SAMPLE_END_TIME("SampleEndTime"),
+  TIMESTAMP("Timestamp"),
+
+  /** Details, written depending on the test mode. */
+  REQUEST_HEADERS("RequestHeaders"),
+  REQUEST_BODY("RequestBody"),
+  RESPONSE_HEADERS("ResponseHeaders"),
+  RESPONSE_BODY("ResponseBody"),
+  RESPONSE_MESSAGE("ResponseMessage"),
+
+  /** Assertions. */
+  ASSERTION_RESULTS("AssertionResults"),
+  FAILURE_MESSAGE("FailureMessage"),
+  SUCCESS("Success"),
+
+  /** Times since the start of the test. */
+  ELAPSED_TIME_COMPARISON("ElapsedTimeComparison"),
+  ELAPSED_TIME("ElapsedTime");
+
+  private final String key;
+
+  SampleField(String key) {
+    this.key = key;
+  }
+
+  /** @return the name of the field in the row */
+  public String getKey() {
+    return this.key;
+  }
+}
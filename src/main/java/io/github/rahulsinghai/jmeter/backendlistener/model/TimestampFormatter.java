@@ -0,0 +1,169 @@
+/*
+ * Copyright 2019 Rahul Singhai.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.rahulsinghai.jmeter.backendlistener.model;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+ * Thread-safe formatter for a {@link SimpleDateFormat} pattern, caching the text of the last
+ * seconds.
+ */
+public final class TimestampFormatter {
+
+  private static final int CACHE_SIZE = 16;
+
+  private final String pattern;
+
+  /** Pattern of the text before the milliseconds field, or the whole pattern. */
+  private final String prefixPattern;
+
+  /** Pattern of the text after the milliseconds field, empty if none. */
+  private final String suffixPattern;
+
+  /** Minimum number of milliseconds digits, 0 if the pattern has no milliseconds field. */
+  private final int millisDigits;
+
+  /** Whether the pattern can be split around a single milliseconds field. */
+  private final boolean splittable;
+
+  private final ThreadLocal<SimpleDateFormat[]> formats;
+
+  /**
+   * Direct-mapped cache indexed by epoch second. Entries are immutable, so a racy read sees either
+   * a stale entry, detected by its second, or a complete one.
+   */
+  private final Entry[] cache = new Entry[CACHE_SIZE];
+
+  /**
+   * Compiles the given pattern.
+   *
+   * @param pattern A SimpleDateFormat pattern
+   * @throws IllegalArgumentException if the pattern is invalid
+   */
+  public TimestampFormatter(String pattern) {
+    this.pattern = pattern;
+
+    int start = -1;
+    int end = -1;
+    int runs = 0;
+    boolean quoted = false;
+    for (int i = 0; i < pattern.length(); i++) {
+      char c = pattern.charAt(i);
+      if (c == '\'') {
+        quoted = !quoted;
+      } else if (!quoted && c == 'S') {
+        if (i == end) {
+          end++;
+        } else {
+          runs++;
+          start = i;
+          end = i + 1;
+        }
+      }
+    }
+
+    this.splittable = runs <= 1;
+    if (runs == 1) {
+      this.prefixPattern = pattern.substring(0, start);
+      this.suffixPattern = pattern.substring(end);
+      this.millisDigits = end - start;
+    } else {
+      this.prefixPattern = pattern;
+      this.suffixPattern = "";
+      this.millisDigits = 0;
+    }
+
+    // Validate eagerly, so that a wrong kafka.timestamp fails the test setup and not every sample
+    new SimpleDateFormat(pattern);
+    this.formats =
+        ThreadLocal.withInitial(
+            () ->
+                new SimpleDateFormat[] {
+                  new SimpleDateFormat(this.prefixPattern),
+                  new SimpleDateFormat(this.suffixPattern),
+                  new SimpleDateFormat(this.pattern)
+                });
+  }
+
+  /** @return the SimpleDateFormat pattern of this formatter */
+  public String getPattern() {
+    return this.pattern;
+  }
+
+  /**
+   * Appends the formatted timestamp to the given builder.
+   *
+   * @param epochMillis Timestamp in milliseconds since the epoch
+   * @param out Builder to append to
+   */
+  public void formatTo(long epochMillis, StringBuilder out) {
+    if (!this.splittable) {
+      out.append(this.formats.get()[2].format(new Date(epochMillis)));
+      return;
+    }
+
+    long second = Math.floorDiv(epochMillis, 1000L);
+    int slot = (int) (second & (CACHE_SIZE - 1));
+    Entry entry = this.cache[slot];
+    if (entry == null || entry.second != second) {
+      SimpleDateFormat[] threadFormats = this.formats.get();
+      Date date = new Date(second * 1000L);
+      entry =
+          new Entry(
+              second,
+              threadFormats[0].format(date),
+              this.suffixPattern.isEmpty() ? "" : threadFormats[1].format(date));
+      this.cache[slot] = entry;
+    }
+
+    out.append(entry.prefix);
+    if (this.millisDigits > 0) {
+      int millis = (int) Math.floorMod(epochMillis, 1000L);
+      int digits = millis >= 100 ? 3 : millis >= 10 ? 2 : 1;
+      for (int i = digits; i < this.millisDigits; i++) {
+        out.append('0');
+      }
+      out.append(millis);
+    }
+    out.append(entry.suffix);
+  }
+
+  /**
+   * Formats the given timestamp.
+   *
+   * @param epochMillis Timestamp in milliseconds since the epoch
+   * @return the formatted timestamp
+   */
+  public String format(long epochMillis) {
+    StringBuilder sb = new StringBuilder(32);
+    formatTo(epochMillis, sb);
+    return sb.toString();
+  }
+
+  private static final class Entry {
+    final long second;
+    final String prefix;
+    final String suffix;
+
+    Entry(long second, String prefix, String suffix) {
+      this.second = second;
+      this.prefix = prefix;
+      this.suffix = suffix;
+    }
+  }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2019 Rahul Singhai.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.rahulsinghai.jmeter.backendlistener.replay;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.ToLongFunction;
+import java.util.regex.Pattern;
+import org.apache.jmeter.samplers.SampleResult;
+
+/** Parses the results of a chunk of a CSV result file. */
+final class CsvJtlParser {
+
+  private final JtlField[] columns;
+  private final byte delimiter;
+  private final ToLongFunction<String> timestamps;
+  private final String[] values = new String[JtlField.values().length];
+  private byte[] field = new byte[256];
+  private int length;
+  private int column;
+  private boolean inQuotes;
+  private boolean quote;
+  private int skipped;
+
+  /**
+   * @param columns Field of each column, null for the columns which are not replayed
+   * @param delimiter Delimiter of the fields, an ASCII character
+   * @param timestamps Parses the time stamps into milliseconds since the epoch
+   */
+  CsvJtlParser(JtlField[] columns, char delimiter, ToLongFunction<String> timestamps) {
+    this.columns = columns;
+    this.delimiter = (byte) delimiter;
+    this.timestamps = timestamps;
+  }
+
+  /**
+   * @param header First line of the file, without its line break
+   * @param delimiter Delimiter of the fields
+   * @return the field of each column, null for the columns which are not replayed
+   */
+  static JtlField[] parseHeader(String header, char delimiter) {
+    String[] names = header.split(Pattern.quote(String.valueOf(delimiter)), -1);
+    JtlField[] columns = new JtlField[names.length];
+    for (int i = 0; i < names.length; i++) {
+      columns[i] = JtlField.ofColumn(names[i]);
+    }
+    return columns;
+  }
+
+  /**
+   * Parses results, keeping the state of the last one if it does not end in the buffer, so that the
+   * following bytes can be parsed by the next call.
+   *
+   * @param buffer Results, starting at the beginning of a line or where the previous call stopped
+   * @param samples Receives the samples of the results ending in the buffer, in order
+   * @param stopAtLineEnd Whether to stop after the first line break which is not in quotes
+   * @return true if it stopped after such a line break, false if it parsed the whole buffer
+   */
+  boolean parse(ByteBuffer buffer, List<SampleResult> samples, boolean stopAtLineEnd) {
+    while (buffer.hasRemaining()) {
+      byte b = buffer.get();
+      if (this.quote) {
+        // The previous byte was a quote in quotes: either the first of two or the closing one
+        this.quote = false;
+        if (b == '"') {
+          append(b);
+          continue;
+        }
+        this.inQuotes = false;
+      }
+      if (this.inQuotes) {
+        if (b == '"') {
+          this.quote = true;
+        } else {
+          append(b);
+        }
+      } else if (b == '"' && this.length == 0) {
+        this.inQuotes = true;
+      } else if (b == this.delimiter) {
+        endField();
+      } else if (b == '\n') {
+        endLine(samples);
+        if (stopAtLineEnd) {
+          return true;
+        }
+      } else if (b != '\r') {
+        append(b);
+      }
+    }
+    return false;
+  }
+
+  /** @return true if the bytes parsed so far end within a result, false if after a line break */
+  boolean isInResult() {
+    return this.inQuotes || this.column > 0 || this.length > 0;
+  }
+
+  /**
+   * Ends the last result, at the end of the file.
+   *
+   * @param samples Receives its sample
+   */
+  void finish(List<SampleResult> samples) {
+    this.inQuotes = false;
+    this.quote = false;
+    endLine(samples);
+  }
+
+  /** @return the number of lines which could not be parsed */
+  int getSkipped() {
+    return this.skipped;
+  }
+
+  private void append(byte b) {
+    if (this.length == this.field.length) {
+      this.field = Arrays.copyOf(this.field, this.length * 2);
+    }
+    this.field[this.length++] = b;
+  }
+
+  private void endField() {
+    if (this.column < this.columns.length && this.columns[this.column] != null) {
+      this.values[this.columns[this.column].ordinal()] =
+          new String(this.field, 0, this.length, StandardCharsets.UTF_8);
+    }
+    this.column++;
+    this.length = 0;
+  }
+
+  private void endLine(List<SampleResult> samples) {
+    if (this.column == 0 && this.length == 0) {
+      // Blank line
+      return;
+    }
+    endField();
+    try {
+      samples.add(JtlField.toSampleResult(this.values, this.timestamps));
+    } catch (RuntimeException e) {
+      this.skipped++;
+    }
+    Arrays.fill(this.values, null);
+    this.column = 0;
+  }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright 2019 Rahul Singhai.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.rahulsinghai.jmeter.backendlistener.replay;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.ToLongFunction;
+import org.apache.jmeter.assertions.AssertionResult;
+import org.apache.jmeter.samplers.SampleResult;
+
+/** The fields of a JTL result file replayed into a {@link SampleResult}. */
+enum JtlField {
+  TIME_STAMP("timeStamp", "ts"),
+  ELAPSED("elapsed", "t"),
+  LABEL("label", "lb"),
+  RESPONSE_CODE("responseCode", "rc"),
+  RESPONSE_MESSAGE("responseMessage", "rm"),
+  THREAD_NAME("threadName", "tn"),
+  DATA_TYPE("dataType", "dt"),
+  SUCCESS("success", "s"),
+  /** Child element of the assertion results in the XML format. */
+  FAILURE_MESSAGE("failureMessage", null),
+  BYTES("bytes", "by"),
+  SENT_BYTES("sentBytes", "sby"),
+  GRP_THREADS("grpThreads", "ng"),
+  ALL_THREADS("allThreads", "na"),
+  /** Child element <code>java.net.URL</code> in the XML format. */
+  URL("URL", null),
+  LATENCY("Latency", "lt"),
+  IDLE_TIME("IdleTime", "it"),
+  CONNECT("Connect", "ct"),
+  SAMPLE_COUNT("SampleCount", "sc"),
+  ERROR_COUNT("ErrorCount", "ec");
+
+  /**
+   * Columns of a CSV file without header, as JMeter saves them by default, null for the columns
+   * which are not replayed.
+   */
+  static final JtlField[] DEFAULT_COLUMNS = {
+    TIME_STAMP,
+    ELAPSED,
+    LABEL,
+    RESPONSE_CODE,
+    RESPONSE_MESSAGE,
+    THREAD_NAME,
+    DATA_TYPE,
+    SUCCESS,
+    FAILURE_MESSAGE,
+    BYTES,
+    SENT_BYTES,
+    GRP_THREADS,
+    ALL_THREADS,
+    URL,
+    LATENCY,
+    IDLE_TIME,
+    CONNECT
+  };
+
+  private static final Map<String, JtlField> BY_COLUMN = new HashMap<>();
+  private static final Map<String, JtlField> BY_ATTRIBUTE = new HashMap<>();
+
+  static {
+    for (JtlField field : values()) {
+      BY_COLUMN.put(field.column, field);
+      if (field.attribute != null) {
+        BY_ATTRIBUTE.put(field.attribute, field);
+      }
+    }
+  }
+
+  private final String column;
+  private final String attribute;
+
+  JtlField(String column, String attribute) {
+    this.column = column;
+    this.attribute = attribute;
+  }
+
+  /**
+   * @param column Name of a column of the CSV header
+   * @return the field, null if it is not replayed
+   */
+  static JtlField ofColumn(String column) {
+    return BY_COLUMN.get(column.trim());
+  }
+
+  /**
+   * @param attribute Name of an attribute of a sample element of the XML format
+   * @return the field, null if it is not replayed
+   */
+  static JtlField ofAttribute(String attribute) {
+    return BY_ATTRIBUTE.get(attribute);
+  }
+
+  /**
+   * Creates the sample of the values of a result.
+   *
+   * @param values Values of the result, indexed by ordinal, null if absent
+   * @param timestamps Parses the time stamps into milliseconds since the epoch
+   * @return the sample
+   * @throws IllegalArgumentException if the time stamp or a number cannot be parsed
+   */
+  static SampleResult toSampleResult(String[] values, ToLongFunction<String> timestamps) {
+    String timeStamp = values[TIME_STAMP.ordinal()];
+    if (timeStamp == null) {
+      throw new IllegalArgumentException("Result without time stamp");
+    }
+    SampleResult sr =
+        new SampleResult(timestamps.applyAsLong(timeStamp), toLong(values[ELAPSED.ordinal()]));
+    sr.setSampleLabel(values[LABEL.ordinal()]);
+    sr.setResponseCode(values[RESPONSE_CODE.ordinal()]);
+    sr.setResponseMessage(values[RESPONSE_MESSAGE.ordinal()]);
+    sr.setThreadName(values[THREAD_NAME.ordinal()]);
+    sr.setDataType(values[DATA_TYPE.ordinal()]);
+    sr.setSuccessful(!"false".equalsIgnoreCase(values[SUCCESS.ordinal()]));
+    String failureMessage = values[FAILURE_MESSAGE.ordinal()];
+    if (failureMessage != null && !failureMessage.isEmpty()) {
+      // JTL files keep the failure message of the assertions but not their name
+      AssertionResult assertion = new AssertionResult("Assertion");
+      assertion.setFailure(true);
+      assertion.setFailureMessage(failureMessage);
+      sr.addAssertionResult(assertion);
+    }
+    sr.setBytes(toLong(values[BYTES.ordinal()]));
+    sr.setSentBytes(toLong(values[SENT_BYTES.ordinal()]));
+    sr.setGroupThreads((int) toLong(values[GRP_THREADS.ordinal()]));
+    sr.setAllThreads((int) toLong(values[ALL_THREADS.ordinal()]));
+    String url = values[URL.ordinal()];
+    if (url != null && !url.isEmpty() && !"null".equals(url)) {
+      try {
+        sr.setURL(new URL(url));
+      } catch (MalformedURLException e) {
+        // Not an URL, e.g. the request of a JDBC sampler
+      }
+    }
+    sr.setLatency(toLong(values[LATENCY.ordinal()]));
+    sr.setIdleTime(toLong(values[IDLE_TIME.ordinal()]));
+    sr.setConnectTime(toLong(values[CONNECT.ordinal()]));
+    if (values[SAMPLE_COUNT.ordinal()] != null) {
+      sr.setSampleCount((int) toLong(values[SAMPLE_COUNT.ordinal()]));
+    }
+    String errorCount = values[ERROR_COUNT.ordinal()];
+    sr.setErrorCount(errorCount != null ? (int) toLong(errorCount) : sr.isSuccessful() ? 0 : 1);
+    return sr;
+  }
+
+  private static long toLong(String value) {
+    if (value == null || value.isEmpty()) {
+      return 0;
+    }
+    return Long.parseLong(value.trim());
+  }
+}
@@ -0,0 +1,294 @@
+/*
+ * Copyright 2019 Rahul Singhai.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.rahulsinghai.jmeter.backendlistener.replay;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.ToLongFunction;
+import org.apache.jmeter.samplers.SampleResult;
+
+/** A JTL result file, CSV or XML, split into chunks parsed independently. Thread-safe. */
+final class JtlFile implements Closeable {
+
+  /** Size of the reads looking for the start of a chunk. */
+  private static final int SEARCH_BYTES = 64 * 1024;
+
+  private static final byte[] HTTP_SAMPLE = "<httpSample".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] SAMPLE = "<sample".getBytes(StandardCharsets.US_ASCII);
+
+  private final Path path;
+  private final FileChannel channel;
+  private final long size;
+  private final boolean xml;
+  private final JtlField[] columns;
+  private final long dataStart;
+  private final char delimiter;
+  private final ToLongFunction<String> timestamps;
+
+  /**
+   * Opens a file and reads its header.
+   *
+   * @param path The file
+   * @param delimiter Delimiter of the fields of the CSV format
+   * @param timestamps Parses the time stamps into milliseconds since the epoch
+   * @throws IOException if the file cannot be read
+   */
+  JtlFile(Path path, char delimiter, ToLongFunction<String> timestamps) throws IOException {
+    this.path = path;
+    this.channel = FileChannel.open(path, StandardOpenOption.READ);
+    this.size = this.channel.size();
+    this.delimiter = delimiter;
+    this.timestamps = timestamps;
+
+    ByteBuffer head = read(0, SEARCH_BYTES);
+    int first = head.position();
+    while (first < head.limit() && head.get(first) <= ' ') {
+      // Whitespace and byte order mark, whose bytes are negative
+      first++;
+    }
+    this.xml = first < head.limit() && head.get(first) == '<';
+    if (this.xml || first == head.limit() || Character.isDigit(head.get(first))) {
+      this.columns = JtlField.DEFAULT_COLUMNS;
+      this.dataStart = 0;
+    } else {
+      int end = first;
+      while (end < head.limit() && head.get(end) != '\n') {
+        end++;
+      }
+      byte[] header = new byte[end - first];
+      for (int i = 0; i < header.length; i++) {
+        header[i] = head.get(first + i);
+      }
+      this.columns =
+          CsvJtlParser.parseHeader(
+              new String(header, StandardCharsets.UTF_8).trim(), this.delimiter);
+      this.dataStart = Math.min(end + 1, this.size);
+    }
+  }
+
+  /** @return the path of the file */
+  Path getPath() {
+    return this.path;
+  }
+
+  /** @return the size of the file, in bytes */
+  long getSize() {
+    return this.size;
+  }
+
+  /** @return the size of the results, without the CSV header, in bytes */
+  long getDataSize() {
+    return this.size - this.dataStart;
+  }
+
+  /** @return true for the XML format, false for CSV */
+  boolean isXml() {
+    return this.xml;
+  }
+
+  /**
+   * Splits the file into chunks of about the given size.
+   *
+   * @param chunkBytes Size of the chunks, at most 1 GB
+   * @return the chunks, in order
+   * @throws IOException if the file cannot be read
+   */
+  List<Chunk> split(long chunkBytes) throws IOException {
+    long target = Math.max(1, Math.min(chunkBytes, 1L << 30));
+    List<Chunk> chunks = new ArrayList<>();
+    long start = this.dataStart;
+    while (start < this.size) {
+      long end = start + target >= this.size ? this.size : findResultStart(start + target);
+      chunks.add(new Chunk(start, end));
+      start = end;
+    }
+    return chunks;
+  }
+
+  /**
+   * Parses the results of a chunk, the last one up to its end if it continues in the next chunk.
+   *
+   * @param chunk A chunk of the file
+   * @return its results
+   * @throws IOException if the file cannot be read
+   */
+  Results parse(Chunk chunk) throws IOException {
+    if (chunk.getLength() == 0) {
+      return new Results(chunk.start, chunk.end, new ArrayList<>(), 0);
+    }
+    MappedByteBuffer buffer =
+        this.channel.map(FileChannel.MapMode.READ_ONLY, chunk.getStart(), chunk.getLength());
+    if (this.xml) {
+      XmlJtlParser parser = new XmlJtlParser(this.timestamps);
+      List<SampleResult> samples = parser.parse(buffer);
+      return new Results(chunk.start, chunk.end, samples, parser.getSkipped());
+    }
+    CsvJtlParser parser = new CsvJtlParser(this.columns, this.delimiter, this.timestamps);
+    List<SampleResult> samples = new ArrayList<>();
+    parser.parse(buffer, samples, false);
+    long end = chunk.end;
+    while (parser.isInResult() && end < this.size) {
+      // The chunk ended in a quoted line break: read on to the end of the result
+      ByteBuffer window = read(end, SEARCH_BYTES);
+      parser.parse(window, samples, true);
+      end += window.position();
+    }
+    parser.finish(samples);
+    return new Results(chunk.start, end, samples, parser.getSkipped());
+  }
+
+  /**
+   * Parses the results of a chunk following the results of the previous one.
+   *
+   * @param chunk A chunk of the file
+   * @param start Position where the results of the previous chunk ended
+   * @param parsed Results of the chunk parsed from its own start
+   * @return its results, parsed again from the given position if the chunk started within the last
+   *     result of the previous chunk
+   * @throws IOException if the file cannot be read
+   */
+  Results parse(Chunk chunk, long start, Results parsed) throws IOException {
+    if (parsed.start == start) {
+      return parsed;
+    }
+    return parse(new Chunk(start, Math.max(start, chunk.end)));
+  }
+
+  /**
+   * @param from Position in the file
+   * @return the position of the first result starting at or after it, the size of the file if there
+   *     is none
+   */
+  private long findResultStart(long from) throws IOException {
+    long position = from - 1;
+    while (position < this.size) {
+      ByteBuffer window = read(position, SEARCH_BYTES);
+      int limit = window.limit();
+      for (int i = 0; i < limit - 1; i++) {
+        if (window.get(i) == '\n' && isResultStart(window, i + 1)) {
+          return position + i + 1;
+        }
+      }
+      if (limit < SEARCH_BYTES) {
+        return this.size;
+      }
+      // The next window overlaps with this one by the length of the longest pattern
+      position += limit - HTTP_SAMPLE.length - 1;
+    }
+    return this.size;
+  }
+
+  private boolean isResultStart(ByteBuffer window, int index) {
+    if (!this.xml) {
+      return Character.isDigit(window.get(index));
+    }
+    return startsWith(window, index, HTTP_SAMPLE) || startsWith(window, index, SAMPLE);
+  }
+
+  private static boolean startsWith(ByteBuffer window, int index, byte[] pattern) {
+    if (index + pattern.length >= window.limit()) {
+      return false;
+    }
+    for (int i = 0; i < pattern.length; i++) {
+      if (window.get(index + i) != pattern[i]) {
+        return false;
+      }
+    }
+    byte next = window.get(index + pattern.length);
+    return next == ' ' || next == '>' || next == '/' || next == '\t';
+  }
+
+  private ByteBuffer read(long position, int length) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(length);
+    while (buffer.hasRemaining()
+        && position + buffer.position() < this.size
+        && this.channel.read(buffer, position + buffer.position()) >= 0) {
+      // Until the buffer is full or the end of the file is reached
+    }
+    buffer.flip();
+    return buffer;
+  }
+
+  @Override
+  public void close() throws IOException {
+    this.channel.close();
+  }
+
+  /** The results of a chunk, and the range of the file they were parsed from. */
+  static final class Results {
+    private final long start;
+    private final long end;
+    private final List<SampleResult> samples;
+    private final int skipped;
+
+    Results(long start, long end, List<SampleResult> samples, int skipped) {
+      this.start = start;
+      this.end = end;
+      this.samples = samples;
+      this.skipped = skipped;
+    }
+
+    /** @return the position following their last byte in the file */
+    long getEnd() {
+      return this.end;
+    }
+
+    /** @return their size, in bytes */
+    long getLength() {
+      return this.end - this.start;
+    }
+
+    /** @return the samples of the results, in order */
+    List<SampleResult> getSamples() {
+      return this.samples;
+    }
+
+    /** @return the number of results which could not be parsed */
+    int getSkipped() {
+      return this.skipped;
+    }
+  }
+
+  /** A range of the file, tentatively starting at the beginning of a result. */
+  static final class Chunk {
+    private final long start;
+    private final long end;
+
+    Chunk(long start, long end) {
+      this.start = start;
+      this.end = end;
+    }
+
+    /** @return the position of its first byte in the file */
+    long getStart() {
+      return this.start;
+    }
+
+    /** @return its size, in bytes */
+    long getLength() {
+      return this.end - this.start;
+    }
+  }
+}
@@ -0,0 +1,349 @@
+/*
+ * Copyright 2019 Rahul Singhai.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.rahulsinghai.jmeter.backendlistener.replay;
+
+import io.github.rahulsinghai.jmeter.backendlistener.kafka.KafkaBackendClient;
+import io.github.rahulsinghai.jmeter.backendlistener.model.RowTemplate;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.ToLongFunction;
+import org.apache.jmeter.config.Arguments;
+import org.apache.jmeter.samplers.SampleResult;
+import org.apache.jmeter.visualizers.backend.BackendListenerContext;
+
+/**
+ * Command-line tool publishing the results of existing JTL files through a {@link
+ * KafkaBackendClient}, with the same rows as a live test.
+ */
+public final class JtlReplay {
+
+  private JtlReplay() {}
+
+  /** Settings of a replay. */
+  static final class Settings {
+    /** Maximum rate, in samples per second; 0 for no limit. */
+    long rate;
+
+    /** Threads parsing the chunks. */
+    int threads = Runtime.getRuntime().availableProcessors();
+
+    /** Size of the chunks, in bytes. */
+    long chunkBytes = 8L * 1024 * 1024;
+
+    /** Samples per call of handleSampleResults. */
+    int batchSize = 1000;
+
+    /** Seconds between two progress reports; 0 for none. */
+    int progressSeconds = 5;
+
+    /** Delimiter of the fields of the CSV files. */
+    char delimiter = ',';
+
+    /** Pattern of the time stamps, if JMeter did not save them in milliseconds since the epoch. */
+    String timestampFormat;
+
+    /** Directory receiving the records in NDJSON files instead of Kafka, with the file sink. */
+    Path output;
+
+    final Map<String, String> listenerParameters = new LinkedHashMap<>();
+    final List<Path> files = new ArrayList<>();
+
+    static Settings parse(String... args) {
+      Settings settings = new Settings();
+      for (String arg : args) {
+        int equals = arg.indexOf('=');
+        if (equals < 0) {
+          settings.files.add(Paths.get(arg));
+          continue;
+        }
+        String name = arg.substring(0, equals).trim();
+        String value = arg.substring(equals + 1).trim();
+        if (name.startsWith("kafka.")) {
+          settings.listenerParameters.put(name, value);
+          continue;
+        }
+        switch (name) {
+          case "replay.rate":
+            settings.rate = Long.parseLong(value);
+            break;
+          case "replay.threads":
+            settings.threads = Integer.parseInt(value);
+            break;
+          case "replay.chunk.bytes":
+            settings.chunkBytes = Long.parseLong(value);
+            break;
+          case "replay.batch.size":
+            settings.batchSize = Integer.parseInt(value);
+            break;
+          case "replay.progress.seconds":
+            settings.progressSeconds = Integer.parseInt(value);
+            break;
+          case "replay.csv.delimiter":
+            settings.delimiter = "\\t".equals(value) ? '\t' : value.charAt(0);
+            break;
+          case "replay.timestamp.format":
+            settings.timestampFormat = value;
+            break;
+          case "replay.output":
+            settings.output = Paths.get(value);
+            break;
+          default:
+            throw new IllegalArgumentException("Unknown setting " + name);
+        }
+      }
+      if (settings.files.isEmpty()) {
+        throw new IllegalArgumentException("No JTL file to replay");
+      }
+      return settings;
+    }
+
+    ToLongFunction<String> getTimestamps() {
+      if (this.timestampFormat == null || this.timestampFormat.isEmpty()) {
+        return value -> Long.parseLong(value.trim());
+      }
+      DateTimeFormatter formatter =
+          DateTimeFormatter.ofPattern(this.timestampFormat).withZone(ZoneId.systemDefault());
+      return value -> Instant.from(formatter.parse(value.trim())).toEpochMilli();
+    }
+  }
+
+  /** Results of a replay. */
+  static final class Report {
+    long samples;
+    long skipped;
+    long bytes;
+    long totalBytes;
+    double seconds;
+
+    double getRate() {
+      return this.seconds > 0 ? this.samples / this.seconds : 0;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          "Replayed %,d samples (%,d skipped), %.1f of %.1f MB (%.0f %%), in %.1f s: %,.0f"
+              + " samples/s, %.1f MB/s",
+          this.samples,
+          this.skipped,
+          this.bytes / (1024.0 * 1024.0),
+          this.totalBytes / (1024.0 * 1024.0),
+          this.totalBytes > 0 ? this.bytes * 100.0 / this.totalBytes : 100.0,
+          this.seconds,
+          getRate(),
+          this.seconds > 0 ? this.bytes / (1024.0 * 1024.0) / this.seconds : 0);
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    System.out.println(run(Settings.parse(args)));
+  }
+
+  /**
+   * Replays the files of the settings, then tears the listener down.
+   *
+   * @param settings Settings of the replay
+   * @return the results
+   * @throws Exception if a file cannot be read, or the listener fails to start or stop
+   */
+  static Report run(Settings settings) throws Exception {
+    ReplayClient client = new ReplayClient();
+    Map<String, String> parameters = new LinkedHashMap<>();
+    client
+        .getDefaultParameters()
+        .getArgumentsAsMap()
+        .forEach((name, value) -> parameters.put(name, value == null ? "" : value));
+    if (settings.output != null) {
+      parameters.put("kafka.sink", "file");
+      parameters.put("kafka.sink.file.directory", settings.output.toString());
+      parameters.put("kafka.sink.file.compression", "none");
+    }
+    parameters.putAll(settings.listenerParameters);
+    Arguments arguments = new Arguments();
+    parameters.forEach(arguments::addArgument);
+    BackendListenerContext context = new BackendListenerContext(arguments);
+
+    List<JtlFile> files = new ArrayList<>();
+    Report report = new Report();
+    for (Path path : settings.files) {
+      JtlFile file = new JtlFile(path, settings.delimiter, settings.getTimestamps());
+      files.add(file);
+      report.totalBytes += file.getDataSize();
+    }
+
+    AtomicInteger count = new AtomicInteger();
+    ExecutorService parsers =
+        Executors.newFixedThreadPool(
+            Math.max(1, settings.threads),
+            runnable -> {
+              Thread thread = new Thread(runnable, "jtl-replay-parser-" + count.getAndIncrement());
+              thread.setDaemon(true);
+              return thread;
+            });
+    long start = System.nanoTime();
+    Replayer replayer = new Replayer(client, context, settings, report, start);
+    try {
+      for (JtlFile file : files) {
+        replay(file, settings, parsers, replayer, report);
+      }
+      replayer.flush();
+    } finally {
+      parsers.shutdownNow();
+      if (client.isStarted()) {
+        client.teardownTest(context);
+      }
+      for (JtlFile file : files) {
+        file.close();
+      }
+    }
+    report.seconds = (System.nanoTime() - start) / 1e9;
+    return report;
+  }
+
+  /**
+   * Parses the chunks of a file on the pool, keeping at most two chunks per thread in memory, and
+   * hands their samples to the listener in the order of the file. A chunk which started within the
+   * last result of the previous one is parsed again from where that result ended.
+   */
+  private static void replay(
+      JtlFile file, Settings settings, ExecutorService parsers, Replayer replayer, Report report)
+      throws Exception {
+    List<JtlFile.Chunk> chunks = file.split(settings.chunkBytes);
+    Deque<Future<JtlFile.Results>> parsing = new ArrayDeque<>();
+    Deque<JtlFile.Chunk> parsed = new ArrayDeque<>();
+    long end = chunks.isEmpty() ? 0 : chunks.get(0).getStart();
+    int next = 0;
+    while (next < chunks.size() || !parsing.isEmpty()) {
+      while (next < chunks.size() && parsing.size() < Math.max(1, settings.threads) * 2) {
+        JtlFile.Chunk chunk = chunks.get(next++);
+        parsing.add(parsers.submit(() -> file.parse(chunk)));
+        parsed.add(chunk);
+      }
+      JtlFile.Results results;
+      try {
+        results = file.parse(parsed.poll(), end, parsing.poll().get());
+      } catch (ExecutionException e) {
+        throw new IllegalStateException("Unable to parse " + file.getPath(), e.getCause());
+      }
+      end = results.getEnd();
+      report.skipped += results.getSkipped();
+      replayer.publish(results.getSamples(), results.getLength());
+    }
+  }
+
+  /**
+   * The listener, whose test starts with the first sample replayed: the TestStartTime field is its
+   * start time, and the ElapsedTime fields are computed at the end time of each sample.
+   */
+  private static final class ReplayClient extends KafkaBackendClient {
+    private long testStartTime;
+    private boolean started;
+
+    void startTest(long testStartTime, BackendListenerContext context) throws Exception {
+      this.testStartTime = testStartTime;
+      this.started = true;
+      setupTest(context);
+    }
+
+    boolean isStarted() {
+      return this.started;
+    }
+
+    @Override
+    protected RowTemplate customizeRowTemplate(RowTemplate template) {
+      return template.withPastTestStartTime(this.testStartTime);
+    }
+  }
+
+  /** Hands the samples to the listener in batches, at the capped rate, reporting the progress. */
+  private static final class Replayer {
+    private final ReplayClient client;
+    private final BackendListenerContext context;
+    private final Settings settings;
+    private final Report report;
+    private final long start;
+    private final List<SampleResult> batch;
+    private long nextProgress;
+
+    Replayer(
+        ReplayClient client,
+        BackendListenerContext context,
+        Settings settings,
+        Report report,
+        long start) {
+      this.client = client;
+      this.context = context;
+      this.settings = settings;
+      this.report = report;
+      this.start = start;
+      this.batch = new ArrayList<>(Math.max(1, settings.batchSize));
+      this.nextProgress = start + TimeUnit.SECONDS.toNanos(settings.progressSeconds);
+    }
+
+    void publish(List<SampleResult> samples, long bytes) throws Exception {
+      for (SampleResult sr : samples) {
+        this.batch.add(sr);
+        if (this.batch.size() >= this.settings.batchSize) {
+          flush();
+        }
+      }
+      this.report.bytes += bytes;
+    }
+
+    void flush() throws Exception {
+      if (this.batch.isEmpty()) {
+        return;
+      }
+      if (!this.client.isStarted()) {
+        this.client.startTest(this.batch.get(0).getStartTime(), this.context);
+      }
+      if (this.settings.rate > 0) {
+        long due = this.start + (long) (this.report.samples * 1e9 / this.settings.rate);
+        long now = System.nanoTime();
+        if (due > now) {
+          LockSupport.parkNanos(due - now);
+        }
+      }
+      this.client.handleSampleResults(this.batch, this.context);
+      this.report.samples += this.batch.size();
+      this.batch.clear();
+
+      long now = System.nanoTime();
+      if (this.settings.progressSeconds > 0 && now >= this.nextProgress) {
+        this.report.seconds = (now - this.start) / 1e9;
+        System.out.println(this.report);
+        this.nextProgress = now + TimeUnit.SECONDS.toNanos(this.settings.progressSeconds);
+      }
+    }
+  }
+}
@@ -0,0 +1,309 @@
+/*
+ * Copyright 2019 Rahul Singhai.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.rahulsinghai.jmeter.backendlistener.replay;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.ToLongFunction;
+import org.apache.jmeter.samplers.SampleResult;
+
+/** Parses the top-level results of a chunk of an XML result file. */
+final class XmlJtlParser {
+
+  private final ToLongFunction<String> timestamps;
+  private final String[] values = new String[JtlField.values().length];
+  private final StringBuilder name = new StringBuilder();
+  private final StringBuilder attribute = new StringBuilder();
+  private byte[] text = new byte[256];
+  private int length;
+  private int sampleDepth;
+  private boolean inAssertion;
+  private boolean assertionFailed;
+  private String assertionMessage;
+  private String capture;
+  private int skipped;
+
+  /** @param timestamps Parses the time stamps into milliseconds since the epoch */
+  XmlJtlParser(ToLongFunction<String> timestamps) {
+    this.timestamps = timestamps;
+  }
+
+  /**
+   * @param element Name of an element
+   * @return true if it is the element of a result
+   */
+  static boolean isSample(CharSequence element) {
+    return "httpSample".contentEquals(element) || "sample".contentEquals(element);
+  }
+
+  /**
+   * @param chunk Results, starting outside of any result
+   * @return the samples of the top-level results, in order
+   */
+  List<SampleResult> parse(ByteBuffer chunk) {
+    List<SampleResult> samples = new ArrayList<>();
+    while (chunk.hasRemaining()) {
+      byte b = chunk.get();
+      if (b != '<') {
+        if (this.capture != null) {
+          append(b);
+        }
+      } else if (!chunk.hasRemaining()) {
+        break;
+      } else if (chunk.get(chunk.position()) == '?' || chunk.get(chunk.position()) == '!') {
+        skipDeclaration(chunk);
+      } else if (chunk.get(chunk.position()) == '/') {
+        chunk.get();
+        readName(chunk);
+        skipTo(chunk, (byte) '>');
+        endElement(samples);
+      } else {
+        readName(chunk);
+        startElement(chunk, samples);
+      }
+    }
+    return samples;
+  }
+
+  /** @return the number of results which could not be parsed */
+  int getSkipped() {
+    return this.skipped;
+  }
+
+  private void startElement(ByteBuffer chunk, List<SampleResult> samples) {
+    boolean sample = isSample(this.name);
+    boolean topLevel = sample && this.sampleDepth == 0;
+    if (topLevel) {
+      Arrays.fill(this.values, null);
+    }
+    boolean selfClosing = readAttributes(chunk, topLevel);
+    if (sample) {
+      if (selfClosing) {
+        if (topLevel) {
+          emit(samples);
+        }
+      } else {
+        this.sampleDepth++;
+      }
+    } else if (this.sampleDepth == 1 && !selfClosing) {
+      String element = this.name.toString();
+      if ("java.net.URL".equals(element)) {
+        startCapture(JtlField.URL.name());
+      } else if ("assertionResult".equals(element)) {
+        this.inAssertion = true;
+        this.assertionFailed = false;
+        this.assertionMessage = null;
+      } else if (this.inAssertion
+          && ("failure".equals(element)
+              || "error".equals(element)
+              || "failureMessage".equals(element))) {
+        startCapture(element);
+      }
+    }
+  }
+
+  private void endElement(List<SampleResult> samples) {
+    if (isSample(this.name)) {
+      if (this.sampleDepth > 0 && --this.sampleDepth == 0) {
+        emit(samples);
+      }
+      return;
+    }
+    if (this.sampleDepth != 1) {
+      return;
+    }
+    String element = this.name.toString();
+    if (this.capture != null) {
+      String value = unescape(new String(this.text, 0, this.length, StandardCharsets.UTF_8));
+      if (this.capture.equals(JtlField.URL.name())) {
+        this.values[JtlField.URL.ordinal()] = value.trim();
+      } else if ("failureMessage".equals(this.capture)) {
+        this.assertionMessage = value;
+      } else if ("true".equals(value.trim())) {
+        this.assertionFailed = true;
+      }
+      this.capture = null;
+    } else if ("assertionResult".equals(element)) {
+      this.inAssertion = false;
+      int failureMessage = JtlField.FAILURE_MESSAGE.ordinal();
+      if (this.assertionFailed && this.values[failureMessage] == null) {
+        this.values[failureMessage] = this.assertionMessage == null ? "" : this.assertionMessage;
+      }
+    }
+  }
+
+  private void emit(List<SampleResult> samples) {
+    try {
+      samples.add(JtlField.toSampleResult(this.values, this.timestamps));
+    } catch (RuntimeException e) {
+      this.skipped++;
+    }
+    this.inAssertion = false;
+    this.capture = null;
+  }
+
+  private void startCapture(String target) {
+    this.capture = target;
+    this.length = 0;
+  }
+
+  /**
+   * Reads the attributes of an element up to the end of its start tag.
+   *
+   * @param chunk Bytes following the name of the element
+   * @param keep Whether to keep the values of the fields replayed
+   * @return true if the element has no content
+   */
+  private boolean readAttributes(ByteBuffer chunk, boolean keep) {
+    boolean slash = false;
+    while (chunk.hasRemaining()) {
+      byte b = chunk.get();
+      if (b == '>') {
+        return slash;
+      }
+      if (b == '/') {
+        slash = true;
+      } else if (b > ' ') {
+        slash = false;
+        this.attribute.setLength(0);
+        this.attribute.append((char) b);
+        while (chunk.hasRemaining() && (b = chunk.get()) != '=' && b > ' ') {
+          this.attribute.append((char) b);
+        }
+        while (chunk.hasRemaining() && (b = chunk.get()) != '"' && b != '\'') {
+          // Up to the opening quote
+        }
+        byte quote = b;
+        this.length = 0;
+        while (chunk.hasRemaining() && (b = chunk.get()) != quote) {
+          append(b);
+        }
+        if (keep) {
+          JtlField field = JtlField.ofAttribute(this.attribute.toString());
+          if (field != null) {
+            this.values[field.ordinal()] =
+                unescape(new String(this.text, 0, this.length, StandardCharsets.UTF_8));
+          }
+        }
+      }
+    }
+    return slash;
+  }
+
+  private void readName(ByteBuffer chunk) {
+    this.name.setLength(0);
+    while (chunk.hasRemaining()) {
+      byte b = chunk.get(chunk.position());
+      if (b <= ' ' || b == '>' || b == '/') {
+        return;
+      }
+      this.name.append((char) chunk.get());
+    }
+  }
+
+  private static void skipDeclaration(ByteBuffer chunk) {
+    if (chunk.remaining() >= 3
+        && chunk.get(chunk.position() + 1) == '-'
+        && chunk.get(chunk.position() + 2) == '-') {
+      // Comment, up to "-->"
+      int dashes = 0;
+      while (chunk.hasRemaining()) {
+        byte b = chunk.get();
+        if (b == '>' && dashes >= 2) {
+          return;
+        }
+        dashes = b == '-' ? dashes + 1 : 0;
+      }
+      return;
+    }
+    skipTo(chunk, (byte) '>');
+  }
+
+  private static void skipTo(ByteBuffer chunk, byte target) {
+    while (chunk.hasRemaining() && chunk.get() != target) {
+      // Skipped
+    }
+  }
+
+  private void append(byte b) {
+    if (this.length == this.text.length) {
+      this.text = Arrays.copyOf(this.text, this.length * 2);
+    }
+    this.text[this.length++] = b;
+  }
+
+  /**
+   * @param value Text of an attribute or element
+   * @return the text with its predefined and numeric character references replaced
+   */
+  static String unescape(String value) {
+    int amp = value.indexOf('&');
+    if (amp < 0) {
+      return value;
+    }
+    StringBuilder unescaped = new StringBuilder(value.length());
+    int start = 0;
+    while (amp >= 0) {
+      int semicolon = value.indexOf(';', amp);
+      if (semicolon < 0) {
+        break;
+      }
+      unescaped.append(value, start, amp);
+      String entity = value.substring(amp + 1, semicolon);
+      switch (entity) {
+        case "lt":
+          unescaped.append('<');
+          break;
+        case "gt":
+          unescaped.append('>');
+          break;
+        case "amp":
+          unescaped.append('&');
+          break;
+        case "quot":
+          unescaped.append('"');
+          break;
+        case "apos":
+          unescaped.append('\'');
+          break;
+        default:
+          unescapeCharacter(unescaped, entity);
+      }
+      start = semicolon + 1;
+      amp = value.indexOf('&', start);
+    }
+    return unescaped.append(value, start, value.length()).toString();
+  }
+
+  private static void unescapeCharacter(StringBuilder unescaped, String entity) {
+    try {
+      if (entity.startsWith("#x")) {
+        unescaped.appendCodePoint(Integer.parseInt(entity.substring(2), 16));
+        return;
+      } else if (entity.startsWith("#")) {
+        unescaped.appendCodePoint(Integer.parseInt(entity.substring(1)));
+        return;
+      }
+    } catch (IllegalArgumentException e) {
+      // Not a character reference, kept as is
+    }
+    unescaped.append('&').append(entity).append(';');
+  }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2019 Rahul Singhai.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.rahulsinghai.jmeter.backendlistener.sink;
+
+import io.github.rahulsinghai.jmeter.backendlistener.model.EncodingRowWriter;
+import org.apache.jmeter.samplers.SampleResult;
+
+/**
+ * Where the listener delivers its rows. Not thread-safe: each thread of the listener has its own.
+ */
+public interface RecordSink {
+
+  /** @return the number of rows of the list */
+  int getListSize();
+
+  /**
+   * Copies the current row of a writer, which can then encode the next one, to the list.
+   *
+   * @param writer Writer of the row of the sample
+   * @param sr Sample of the row
+   */
+  void addToList(EncodingRowWriter writer, SampleResult sr);
+
+  /**
+   * Adds a row which belongs to no sample, e.g. a change of the load-shedding level, to the list.
+   *
+   * @param row Encoded row
+   */
+  void addToList(byte[] row);
+
+  /**
+   * Adds the row of a summary to the list.
+   *
+   * @param row Encoded row
+   * @param label Label of the summary
+   * @param intervalStart Start of the interval of the summary, in milliseconds since the epoch
+   * @param intervalEnd End of the interval of the summary, in milliseconds since the epoch
+   */
+  default void addToList(byte[] row, String label, long intervalStart, long intervalEnd) {
+    addToList(row);
+  }
+
+  /**
+   * Adds a row that the consumers of every destination of the sink must receive to the list, e.g.
+   * of every Kafka tier.
+   *
+   * @param row Encoded row
+   */
+  default void addToEveryDestination(byte[] row) {
+    addToList(row);
+  }
+
+  /**
+   * Changes the maximum number of rows packed together in the next envelopes, if the sink has any.
+   *
+   * @param envelopeMaxDocuments Maximum number of rows per envelope
+   */
+  default void setEnvelopeMaxDocuments(int envelopeMaxDocuments) {
+    // Every row is delivered on its own
+  }
+
+  /**
+   * Publishes a control record, e.g. the dictionary of the binary format, so that it precedes the
+   * rows published afterwards. Only the Kafka sink takes binary rows.
+   *
+   * @param controlRecord Value of the control record
+   */
+  default void publishControlRecord(byte[] controlRecord) {
+    // The rows are JSON documents, which need no control record
+  }
+
+  /** Publishes the rows of the list, without waiting for their delivery. */
+  void publishMetrics();
+
+  /** Clears the list. */
+  void clearList();
+
+  /** Waits for the rows published so far to be delivered. */
+  void flush();
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright 2019 Rahul Singhai.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.rahulsinghai.jmeter.backendlistener.sink;
+
+import java.io.Closeable;
+import java.io.IOException;
+import org.apache.jmeter.visualizers.backend.BackendListenerContext;
+
+/**
+ * Creates the {@link RecordSink}s of a listener, for the destinations named by <code>kafka.sink
+ * </code>. Thread-safe.
+ */
+public interface RecordSinkFactory extends Closeable {
+
+  /**
+   * Opens what the sinks share, e.g. a connection or a file.
+   *
+   * @param context Parameters of the listener
+   * @param metrics Receives the deliveries of the sinks
+   * @throws IOException if the destination cannot be opened
+   */
+  void open(BackendListenerContext context, SinkMetrics metrics) throws IOException;
+
+  /** @return a new sink, sharing what the factory opened */
+  RecordSink newSink();
+
+  /**
+   * Closes what the sinks share, after they delivered their last rows.
+   *
+   * @throws IOException if the last rows cannot be completed
+   */
+  @Override
+  void close() throws IOException;
+}
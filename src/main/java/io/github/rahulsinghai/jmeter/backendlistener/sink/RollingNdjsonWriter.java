@@ -0,0 +1,352 @@
+/*
+ * Copyright 2019 Rahul Singhai.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.rahulsinghai.jmeter.backendlistener.sink;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes blocks of NDJSON lines to size-rotated segment files, gzip compressed or not, from a
+ * background thread. Thread-safe.
+ */
+public final class RollingNdjsonWriter implements Closeable {
+
+  private static final Pattern SEGMENT_NAME =
+      Pattern.compile("rows-(\\d{20})\\.ndjson(?:\\.gz)?(?:\\.part)?");
+
+  private static final String PART_SUFFIX = ".part";
+
+  /** Size of the buffer of the deflater, in bytes. */
+  private static final int GZIP_BUFFER_BYTES = 64 * 1024;
+
+  /** Tells the writer thread to complete the active segment and stop. */
+  private static final Object CLOSE = new Object();
+
+  /** A block of lines and the callback told once it is written. */
+  private static final class Block {
+    private final byte[] lines;
+    private final Consumer<IOException> callback;
+
+    private Block(byte[] lines, Consumer<IOException> callback) {
+      this.lines = lines;
+      this.callback = callback;
+    }
+  }
+
+  private final Path directory;
+  private final long segmentBytes;
+  private final boolean gzip;
+  private final ByteBuffer buffer;
+  private final BlockingQueue<Object> queue;
+  private final Thread thread;
+  private volatile boolean closed;
+
+  // Only used by the writer thread
+  private long nextSequence;
+  private Path activePath;
+  private FileChannel channel;
+  private OutputStream out;
+  private long activeBytes;
+  private IOException closeFailure;
+
+  private RollingNdjsonWriter(
+      Path directory, long segmentBytes, boolean gzip, int bufferBytes, int queueCapacity) {
+    this.directory = directory;
+    this.segmentBytes = segmentBytes;
+    this.gzip = gzip;
+    this.buffer = ByteBuffer.allocateDirect(bufferBytes);
+    this.queue = new ArrayBlockingQueue<>(queueCapacity);
+    this.thread = new Thread(this::run, "kafka-backend-listener-file-writer");
+    this.thread.setDaemon(true);
+  }
+
+  /**
+   * Opens a writer on a directory, creating it if needed, and starts its thread.
+   *
+   * @param directory Directory of the segment files
+   * @param segmentBytes Size from which a segment is completed and the next one created, in bytes
+   *     of the file
+   * @param gzip Whether the segments are gzip compressed
+   * @param bufferBytes Size of the buffer between the compression and the file channel, in bytes
+   * @param queueCapacity Maximum number of blocks waiting to be written
+   * @return the writer
+   * @throws IOException if the directory cannot be created or read
+   */
+  public static RollingNdjsonWriter open(
+      Path directory, long segmentBytes, boolean gzip, int bufferBytes, int queueCapacity)
+      throws IOException {
+    if (segmentBytes <= 0 || bufferBytes <= 0 || queueCapacity <= 0) {
+      throw new IllegalArgumentException(
+          "Invalid segment size, buffer size or queue capacity: "
+              + segmentBytes
+              + ", "
+              + bufferBytes
+              + ", "
+              + queueCapacity);
+    }
+    Files.createDirectories(directory);
+    RollingNdjsonWriter writer =
+        new RollingNdjsonWriter(directory, segmentBytes, gzip, bufferBytes, queueCapacity);
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "rows-*")) {
+      for (Path file : files) {
+        Matcher matcher = SEGMENT_NAME.matcher(file.getFileName().toString());
+        if (matcher.matches()) {
+          writer.nextSequence = Math.max(writer.nextSequence, Long.parseLong(matcher.group(1)));
+        }
+      }
+    }
+    writer.nextSequence++;
+    writer.thread.start();
+    return writer;
+  }
+
+  /** @return the directory of the segment files */
+  public Path getDirectory() {
+    return this.directory;
+  }
+
+  /**
+   * Queues a block of lines, waiting if the queue is full.
+   *
+   * @param lines Lines, each ending with a line feed; must not be modified afterwards
+   * @param callback Told by the writer thread once the block is written, with null, or with the
+   *     exception which prevented it
+   * @throws InterruptedException if interrupted while waiting
+   * @throws IllegalStateException if the writer is closed
+   */
+  public void append(byte[] lines, Consumer<IOException> callback) throws InterruptedException {
+    if (this.closed) {
+      throw new IllegalStateException("The writer of " + this.directory + " is closed");
+    }
+    this.queue.put(new Block(lines, callback));
+  }
+
+  /**
+   * Waits for the blocks queued so far to be written to the files; they can then be read, but are
+   * not forced to the storage device.
+   *
+   * @throws IOException if the active segment cannot be written
+   * @throws InterruptedException if interrupted while waiting
+   */
+  public void flush() throws IOException, InterruptedException {
+    if (this.closed) {
+      return;
+    }
+    CompletableFuture<Void> flushed = new CompletableFuture<>();
+    this.queue.put(flushed);
+    try {
+      flushed.get();
+    } catch (ExecutionException e) {
+      throw (IOException) e.getCause();
+    }
+  }
+
+  /**
+   * Writes the blocks left in the queue, completes the active segment and stops the writer thread.
+   *
+   * @throws IOException if the active segment cannot be completed
+   */
+  @Override
+  public void close() throws IOException {
+    if (this.closed) {
+      return;
+    }
+    this.closed = true;
+    try {
+      this.queue.put(CLOSE);
+      this.thread.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while closing the writer of " + this.directory, e);
+    }
+    if (this.closeFailure != null) {
+      throw this.closeFailure;
+    }
+  }
+
+  private void run() {
+    List<Object> items = new ArrayList<>();
+    while (true) {
+      try {
+        items.add(this.queue.take());
+      } catch (InterruptedException e) {
+        // Only close() stops the writer, once the queued blocks are written
+        continue;
+      }
+      this.queue.drainTo(items);
+      for (Object item : items) {
+        if (item instanceof Block) {
+          write((Block) item);
+        } else if (item == CLOSE) {
+          try {
+            complete();
+          } catch (IOException e) {
+            this.closeFailure = e;
+          }
+          return;
+        } else {
+          @SuppressWarnings("unchecked")
+          CompletableFuture<Void> flushed = (CompletableFuture<Void>) item;
+          flush(flushed);
+        }
+      }
+      items.clear();
+    }
+  }
+
+  private void write(Block block) {
+    try {
+      if (this.out == null) {
+        create();
+      }
+      this.out.write(block.lines);
+      if (this.activeBytes + this.buffer.position() >= this.segmentBytes) {
+        complete();
+      }
+    } catch (IOException e) {
+      abandon();
+      block.callback.accept(e);
+      return;
+    }
+    block.callback.accept(null);
+  }
+
+  private void flush(CompletableFuture<Void> flushed) {
+    try {
+      if (this.out != null) {
+        // A gzip stream flushes with a sync flush, so that what it has compressed can be read
+        this.out.flush();
+      }
+      flushed.complete(null);
+    } catch (IOException e) {
+      abandon();
+      flushed.completeExceptionally(e);
+    }
+  }
+
+  /** Creates the next segment. */
+  private void create() throws IOException {
+    String name = String.format("rows-%020d.ndjson%s", this.nextSequence++, this.gzip ? ".gz" : "");
+    Path path = this.directory.resolve(name + PART_SUFFIX);
+    this.channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+    this.activePath = path;
+    this.activeBytes = 0;
+    this.buffer.clear();
+    OutputStream output = new ChannelOutput();
+    this.out = this.gzip ? new GZIPOutputStream(output, GZIP_BUFFER_BYTES, true) : output;
+  }
+
+  /** Completes the active segment, if any, and removes the suffix of its name. */
+  private void complete() throws IOException {
+    if (this.out == null) {
+      return;
+    }
+    Path path = this.activePath;
+    try {
+      // Ends the gzip stream, then writes the buffer and closes the channel
+      this.out.close();
+    } catch (IOException e) {
+      abandon();
+      throw e;
+    }
+    this.out = null;
+    this.channel = null;
+    String name = path.getFileName().toString();
+    Files.move(
+        path,
+        path.resolveSibling(name.substring(0, name.length() - PART_SUFFIX.length())),
+        StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /** Gives up the active segment after a failure; it keeps its suffix. */
+  private void abandon() {
+    if (this.channel != null) {
+      try {
+        this.channel.close();
+      } catch (IOException e) {
+        // Already failing
+      }
+    }
+    this.out = null;
+    this.channel = null;
+  }
+
+  /** Output stream copying to the direct buffer, written to the channel when it is full. */
+  private final class ChannelOutput extends OutputStream {
+
+    @Override
+    public void write(int b) throws IOException {
+      if (!buffer.hasRemaining()) {
+        drain();
+      }
+      buffer.put((byte) b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      while (len > 0) {
+        if (!buffer.hasRemaining()) {
+          drain();
+        }
+        int count = Math.min(len, buffer.remaining());
+        buffer.put(b, off, count);
+        off += count;
+        len -= count;
+      }
+    }
+
+    @Override
+    public void flush() throws IOException {
+      drain();
+    }
+
+    @Override
+    public void close() throws IOException {
+      try {
+        drain();
+      } finally {
+        channel.close();
+      }
+    }
+
+    private void drain() throws IOException {
+      buffer.flip();
+      while (buffer.hasRemaining()) {
+        activeBytes += channel.write(buffer);
+      }
+      buffer.clear();
+    }
+  }
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright 2019 Rahul Singhai.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.rahulsinghai.jmeter.backendlistener.sink;
+
+/** Receives the deliveries of a {@link RecordSink}. Thread-safe. */
+public interface SinkMetrics {
+
+  /** @param records Number of rows handed to the destination at once */
+  void recordSends(int records);
+
+  /**
+   * Records the delivery of rows handed to the destination at once.
+   *
+   * @param records Number of rows
+   * @param latencyNanos Time between their send and their delivery
+   * @param bytes Size of the rows
+   */
+  void recordAcks(int records, long latencyNanos, long bytes);
+
+  /** @param records Number of rows handed to the destination at once which it failed to take */
+  void recordFailures(int records);
+}
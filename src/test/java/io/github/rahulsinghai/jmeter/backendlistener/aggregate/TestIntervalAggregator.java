@@ -0,0 +1,101 @@
+/*
+ * Copyright 2019 Rahul Singhai.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.rahulsinghai.jmeter.backendlistener.aggregate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.gson.Gson;
+import io.github.rahulsinghai.jmeter.backendlistener.model.JsonRowWriter;
+import io.github.rahulsinghai.jmeter.backendlistener.model.RowTemplate;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import org.apache.jmeter.config.Arguments;
+import org.apache.jmeter.samplers.SampleResult;
+import org.apache.jmeter.visualizers.backend.BackendListenerContext;
+import org.junit.jupiter.api.Test;
+
+public class TestIntervalAggregator {
+
+  private static SampleResult sample(String label, long time, boolean successful) {
+    SampleResult sampleResult = new SampleResult(System.currentTimeMillis(), time);
+    sampleResult.setSampleLabel(label);
+    sampleResult.setSuccessful(successful);
+    sampleResult.setSampleCount(1);
+    sampleResult.setErrorCount(successful ? 0 : 1);
+    return sampleResult;
+  }
+
+  @Test
+  public void testIntervalsAreAligned() {
+    IntervalAggregator aggregator = new IntervalAggregator(10000, 1_000_012_345L);
+    assertEquals(1_000_010_000L, aggregator.getIntervalStart());
+    assertFalse(aggregator.isDue(1_000_019_999L));
+    assertTrue(aggregator.isDue(1_000_020_000L));
+
+    aggregator.add(sample("a", 10, true));
+    aggregator.add(sample("b", 20, true));
+    aggregator.add(sample("a", 30, false));
+    List<SampleSummary> summaries = new ArrayList<>(aggregator.roll(1_000_035_000L));
+    assertEquals(1_000_030_000L, aggregator.getIntervalStart());
+    assertEquals(0, aggregator.getLabelCount());
+
+    assertEquals(2, summaries.size());
+    assertEquals("a", summaries.get(0).getLabel());
+    assertEquals(2, summaries.get(0).getSampleCount());
+    assertEquals(1, summaries.get(0).getErrorCount());
+    assertEquals(30, summaries.get(0).getResponseTime().getMax());
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testSummaryRow() throws Exception {
+    RowTemplate template =
+        RowTemplate.create(
+            new BackendListenerContext(new Arguments()),
+            "kafka.",
+            "info",
+            "yyyy-MM-dd'T'HH:mm:ss.SSSZZ",
+            0,
+            false,
+            false,
+            new HashSet<>());
+    SampleSummary summary = new SampleSummary("login");
+    for (int i = 1; i <= 100; i++) {
+      summary.add(sample("login", i, i % 10 != 0));
+    }
+
+    JsonRowWriter writer = new JsonRowWriter();
+    summary.writeRow(writer, template, 0, 10000);
+    Map<String, Object> row = new Gson().fromJson(writer.toString(), Map.class);
+    assertEquals(SampleSummary.RECORD_TYPE, row.get("RecordType"));
+    assertEquals("login", row.get("SampleLabel"));
+    assertEquals(10000.0, row.get("IntervalLength"));
+    assertEquals(100.0, row.get("SampleCount"));
+    assertEquals(10.0, row.get("ErrorCount"));
+    assertTrue(row.containsKey("InjectorHostname"));
+
+    Map<String, Object> responseTime = (Map<String, Object>) row.get("ResponseTime");
+    assertEquals(100.0, responseTime.get("count"));
+    assertEquals(50.5, responseTime.get("mean"));
+    assertEquals(99.0, (Double) responseTime.get("p99"), 1.0);
+    assertEquals(100, LatencySketch.fromMap(responseTime).getCount());
+  }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2019 Rahul Singhai.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.rahulsinghai.jmeter.backendlistener.aggregate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.gson.Gson;
+import io.github.rahulsinghai.jmeter.backendlistener.model.JsonRowWriter;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+public class TestLatencySketch {
+
+  @Test
+  public void testPercentilesWithinRelativeAccuracy() {
+    Random random = new Random(7);
+    long[] values = new long[10000];
+    LatencySketch sketch = new LatencySketch();
+    for (int i = 0; i < values.length; i++) {
+      // Log-normal-ish response times, from a few ms to a few seconds
+      values[i] = (long) Math.exp(3 + 2 * random.nextGaussian() / 2);
+      sketch.add(values[i]);
+    }
+    Arrays.sort(values);
+
+    for (double quantile : new double[] {0, 0.5, 0.9, 0.95, 0.99, 1}) {
+      long exact = values[(int) (quantile * (values.length - 1))];
+      long estimate = sketch.getValueAtQuantile(quantile);
+      // 1% relative accuracy, plus the rounding to whole milliseconds
+      assertTrue(
+          "q=" + quantile + " exact=" + exact + " estimate=" + estimate,
+          Math.abs(estimate - exact) <= exact * LatencySketch.DEFAULT_RELATIVE_ACCURACY + 1);
+    }
+    assertEquals(values.length, sketch.getCount());
+    assertEquals(values[0], sketch.getMin());
+    assertEquals(values[values.length - 1], sketch.getMax());
+  }
+
+  @Test
+  public void testMergeEqualsUnion() {
+    LatencySketch first = new LatencySketch();
+    LatencySketch second = new LatencySketch();
+    LatencySketch union = new LatencySketch();
+    for (long value = 0; value < 2000; value += 3) {
+      (value % 2 == 0 ? first : second).add(value);
+      union.add(value);
+    }
+    first.merge(second);
+
+    assertEquals(union.getCount(), first.getCount());
+    assertEquals(union.getSum(), first.getSum());
+    for (double quantile : new double[] {0.1, 0.5, 0.99}) {
+      assertEquals(union.getValueAtQuantile(quantile), first.getValueAtQuantile(quantile));
+    }
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testPublishedSketchCanBeRebuilt() {
+    LatencySketch sketch = new LatencySketch();
+    for (long value : new long[] {0, 0, 1, 5, 250, 251, 4000}) {
+      sketch.add(value);
+    }
+    JsonRowWriter writer = new JsonRowWriter();
+    writer.beginRow();
+    sketch.writeTo(writer);
+    writer.endRow();
+
+    LatencySketch rebuilt =
+        LatencySketch.fromMap(new Gson().fromJson(writer.toString(), Map.class));
+    assertEquals(7, rebuilt.getCount());
+    assertEquals(4000, rebuilt.getMax());
+    for (double quantile : new double[] {0, 0.3, 0.5, 0.8, 1}) {
+      assertEquals(sketch.getValueAtQuantile(quantile), rebuilt.getValueAtQuantile(quantile));
+    }
+  }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2019 Rahul Singhai.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.rahulsinghai.jmeter.backendlistener.binary;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import io.github.rahulsinghai.jmeter.backendlistener.aggregate.SampleSummary;
+import io.github.rahulsinghai.jmeter.backendlistener.model.JsonRowWriter;
+import io.github.rahulsinghai.jmeter.backendlistener.model.MetricsRow;
+import io.github.rahulsinghai.jmeter.backendlistener.model.RowTemplate;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import org.apache.jmeter.assertions.AssertionResult;
+import org.apache.jmeter.config.Arguments;
+import org.apache.jmeter.samplers.SampleResult;
+import org.apache.jmeter.visualizers.backend.BackendListenerContext;
+import org.junit.jupiter.api.Test;
+
+public class TestBinaryRowWriter {
+
+  private static final long NOW = 1571212800000L;
+
+  @Test
+  public void testRowsDecodeToTheSameJson() throws Exception {
+    RowTemplate template = template();
+    BinaryRowWriter binary = new BinaryRowWriter();
+    BinaryRecordDecoder decoder = new BinaryRecordDecoder();
+    long jsonBytes = 0;
+    long binaryBytes = 0;
+    for (int i = 0; i < 50; i++) {
+      MetricsRow row =
+          new MetricsRow(sample("GET /api/item \u00e9\u20ac " + (i % 3), i % 7 != 0), template);
+      JsonRowWriter json = new JsonRowWriter();
+      row.writeRow(json, NOW);
+      row.writeRow(binary, NOW);
+      byte[] value = binary.toByteArray();
+      assertTrue(BinaryFormat.isBinary(value));
+
+      // The new dictionary entries are published before the row using them
+      byte[] dictionary = binary.pollControlRecord(NOW);
+      if (dictionary != null) {
+        assertNull(decoder.toJson(dictionary));
+      }
+      assertEquals(json.toString(), decoder.toJson(value));
+      jsonBytes += json.toByteArray().length;
+      binaryBytes += value.length;
+    }
+    assertTrue(binaryBytes * 2 < jsonBytes);
+    assertNull(binary.pollControlRecord(NOW + 1));
+  }
+
+  @Test
+  public void testUnknownEntriesAreRejectedUntilTheFullDictionaryIsPublished() throws Exception {
+    BinaryRowWriter binary = new BinaryRowWriter(10000, 60000);
+    MetricsRow row = new MetricsRow(sample("label", true), template());
+    row.writeRow(binary, NOW);
+    assertNotNull(binary.pollControlRecord(NOW));
+    row.writeRow(binary, NOW);
+    byte[] value = binary.toByteArray();
+
+    // A consumer starting after the first dictionary record cannot decode the rows...
+    BinaryRecordDecoder lateDecoder = new BinaryRecordDecoder();
+    try {
+      lateDecoder.toJson(value);
+      fail("The dictionary entries are unknown");
+    } catch (IllegalStateException e) {
+      // expected
+    }
+    try {
+      lateDecoder.toJson("{}".getBytes(StandardCharsets.UTF_8));
+      fail("Not a binary record");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+
+    // ...until the whole dictionary is published again
+    assertNull(binary.pollControlRecord(NOW + 59999));
+    byte[] fullDictionary = binary.pollControlRecord(NOW + 60000);
+    assertFalse(lateDecoder.decode(fullDictionary, new JsonRowWriter()));
+    JsonRowWriter json = new JsonRowWriter();
+    row.writeRow(json, NOW);
+    assertEquals(json.toString(), lateDecoder.toJson(value));
+  }
+
+  @Test
+  public void testFullDictionaryAndSummaries() throws Exception {
+    RowTemplate template = template();
+    BinaryRowWriter binary = new BinaryRowWriter(2, 60000);
+    BinaryRecordDecoder decoder = new BinaryRecordDecoder();
+    SampleSummary summary = new SampleSummary("summary label");
+    for (int i = 0; i < 100; i++) {
+      summary.add(sample("summary label", i != 5));
+    }
+
+    JsonRowWriter json = new JsonRowWriter();
+    summary.writeRow(json, template, NOW - 10000, NOW);
+    summary.writeRow(binary, template, NOW - 10000, NOW);
+    byte[] value = binary.toByteArray();
+    // Values beyond the capacity of the dictionary are written inline
+    assertEquals(2, binary.getDictionarySize());
+    decoder.decode(binary.pollControlRecord(NOW), new JsonRowWriter());
+    assertEquals(json.toString(), decoder.toJson(value));
+  }
+
+  private static RowTemplate template() throws Exception {
+    Arguments arguments = new Arguments();
+    arguments.addArgument("customArg1", "Test project");
+    arguments.addArgument("customArg2", "12");
+    return RowTemplate.create(
+        new BackendListenerContext(arguments),
+        "kafka.",
+        "info",
+        "yyyy-MM-dd'T'HH:mm:ss.SSSZZ",
+        0,
+        false,
+        true,
+        new HashSet<>());
+  }
+
+  private static SampleResult sample(String label, boolean successful) throws Exception {
+    SampleResult sampleResult = new SampleResult(NOW - 1000, 123);
+    sampleResult.setBytes(100L);
+    sampleResult.setLatency(20);
+    sampleResult.setSampleLabel(label);
+    sampleResult.setEncodingAndType("text/html");
+    sampleResult.setURL(new URL("http://localhost:8080/path?a=1&b=2"));
+    sampleResult.setSuccessful(successful);
+    sampleResult.setResponseCode(successful ? "200" : "500");
+    sampleResult.setResponseData("<html>body</html>", "UTF-8");
+    sampleResult.setResponseHeaders("X-kafka-backend:true\nresponse-header:test");
+    if (!successful) {
+      AssertionResult assertResult = new AssertionResult("assertion1");
+      assertResult.setFailure(true);
+      assertResult.setFailureMessage("expected 200");
+      sampleResult.addAssertionResult(assertResult);
+    }
+    return sampleResult;
+  }
+}
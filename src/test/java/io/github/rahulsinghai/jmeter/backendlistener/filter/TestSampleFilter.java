@@ -0,0 +1,98 @@
+/*
+ * Copyright 2019 Rahul Singhai.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.rahulsinghai.jmeter.backendlistener.filter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Locale;
+import org.junit.jupiter.api.Test;
+
+public class TestSampleFilter {
+
+  @Test
+  public void testNoFilterAcceptsEverything() {
+    SampleFilter filter = SampleFilter.compile(Collections.emptySet(), 100);
+    assertSame(filter, SampleFilter.ACCEPT_ALL);
+    assertTrue(filter.accept("anything"));
+    assertTrue(filter.accept(null));
+  }
+
+  @Test
+  public void testLiteralFilters() {
+    SampleFilter filter = SampleFilter.compile(Arrays.asList("login", "checkout", "he", "she"), 0);
+    assertTrue(filter.accept("  User LOGIN page "));
+    assertTrue(filter.accept("Checkout - step 2"));
+    assertTrue(filter.accept("ushers"));
+    assertFalse(filter.accept("Search"));
+    assertFalse(filter.accept("log in"));
+  }
+
+  @Test
+  public void testRegexFilters() {
+    SampleFilter filter = SampleFilter.compile(Arrays.asList("^get /api/.*", "order-[0-9]+"), 0);
+    assertTrue(filter.accept("GET /api/users"));
+    assertTrue(filter.accept("Submit order-42"));
+    assertFalse(filter.accept("POST /api/users"));
+    assertFalse(filter.accept("order-x"));
+  }
+
+  @Test
+  public void testInvalidRegexFallsBackToSubstring() {
+    SampleFilter filter = SampleFilter.compile(Collections.singletonList("search ("), 0);
+    assertTrue(filter.accept("Search (advanced)"));
+    assertFalse(filter.accept("Search"));
+  }
+
+  @Test
+  public void testLabelsAreLowerCasedAsAWholeString() {
+    // U+10400 only lower-cases as a surrogate pair, U+0130 lower-cases to "i" and a combining dot
+    SampleFilter filter = SampleFilter.compile(Arrays.asList("\ud801\udc28", "i\u0307stanbul"), 0);
+    assertTrue(filter.accept("\ud801\udc00"));
+    assertTrue(filter.accept("\u0130stanbul"));
+    assertFalse(
+        SampleFilter.compile(Collections.singletonList("istanbul"), 0).accept("\u0130stanbul"));
+  }
+
+  @Test
+  public void testLabelsAreLowerCasedWithTheDefaultLocale() {
+    Locale locale = Locale.getDefault();
+    Locale.setDefault(new Locale("tr", "TR"));
+    try {
+      SampleFilter filter = SampleFilter.compile(Collections.singletonList("id"), 0);
+      assertFalse(filter.accept("ID"));
+      assertTrue(
+          SampleFilter.compile(Collections.singletonList("ID".toLowerCase()), 0).accept("ID"));
+    } finally {
+      Locale.setDefault(locale);
+    }
+  }
+
+  @Test
+  public void testDecisionCacheIsBounded() {
+    SampleFilter filter = SampleFilter.compile(Collections.singletonList("keep"), 2);
+    assertTrue(filter.accept("keep me"));
+    assertFalse(filter.accept("drop me"));
+    assertFalse(filter.accept("drop me too"));
+    assertTrue(filter.accept("keep me"));
+    assertEquals(2, filter.getCachedLabelCount());
+  }
+}
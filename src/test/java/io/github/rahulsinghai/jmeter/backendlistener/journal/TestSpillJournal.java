@@ -0,0 +1,169 @@
+/*
+ * Copyright 2019 Rahul Singhai.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.rahulsinghai.jmeter.backendlistener.journal;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class TestSpillJournal {
+
+  private Path directory;
+
+  @BeforeEach
+  public void setUp() throws IOException {
+    this.directory = Files.createTempDirectory("spill");
+  }
+
+  @AfterEach
+  public void tearDown() {
+    File[] files = this.directory.toFile().listFiles();
+    if (files != null) {
+      for (File file : files) {
+        file.delete();
+      }
+    }
+    this.directory.toFile().delete();
+  }
+
+  @Test
+  public void testEntriesAreReadBackInOrderAcrossSegments() throws IOException {
+    List<String> values = new ArrayList<>();
+    try (SpillJournal journal = SpillJournal.open(this.directory, 256, 1 << 20)) {
+      for (int i = 0; i < 20; i++) {
+        byte[] key = i % 2 == 0 ? null : new byte[] {(byte) i};
+        assertTrue(journal.append(i % 3 - 1, 1000L + i, key, bytes("value " + i)));
+      }
+      assertTrue(journal.getSegmentCount() > 1);
+      journal.seal();
+
+      Path segment;
+      while ((segment = journal.oldestSegment()) != null) {
+        SpillJournal.read(
+            segment,
+            (partition, timestamp, key, value) -> {
+              int i = (int) (timestamp - 1000L);
+              assertEquals(i % 3 - 1, partition);
+              if (i % 2 == 0) {
+                assertNull(key);
+              } else {
+                assertArrayEquals(new byte[] {(byte) i}, key);
+              }
+              values.add(new String(value, StandardCharsets.UTF_8));
+              return true;
+            });
+        journal.delete(segment);
+      }
+      assertTrue(journal.isEmpty());
+      assertEquals(20, journal.getAppendedCount());
+    }
+    assertEquals(20, values.size());
+    assertEquals("value 0", values.get(0));
+    assertEquals("value 19", values.get(19));
+  }
+
+  @Test
+  public void testSegmentsAreKeptForTheNextJournal() throws IOException {
+    try (SpillJournal journal = SpillJournal.open(this.directory, 1024, 1 << 20)) {
+      journal.append(-1, 1L, null, bytes("left over"));
+    }
+    try (SpillJournal journal = SpillJournal.open(this.directory, 1024, 1 << 20)) {
+      assertFalse(journal.isEmpty());
+      List<String> values = new ArrayList<>();
+      SpillJournal.read(
+          journal.oldestSegment(),
+          (partition, timestamp, key, value) ->
+              values.add(new String(value, StandardCharsets.UTF_8)));
+      assertEquals(1, values.size());
+      assertEquals("left over", values.get(0));
+    }
+  }
+
+  @Test
+  public void testRecordsAreDroppedWhenTheJournalIsFull() throws IOException {
+    try (SpillJournal journal = SpillJournal.open(this.directory, 128, 256)) {
+      int appended = 0;
+      for (int i = 0; i < 100; i++) {
+        if (journal.append(-1, i, null, new byte[40])) {
+          appended++;
+        }
+      }
+      // Two segments of two entries of 60 bytes
+      assertEquals(4, appended);
+      assertEquals(96, journal.getDroppedCount());
+      assertFalse(journal.append(-1, 0, null, new byte[200]));
+    }
+  }
+
+  @Test
+  public void testReadingStopsAtACorruptEntry() throws IOException {
+    Path segment;
+    try (SpillJournal journal = SpillJournal.open(this.directory, 1024, 1 << 20)) {
+      for (int i = 0; i < 3; i++) {
+        journal.append(-1, i, null, bytes("value " + i));
+      }
+      journal.seal();
+      segment = journal.oldestSegment();
+    }
+    // Entries of 27 bytes, the key length of the second one is at 27 + 16
+    List<String> values = new ArrayList<>();
+    for (int keyLength : new int[] {-2, 1000}) {
+      try (RandomAccessFile file = new RandomAccessFile(segment.toFile(), "rw")) {
+        file.seek(27 + 16);
+        file.writeInt(keyLength);
+      }
+      values.clear();
+      assertEquals(
+          1,
+          SpillJournal.read(
+              segment,
+              (partition, timestamp, key, value) ->
+                  values.add(new String(value, StandardCharsets.UTF_8))));
+      assertEquals("value 0", values.get(0));
+    }
+  }
+
+  @Test
+  public void testLeftOverSegmentsCountTheBytesOfTheirEntries() throws IOException {
+    try (SpillJournal journal = SpillJournal.open(this.directory, 1024, 1500)) {
+      journal.append(-1, 1L, null, bytes("left over"));
+    }
+    try (SpillJournal journal = SpillJournal.open(this.directory, 1024, 1500)) {
+      // The 1024 bytes of the left over file would leave no room for a new segment
+      assertTrue(journal.append(-1, 2L, null, bytes("new")));
+      assertEquals(0, journal.getDroppedCount());
+    }
+  }
+
+  private static byte[] bytes(String value) {
+    return value.getBytes(StandardCharsets.UTF_8);
+  }
+}
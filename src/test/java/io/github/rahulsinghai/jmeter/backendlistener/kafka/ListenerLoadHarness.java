@@ -0,0 +1,322 @@
+/*
+ * Copyright 2019 Rahul Singhai.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.rahulsinghai.jmeter.backendlistener.kafka;
+
+import io.github.rahulsinghai.jmeter.backendlistener.aggregate.LatencySketch;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import org.apache.jmeter.config.Arguments;
+import org.apache.jmeter.samplers.SampleResult;
+import org.apache.jmeter.visualizers.backend.BackendListenerContext;
+import org.apache.kafka.clients.producer.Producer;
+
+/**
+ * Offline load harness feeding {@link KafkaBackendClient#handleSampleResults} with synthetic
+ * samples at a target rate, against a {@link SimulatedProducer}.
+ */
+public final class ListenerLoadHarness {
+
+  private ListenerLoadHarness() {}
+
+  /** Settings of a run. */
+  static final class Settings {
+    /** Target rate, in samples per second. */
+    int rate = 20000;
+
+    /** Samples per call of handleSampleResults (JMeter's backend_queue batches). */
+    int batchSize = 100;
+
+    int seconds = 10;
+
+    /** Number of samples after which the run ends, instead of after its seconds if positive. */
+    long samples = 0;
+
+    long ackLatencyMicros = 2000;
+    long jitterMicros = 3000;
+    double failureRate = 0;
+    int partitions = 6;
+
+    /** Records waiting for their acknowledgment above which the producer blocks. */
+    int maxInFlight = 20000;
+
+    /** Size of JMeter's backend listener queue, the backend_queue_size property. */
+    int queueSize = 5000;
+
+    final Map<String, String> listenerParameters = new LinkedHashMap<>();
+
+    static Settings parse(String... args) {
+      Settings settings = new Settings();
+      for (String arg : args) {
+        int equals = arg.indexOf('=');
+        if (equals < 0) {
+          throw new IllegalArgumentException("Expected name=value, got " + arg);
+        }
+        String name = arg.substring(0, equals).trim();
+        String value = arg.substring(equals + 1).trim();
+        if (name.startsWith("kafka.")) {
+          settings.listenerParameters.put(name, value);
+          continue;
+        }
+        switch (name) {
+          case "rate":
+            settings.rate = Integer.parseInt(value);
+            break;
+          case "batchSize":
+            settings.batchSize = Integer.parseInt(value);
+            break;
+          case "seconds":
+            settings.seconds = Integer.parseInt(value);
+            break;
+          case "samples":
+            settings.samples = Long.parseLong(value);
+            break;
+          case "ackLatencyMicros":
+            settings.ackLatencyMicros = Long.parseLong(value);
+            break;
+          case "jitterMicros":
+            settings.jitterMicros = Long.parseLong(value);
+            break;
+          case "failureRate":
+            settings.failureRate = Double.parseDouble(value);
+            break;
+          case "partitions":
+            settings.partitions = Integer.parseInt(value);
+            break;
+          case "maxInFlight":
+            settings.maxInFlight = Integer.parseInt(value);
+            break;
+          case "queueSize":
+            settings.queueSize = Integer.parseInt(value);
+            break;
+          default:
+            throw new IllegalArgumentException("Unknown setting " + name);
+        }
+      }
+      return settings;
+    }
+  }
+
+  /** Results of a run. */
+  static final class Report {
+    int targetRate;
+    long samples;
+    double seconds;
+    double busyRatio;
+    double callP50Millis;
+    double callP99Millis;
+    double callMaxMillis;
+    double producerBlockedSeconds;
+    long maxBacklog;
+    int queueSize;
+    double teardownSeconds;
+    long recordsAcknowledged;
+    long recordsFailed;
+    long heapGrowthBytes;
+    long peakHeapBytes;
+
+    double getSustainedRate() {
+      return this.samples / this.seconds;
+    }
+
+    boolean isQueueOverflowed() {
+      return this.maxBacklog > this.queueSize;
+    }
+
+    @Override
+    public String toString() {
+      StringBuilder report = new StringBuilder("Kafka Backend Listener load harness:");
+      append(report, "target rate (samples/s)", String.format("%,d", this.targetRate));
+      append(report, "sustained rate (samples/s)", String.format("%,.0f", getSustainedRate()));
+      append(report, "samples", String.format("%,d", this.samples));
+      append(report, "listener thread busy", String.format("%.1f %%", this.busyRatio * 100));
+      append(report, "call time p50 (ms)", String.format("%.3f", this.callP50Millis));
+      append(report, "call time p99 (ms)", String.format("%.3f", this.callP99Millis));
+      append(report, "call time max (ms)", String.format("%.3f", this.callMaxMillis));
+      append(report, "blocked on producer (s)", String.format("%.3f", this.producerBlockedSeconds));
+      append(
+          report,
+          "max backlog (samples)",
+          String.format(
+              "%,d%s",
+              this.maxBacklog,
+              isQueueOverflowed() ? " > backend_queue_size " + this.queueSize + ": OVERFLOW" : ""));
+      append(report, "teardown (s)", String.format("%.3f", this.teardownSeconds));
+      append(report, "records acknowledged", String.format("%,d", this.recordsAcknowledged));
+      append(report, "records failed", String.format("%,d", this.recordsFailed));
+      append(report, "heap growth after GC (MB)", mb(this.heapGrowthBytes));
+      append(report, "peak heap (MB)", mb(this.peakHeapBytes));
+      return report.toString();
+    }
+
+    private static void append(StringBuilder report, String name, String value) {
+      report.append(String.format("%n  %-28s %s", name, value));
+    }
+
+    private static String mb(long bytes) {
+      return String.format("%.1f", bytes / (1024.0 * 1024.0));
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    System.out.println(run(Settings.parse(args)));
+  }
+
+  /**
+   * Runs the listener at the target rate for the duration, or the number of samples, of the
+   * settings, then tears it down.
+   *
+   * @param settings Settings of the run
+   * @return the results
+   * @throws Exception if the listener fails to start or stop
+   */
+  static Report run(Settings settings) throws Exception {
+    SimulatedProducer producer =
+        new SimulatedProducer(
+            settings.ackLatencyMicros,
+            settings.jitterMicros,
+            settings.failureRate,
+            settings.partitions,
+            settings.maxInFlight);
+    KafkaBackendClient client =
+        new KafkaBackendClient() {
+          @Override
+          protected Producer<byte[], byte[]> createProducer(Properties props) {
+            return producer;
+          }
+        };
+
+    Map<String, String> parameters = new LinkedHashMap<>();
+    client
+        .getDefaultParameters()
+        .getArgumentsAsMap()
+        .forEach((name, value) -> parameters.put(name, value == null ? "" : value));
+    parameters.put("kafka.bootstrap.servers", "simulated:9092");
+    parameters.put("kafka.topic", "jmeter");
+    parameters.putAll(settings.listenerParameters);
+    Arguments arguments = new Arguments();
+    parameters.forEach(arguments::addArgument);
+    BackendListenerContext context = new BackendListenerContext(arguments);
+    client.setupTest(context);
+
+    SampleResult[] pool = samples(4096, 42);
+    List<SampleResult> batch = new ArrayList<>(settings.batchSize);
+    LatencySketch callMicros = new LatencySketch();
+    Runtime runtime = Runtime.getRuntime();
+    long heapBefore = usedHeapAfterGc(runtime);
+
+    Report report = new Report();
+    report.targetRate = settings.rate;
+    report.queueSize = settings.queueSize;
+    long start = System.nanoTime();
+    long end =
+        settings.samples > 0 ? Long.MAX_VALUE : start + TimeUnit.SECONDS.toNanos(settings.seconds);
+    long limit = settings.samples > 0 ? settings.samples : Long.MAX_VALUE;
+    long nextHeapCheck = start;
+    long busyNanos = 0;
+    long handled = 0;
+    int next = 0;
+    long now;
+    while (handled < limit && (now = System.nanoTime()) < end) {
+      long scheduled = (long) ((now - start) / 1e9 * settings.rate);
+      if (scheduled < handled + settings.batchSize) {
+        // Ahead of the target rate: wait for JMeter to produce the next batch
+        long due = start + (long) ((handled + settings.batchSize) * 1e9 / settings.rate);
+        LockSupport.parkNanos(Math.min(due, end) - now);
+        continue;
+      }
+      report.maxBacklog = Math.max(report.maxBacklog, scheduled - handled);
+
+      batch.clear();
+      long batchSize = Math.min(settings.batchSize, limit - handled);
+      for (int i = 0; i < batchSize; i++) {
+        batch.add(pool[next++ & (pool.length - 1)]);
+      }
+      long callStart = System.nanoTime();
+      client.handleSampleResults(batch, context);
+      long callNanos = System.nanoTime() - callStart;
+      busyNanos += callNanos;
+      callMicros.add(TimeUnit.NANOSECONDS.toMicros(callNanos));
+      handled += batch.size();
+
+      if (now >= nextHeapCheck) {
+        report.peakHeapBytes =
+            Math.max(report.peakHeapBytes, runtime.totalMemory() - runtime.freeMemory());
+        nextHeapCheck = now + TimeUnit.MILLISECONDS.toNanos(100);
+      }
+    }
+    long elapsedNanos = System.nanoTime() - start;
+
+    long teardownStart = System.nanoTime();
+    client.teardownTest(context);
+    report.teardownSeconds = (System.nanoTime() - teardownStart) / 1e9;
+
+    report.samples = handled;
+    report.seconds = elapsedNanos / 1e9;
+    report.busyRatio = (double) busyNanos / elapsedNanos;
+    if (callMicros.getCount() > 0) {
+      report.callP50Millis = callMicros.getValueAtQuantile(0.5) / 1000.0;
+      report.callP99Millis = callMicros.getValueAtQuantile(0.99) / 1000.0;
+      report.callMaxMillis = callMicros.getMax() / 1000.0;
+    }
+    report.producerBlockedSeconds = producer.getBlockedNanos() / 1e9;
+    report.recordsAcknowledged = producer.getAcknowledged();
+    report.recordsFailed = producer.getFailed();
+    report.heapGrowthBytes = usedHeapAfterGc(runtime) - heapBefore;
+    return report;
+  }
+
+  private static long usedHeapAfterGc(Runtime runtime) {
+    System.gc();
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+
+  /**
+   * @param count Number of samples, a power of two
+   * @param seed Seed of the random generator
+   * @return HTTP samples of 20 labels, about 2% of them failed
+   */
+  static SampleResult[] samples(int count, long seed) throws Exception {
+    Random random = new Random(seed);
+    SampleResult[] samples = new SampleResult[count];
+    long now = System.currentTimeMillis();
+    for (int i = 0; i < count; i++) {
+      int elapsed = 5 + random.nextInt(300);
+      boolean successful = random.nextInt(50) != 0;
+      SampleResult sr = new SampleResult(now - elapsed, elapsed);
+      sr.setSampleLabel("GET /api/v1/resource" + random.nextInt(20));
+      sr.setThreadName("Thread Group 1-" + (1 + random.nextInt(100)));
+      sr.setLatency(elapsed - random.nextInt(5));
+      sr.setBytes(1024L + random.nextInt(1024));
+      sr.setEncodingAndType("application/json");
+      sr.setURL(new URL("https://shop.example.com/api/v1/resource?id=" + i));
+      sr.setRequestHeaders("Accept: application/json\nX-kafka-backend-run: harness\n");
+      sr.setResponseHeaders("HTTP/1.1 200 OK\nContent-Type: application/json\n");
+      sr.setResponseData("{\"id\":" + i + ",\"items\":[1,2,3]}", "UTF-8");
+      sr.setResponseCode(successful ? "200" : "503");
+      sr.setSuccessful(successful);
+      samples[i] = sr;
+    }
+    return samples;
+  }
+}
@@ -0,0 +1,237 @@
+/*
+ * Copyright 2019 Rahul Singhai.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.rahulsinghai.jmeter.backendlistener.kafka;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.clients.producer.Callback;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.Metric;
+import org.apache.kafka.common.MetricName;
+import org.apache.kafka.common.Node;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.TimeoutException;
+
+/**
+ * A local stand-in for a Kafka producer and its brokers, acknowledging records after a configurable
+ * latency.
+ */
+final class SimulatedProducer implements Producer<byte[], byte[]> {
+
+  private final long ackLatencyMicros;
+  private final long jitterMicros;
+  private final double failureRate;
+  private final int partitions;
+  private final Semaphore inFlightPermits;
+  private final int maxInFlight;
+  private final ScheduledExecutorService broker;
+  private final AtomicInteger nextPartition = new AtomicInteger();
+  private final AtomicLong nextOffset = new AtomicLong();
+  private final AtomicLong acknowledged = new AtomicLong();
+  private final AtomicLong failed = new AtomicLong();
+  private final AtomicLong blockedNanos = new AtomicLong();
+
+  /**
+   * @param ackLatencyMicros Minimum time between the send of a record and its acknowledgment
+   * @param jitterMicros Maximum random time added to the latency
+   * @param failureRate Probability, between 0 and 1, that a record fails
+   * @param partitions Number of partitions of every topic
+   * @param maxInFlight Number of records waiting for their acknowledgment above which send blocks
+   */
+  SimulatedProducer(
+      long ackLatencyMicros,
+      long jitterMicros,
+      double failureRate,
+      int partitions,
+      int maxInFlight) {
+    this.ackLatencyMicros = ackLatencyMicros;
+    this.jitterMicros = jitterMicros;
+    this.failureRate = failureRate;
+    this.partitions = partitions;
+    this.maxInFlight = maxInFlight;
+    this.inFlightPermits = new Semaphore(maxInFlight);
+    ScheduledThreadPoolExecutor executor =
+        new ScheduledThreadPoolExecutor(
+            1,
+            runnable -> {
+              Thread thread = new Thread(runnable, "simulated-broker");
+              thread.setDaemon(true);
+              return thread;
+            });
+    executor.setRemoveOnCancelPolicy(true);
+    this.broker = executor;
+  }
+
+  long getAcknowledged() {
+    return this.acknowledged.get();
+  }
+
+  long getFailed() {
+    return this.failed.get();
+  }
+
+  /** @return time spent in {@link #send} waiting for room, in nanoseconds */
+  long getBlockedNanos() {
+    return this.blockedNanos.get();
+  }
+
+  @Override
+  public Future<RecordMetadata> send(ProducerRecord<byte[], byte[]> record) {
+    return send(record, null);
+  }
+
+  @Override
+  public Future<RecordMetadata> send(ProducerRecord<byte[], byte[]> record, Callback callback) {
+    if (!this.inFlightPermits.tryAcquire()) {
+      long start = System.nanoTime();
+      this.inFlightPermits.acquireUninterruptibly();
+      this.blockedNanos.addAndGet(System.nanoTime() - start);
+    }
+
+    int partition =
+        record.partition() != null
+            ? record.partition()
+            : record.key() != null
+                ? (Arrays.hashCode(record.key()) & Integer.MAX_VALUE) % this.partitions
+                : (this.nextPartition.getAndIncrement() & Integer.MAX_VALUE) % this.partitions;
+    CompletableFuture<RecordMetadata> future = new CompletableFuture<>();
+    long jitter =
+        this.jitterMicros > 0 ? ThreadLocalRandom.current().nextLong(this.jitterMicros) : 0;
+    this.broker.schedule(
+        () -> complete(record, partition, callback, future),
+        this.ackLatencyMicros + jitter,
+        TimeUnit.MICROSECONDS);
+    return future;
+  }
+
+  private void complete(
+      ProducerRecord<byte[], byte[]> record,
+      int partition,
+      Callback callback,
+      CompletableFuture<RecordMetadata> future) {
+    try {
+      if (ThreadLocalRandom.current().nextDouble() < this.failureRate) {
+        this.failed.incrementAndGet();
+        TimeoutException exception = new TimeoutException("Simulated broker failure");
+        if (callback != null) {
+          callback.onCompletion(null, exception);
+        }
+        future.completeExceptionally(exception);
+      } else {
+        this.acknowledged.incrementAndGet();
+        RecordMetadata metadata =
+            new RecordMetadata(
+                new TopicPartition(record.topic(), partition),
+                this.nextOffset.getAndIncrement(),
+                0,
+                System.currentTimeMillis(),
+                null,
+                record.key() == null ? -1 : record.key().length,
+                record.value().length);
+        if (callback != null) {
+          callback.onCompletion(metadata, null);
+        }
+        future.complete(metadata);
+      }
+    } finally {
+      this.inFlightPermits.release();
+    }
+  }
+
+  /** Waits for every record sent so far to be acknowledged or failed. */
+  @Override
+  public void flush() {
+    while (this.inFlightPermits.availablePermits() < this.maxInFlight) {
+      LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(100));
+    }
+  }
+
+  @Override
+  public List<PartitionInfo> partitionsFor(String topic) {
+    List<PartitionInfo> infos = new ArrayList<>(this.partitions);
+    for (int i = 0; i < this.partitions; i++) {
+      infos.add(new PartitionInfo(topic, i, null, new Node[0], new Node[0]));
+    }
+    return infos;
+  }
+
+  @Override
+  public Map<MetricName, ? extends Metric> metrics() {
+    return Collections.emptyMap();
+  }
+
+  @Override
+  public void close() {
+    flush();
+    this.broker.shutdown();
+  }
+
+  @Override
+  @Deprecated
+  public void close(long timeout, TimeUnit unit) {
+    close();
+  }
+
+  @Override
+  public void close(Duration timeout) {
+    close();
+  }
+
+  @Override
+  public void initTransactions() {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void beginTransaction() {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void sendOffsetsToTransaction(
+      Map<TopicPartition, OffsetAndMetadata> offsets, String consumerGroupId) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void commitTransaction() {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void abortTransaction() {
+    throw new UnsupportedOperationException();
+  }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2019 Rahul Singhai.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.rahulsinghai.jmeter.backendlistener.kafka;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+public class TestAdaptiveBatchController {
+
+  private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+  private static final long MILLISECOND = TimeUnit.MILLISECONDS.toNanos(1);
+
+  @Test
+  public void testLowRatesArePublishedAtOnce() {
+    AdaptiveBatchController controller =
+        new AdaptiveBatchController(100, 500, 16384, Collections::emptyMap, 0);
+    controller.recordSamples(10, SECOND);
+    assertEquals(10, controller.getRate(), 0.001);
+    assertEquals(0, controller.getLingerNanos());
+    assertTrue(controller.shouldFlush(1, SECOND, SECOND));
+    assertFalse(controller.shouldFlush(0, SECOND, SECOND));
+  }
+
+  @Test
+  public void testHighRatesAreAccumulatedWithinTheMaximumLinger() {
+    Map<String, Double> metrics = new HashMap<>();
+    AdaptiveBatchController controller =
+        new AdaptiveBatchController(100, 500, 16384, () -> metrics, 0);
+    // 500 rows arrive in 5 ms at 100,000 samples per second
+    controller.recordSamples(100_000, SECOND);
+    assertEquals(5 * MILLISECOND, controller.getLingerNanos());
+    assertFalse(controller.shouldFlush(10, SECOND, SECOND + MILLISECOND));
+    assertTrue(controller.shouldFlush(10, SECOND, SECOND + 5 * MILLISECOND));
+    assertTrue(controller.shouldFlush(500, SECOND, SECOND));
+
+    // Batches a tenth full: waiting longer fills them better
+    metrics.put("batch-size-avg", 1638.0);
+    controller.recordSamples(100_000, 2 * SECOND);
+    assertEquals(100 * MILLISECOND, controller.getLingerNanos());
+  }
+
+  @Test
+  public void testEnvelopesGrowWhenTheProducerIsCongested() {
+    Map<String, Double> metrics = new HashMap<>();
+    AdaptiveBatchController controller =
+        new AdaptiveBatchController(100, 500, 16384, () -> metrics, 0);
+    assertEquals(500, controller.getEnvelopeSamples());
+
+    metrics.put("record-queue-time-avg", 10.0);
+    for (int second = 1; second <= 5; second++) {
+      controller.recordSamples(1000, second * SECOND);
+    }
+    assertEquals(62, controller.getEnvelopeSamples());
+
+    metrics.put("record-queue-time-avg", 80.0);
+    controller.recordSamples(1000, 6 * SECOND);
+    assertEquals(124, controller.getEnvelopeSamples());
+    for (int second = 7; second <= 10; second++) {
+      controller.recordSamples(1000, second * SECOND);
+    }
+    assertEquals(500, controller.getEnvelopeSamples());
+  }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2019 Rahul Singhai.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.rahulsinghai.jmeter.backendlistener.kafka;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import io.github.rahulsinghai.jmeter.backendlistener.binary.BinaryRowWriter;
+import io.github.rahulsinghai.jmeter.backendlistener.model.EncodingRowWriter;
+import io.github.rahulsinghai.jmeter.backendlistener.model.JsonRowWriter;
+import io.github.rahulsinghai.jmeter.backendlistener.model.MetricsRow;
+import io.github.rahulsinghai.jmeter.backendlistener.model.RowTemplate;
+import java.lang.management.ManagementFactory;
+import java.util.HashSet;
+import org.apache.jmeter.config.Arguments;
+import org.apache.jmeter.samplers.SampleResult;
+import org.apache.jmeter.visualizers.backend.BackendListenerContext;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks that once warmed up, encoding a sample and buffering its row allocates (almost) nothing:
+ * the row, the writer and the publisher's buffer are all reused. The budget leaves room for the odd
+ * allocation of the JVM itself, not for a per-sample object.
+ */
+public class TestAllocationRate {
+
+  private static final int SAMPLES = 20000;
+  private static final int BATCH_SIZE = 256;
+  private static final long BUDGET_BYTES_PER_SAMPLE = 16;
+
+  @Test
+  public void testJsonRowsAllocateNothingPerSample() throws Exception {
+    assertWithinBudget(new JsonRowWriter());
+  }
+
+  @Test
+  public void testBinaryRowsAllocateNothingPerSample() throws Exception {
+    assertWithinBudget(new BinaryRowWriter());
+  }
+
+  private static void assertWithinBudget(EncodingRowWriter writer) throws Exception {
+    com.sun.management.ThreadMXBean threads = allocationCounter();
+    RowTemplate template =
+        RowTemplate.create(
+            new BackendListenerContext(new Arguments()),
+            "kafka.",
+            "info",
+            "yyyy-MM-dd'T'HH:mm:ss.SSSZZ",
+            0,
+            false,
+            false,
+            new HashSet<>());
+    KafkaMetricPublisher publisher = new KafkaMetricPublisher(null, "topic");
+    MetricsRow row = new MetricsRow(template);
+    SampleResult[] samples = new SampleResult[BATCH_SIZE];
+    for (int i = 0; i < samples.length; i++) {
+      samples[i] = sample(i);
+    }
+
+    // Warms up the buffers, caches and compiled code
+    encode(row, writer, publisher, samples, SAMPLES, 1561939200000L);
+    long threadId = Thread.currentThread().getId();
+    long before = threads.getThreadAllocatedBytes(threadId);
+    encode(row, writer, publisher, samples, SAMPLES, 1561939200000L);
+    long perSample = (threads.getThreadAllocatedBytes(threadId) - before) / SAMPLES;
+
+    assertTrue(
+        writer.getClass().getSimpleName() + " allocated " + perSample + " bytes per sample",
+        perSample <= BUDGET_BYTES_PER_SAMPLE);
+  }
+
+  private static void encode(
+      MetricsRow row,
+      EncodingRowWriter writer,
+      KafkaMetricPublisher publisher,
+      SampleResult[] samples,
+      int count,
+      long now) {
+    for (int i = 0; i < count; i++) {
+      SampleResult sr = samples[i % samples.length];
+      row.reset(sr).writeRow(writer, now);
+      publisher.addToList(writer, sr);
+      if (publisher.getListSize() == BATCH_SIZE) {
+        publisher.clearList();
+      }
+    }
+    publisher.clearList();
+  }
+
+  private static SampleResult sample(int i) {
+    SampleResult sr = new SampleResult();
+    sr.setSampleLabel("GET /api/items/" + (i % 8));
+    sr.setThreadName("Thread Group 1-" + (i % 16));
+    sr.setResponseCode("200");
+    sr.setBytes(1024L + i);
+    sr.setSuccessful(true);
+    sr.setStampAndTime(1561939200000L + (i % 4), 20 + i);
+    return sr;
+  }
+
+  private static com.sun.management.ThreadMXBean allocationCounter() {
+    boolean supported =
+        ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean;
+    com.sun.management.ThreadMXBean threads =
+        supported ? (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean() : null;
+    assumeTrue(
+        supported && threads.isThreadAllocatedMemorySupported(),
+        "The JVM does not count the bytes allocated by a thread");
+    threads.setThreadAllocatedMemoryEnabled(true);
+    return threads;
+  }
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright 2019 Rahul Singhai.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.rahulsinghai.jmeter.backendlistener.kafka;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import io.github.rahulsinghai.jmeter.backendlistener.model.JsonRowWriter;
+import io.github.rahulsinghai.jmeter.backendlistener.model.RowTemplate;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.function.Supplier;
+import org.apache.jmeter.config.Arguments;
+import org.apache.jmeter.samplers.SampleResult;
+import org.apache.jmeter.visualizers.backend.BackendListenerContext;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.junit.jupiter.api.Test;
+
+public class TestAsyncSamplePipeline {
+
+  private static RowTemplate template() throws Exception {
+    return RowTemplate.create(
+        new BackendListenerContext(new Arguments()),
+        "kafka.",
+        "info",
+        "yyyy-MM-dd'T'HH:mm:ss.SSSZZ",
+        0,
+        false,
+        false,
+        new HashSet<>());
+  }
+
+  private static Supplier<KafkaMetricPublisher> publishers(MockProducer<byte[], byte[]> producer) {
+    return () -> new KafkaMetricPublisher(producer, "topic");
+  }
+
+  private static SampleResult sample(String label, boolean successful) {
+    SampleResult sampleResult = new SampleResult(System.currentTimeMillis(), 10);
+    sampleResult.setSampleLabel(label);
+    sampleResult.setSuccessful(successful);
+    return sampleResult;
+  }
+
+  @Test
+  public void testSamplesAreSentBySenderThreads() throws Exception {
+    MockProducer<byte[], byte[]> producer =
+        new MockProducer<>(true, new ByteArraySerializer(), new ByteArraySerializer());
+    AsyncSamplePipeline pipeline =
+        new AsyncSamplePipeline(
+            publishers(producer), JsonRowWriter::new, template(), 16, 2, OverflowPolicy.BLOCK);
+    pipeline.start();
+    for (int i = 0; i < 500; i++) {
+      assertTrue(pipeline.submit(sample("sample" + i, true)));
+    }
+
+    assertTrue(pipeline.close(10000));
+    assertEquals(500, producer.history().size());
+    String row = new String(producer.history().get(0).value(), StandardCharsets.UTF_8);
+    assertTrue(row.startsWith("{") && row.contains("\"SampleLabel\":\"sample"));
+    assertEquals(0, pipeline.getDroppedSuccesses() + pipeline.getDroppedFailures());
+  }
+
+  @Test
+  public void testSamplesWhichCannotBeEncodedAreCountedAsDropped() throws Exception {
+    MockProducer<byte[], byte[]> producer =
+        new MockProducer<>(true, new ByteArraySerializer(), new ByteArraySerializer());
+    AsyncSamplePipeline pipeline =
+        new AsyncSamplePipeline(
+            publishers(producer), JsonRowWriter::new, template(), 16, 1, OverflowPolicy.BLOCK);
+    ListenerMetrics metrics = new ListenerMetrics();
+    pipeline.setMetrics(metrics);
+    pipeline.start();
+    for (int i = 0; i < 10; i++) {
+      assertTrue(pipeline.submit(sample("sample" + i, true)));
+    }
+    assertTrue(
+        pipeline.submit(
+            new SampleResult(System.currentTimeMillis(), 10) {
+              @Override
+              public String getThreadName() {
+                throw new IllegalStateException("Unreadable");
+              }
+            }));
+
+    assertTrue(pipeline.close(10000));
+    assertEquals(10, producer.history().size());
+    assertEquals(1, metrics.getSamplesDropped());
+  }
+
+  @Test
+  public void testDropNewest() throws Exception {
+    MockProducer<byte[], byte[]> producer =
+        new MockProducer<>(true, new ByteArraySerializer(), new ByteArraySerializer());
+    AsyncSamplePipeline pipeline =
+        new AsyncSamplePipeline(
+            publishers(producer), JsonRowWriter::new, template(), 4, 1, OverflowPolicy.DROP_NEWEST);
+    for (int i = 0; i < 6; i++) {
+      pipeline.submit(sample("sample" + i, i % 2 == 0));
+    }
+    assertEquals(4, pipeline.getPendingCount());
+    assertEquals(1, pipeline.getDroppedSuccesses());
+    assertEquals(1, pipeline.getDroppedFailures());
+
+    // Samples left in the buffer are sent when the pipeline is closed
+    pipeline.start();
+    assertTrue(pipeline.close(10000));
+    assertEquals(4, producer.history().size());
+    assertFalse(pipeline.submit(sample("late", false)));
+  }
+
+  @Test
+  public void testDropSuccessesFirst() throws Exception {
+    MockProducer<byte[], byte[]> producer =
+        new MockProducer<>(true, new ByteArraySerializer(), new ByteArraySerializer());
+    AsyncSamplePipeline pipeline =
+        new AsyncSamplePipeline(
+            publishers(producer),
+            JsonRowWriter::new,
+            template(),
+            8,
+            1,
+            OverflowPolicy.DROP_SUCCESSES_FIRST);
+
+    // The last quarter of the buffer is kept for failed samples
+    for (int i = 0; i < 10; i++) {
+      pipeline.submit(sample("success" + i, true));
+    }
+    assertEquals(6, pipeline.getPendingCount());
+    assertEquals(4, pipeline.getDroppedSuccesses());
+
+    for (int i = 0; i < 3; i++) {
+      pipeline.submit(sample("failure" + i, false));
+    }
+    assertEquals(8, pipeline.getPendingCount());
+    assertEquals(1, pipeline.getDroppedFailures());
+  }
+
+  @Test
+  public void testBufferIsBoundedByTheSizeOfTheBodies() throws Exception {
+    MockProducer<byte[], byte[]> producer =
+        new MockProducer<>(true, new ByteArraySerializer(), new ByteArraySerializer());
+    AsyncSamplePipeline pipeline =
+        new AsyncSamplePipeline(
+            publishers(producer),
+            JsonRowWriter::new,
+            template(),
+            16,
+            1,
+            OverflowPolicy.DROP_NEWEST);
+    pipeline.setMaxBufferBytes(2500);
+    SampleResult large = sample("large", true);
+    large.setResponseData(new byte[1000]);
+    SampleResult parent = sample("parent", true);
+    parent.addRawSubResult(large);
+    assertEquals(1000, AsyncSamplePipeline.retainedBytes(parent));
+
+    // A sample larger than the maximum is still taken by an empty buffer
+    SampleResult huge = sample("huge", false);
+    huge.setResponseData(new byte[4000]);
+    assertTrue(pipeline.submit(huge));
+    assertFalse(pipeline.submit(sample("small", true)));
+    pipeline.start();
+    assertTrue(pipeline.close(10000));
+    assertEquals(1, producer.history().size());
+
+    pipeline =
+        new AsyncSamplePipeline(
+            publishers(producer),
+            JsonRowWriter::new,
+            template(),
+            16,
+            1,
+            OverflowPolicy.DROP_NEWEST);
+    pipeline.setMaxBufferBytes(2500);
+    assertTrue(pipeline.submit(large));
+    assertTrue(pipeline.submit(parent));
+    assertFalse(pipeline.submit(large));
+    assertTrue(pipeline.submit(sample("small", true)));
+    assertEquals(3, pipeline.getPendingCount());
+    assertEquals(1, pipeline.getDroppedSuccesses());
+
+    // The size of the samples sent is released
+    pipeline.start();
+    long deadline = System.currentTimeMillis() + 10000;
+    boolean submitted = false;
+    while (!submitted && System.currentTimeMillis() < deadline) {
+      submitted = pipeline.submit(large) && pipeline.submit(large);
+      Thread.sleep(1);
+    }
+    assertTrue(submitted);
+    assertTrue(pipeline.close(10000));
+  }
+}
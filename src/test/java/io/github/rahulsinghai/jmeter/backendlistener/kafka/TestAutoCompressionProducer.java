@@ -0,0 +1,119 @@
+/*
+ * Copyright 2019 Rahul Singhai.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.rahulsinghai.jmeter.backendlistener.kafka;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.record.CompressionType;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.junit.jupiter.api.Test;
+
+public class TestAutoCompressionProducer {
+
+  private final List<MockProducer<byte[], byte[]>> producers = new ArrayList<>();
+  private final List<String> codecs = new ArrayList<>();
+  private final List<String> clientIds = new ArrayList<>();
+
+  private final AtomicLong clock = new AtomicLong();
+
+  private Producer<byte[], byte[]> newProducer(Properties props) {
+    MockProducer<byte[], byte[]> producer =
+        new MockProducer<>(false, new ByteArraySerializer(), new ByteArraySerializer());
+    this.producers.add(producer);
+    this.codecs.add(props.getProperty("compression.type"));
+    this.clientIds.add(props.getProperty("client.id"));
+    return producer;
+  }
+
+  private AutoCompressionProducer newAutoProducer(long byteCostNanos) {
+    Properties props = new Properties();
+    props.put("compression.type", "auto");
+    props.put("batch.size", "16384");
+    props.put("client.id", "listener");
+    return new AutoCompressionProducer(
+        props, this::newProducer, 100, 1000, byteCostNanos, this.clock::get, Runnable::run);
+  }
+
+  private static ProducerRecord<byte[], byte[]> record(int i) {
+    String row =
+        "{\"SampleLabel\":\"GET /api/items\",\"ResponseCode\":\"200\",\"ElapsedTime\":"
+            + (i % 50)
+            + ",\"Success\":true,\"ThreadName\":\"Thread Group 1-"
+            + (i % 8)
+            + "\"}";
+    return new ProducerRecord<>("topic", row.getBytes(StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void testRecordsSwitchToTheChosenCodecAfterCalibration() {
+    AutoCompressionProducer producer = newAutoProducer(1000);
+    assertEquals("none", this.codecs.get(0));
+    for (int i = 0; i < 200; i++) {
+      producer.send(record(i));
+    }
+    assertNull(producer.getChosen());
+
+    // The measurements, run by the sending thread here, switch the records to the chosen codec
+    this.clock.addAndGet(TimeUnit.SECONDS.toNanos(1));
+    producer.send(record(200));
+    assertEquals(2, this.producers.size());
+    CompressionType chosen = producer.getChosen();
+    assertNotEquals(CompressionType.NONE, chosen);
+    assertEquals(chosen.name, this.codecs.get(1));
+    // Both producers are open for a while, their JMX metrics are registered under their client.id
+    assertEquals("listener", this.clientIds.get(0));
+    assertEquals("listener-" + chosen.name, this.clientIds.get(1));
+    MockProducer<byte[], byte[]> calibrating = this.producers.get(0);
+    assertTrue(calibrating.closed());
+    assertEquals(200, calibrating.history().size());
+
+    producer.send(record(201));
+    assertEquals(2, this.producers.size());
+    assertEquals(2, this.producers.get(1).history().size());
+
+    producer.close();
+    assertTrue(this.producers.get(1).closed());
+  }
+
+  @Test
+  public void testFreeBytesAreNotCompressed() {
+    AutoCompressionProducer producer = newAutoProducer(0);
+    for (int i = 0; i < 200; i++) {
+      producer.send(record(i));
+    }
+    this.clock.addAndGet(TimeUnit.SECONDS.toNanos(1));
+    producer.send(record(200));
+    producer.send(record(201));
+    assertNull(producer.getChosen());
+    assertEquals(1, this.producers.size());
+    assertFalse(this.producers.get(0).closed());
+    assertEquals(202, this.producers.get(0).history().size());
+  }
+}
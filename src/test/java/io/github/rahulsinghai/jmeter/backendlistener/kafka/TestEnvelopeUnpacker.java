@@ -0,0 +1,69 @@
+/*
+ * Copyright 2019 Rahul Singhai.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.rahulsinghai.jmeter.backendlistener.kafka;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.junit.jupiter.api.Test;
+
+public class TestEnvelopeUnpacker {
+
+  private static final String[] DOCUMENTS = {
+    "{\"SampleLabel\":\"a, [b]\",\"AssertionResults\":[{\"name\":\"x\"},{\"name\":\"y\"}]}",
+    "{\"SampleLabel\":\"\\\"quoted\\\\\",\"ResponseTime\":12}",
+    "{}"
+  };
+
+  private static void assertRoundTrip(EnvelopeFormat format) {
+    MockProducer<byte[], byte[]> producer =
+        new MockProducer<>(true, new ByteArraySerializer(), new ByteArraySerializer());
+    KafkaMetricPublisher pub = new KafkaMetricPublisher(producer, "topic", format, 100, 4096);
+    for (String document : DOCUMENTS) {
+      pub.addToList(document);
+    }
+    pub.publishMetrics();
+
+    int i = 0;
+    for (ProducerRecord<byte[], byte[]> record : producer.history()) {
+      for (byte[] document : EnvelopeUnpacker.unpack(record.value())) {
+        assertEquals(format.name(), DOCUMENTS[i++], new String(document, StandardCharsets.UTF_8));
+      }
+    }
+    assertEquals(DOCUMENTS.length, i);
+  }
+
+  @Test
+  public void testUnpackAllFormats() {
+    for (EnvelopeFormat format : EnvelopeFormat.values()) {
+      assertRoundTrip(format);
+    }
+  }
+
+  @Test
+  public void testUnpackWhitespace() {
+    List<byte[]> documents =
+        EnvelopeUnpacker.unpack(" [ {\"a\":1} ,\n{\"b\":[2]} ] ".getBytes(StandardCharsets.UTF_8));
+    assertEquals(2, documents.size());
+    assertEquals("{\"b\":[2]}", new String(documents.get(1), StandardCharsets.UTF_8));
+    assertEquals(0, EnvelopeUnpacker.unpack(new byte[0]).size());
+  }
+}
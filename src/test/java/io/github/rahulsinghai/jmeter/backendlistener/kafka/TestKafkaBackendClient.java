@@ -16,9 +16,36 @@
 
 package io.github.rahulsinghai.jmeter.backendlistener.kafka;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 
+import io.github.rahulsinghai.jmeter.backendlistener.model.EncodingRowWriter;
+import io.github.rahulsinghai.jmeter.backendlistener.sink.RecordSink;
+import io.github.rahulsinghai.jmeter.backendlistener.sink.RecordSinkFactory;
+import io.github.rahulsinghai.jmeter.backendlistener.sink.SinkMetrics;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.zip.GZIPInputStream;
 import org.apache.jmeter.config.Arguments;
+import org.apache.jmeter.samplers.SampleResult;
+import org.apache.jmeter.visualizers.backend.BackendListenerContext;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 
@@ -36,4 +63,234 @@ public class TestKafkaBackendClient {
     Arguments args = client.getDefaultParameters();
     assertNotNull(args);
   }
+
+  @Test
+  public void testRowsAreWrittenToFilesWithTheFileSink() throws Exception {
+    Path directory = Files.createTempDirectory("file-sink");
+    KafkaBackendClient listener = new KafkaBackendClient();
+    Map<String, String> parameters = new HashMap<>();
+    listener
+        .getDefaultParameters()
+        .getArgumentsAsMap()
+        .forEach((name, value) -> parameters.put(name, value == null ? "" : value));
+    parameters.put("kafka.topic", "jmeter");
+    parameters.put("kafka.sink", "file");
+    parameters.put("kafka.sink.file.directory", directory.toString());
+    Arguments arguments = new Arguments();
+    parameters.forEach(arguments::addArgument);
+    BackendListenerContext context = new BackendListenerContext(arguments);
+
+    listener.setupTest(context);
+    List<SampleResult> samples = new ArrayList<>();
+    for (int i = 0; i < 20; i++) {
+      SampleResult sample = new SampleResult(System.currentTimeMillis(), 10);
+      sample.setSampleLabel("sample" + i);
+      sample.setSuccessful(true);
+      samples.add(sample);
+    }
+    listener.handleSampleResults(samples, context);
+    listener.teardownTest(context);
+
+    File[] files = directory.toFile().listFiles();
+    assertNotNull(files);
+    assertEquals(1, files.length);
+    assertTrue(files[0].getName().endsWith(".ndjson.gz"));
+    List<String> rows = new ArrayList<>();
+    try (BufferedReader reader =
+        new BufferedReader(
+            new InputStreamReader(
+                new GZIPInputStream(Files.newInputStream(files[0].toPath())),
+                StandardCharsets.UTF_8))) {
+      for (String row = reader.readLine(); row != null; row = reader.readLine()) {
+        rows.add(row);
+      }
+    }
+    assertEquals(20, rows.size());
+    assertTrue(rows.get(7), rows.get(7).contains("\"SampleLabel\":\"sample7\""));
+    files[0].delete();
+    directory.toFile().delete();
+  }
+
+  @Test
+  public void testRowsGoToTheSinksOfTheFactoryNamedByTheSinkParameter() throws Exception {
+    KafkaBackendClient listener = new KafkaBackendClient();
+    Map<String, String> parameters = new HashMap<>();
+    listener
+        .getDefaultParameters()
+        .getArgumentsAsMap()
+        .forEach((name, value) -> parameters.put(name, value == null ? "" : value));
+    parameters.put("kafka.sink", CollectingSinkFactory.class.getName());
+    parameters.put("kafka.encoder.threads", "4");
+    Arguments arguments = new Arguments();
+    parameters.forEach(arguments::addArgument);
+    BackendListenerContext context = new BackendListenerContext(arguments);
+
+    CollectingSinkFactory.rows.clear();
+    listener.setupTest(context);
+    List<SampleResult> samples = new ArrayList<>();
+    for (int i = 0; i < 20; i++) {
+      SampleResult sample = new SampleResult(System.currentTimeMillis(), 10);
+      sample.setSampleLabel("sample" + i);
+      sample.setSuccessful(true);
+      samples.add(sample);
+    }
+    listener.handleSampleResults(samples, context);
+    assertEquals(20, CollectingSinkFactory.rows.size());
+    assertTrue(CollectingSinkFactory.open);
+    listener.teardownTest(context);
+
+    assertFalse(CollectingSinkFactory.open);
+    String row = CollectingSinkFactory.rows.get(7);
+    assertTrue(row, row.contains("\"SampleLabel\":\"sample7\""));
+  }
+
+  @Test
+  public void testSamplesWhichCannotBeEncodedAreCountedAsDropped() throws Exception {
+    KafkaBackendClient listener = new KafkaBackendClient();
+    Map<String, String> parameters = new HashMap<>();
+    listener
+        .getDefaultParameters()
+        .getArgumentsAsMap()
+        .forEach((name, value) -> parameters.put(name, value == null ? "" : value));
+    parameters.put("kafka.sink", CollectingSinkFactory.class.getName());
+    Arguments arguments = new Arguments();
+    parameters.forEach(arguments::addArgument);
+    BackendListenerContext context = new BackendListenerContext(arguments);
+
+    CollectingSinkFactory.rows.clear();
+    listener.setupTest(context);
+    List<SampleResult> samples = new ArrayList<>();
+    for (int i = 0; i < 3; i++) {
+      SampleResult sample = new SampleResult(System.currentTimeMillis(), 10);
+      sample.setSampleLabel("sample" + i);
+      samples.add(sample);
+    }
+    samples.add(
+        1,
+        new SampleResult(System.currentTimeMillis(), 10) {
+          @Override
+          public String getThreadName() {
+            throw new IllegalStateException("Unreadable");
+          }
+        });
+    listener.handleSampleResults(samples, context);
+    listener.teardownTest(context);
+
+    assertEquals(3, CollectingSinkFactory.rows.size());
+    assertEquals(1, ((ListenerMetrics) CollectingSinkFactory.metrics).getSamplesDropped());
+  }
+
+  @Test
+  public void testTierProducersHaveAClientIdOfTheirOwn() throws Exception {
+    RecordingClient listener = new RecordingClient();
+    Map<String, String> parameters = new HashMap<>();
+    listener
+        .getDefaultParameters()
+        .getArgumentsAsMap()
+        .forEach((name, value) -> parameters.put(name, value == null ? "" : value));
+    parameters.put("kafka.shared.producer", "false");
+    parameters.put("kafka.route.success.producer.acks", "0");
+    parameters.put("kafka.route.failure.topic", "failures");
+    parameters.put("kafka.route.detail.producer.client.id", "details");
+    Arguments arguments = new Arguments();
+    parameters.forEach(arguments::addArgument);
+    BackendListenerContext context = new BackendListenerContext(arguments);
+
+    RecordingClient.clientIds.clear();
+    listener.setupTest(context);
+    listener.teardownTest(context);
+
+    // The failure tier has only a topic of its own, it shares the listener's producer
+    assertEquals(
+        Arrays.asList(
+            "JMeterKafkaBackendListener", "JMeterKafkaBackendListener-success", "details"),
+        RecordingClient.clientIds);
+  }
+
+  @Test
+  public void testListenersWithTheSameSettingsShareTheirProducer() throws Exception {
+    RecordingClient first = new RecordingClient();
+    RecordingClient second = new RecordingClient();
+    Map<String, String> parameters = new HashMap<>();
+    first
+        .getDefaultParameters()
+        .getArgumentsAsMap()
+        .forEach((name, value) -> parameters.put(name, value == null ? "" : value));
+    parameters.put("kafka.client.id", "shared");
+    Arguments arguments = new Arguments();
+    parameters.forEach(arguments::addArgument);
+    BackendListenerContext context = new BackendListenerContext(arguments);
+
+    RecordingClient.clientIds.clear();
+    first.setupTest(context);
+    second.setupTest(context);
+    second.teardownTest(context);
+    first.teardownTest(context);
+
+    assertEquals(Collections.singletonList("shared"), RecordingClient.clientIds);
+  }
+
+  /** Records the client.id of the producers it creates, which are mock producers. */
+  public static class RecordingClient extends KafkaBackendClient {
+    static final List<String> clientIds = Collections.synchronizedList(new ArrayList<>());
+
+    @Override
+    protected Producer<byte[], byte[]> createProducer(Properties props) {
+      clientIds.add(props.getProperty(ProducerConfig.CLIENT_ID_CONFIG));
+      return new MockProducer<>(true, new ByteArraySerializer(), new ByteArraySerializer());
+    }
+  }
+
+  /** Collects the published rows in memory. */
+  public static class CollectingSinkFactory implements RecordSinkFactory {
+    static final List<String> rows = Collections.synchronizedList(new ArrayList<>());
+    static volatile boolean open;
+    static volatile SinkMetrics metrics;
+
+    @Override
+    public void open(BackendListenerContext context, SinkMetrics metrics) {
+      open = true;
+      CollectingSinkFactory.metrics = metrics;
+    }
+
+    @Override
+    public RecordSink newSink() {
+      return new RecordSink() {
+        private final List<String> list = new ArrayList<>();
+
+        @Override
+        public int getListSize() {
+          return this.list.size();
+        }
+
+        @Override
+        public void addToList(EncodingRowWriter writer, SampleResult sr) {
+          addToList(writer.toByteArray());
+        }
+
+        @Override
+        public void addToList(byte[] row) {
+          this.list.add(new String(row, StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public void publishMetrics() {
+          rows.addAll(this.list);
+        }
+
+        @Override
+        public void clearList() {
+          this.list.clear();
+        }
+
+        @Override
+        public void flush() {}
+      };
+    }
+
+    @Override
+    public void close() {
+      open = false;
+    }
+  }
 }
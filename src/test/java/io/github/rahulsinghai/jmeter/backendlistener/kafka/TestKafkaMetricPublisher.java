@@ -1,7 +1,22 @@
 package io.github.rahulsinghai.jmeter.backendlistener.kafka;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.jmeter.samplers.SampleResult;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
 import org.junit.jupiter.api.Test;
 
 public class TestKafkaMetricPublisher {
@@ -15,4 +30,185 @@ public class TestKafkaMetricPublisher {
     pub.clearList();
     assertEquals(pub.getListSize(), 0);
   }
+
+  @Test
+  public void testPublishMetricsSendsUtf8Bytes() {
+    MockProducer<byte[], byte[]> producer =
+        new MockProducer<>(true, new ByteArraySerializer(), new ByteArraySerializer());
+    KafkaMetricPublisher pub = new KafkaMetricPublisher(producer, "topic");
+    pub.addToList("{\"SampleLabel\":\"\u00e9\"}");
+    pub.addToList(new byte[] {'{', '}'});
+    pub.publishMetrics();
+
+    List<ProducerRecord<byte[], byte[]>> history = producer.history();
+    assertEquals(2, history.size());
+    assertArrayEquals(
+        "{\"SampleLabel\":\"\u00e9\"}".getBytes(StandardCharsets.UTF_8), history.get(0).value());
+    assertArrayEquals(new byte[] {'{', '}'}, history.get(1).value());
+  }
+
+  @Test
+  public void testNdjsonEnvelopesAreBoundedByCount() {
+    MockProducer<byte[], byte[]> producer =
+        new MockProducer<>(true, new ByteArraySerializer(), new ByteArraySerializer());
+    KafkaMetricPublisher pub =
+        new KafkaMetricPublisher(producer, "topic", EnvelopeFormat.NDJSON, 2, 1024);
+    for (int i = 0; i < 5; i++) {
+      pub.addToList("{\"i\":" + i + "}");
+    }
+    pub.publishMetrics();
+
+    List<ProducerRecord<byte[], byte[]>> history = producer.history();
+    assertEquals(3, history.size());
+    assertEquals(
+        "{\"i\":0}\n{\"i\":1}\n", new String(history.get(0).value(), StandardCharsets.UTF_8));
+    assertEquals("{\"i\":4}\n", new String(history.get(2).value(), StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void testArrayEnvelopesAreBoundedBySize() {
+    MockProducer<byte[], byte[]> producer =
+        new MockProducer<>(true, new ByteArraySerializer(), new ByteArraySerializer());
+    KafkaMetricPublisher pub =
+        new KafkaMetricPublisher(producer, "topic", EnvelopeFormat.ARRAY, 100, 20);
+    pub.addToList("{\"a\":1}");
+    pub.addToList("{\"b\":2}");
+    pub.addToList("{\"c\":\"longer than the limit\"}");
+    pub.addToList("{\"d\":4}");
+    pub.publishMetrics();
+
+    List<ProducerRecord<byte[], byte[]>> history = producer.history();
+    assertEquals(3, history.size());
+    assertEquals(
+        "[{\"a\":1},{\"b\":2}]", new String(history.get(0).value(), StandardCharsets.UTF_8));
+    // A document larger than the limit is sent alone
+    assertEquals(
+        "[{\"c\":\"longer than the limit\"}]",
+        new String(history.get(1).value(), StandardCharsets.UTF_8));
+    assertEquals("[{\"d\":4}]", new String(history.get(2).value(), StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void testDefaultKeysAreSequenceNumbers() {
+    MockProducer<byte[], byte[]> producer =
+        new MockProducer<>(true, new ByteArraySerializer(), new ByteArraySerializer());
+    KafkaMetricPublisher pub = new KafkaMetricPublisher(producer, "topic");
+    long before = System.currentTimeMillis();
+    pub.addToList("{}");
+    pub.addToList("{}");
+    pub.publishMetrics();
+
+    List<ProducerRecord<byte[], byte[]>> history = producer.history();
+    // Same bytes as the former Long keys encoded by LongSerializer
+    long first = toLong(history.get(0).key());
+    assertEquals(first + 1, toLong(history.get(1).key()));
+    assertTrue(first >= before && first <= System.currentTimeMillis());
+    assertNull(history.get(0).timestamp());
+  }
+
+  @Test
+  public void testLabelKeysGroupEnvelopes() {
+    MockProducer<byte[], byte[]> producer =
+        new MockProducer<>(true, new ByteArraySerializer(), new ByteArraySerializer());
+    RecordKeys keys = new RecordKeys(KeyStrategy.LABEL, RecordTimestamp.START, null, "host");
+    KafkaMetricPublisher pub =
+        new KafkaMetricPublisher(
+            producer, "topic", EnvelopeFormat.NDJSON, 100, 1024, keys, new ListenerMetrics());
+    String[] labels = {"a", "b", "a", "c", "b"};
+    for (int i = 0; i < labels.length; i++) {
+      SampleResult sr = new SampleResult(1000L + i, 10);
+      sr.setSampleLabel(labels[i]);
+      pub.addToList(("{\"i\":" + i + "}").getBytes(StandardCharsets.UTF_8), sr);
+    }
+    pub.addToList(new byte[] {'{', '}'}, "a", 5000L, 6000L);
+    pub.publishMetrics();
+
+    List<ProducerRecord<byte[], byte[]>> history = producer.history();
+    assertEquals(3, history.size());
+    assertEquals("a", new String(history.get(0).key(), StandardCharsets.UTF_8));
+    assertEquals(
+        "{\"i\":0}\n{\"i\":2}\n{}\n", new String(history.get(0).value(), StandardCharsets.UTF_8));
+    // An envelope has the start time of its first document: 1000 is its end time
+    assertEquals(Long.valueOf(990L), history.get(0).timestamp());
+    assertEquals("b", new String(history.get(1).key(), StandardCharsets.UTF_8));
+    assertEquals(
+        "{\"i\":1}\n{\"i\":4}\n", new String(history.get(1).value(), StandardCharsets.UTF_8));
+    assertEquals("c", new String(history.get(2).key(), StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void testFieldHashKeys() {
+    List<String> fields = Arrays.asList("SampleLabel", "ResponseCode");
+    RecordKeys keys = new RecordKeys(KeyStrategy.FIELDS, RecordTimestamp.END, fields, "host");
+    SampleResult ok = new SampleResult(1000L, 10);
+    ok.setSampleLabel("label");
+    ok.setResponseCode("200");
+    SampleResult error = new SampleResult(1000L, 10);
+    error.setSampleLabel("label");
+    error.setResponseCode("500");
+    SampleResult other = new SampleResult(2000L, 10);
+    other.setSampleLabel("label");
+    other.setResponseCode("200");
+    other.setThreadName("other thread");
+
+    assertEquals(8, keys.keyOf(ok).length);
+    assertArrayEquals(keys.keyOf(ok), keys.keyOf(other));
+    assertFalse(Arrays.equals(keys.keyOf(ok), keys.keyOf(error)));
+    assertEquals(ok.getEndTime(), keys.timestampOf(ok));
+    assertNull(new RecordKeys(KeyStrategy.NONE, RecordTimestamp.SEND, null, "h").keyOf(ok));
+
+    try {
+      new RecordKeys(
+          KeyStrategy.FIELDS, RecordTimestamp.SEND, Collections.singletonList("Latency"), "h");
+      fail("Latency changes with every sample, it cannot be hashed");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testFailuresAreRoutedToTheirTopicAndProducer() {
+    MockProducer<byte[], byte[]> bulk =
+        new MockProducer<>(true, new ByteArraySerializer(), new ByteArraySerializer());
+    MockProducer<byte[], byte[]> durable =
+        new MockProducer<>(true, new ByteArraySerializer(), new ByteArraySerializer());
+    Map<RecordTier, TierRouter.Route> tierRoutes = new EnumMap<>(RecordTier.class);
+    tierRoutes.put(RecordTier.FAILURE, new TierRouter.Route("errors", durable));
+    TierRouter router = new TierRouter(new TierRouter.Route("topic", bulk), tierRoutes, false);
+    KafkaMetricPublisher pub =
+        new KafkaMetricPublisher(bulk, "topic", EnvelopeFormat.NDJSON, 10, 1024);
+    pub.setRouter(router);
+
+    SampleResult ok = new SampleResult(1000L, 10);
+    ok.setSuccessful(true);
+    SampleResult error = new SampleResult(1000L, 10);
+    error.setSuccessful(false);
+    pub.addToList("{\"i\":0}".getBytes(StandardCharsets.UTF_8), ok);
+    pub.addToList("{\"i\":1}".getBytes(StandardCharsets.UTF_8), error);
+    pub.addToList("{\"i\":2}".getBytes(StandardCharsets.UTF_8), ok);
+    pub.addToList("{\"i\":3}".getBytes(StandardCharsets.UTF_8), error);
+    pub.publishMetrics();
+    pub.publishControlRecord(new byte[] {0});
+
+    assertEquals(2, bulk.history().size());
+    assertEquals("topic", bulk.history().get(0).topic());
+    assertEquals(
+        "{\"i\":0}\n{\"i\":2}\n",
+        new String(bulk.history().get(0).value(), StandardCharsets.UTF_8));
+    assertEquals(2, durable.history().size());
+    assertEquals("errors", durable.history().get(0).topic());
+    assertEquals(
+        "{\"i\":1}\n{\"i\":3}\n",
+        new String(durable.history().get(0).value(), StandardCharsets.UTF_8));
+    // The control record precedes the next rows of every topic
+    assertEquals("errors", durable.history().get(1).topic());
+  }
+
+  private static long toLong(byte[] bytes) {
+    long value = 0;
+    for (byte b : bytes) {
+      value = (value << 8) | (b & 0xFF);
+    }
+    return value;
+  }
 }
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2019 Rahul Singhai.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.rahulsinghai.jmeter.backendlistener.kafka;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+public class TestListenerLoadHarness {
+
+  // Runs end after a fixed number of samples, and only assert what does not depend on the speed of
+  // the machine: the throughput figures are left to the report of the harness
+  @Test
+  public void testSynchronousListenerAgainstSimulatedBroker() throws Exception {
+    ListenerLoadHarness.Report report =
+        ListenerLoadHarness.run(
+            ListenerLoadHarness.Settings.parse(
+                "rate=1000000", "samples=5000", "ackLatencyMicros=500", "failureRate=0.01"));
+
+    assertEquals(report.toString(), 5000, report.samples);
+    // Every record is acknowledged or failed before the producer is closed
+    assertEquals(report.samples, report.recordsAcknowledged + report.recordsFailed);
+    assertTrue(report.recordsFailed > 0);
+  }
+
+  @Test
+  public void testBlockedProducerLosesNoRecord() throws Exception {
+    // A slow broker and a small producer buffer block the listener thread
+    ListenerLoadHarness.Report report =
+        ListenerLoadHarness.run(
+            ListenerLoadHarness.Settings.parse(
+                "rate=1000000",
+                "samples=2000",
+                "ackLatencyMicros=50000",
+                "jitterMicros=0",
+                "maxInFlight=200"));
+
+    assertEquals(report.toString(), 2000, report.samples);
+    assertEquals(report.toString(), 2000, report.recordsAcknowledged);
+    assertEquals(0, report.recordsFailed);
+    // The last 1800 records waited for the acknowledgment of the records sent 200 before them
+    assertTrue(report.toString(), report.seconds >= 9 * 0.05);
+  }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2019 Rahul Singhai.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.rahulsinghai.jmeter.backendlistener.kafka;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.junit.jupiter.api.Test;
+
+public class TestListenerMetrics {
+
+  @Test
+  public void testSendsAndAcknowledgmentsAreCounted() {
+    MockProducer<byte[], byte[]> producer =
+        new MockProducer<>(false, new ByteArraySerializer(), new ByteArraySerializer());
+    KafkaMetricPublisher pub = new KafkaMetricPublisher(producer, "topic");
+    ListenerMetrics metrics = pub.getMetrics();
+    pub.addToList("{\"a\":1}");
+    pub.addToList("{\"b\":2}");
+    pub.addToList("{\"c\":3}");
+    pub.publishMetrics();
+    assertEquals(3, metrics.getRecordsInFlight());
+
+    producer.completeNext();
+    producer.errorNext(new RuntimeException("broker down"));
+    producer.completeNext();
+    assertEquals(0, metrics.getRecordsInFlight());
+    assertEquals(2, metrics.getRecordsSent());
+    assertEquals(1, metrics.getRecordsFailed());
+    // 8 bytes of key and 7 bytes of value per record
+    assertEquals(30, metrics.getBytesSent());
+    assertTrue(metrics.getSendLatencyMaxMillis() >= metrics.getSendLatencyP50Millis());
+  }
+
+  @Test
+  public void testMetricsAreExposedThroughJmx() throws Exception {
+    ListenerMetrics metrics = new ListenerMetrics();
+    metrics.recordSamplesIn(10);
+    metrics.recordSamplesFiltered(3);
+    metrics.recordSamplesUnencoded(1);
+    metrics.recordEncoding(2_000_000L);
+    metrics.recordEncoding(4_000_000L);
+
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    ObjectName name =
+        new ObjectName("io.github.rahulsinghai.jmeter.backendlistener:type=Test,topic=metrics");
+    server.registerMBean(new StandardMBean(metrics, ListenerMetricsMXBean.class, true), name);
+    try {
+      assertEquals(10L, server.getAttribute(name, "SamplesIn"));
+      assertEquals(3L, server.getAttribute(name, "SamplesFiltered"));
+      assertEquals(1L, server.getAttribute(name, "SamplesDropped"));
+      assertEquals(3.0, (Double) server.getAttribute(name, "EncodeTimeAvgMillis"), 1e-9);
+    } finally {
+      server.unregisterMBean(name);
+    }
+
+    String table = metrics.toSummaryTable();
+    assertTrue(table.contains("samples in"));
+    assertTrue(table.contains("send latency p99 (ms)"));
+  }
+}
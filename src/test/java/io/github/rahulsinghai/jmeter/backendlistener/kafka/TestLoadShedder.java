@@ -0,0 +1,188 @@
+/*
+ * Copyright 2019 Rahul Singhai.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.rahulsinghai.jmeter.backendlistener.kafka;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import io.github.rahulsinghai.jmeter.backendlistener.model.JsonRowWriter;
+import io.github.rahulsinghai.jmeter.backendlistener.model.MetricsRow;
+import io.github.rahulsinghai.jmeter.backendlistener.model.RowTemplate;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.apache.jmeter.config.Arguments;
+import org.apache.jmeter.samplers.SampleResult;
+import org.apache.jmeter.visualizers.backend.BackendListenerContext;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.junit.jupiter.api.Test;
+
+public class TestLoadShedder {
+
+  private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+  private static Map<String, Double> bufferUsage(double usage) {
+    Map<String, Double> metrics = new HashMap<>();
+    metrics.put("buffer-total-bytes", 1000.0);
+    metrics.put("buffer-available-bytes", 1000 * (1 - usage));
+    return metrics;
+  }
+
+  private static LoadShedder shedderAt(int level) {
+    LoadShedder shedder = new LoadShedder(0.8, 1000, Collections::emptyMap, 0);
+    for (int i = 0; i < level; i++) {
+      shedder.adapt(bufferUsage(0.9));
+    }
+    return shedder;
+  }
+
+  @Test
+  public void testLevelRisesUnderPressureAndFallsWhenItEases() {
+    Map<String, Double> metrics = bufferUsage(0.9);
+    LoadShedder shedder = new LoadShedder(0.8, 1000, () -> metrics, 0);
+    assertFalse(shedder.update(SECOND / 2));
+    assertTrue(shedder.update(SECOND));
+    assertEquals(LoadShedder.DETAILS, shedder.getLevel());
+    assertEquals("details", shedder.getStep());
+    for (int second = 2; second <= 10; second++) {
+      shedder.update(second * SECOND);
+    }
+    assertEquals(LoadShedder.MAX_LEVEL, shedder.getLevel());
+    assertEquals(1.0 / 16, shedder.getSuccessRate(), 0);
+
+    // Between half the threshold and the threshold, the level holds
+    metrics.putAll(bufferUsage(0.5));
+    assertFalse(shedder.update(11 * SECOND));
+    assertEquals(LoadShedder.MAX_LEVEL, shedder.getLevel());
+
+    // A slow broker is pressure too, whatever the buffer usage
+    metrics.putAll(bufferUsage(0.1));
+    metrics.put("request-latency-avg", 1500.0);
+    assertFalse(shedder.update(12 * SECOND));
+    assertEquals(LoadShedder.MAX_LEVEL, shedder.getLevel());
+
+    metrics.put("request-latency-avg", 20.0);
+    for (int second = 13; second <= 18; second++) {
+      assertTrue(shedder.update(second * SECOND));
+    }
+    assertEquals(0, shedder.getLevel());
+    assertEquals("none", shedder.getStep());
+    assertFalse(shedder.update(19 * SECOND));
+  }
+
+  @Test
+  public void testSuccessesAreSampledAndFailuresKept() {
+    LoadShedder shedder = shedderAt(LoadShedder.SUCCESSES + 1);
+    assertEquals(0.25, shedder.getSuccessRate(), 0);
+    int admittedSuccesses = 0;
+    int admittedFailures = 0;
+    for (int i = 0; i < 100; i++) {
+      SampleResult success = new SampleResult(1561939200000L, 10);
+      success.setSuccessful(true);
+      SampleResult failure = new SampleResult(1561939200000L, 10);
+      failure.setSuccessful(false);
+      admittedSuccesses += shedder.admit(success) ? 1 : 0;
+      admittedFailures += shedder.admit(failure) ? 1 : 0;
+    }
+    assertEquals(25, admittedSuccesses);
+    assertEquals(100, admittedFailures);
+  }
+
+  @Test
+  public void testThinnedRowsLeaveDetailsOutAndTheChangeIsPublished() throws Exception {
+    RowTemplate template =
+        RowTemplate.create(
+            new BackendListenerContext(new Arguments()),
+            "kafka.",
+            "debug",
+            "yyyy-MM-dd'T'HH:mm:ss.SSSZZ",
+            0,
+            false,
+            false,
+            Collections.emptySet());
+    SampleResult sr = new SampleResult(1561939200000L, 10);
+    sr.setSampleLabel("GET /items");
+    sr.setResponseMessage("OK");
+    sr.setSuccessful(true);
+    JsonRowWriter writer = new JsonRowWriter();
+    MetricsRow row = new MetricsRow(template);
+
+    row.reset(sr).writeRow(writer);
+    assertTrue(json(writer).contains("\"ResponseMessage\":\"OK\""));
+    assertFalse(json(writer).contains("SheddingLevel"));
+
+    LoadShedder shedder = shedderAt(LoadShedder.DETAILS);
+    shedder.thin(row).reset(sr).writeRow(writer);
+    String thinned = json(writer);
+    assertTrue(thinned.contains("\"SampleLabel\":\"GET /items\""));
+    assertFalse(thinned.contains("ResponseMessage"));
+    assertTrue(thinned.contains("\"SheddingLevel\":1"));
+
+    shedder.writeRow(writer, template, 1561939200000L);
+    String change = json(writer);
+    assertTrue(change.contains("\"RecordType\":\"shedding\""));
+    assertTrue(change.contains("\"SheddingLevel\":1"));
+    assertTrue(change.contains("\"SheddingStep\":\"details\""));
+    assertTrue(change.contains("\"SuccessRate\":1.0"));
+  }
+
+  @Test
+  public void testThinnedSuccessesAreNotRoutedAsDetails() throws Exception {
+    RowTemplate template =
+        RowTemplate.create(
+            new BackendListenerContext(new Arguments()),
+            "kafka.",
+            "debug",
+            "yyyy-MM-dd'T'HH:mm:ss.SSSZZ",
+            0,
+            false,
+            false,
+            Collections.emptySet());
+    MockProducer<byte[], byte[]> producer =
+        new MockProducer<>(true, new ByteArraySerializer(), new ByteArraySerializer());
+    Map<RecordTier, TierRouter.Route> tierRoutes = new EnumMap<>(RecordTier.class);
+    tierRoutes.put(RecordTier.DETAIL, new TierRouter.Route("details", producer));
+    TierRouter router = new TierRouter(new TierRouter.Route("topic", producer), tierRoutes, true);
+    KafkaMetricPublisher pub =
+        new KafkaMetricPublisher(producer, "topic", EnvelopeFormat.NONE, 1, 1024);
+    pub.setRouter(router);
+    MetricsRow row = new MetricsRow(template);
+    pub.setRow(row);
+    SampleResult sr = new SampleResult(1561939200000L, 10);
+    sr.setSuccessful(true);
+    JsonRowWriter writer = new JsonRowWriter();
+
+    row.reset(sr).writeRow(writer);
+    pub.addToList(writer, sr);
+    shedderAt(LoadShedder.DETAILS).thin(row).reset(sr).writeRow(writer);
+    pub.addToList(writer, sr);
+    pub.publishMetrics();
+
+    assertEquals(2, producer.history().size());
+    assertEquals("details", producer.history().get(0).topic());
+    assertEquals("topic", producer.history().get(1).topic());
+  }
+
+  private static String json(JsonRowWriter writer) {
+    return new String(writer.toByteArray(), StandardCharsets.UTF_8);
+  }
+}
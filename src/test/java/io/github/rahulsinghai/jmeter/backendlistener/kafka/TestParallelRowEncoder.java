@@ -0,0 +1,154 @@
+/*
+ * Copyright 2019 Rahul Singhai.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.rahulsinghai.jmeter.backendlistener.kafka;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import io.github.rahulsinghai.jmeter.backendlistener.model.JsonRowWriter;
+import io.github.rahulsinghai.jmeter.backendlistener.model.MetricsRow;
+import io.github.rahulsinghai.jmeter.backendlistener.model.RowTemplate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import org.apache.jmeter.config.Arguments;
+import org.apache.jmeter.samplers.SampleResult;
+import org.apache.jmeter.visualizers.backend.BackendListenerContext;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.junit.jupiter.api.Test;
+
+public class TestParallelRowEncoder {
+
+  private static RowTemplate template() throws Exception {
+    return RowTemplate.create(
+        new BackendListenerContext(new Arguments()),
+        "kafka.",
+        "info",
+        "yyyy-MM-dd'T'HH:mm:ss.SSSZZ",
+        0,
+        false,
+        false,
+        new HashSet<>(Arrays.asList("samplelabel", "threadname", "responsetime")));
+  }
+
+  private static List<SampleResult> samples(int count) {
+    List<SampleResult> samples = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      SampleResult sr = new SampleResult(1561939200000L + i, i % 250);
+      sr.setSampleLabel("Sample " + i);
+      sr.setThreadName("Thread Group 1-" + (i % 16));
+      samples.add(sr);
+    }
+    return samples;
+  }
+
+  /** @return a sample whose thread name cannot be read, with the given exception */
+  private static SampleResult unreadable(RuntimeException exception) {
+    return new SampleResult(1561939200000L, 10) {
+      @Override
+      public String getThreadName() {
+        throw exception;
+      }
+    };
+  }
+
+  @Test
+  public void testRowsKeepTheOrderOfTheSamples() throws Exception {
+    RowTemplate template = template();
+    List<SampleResult> samples = samples(5000);
+    MockProducer<byte[], byte[]> producer =
+        new MockProducer<>(true, new ByteArraySerializer(), new ByteArraySerializer());
+    KafkaMetricPublisher publisher = new KafkaMetricPublisher(producer, "topic");
+    TierRouter router = new TierRouter(new TierRouter.Route("topic", producer));
+
+    try (ParallelRowEncoder encoder =
+        new ParallelRowEncoder(template, JsonRowWriter::new, RecordKeys.DEFAULT, router, 4, 1000)) {
+      assertTrue(encoder.isParallel(samples.size()));
+      encoder.encode(samples, publisher);
+    }
+    assertEquals(samples.size(), publisher.getListSize());
+    publisher.publishMetrics();
+
+    List<ProducerRecord<byte[], byte[]>> history = producer.history();
+    MetricsRow row = new MetricsRow(template);
+    JsonRowWriter writer = new JsonRowWriter();
+    for (int i = 0; i < samples.size(); i++) {
+      row.reset(samples.get(i)).writeRow(writer);
+      assertArrayEquals(writer.toByteArray(), history.get(i).value());
+    }
+  }
+
+  @Test
+  public void testSamplesWhichCannotBeEncodedAreCountedAsDropped() throws Exception {
+    List<SampleResult> samples = samples(2000);
+    samples.set(10, unreadable(new IllegalStateException("Unreadable")));
+    samples.set(1500, unreadable(new IllegalStateException("Unreadable")));
+    MockProducer<byte[], byte[]> producer =
+        new MockProducer<>(true, new ByteArraySerializer(), new ByteArraySerializer());
+    KafkaMetricPublisher publisher = new KafkaMetricPublisher(producer, "topic");
+    ListenerMetrics metrics = new ListenerMetrics();
+
+    try (ParallelRowEncoder encoder =
+        new ParallelRowEncoder(
+            template(),
+            JsonRowWriter::new,
+            RecordKeys.DEFAULT,
+            new TierRouter(new TierRouter.Route("topic", producer)),
+            4,
+            1000)) {
+      encoder.setMetrics(metrics);
+      encoder.encode(samples, publisher);
+    }
+    assertEquals(samples.size() - 2, publisher.getListSize());
+    assertEquals(2, metrics.getSamplesDropped());
+  }
+
+  @Test
+  public void testBatchOfAFailedPoolThreadIsCountedAsDropped() throws Exception {
+    List<SampleResult> samples = samples(2000);
+    samples.set(
+        10,
+        new SampleResult(1561939200000L, 10) {
+          @Override
+          public String getThreadName() {
+            throw new Error("Unreadable");
+          }
+        });
+    MockProducer<byte[], byte[]> producer =
+        new MockProducer<>(true, new ByteArraySerializer(), new ByteArraySerializer());
+    KafkaMetricPublisher publisher = new KafkaMetricPublisher(producer, "topic");
+    ListenerMetrics metrics = new ListenerMetrics();
+
+    try (ParallelRowEncoder encoder =
+        new ParallelRowEncoder(
+            template(),
+            JsonRowWriter::new,
+            RecordKeys.DEFAULT,
+            new TierRouter(new TierRouter.Route("topic", producer)),
+            4,
+            1000)) {
+      encoder.setMetrics(metrics);
+      encoder.encode(samples, publisher);
+    }
+    assertEquals(0, publisher.getListSize());
+    assertEquals(samples.size(), metrics.getSamplesDropped());
+  }
+}
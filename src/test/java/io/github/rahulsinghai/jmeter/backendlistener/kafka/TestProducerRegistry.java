@@ -0,0 +1,89 @@
+/*
+ * Copyright 2019 Rahul Singhai.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.rahulsinghai.jmeter.backendlistener.kafka;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Properties;
+import java.util.function.Function;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.junit.jupiter.api.Test;
+
+public class TestProducerRegistry {
+
+  private static final Function<Properties, Producer<byte[], byte[]>> FACTORY =
+      TestProducerRegistry::newProducer;
+
+  private static MockProducer<byte[], byte[]> newProducer(Properties props) {
+    return new MockProducer<>(true, new ByteArraySerializer(), new ByteArraySerializer());
+  }
+
+  private static Properties config(Object batchSize) {
+    Properties props = new Properties();
+    props.put("bootstrap.servers", "localhost:9092");
+    props.put("batch.size", batchSize);
+    return props;
+  }
+
+  @Test
+  public void testIdenticalConfigsShareOneProducerUntilTheLastLease() {
+    ProducerRegistry registry = new ProducerRegistry();
+    ProducerRegistry.Lease first = registry.acquire(config(16384), FACTORY);
+    // Same value, typed differently as it is when passed through kafka.producer.batch.size
+    ProducerRegistry.Lease second = registry.acquire(config("16384"), FACTORY);
+    assertSame(first.getProducer(), second.getProducer());
+    assertEquals(1, registry.size());
+
+    MockProducer<byte[], byte[]> producer = (MockProducer<byte[], byte[]>) first.getProducer();
+    first.close();
+    first.close();
+    assertFalse(producer.closed());
+    second.close();
+    assertTrue(producer.closed());
+    assertEquals(0, registry.size());
+  }
+
+  @Test
+  public void testDifferentConfigsGetTheirOwnProducer() {
+    ProducerRegistry registry = new ProducerRegistry();
+    ProducerRegistry.Lease first = registry.acquire(config(16384), FACTORY);
+    ProducerRegistry.Lease second = registry.acquire(config(65536), FACTORY);
+    assertNotSame(first.getProducer(), second.getProducer());
+    assertEquals(2, registry.size());
+    second.close();
+    assertTrue(((MockProducer<byte[], byte[]>) second.getProducer()).closed());
+    assertFalse(((MockProducer<byte[], byte[]>) first.getProducer()).closed());
+    first.close();
+  }
+
+  @Test
+  public void testDifferentFactoriesGetTheirOwnProducer() {
+    ProducerRegistry registry = new ProducerRegistry();
+    ProducerRegistry.Lease first = registry.acquire(config(16384), FACTORY);
+    ProducerRegistry.Lease second = registry.acquire(config(16384), props -> newProducer(props));
+    assertNotSame(first.getProducer(), second.getProducer());
+    assertEquals(2, registry.size());
+    first.close();
+    second.close();
+  }
+}
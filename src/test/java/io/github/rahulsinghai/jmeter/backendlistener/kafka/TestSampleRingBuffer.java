@@ -0,0 +1,105 @@
+/*
+ * Copyright 2019 Rahul Singhai.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.rahulsinghai.jmeter.backendlistener.kafka;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.jmeter.samplers.SampleResult;
+import org.junit.jupiter.api.Test;
+
+public class TestSampleRingBuffer {
+
+  @Test
+  public void testOfferAndDrain() {
+    SampleRingBuffer buffer = new SampleRingBuffer(3);
+    assertEquals(4, buffer.capacity());
+
+    SampleResult[] added = new SampleResult[4];
+    for (int i = 0; i < 4; i++) {
+      added[i] = new SampleResult();
+      assertTrue(buffer.offer(added[i], i));
+    }
+    assertFalse(buffer.offer(new SampleResult(), 4));
+    assertEquals(4, buffer.size());
+
+    SampleResult[] samples = new SampleResult[3];
+    long[] times = new long[3];
+    assertEquals(3, buffer.drainTo(samples, times, 3));
+    assertSame(added[0], samples[0]);
+    assertSame(added[2], samples[2]);
+    assertEquals(2, times[2]);
+
+    // The freed slots are reused
+    assertTrue(buffer.offer(new SampleResult(), 5));
+    assertEquals(2, buffer.drainTo(samples, times, 3));
+    assertSame(added[3], samples[0]);
+    assertEquals(5, times[1]);
+    assertEquals(0, buffer.drainTo(samples, times, 3));
+  }
+
+  @Test
+  public void testConcurrentProducersAndConsumers() throws InterruptedException {
+    SampleRingBuffer buffer = new SampleRingBuffer(64);
+    int perProducer = 20000;
+    Set<SampleResult> received = ConcurrentHashMap.newKeySet();
+    AtomicInteger remaining = new AtomicInteger(2 * perProducer);
+
+    Thread[] threads = new Thread[4];
+    for (int p = 0; p < 2; p++) {
+      threads[p] =
+          new Thread(
+              () -> {
+                for (int i = 0; i < perProducer; i++) {
+                  SampleResult sample = new SampleResult();
+                  while (!buffer.offer(sample, i)) {
+                    Thread.yield();
+                  }
+                }
+              });
+    }
+    for (int c = 2; c < 4; c++) {
+      threads[c] =
+          new Thread(
+              () -> {
+                SampleResult[] samples = new SampleResult[16];
+                long[] times = new long[16];
+                while (remaining.get() > 0) {
+                  int count = buffer.drainTo(samples, times, 16);
+                  for (int i = 0; i < count; i++) {
+                    received.add(samples[i]);
+                  }
+                  remaining.addAndGet(-count);
+                }
+              });
+    }
+    for (Thread thread : threads) {
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join(30000);
+    }
+
+    assertEquals(0, remaining.get());
+    assertEquals(2 * perProducer, received.size());
+  }
+}
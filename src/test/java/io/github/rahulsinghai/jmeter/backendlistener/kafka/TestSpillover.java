@@ -0,0 +1,235 @@
+/*
+ * Copyright 2019 Rahul Singhai.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.rahulsinghai.jmeter.backendlistener.kafka;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import io.github.rahulsinghai.jmeter.backendlistener.journal.SpillJournal;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+import org.apache.kafka.clients.producer.Callback;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.errors.RecordTooLargeException;
+import org.apache.kafka.common.errors.TimeoutException;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.junit.jupiter.api.Test;
+
+public class TestSpillover {
+
+  @Test
+  public void testFailedRecordsAreSpilledAndReplayed() throws Exception {
+    Path directory = Files.createTempDirectory("spill");
+    try {
+      MockProducer<byte[], byte[]> producer =
+          new MockProducer<>(false, new ByteArraySerializer(), new ByteArraySerializer());
+      MockProducer<byte[], byte[]> recovered =
+          new MockProducer<>(true, new ByteArraySerializer(), new ByteArraySerializer());
+      ListenerMetrics metrics = new ListenerMetrics();
+      SpillJournal journal = SpillJournal.open(directory, 1 << 16, 1 << 20);
+      metrics.setJournal(journal);
+      Spillover spillover = new Spillover(journal, recovered, "topic", metrics, 60000L);
+      KafkaMetricPublisher pub =
+          new KafkaMetricPublisher(
+              producer, "topic", EnvelopeFormat.NONE, 1, 1024, RecordKeys.DEFAULT, metrics);
+      pub.setSpillover(spillover);
+
+      pub.addToList("{\"a\":1}");
+      pub.addToList("{\"b\":2}");
+      pub.addToList("{\"c\":3}");
+      pub.publishMetrics();
+      pub.clearList();
+      producer.completeNext();
+      producer.errorNext(new TimeoutException("cluster unreachable"));
+      producer.errorNext(new RecordTooLargeException("too large"));
+      assertTrue(spillover.isDegraded());
+      assertEquals(1, metrics.getRecordsSpilled());
+      // The send callback leaves the journal to the writer thread, not started here
+      assertEquals(0, journal.getAppendedCount());
+
+      // Degraded: the next records do not wait for the producer
+      pub.addToList("{\"d\":4}");
+      pub.publishMetrics();
+      assertEquals(3, producer.history().size());
+      assertEquals(2, metrics.getRecordsSpilled());
+
+      assertTrue(spillover.replay(Long.MAX_VALUE));
+      assertFalse(spillover.isDegraded());
+      assertTrue(journal.isEmpty());
+      assertEquals(2, metrics.getRecordsReplayed());
+      List<ProducerRecord<byte[], byte[]>> replayed = recovered.history();
+      assertEquals(2, replayed.size());
+      assertEquals("{\"b\":2}", new String(replayed.get(0).value(), StandardCharsets.UTF_8));
+      assertEquals("{\"d\":4}", new String(replayed.get(1).value(), StandardCharsets.UTF_8));
+      assertNull(replayed.get(0).partition());
+      // Records without timestamp are replayed with the time they were published
+      assertTrue(replayed.get(0).timestamp() > 0);
+      assertTrue(spillover.close(1000L));
+    } finally {
+      delete(directory);
+    }
+  }
+
+  @Test
+  public void testSpilledRecordsAreAppendedByTheWriterThread() throws Exception {
+    Path directory = Files.createTempDirectory("spill");
+    try {
+      SpillJournal journal = SpillJournal.open(directory, 1024, 1 << 20);
+      Spillover spillover =
+          new Spillover(journal, unreachable(), "topic", new ListenerMetrics(), 0);
+      spillover.start();
+      for (int i = 0; i < 40; i++) {
+        assertTrue(spillover.spill(new ProducerRecord<>("topic", value(i)), i, null));
+      }
+      long deadline = System.currentTimeMillis() + 10000;
+      while (journal.getAppendedCount() < 40 && System.currentTimeMillis() < deadline) {
+        Thread.sleep(1);
+      }
+      assertEquals(40, journal.getAppendedCount());
+      assertFalse(spillover.close(200L));
+      journal = SpillJournal.open(directory, 1024, 1 << 20);
+      assertEquals(40, readValues(journal).size());
+      journal.close();
+    } finally {
+      delete(directory);
+    }
+  }
+
+  @Test
+  public void testReplayToAnUnreachableClusterKeepsTheSegmentsAndEnds() throws Exception {
+    Path directory = Files.createTempDirectory("spill");
+    try {
+      SpillJournal journal = SpillJournal.open(directory, 1024, 1 << 20);
+      for (int i = 0; i < 40; i++) {
+        assertTrue(journal.append(-1, i, null, value(i)));
+      }
+      journal.seal();
+      int segments = journal.getSegmentCount();
+      assertTrue(segments > 1);
+
+      // Records never acknowledged: the replay ends at its deadline
+      MockProducer<byte[], byte[]> silent =
+          new MockProducer<>(false, new ByteArraySerializer(), new ByteArraySerializer());
+      Spillover spillover = new Spillover(journal, silent, "topic", new ListenerMetrics(), 60000L);
+      long start = System.currentTimeMillis();
+      assertFalse(spillover.replay(start + 200));
+      assertTrue(System.currentTimeMillis() - start < 5000);
+      // The following segments are not even read
+      assertTrue(silent.history().size() < 40);
+
+      // Records failing at once: the replay ends at the first one
+      spillover = new Spillover(journal, unreachable(), "topic", new ListenerMetrics(), 60000L);
+      assertFalse(spillover.replay(Long.MAX_VALUE));
+      assertTrue(spillover.isDegraded());
+      start = System.currentTimeMillis();
+      assertFalse(spillover.close(200L));
+      assertTrue(System.currentTimeMillis() - start < 5000);
+
+      // Nothing was copied, nothing was lost
+      assertEquals(40, journal.getAppendedCount());
+      journal = SpillJournal.open(directory, 1024, 1 << 20);
+      assertEquals(segments, journal.getSegmentCount());
+      assertEquals(40, readValues(journal).size());
+      assertEquals("record 0", readValues(journal).get(0));
+      journal.close();
+    } finally {
+      delete(directory);
+    }
+  }
+
+  @Test
+  public void testReplayOfAFullJournalLosesNoRecord() throws Exception {
+    Path directory = Files.createTempDirectory("spill");
+    try {
+      SpillJournal journal = SpillJournal.open(directory, 1024, 3072);
+      int records = 0;
+      while (journal.append(-1, records, null, value(records))) {
+        records++;
+      }
+      assertEquals(1, journal.getDroppedCount());
+
+      Spillover spillover =
+          new Spillover(journal, unreachable(), "topic", new ListenerMetrics(), 0);
+      assertFalse(spillover.replay(Long.MAX_VALUE));
+      assertEquals(records, readValues(journal).size());
+
+      MockProducer<byte[], byte[]> recovered =
+          new MockProducer<>(true, new ByteArraySerializer(), new ByteArraySerializer());
+      ListenerMetrics metrics = new ListenerMetrics();
+      spillover = new Spillover(journal, recovered, "topic", metrics, 0);
+      assertTrue(spillover.replay(Long.MAX_VALUE));
+      assertTrue(journal.isEmpty());
+      assertEquals(records, metrics.getRecordsReplayed());
+      for (int i = 0; i < records; i++) {
+        assertEquals(
+            "record " + i, new String(recovered.history().get(i).value(), StandardCharsets.UTF_8));
+      }
+      assertTrue(spillover.close(1000L));
+    } finally {
+      delete(directory);
+    }
+  }
+
+  private static byte[] value(int i) {
+    return ("record " + i).getBytes(StandardCharsets.UTF_8);
+  }
+
+  /** @return a producer failing every send, like one whose metadata cannot be fetched */
+  private static MockProducer<byte[], byte[]> unreachable() {
+    return new MockProducer<byte[], byte[]>(
+        true, new ByteArraySerializer(), new ByteArraySerializer()) {
+      @Override
+      public synchronized Future<RecordMetadata> send(
+          ProducerRecord<byte[], byte[]> record, Callback callback) {
+        throw new TimeoutException("cluster unreachable");
+      }
+    };
+  }
+
+  /** @return the values of the records of the sealed segments, oldest first */
+  private static List<String> readValues(SpillJournal journal) throws IOException {
+    List<String> values = new ArrayList<>();
+    journal.seal();
+    for (Path segment : journal.getSealedSegments()) {
+      SpillJournal.read(
+          segment,
+          (partition, timestamp, key, value) ->
+              values.add(new String(value, StandardCharsets.UTF_8)));
+    }
+    return values;
+  }
+
+  private static void delete(Path directory) {
+    File[] files = directory.toFile().listFiles();
+    if (files != null) {
+      for (File file : files) {
+        file.delete();
+      }
+    }
+    directory.toFile().delete();
+  }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2019 Rahul Singhai.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.rahulsinghai.jmeter.backendlistener.model;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import org.apache.jmeter.config.Arguments;
+import org.apache.jmeter.samplers.SampleResult;
+import org.apache.jmeter.visualizers.backend.BackendListenerContext;
+import org.junit.jupiter.api.Test;
+
+public class TestBodyEncoder {
+
+  private static final byte[] BODY = "0123456789abcdefghij".getBytes(StandardCharsets.UTF_8);
+
+  @Test
+  public void testLargeBodiesAreTruncated() {
+    assertEquals(
+        "0123456789abcdefghij",
+        new BodyEncoder(0, BodyTruncation.HEAD, BodyEncoding.TEXT).encode(BODY, "UTF-8"));
+    assertEquals(
+        "0123456789abcdefghij",
+        new BodyEncoder(20, BodyTruncation.HEAD, BodyEncoding.TEXT).encode(BODY, "UTF-8"));
+    assertEquals(
+        "0123\n[... 16 bytes truncated ...]\n",
+        new BodyEncoder(4, BodyTruncation.HEAD, BodyEncoding.TEXT).encode(BODY, "UTF-8"));
+    assertEquals(
+        "\n[... 16 bytes truncated ...]\nghij",
+        new BodyEncoder(4, BodyTruncation.TAIL, BodyEncoding.TEXT).encode(BODY, "UTF-8"));
+    BodyEncoder headTail = new BodyEncoder(5, BodyTruncation.HEAD_TAIL, BodyEncoding.TEXT);
+    assertEquals("012\n[... 15 bytes truncated ...]\nij", headTail.encode(BODY, "UTF-8"));
+    assertEquals(
+        "012\n[... 15 bytes truncated ...]\nij",
+        headTail.encode(new String(BODY, StandardCharsets.UTF_8)));
+    assertNull(headTail.encode(null));
+    assertNull(headTail.encode(null, "UTF-8"));
+  }
+
+  @Test
+  public void testBodiesAreCutBetweenCharacters() {
+    byte[] body = "a\u00e9\u20acb".getBytes(StandardCharsets.UTF_8);
+    assertEquals(
+        "a\n[... 6 bytes truncated ...]\n",
+        new BodyEncoder(2, BodyTruncation.HEAD, BodyEncoding.TEXT).encode(body, "UTF-8"));
+    assertEquals(
+        "\n[... 6 bytes truncated ...]\nb",
+        new BodyEncoder(3, BodyTruncation.TAIL, BodyEncoding.TEXT).encode(body, "UTF-8"));
+    String emoji = "a\ud83d\ude00b";
+    assertEquals(
+        "a\n[... 3 bytes truncated ...]\n",
+        new BodyEncoder(2, BodyTruncation.HEAD, BodyEncoding.TEXT).encode(emoji));
+    assertEquals(
+        "\n[... 3 bytes truncated ...]\nb",
+        new BodyEncoder(2, BodyTruncation.TAIL, BodyEncoding.TEXT).encode(emoji));
+  }
+
+  @Test
+  public void testBinaryEncodings() throws IOException {
+    String base64 = new BodyEncoder(4, BodyTruncation.HEAD, BodyEncoding.BASE64).encode(BODY, null);
+    assertEquals(
+        "0123\n[... 16 bytes truncated ...]\n",
+        new String(Base64.getDecoder().decode(base64), StandardCharsets.US_ASCII));
+
+    String gzipped =
+        new BodyEncoder(0, BodyTruncation.HEAD, BodyEncoding.GZIP_BASE64).encode(BODY, null);
+    try (GZIPInputStream in =
+        new GZIPInputStream(new ByteArrayInputStream(Base64.getDecoder().decode(gzipped)))) {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      byte[] buffer = new byte[64];
+      for (int read; (read = in.read(buffer)) > 0; ) {
+        out.write(buffer, 0, read);
+      }
+      assertArrayEquals(BODY, out.toByteArray());
+    }
+
+    // The hash is of the whole body, whatever the maximum size
+    assertEquals(
+        "sha256:ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad",
+        new BodyEncoder(1, BodyTruncation.HEAD, BodyEncoding.SHA256)
+            .encode("abc".getBytes(StandardCharsets.UTF_8), "UTF-8"));
+  }
+
+  @Test
+  public void testExcludedBodiesAreNotRead() throws UnknownHostException {
+    SampleResult sampleResult =
+        new SampleResult() {
+          @Override
+          public byte[] getResponseData() {
+            throw new AssertionError("Response body read");
+          }
+        };
+    sampleResult.setSampleLabel("Test Sample");
+    RowTemplate template =
+        RowTemplate.create(
+                new BackendListenerContext(new Arguments()),
+                "kafka.",
+                "debug",
+                "yyyy-MM-dd'T'HH:mm:ss.SSSZZ",
+                0,
+                false,
+                false,
+                Collections.singleton("samplelabel"))
+            .withBodyEncoder(new BodyEncoder(8, BodyTruncation.HEAD, BodyEncoding.TEXT));
+    MapRowWriter writer = new MapRowWriter();
+    new MetricsRow(sampleResult, template).writeRow(writer);
+    Map<String, Object> row = writer.getMetricsMap();
+    assertEquals("Test Sample", row.get("SampleLabel"));
+    assertFalse(row.containsKey("ResponseBody"));
+  }
+}
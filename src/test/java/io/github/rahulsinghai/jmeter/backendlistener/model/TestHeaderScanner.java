@@ -0,0 +1,83 @@
+/*
+ * Copyright 2019 Rahul Singhai.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.rahulsinghai.jmeter.backendlistener.model;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+public class TestHeaderScanner {
+
+  private static final String[] HEADERS = {
+    "",
+    "HTTP/1.1 200 OK\nContent-Type: text/html; charset=UTF-8\nContent-Length:  1234 \n",
+    "GET /index.html\r\nHost: example.com\r\nX-kafka-backend-run: nightly\r\nCookie: a=b: c\r\n",
+    " kafka-Spaced : value \n:no name\nempty:\nno colon at all\n\n\nkafka-kafka-Twice:2",
+    "Date: Mon, 14 Oct 2026 10:00:00 GMT\nDate: repeated\n\u00dcn\u00efcode: v\u00e4lue"
+  };
+
+  @Test
+  public void testFieldsMatchTheSplitBasedParsing() {
+    HeaderScanner scanner = new HeaderScanner(Collections.emptySet());
+    for (int pass = 0; pass < 2; pass++) {
+      // The second pass goes through the name cache
+      for (String headers : HEADERS) {
+        assertEquals(headers, splitBased(headers), scan(scanner, headers));
+      }
+    }
+  }
+
+  @Test
+  public void testOnlyAllowedHeadersBecomeFields() {
+    HeaderScanner scanner =
+        new HeaderScanner(new HashSet<>(Arrays.asList("content-type", "X-backend-run ")));
+    Map<String, String> fields =
+        scan(scanner, HEADERS[1] + "\n" + HEADERS[2] + "\nCONTENT-TYPE: other");
+    Map<String, String> expected = new LinkedHashMap<>();
+    expected.put("Content-Type", "text/html; charset=UTF-8");
+    expected.put("X-backend-run", "nightly");
+    expected.put("CONTENT-TYPE", "other");
+    assertEquals(expected, fields);
+  }
+
+  private static Map<String, String> scan(HeaderScanner scanner, String headers) {
+    MapRowWriter writer = new MapRowWriter();
+    writer.beginRow();
+    scanner.scan(headers, writer);
+    writer.endRow();
+    Map<String, String> fields = new LinkedHashMap<>();
+    writer.getMetricsMap().forEach((key, value) -> fields.put(key, (String) value));
+    return fields;
+  }
+
+  /** The parsing the scanner replaced. */
+  private static Map<String, String> splitBased(String headers) {
+    Map<String, String> fields = new LinkedHashMap<>();
+    for (String line : headers.split("\n")) {
+      String[] header = line.split(":", 2);
+      if (header.length > 1) {
+        fields.put(header[0].replaceAll("kafka-", "").trim(), header[1].trim());
+      }
+    }
+    return fields;
+  }
+}
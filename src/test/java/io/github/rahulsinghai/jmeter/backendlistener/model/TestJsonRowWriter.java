@@ -0,0 +1,265 @@
+/*
+ * Copyright 2019 Rahul Singhai.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.rahulsinghai.jmeter.backendlistener.model;
+
+import static org.junit.Assert.assertEquals;
+
+import com.google.gson.Gson;
+import java.net.InetAddress;
+import java.net.URL;
+import java.net.UnknownHostException;
+import java.text.SimpleDateFormat;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import org.apache.jmeter.assertions.AssertionResult;
+import org.apache.jmeter.config.Arguments;
+import org.apache.jmeter.samplers.SampleResult;
+import org.apache.jmeter.visualizers.backend.BackendListenerContext;
+import org.junit.jupiter.api.Test;
+
+public class TestJsonRowWriter {
+
+  private static final String TRICKY =
+      "a\"b\\c\n\t<tag attr='x'>&=\u0001 \u00e9 \u20ac \uD83D\uDE00 \u2028";
+
+  // Rows of the samples below, as the baseline MetricsRow and Gson encoded them, without the
+  // fields depending on the clock, time zone or host
+  private static final String BASELINE_ROW =
+      "{\"ContentType\":\"\",\"IdleTime\":0,\"ErrorCount\":1,"
+          + "\"URL\":\"http://localhost:8080/path?a\\u003d1\\u0026b\\u003d2\","
+          + "\"Success\":false,\"Bytes\":17,\"SentBytes\":0,\"AllThreads\":0,"
+          + "\"DataType\":\"text\",\"ResponseTime\":123,\"SampleCount\":1,"
+          + "\"FailureMessage\":\"Response was null\\n\",\"ConnectTime\":0,"
+          + "\"RequestHeaders\":\"\",\"customArg1\":\"Test project\",\"customArg2\":12,"
+          + "\"response-header\":\"test\",\"ResponseCode\":\"\",\"TestStartTime\":0,"
+          + "\"ResponseMessage\":\"\","
+          + "\"ResponseHeaders\":\"X-kafka-backend:true\\nresponse-header:test\","
+          + "\"AssertionResults\":[{\"failure\":true,\"name\":\"assertion1\","
+          + "\"failureMessage\":\"Response was null\"}],\"Latency\":0,"
+          + "\"ResponseBody\":\"\\u003chtml\\u003ebody\\u003c/html\\u003e\",\"GrpThreads\":0,"
+          + "\"BodySize\":17,\"X-backend\":\"true\",\"ThreadName\":\"\","
+          + "\"SampleLabel\":\"a\\\"b\\\\c\\n\\t\\u003ctag attr"
+          + "\\u003d\\u0027x\\u0027\\u003e\\u0026\\u003d\\u0001 \u00e9 \u20ac \uD83D\uDE00 \\u2028\"}";
+  private static final String BASELINE_HEADERS_ROW =
+      "{\"ContentType\":\"\",\"IdleTime\":0,\"ErrorCount\":1,\"Success\":true,"
+          + "\"Bytes\":0,\"SentBytes\":0,\"AllThreads\":0,\"X-Request\":\"1\",\"DataType\":\"\","
+          + "\"ResponseTime\":123,\"SampleCount\":1,\"FailureMessage\":\"\","
+          + "\"ConnectTime\":0,"
+          + "\"RequestHeaders\":\"Content-Type: text/plain\\nX-Request: 1\","
+          + "\"Content-Type\":\"text/html\",\"ResponseCode\":\"299\",\"TestStartTime\":0,"
+          + "\"ResponseMessage\":\"\","
+          + "\"ResponseHeaders\":\"Content-Type: text/html\\nResponseCode: 299\","
+          + "\"AssertionResults\":[],\"Latency\":0,\"ResponseBody\":\"\",\"GrpThreads\":0,"
+          + "\"BodySize\":0,\"ThreadName\":\"\",\"SampleLabel\":\"Test Sample\"}";
+  private static final String TIMESTAMP_FORMAT = "yyyy-MM-dd'T'HH:mm:ss.SSSZZ";
+
+  @Test
+  public void testStringEscapingMatchesGson() {
+    JsonRowWriter writer = new JsonRowWriter(16);
+    writer.beginRow();
+    writer.writeString("key<1>", TRICKY);
+    writer.writeString("skipped", null);
+    writer.endRow();
+
+    Map<String, Object> expected = new HashMap<>();
+    expected.put("key<1>", TRICKY);
+    assertEquals(new Gson().toJson(expected), writer.toString());
+  }
+
+  @Test
+  public void testLongStringEscapingMatchesGson() {
+    // Spans several escaping chunks, with escapes and surrogate pairs at varied offsets in them
+    StringBuilder value = new StringBuilder("x");
+    while (value.length() < 5000) {
+      value.append(TRICKY);
+    }
+    JsonRowWriter writer = new JsonRowWriter(16);
+    writer.beginRow();
+    writer.writeString("body", value);
+    writer.endRow();
+
+    Map<String, Object> expected = new HashMap<>();
+    expected.put("body", value.toString());
+    assertEquals(new Gson().toJson(expected), writer.toString());
+
+    writer.beginRow();
+    writer.writeString("body", "small");
+    writer.endRow();
+    assertEquals("{\"body\":\"small\"}", writer.toString());
+  }
+
+  @Test
+  public void testNumbersBooleansAndArrays() {
+    JsonRowWriter writer = new JsonRowWriter();
+    writer.beginRow();
+    writer.writeLong("min", Long.MIN_VALUE);
+    writer.writeLong("zero", 0);
+    writer.writeLong("negative", -42);
+    writer.writeBoolean("ok", true);
+    writer.beginArray("list");
+    writer.beginObject();
+    writer.writeString("name", "first");
+    writer.endObject();
+    writer.beginObject();
+    writer.writeBoolean("failure", false);
+    writer.endObject();
+    writer.endArray();
+    writer.endRow();
+
+    assertEquals(
+        "{\"min\":-9223372036854775808,\"zero\":0,\"negative\":-42,\"ok\":true,"
+            + "\"list\":[{\"name\":\"first\"},{\"failure\":false}]}",
+        writer.toString());
+  }
+
+  @Test
+  public void testRowMatchesBaselineDocument() throws Exception {
+    SampleResult sampleResult = new SampleResult(1561939200123L, 123);
+    sampleResult.setBytes(100L);
+    sampleResult.setSampleLabel(TRICKY);
+    sampleResult.setEncodingAndType("text/html");
+    sampleResult.setURL(new URL("http://localhost:8080/path?a=1&b=2"));
+    sampleResult.setSuccessful(false);
+    sampleResult.setResponseData("<html>body</html>", "UTF-8");
+    sampleResult.setResponseHeaders("X-kafka-backend:true\nresponse-header:test");
+    AssertionResult assertResult = new AssertionResult("assertion1");
+    assertResult.setResultForNull();
+    sampleResult.addAssertionResult(assertResult);
+
+    Arguments arguments = new Arguments();
+    arguments.addArgument("customArg1", "Test project");
+    arguments.addArgument("customArg2", "12");
+    BackendListenerContext context = new BackendListenerContext(arguments);
+
+    MetricsRow metricsRow =
+        new MetricsRow(sampleResult, "info", TIMESTAMP_FORMAT, 0, false, true, new HashSet<>());
+    Map<String, Object> expected = baseline(BASELINE_ROW, sampleResult);
+    assertEquals(
+        expected, withoutClock(new Gson().toJson(metricsRow.getRowAsMap(context, "kafka."))));
+
+    JsonRowWriter writer = new JsonRowWriter();
+    metricsRow.writeRow(writer);
+    assertEquals(expected, withoutClock(writer.toString()));
+  }
+
+  @Test
+  public void testDuplicateKeysKeepTheLastValue() {
+    JsonRowWriter writer = new JsonRowWriter();
+    writer.beginRow();
+    writer.writeString("a", "first");
+    writer.writeLong("b", 1);
+    writer.writeConstants(new ConstantFields.Builder().add("c", 2).add("d", "x").build());
+    writer.writeString("a", "second");
+    writer.writeLong("c", 3);
+    writer.writeString("d", "y");
+    writer.writeString("d", "z");
+    writer.endRow();
+    assertEquals("{\"b\":1,\"a\":\"second\",\"c\":3,\"d\":\"z\"}", writer.toString());
+
+    // Constants replacing fields written before them
+    writer.beginRow();
+    writer.writeString("c", "first");
+    writer.writeConstants(new ConstantFields.Builder().add("c", 2).add("e", 4).build());
+    writer.endRow();
+    assertEquals("{\"c\":2,\"e\":4}", writer.toString());
+  }
+
+  @Test
+  public void testHeaderOfBothRequestAndResponseIsWrittenOnce() throws Exception {
+    SampleResult sampleResult = new SampleResult(1561939200123L, 123);
+    sampleResult.setSampleLabel("Test Sample");
+    sampleResult.setRequestHeaders("Content-Type: text/plain\nX-Request: 1");
+    sampleResult.setResponseHeaders("Content-Type: text/html\nResponseCode: 299");
+
+    MetricsRow metricsRow =
+        new MetricsRow(sampleResult, "info", TIMESTAMP_FORMAT, 0, true, true, new HashSet<>());
+    BackendListenerContext context = new BackendListenerContext(new Arguments());
+    Map<String, Object> expected = baseline(BASELINE_HEADERS_ROW, sampleResult);
+    assertEquals(
+        expected, withoutClock(new Gson().toJson(metricsRow.getRowAsMap(context, "kafka."))));
+
+    JsonRowWriter writer = new JsonRowWriter();
+    metricsRow.writeRow(writer);
+    String row = writer.toString();
+    assertEquals(row, 1, count(row, "\"Content-Type\":"));
+    assertEquals(row, 1, count(row, "\"ResponseCode\":"));
+    Map<String, Object> actual = withoutClock(row);
+    assertEquals("text/html", actual.get("Content-Type"));
+    assertEquals("299", actual.get("ResponseCode"));
+    assertEquals("1", actual.get("X-Request"));
+    assertEquals(expected, actual);
+  }
+
+  /**
+   * @param row A row of the baseline
+   * @param sampleResult Its sample
+   * @return the row, with the fields depending on the time zone and host of this test
+   */
+  private static Map<String, Object> baseline(String row, SampleResult sampleResult)
+      throws UnknownHostException {
+    SimpleDateFormat format = new SimpleDateFormat(TIMESTAMP_FORMAT);
+    Map<String, Object> expected = parse(row);
+    expected.put("SampleStartTime", format.format(new Date(sampleResult.getStartTime())));
+    expected.put("SampleEndTime", format.format(new Date(sampleResult.getEndTime())));
+    expected.put("Timestamp", format.format(new Date(sampleResult.getTimeStamp())));
+    expected.put("InjectorHostname", InetAddress.getLocalHost().getHostName());
+    return expected;
+  }
+
+  /** @return the parsed row, without ElapsedTime, which depends on the wall clock */
+  private static Map<String, Object> withoutClock(String row) {
+    Map<String, Object> parsed = parse(row);
+    parsed.remove("ElapsedTime");
+    return parsed;
+  }
+
+  private static int count(String row, String key) {
+    int count = 0;
+    for (int i = row.indexOf(key); i >= 0; i = row.indexOf(key, i + 1)) {
+      count++;
+    }
+    return count;
+  }
+
+  @Test
+  public void testFieldFilterIsApplied() throws Exception {
+    SampleResult sampleResult = new SampleResult(System.currentTimeMillis(), 5);
+    sampleResult.setSampleLabel("Test Sample");
+
+    RowTemplate template =
+        RowTemplate.create(
+            new BackendListenerContext(new Arguments()),
+            "kafka.",
+            "quiet",
+            "yyyy-MM-dd'T'HH:mm:ss.SSSZZ",
+            0,
+            false,
+            false,
+            new HashSet<>(Collections.singletonList("samplelabel")));
+    JsonRowWriter writer = new JsonRowWriter();
+    new MetricsRow(sampleResult, template).writeRow(writer);
+    assertEquals("{\"SampleLabel\":\"Test Sample\"}", writer.toString());
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Map<String, Object> parse(String json) {
+    return new Gson().fromJson(json, Map.class);
+  }
+}
@@ -19,7 +19,9 @@ package io.github.rahulsinghai.jmeter.backendlistener.model;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 
+import java.net.URL;
 import java.net.UnknownHostException;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Map;
 import org.apache.jmeter.assertions.AssertionResult;
@@ -102,4 +104,72 @@ public class TestMetricsRow {
     assertNotNull(mapMetric.get("SampleLabel"));
     assertEquals(mapMetric.get("SampleLabel").toString(), "Test Sample");
   }
+
+  @Test
+  public void testUnselectedFieldsAreNotRead() throws UnknownHostException {
+    SampleResult sampleResult =
+        new SampleResult() {
+          @Override
+          public URL getURL() {
+            throw new AssertionError("URL is not selected");
+          }
+
+          @Override
+          public String getSamplerData() {
+            throw new AssertionError("RequestBody is not selected");
+          }
+
+          @Override
+          public byte[] getResponseData() {
+            throw new AssertionError("ResponseBody is not selected");
+          }
+        };
+    sampleResult.setSampleLabel("Test Sample");
+    sampleResult.setResponseCode("200");
+
+    MetricsRow metricsRow =
+        new MetricsRow(
+            sampleResult,
+            "debug",
+            "yyyy-MM-dd'T'HH:mm:ss.SSSZZ",
+            0,
+            false,
+            false,
+            new HashSet<>(Arrays.asList("samplelabel", "responsecode")));
+    Map<String, Object> mapMetric = metricsRow.getRowAsMap(context, "kafka.");
+    assertEquals(new HashSet<>(Arrays.asList("SampleLabel", "ResponseCode")), mapMetric.keySet());
+    assertEquals("Test Sample", mapMetric.get("SampleLabel"));
+  }
+
+  @Test
+  public void testReusedRowWritesLikeNewRow() throws UnknownHostException {
+    RowTemplate template =
+        RowTemplate.create(
+            context,
+            "kafka.",
+            "info",
+            "yyyy-MM-dd'T'HH:mm:ss.SSSZZ",
+            0,
+            false,
+            false,
+            new HashSet<>());
+    SampleResult failed = new SampleResult(1561939200000L, 120);
+    failed.setSampleLabel("Failed");
+    AssertionResult assertResult = new AssertionResult("assertion1");
+    assertResult.setFailure(true);
+    assertResult.setFailureMessage("expected 200");
+    failed.addAssertionResult(assertResult);
+    SampleResult passed = new SampleResult(1561939200000L, 80);
+    passed.setSampleLabel("Passed");
+    passed.setSuccessful(true);
+
+    MetricsRow row = new MetricsRow(template);
+    JsonRowWriter reused = new JsonRowWriter();
+    JsonRowWriter fresh = new JsonRowWriter();
+    for (SampleResult sr : new SampleResult[] {failed, passed, failed}) {
+      row.reset(sr).writeRow(reused, 1561939300000L);
+      new MetricsRow(sr, template).writeRow(fresh, 1561939300000L);
+      assertEquals(fresh.toString(), reused.toString());
+    }
+  }
 }
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2019 Rahul Singhai.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.rahulsinghai.jmeter.backendlistener.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import org.apache.jmeter.config.Arguments;
+import org.apache.jmeter.samplers.SampleResult;
+import org.apache.jmeter.visualizers.backend.BackendListenerContext;
+import org.junit.jupiter.api.Test;
+
+public class TestRowTemplate {
+
+  private static BackendListenerContext context() {
+    Arguments arguments = new Arguments();
+    arguments.addArgument("kafka.topic", "ignored");
+    arguments.addArgument("customNumber", " 42 ");
+    arguments.addArgument("customText", "Test project");
+    arguments.addArgument("customHuge", "99999999999999999999");
+    arguments.addArgument("customEmpty", " ");
+    return new BackendListenerContext(arguments);
+  }
+
+  @Test
+  public void testConstantFieldsAreTyped() throws Exception {
+    RowTemplate template =
+        RowTemplate.create(context(), "kafka.", " info ", "yyyy", 7, false, false, new HashSet<>());
+    assertEquals("info", template.getTestMode());
+
+    String fragment = new String(template.getConstants().getJson(), StandardCharsets.UTF_8);
+    assertTrue(fragment.startsWith("\"TestStartTime\":"));
+    assertTrue(fragment.contains("\"InjectorHostname\":\""));
+    assertTrue(
+        fragment.endsWith(
+            "\"BuildNumber\":7,\"customNumber\":42,\"customText\":\"Test project\","
+                + "\"customHuge\":\"99999999999999999999\""));
+    assertFalse(fragment.contains("kafka.topic"));
+    assertFalse(fragment.contains("customEmpty"));
+  }
+
+  @Test
+  public void testFieldFilterAppliesToConstants() throws Exception {
+    RowTemplate template =
+        RowTemplate.create(
+            context(),
+            "kafka.",
+            "quiet",
+            "yyyy",
+            7,
+            false,
+            false,
+            new HashSet<>(Arrays.asList("customtext", "samplelabel")));
+    assertEquals(
+        "\"customText\":\"Test project\"",
+        new String(template.getConstants().getJson(), StandardCharsets.UTF_8));
+
+    SampleResult sampleResult = new SampleResult(System.currentTimeMillis(), 5);
+    sampleResult.setSampleLabel("Test Sample");
+    JsonRowWriter writer = new JsonRowWriter();
+    new MetricsRow(sampleResult, template).writeRow(writer);
+    assertEquals(
+        "{\"SampleLabel\":\"Test Sample\",\"customText\":\"Test project\"}", writer.toString());
+
+    MapRowWriter mapRowWriter = new MapRowWriter();
+    new MetricsRow(sampleResult, template).writeRow(mapRowWriter);
+    Map<String, Object> map = mapRowWriter.getMetricsMap();
+    assertEquals(2, map.size());
+    assertEquals("Test project", map.get("customText"));
+  }
+}
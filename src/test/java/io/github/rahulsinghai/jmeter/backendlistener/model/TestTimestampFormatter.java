@@ -0,0 +1,109 @@
+/*
+ * Copyright 2019 Rahul Singhai.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.rahulsinghai.jmeter.backendlistener.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.text.SimpleDateFormat;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Date;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+public class TestTimestampFormatter {
+
+  private static final String[] PATTERNS = {
+    "yyyy-MM-dd'T'HH:mm:ss.SSSZZ",
+    "yyyy-MM-dd HH:mm:ss",
+    "HH:mm:ss.S",
+    "'Sent at 'HH:mm:ss,SSSS' (S)'",
+    "SSS.SSS yyyy"
+  };
+
+  @Test
+  public void testMatchesSimpleDateFormat() {
+    Random random = new Random(42);
+    long now = System.currentTimeMillis();
+    for (String pattern : PATTERNS) {
+      TimestampFormatter formatter = new TimestampFormatter(pattern);
+      SimpleDateFormat sdf = new SimpleDateFormat(pattern);
+      for (int i = 0; i < 2000; i++) {
+        // Mostly close timestamps, to exercise the cache, and a few far away ones
+        long timestamp =
+            i % 10 == 0 ? random.nextLong() % (now * 2) : now + random.nextInt(5000) - 2500;
+        assertEquals(pattern, sdf.format(new Date(timestamp)), formatter.format(timestamp));
+      }
+    }
+  }
+
+  @Test
+  public void testInvalidPatternIsRejected() {
+    try {
+      new TimestampFormatter("yyyy-MM-dd bb");
+      fail("An invalid pattern must be rejected when the test starts");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testElapsedTime() {
+    ZoneId zone = ZoneId.systemDefault();
+    long testStart = System.currentTimeMillis();
+    ElapsedTimeClock clock = new ElapsedTimeClock(testStart, zone);
+    long now = testStart + 3725_999L;
+
+    LocalDateTime expected = Instant.ofEpochMilli(now).atZone(zone).toLocalDate().atTime(1, 2, 5);
+    assertEquals(expected.atZone(zone).toInstant().toEpochMilli(), clock.getElapsedTime(now));
+
+    LocalDateTime expectedComparison = LocalDate.of(2019, 7, 1).atTime(1, 2, 5);
+    assertEquals(
+        expectedComparison.atZone(zone).toInstant().toEpochMilli(),
+        clock.getElapsedTimeComparison(now));
+
+    // More than a day of test wraps around, like the former Calendar based computation
+    assertEquals(
+        LocalDate.of(2019, 7, 1).atTime(0, 0, 1).atZone(zone).toInstant().toEpochMilli(),
+        clock.getElapsedTimeComparison(testStart + 86401_000L));
+  }
+
+  @Test
+  public void testElapsedTimeKeepsTheWallClockAcrossDaylightSavingChanges() {
+    ZoneId zone = ZoneId.of("Europe/Paris");
+    // Clocks go from 02:00 to 03:00 on 2026-03-29 and from 03:00 back to 02:00 on 2026-10-25
+    long springStart =
+        LocalDate.of(2026, 3, 29).atTime(0, 30).atZone(zone).toInstant().toEpochMilli();
+    ElapsedTimeClock spring = new ElapsedTimeClock(springStart, zone);
+    assertEquals(
+        LocalDate.of(2026, 3, 29).atTime(3, 0).atZone(zone).toInstant().toEpochMilli(),
+        spring.getElapsedTime(springStart + 3 * 3600_000L));
+
+    long autumnStart =
+        LocalDate.of(2026, 10, 25).atTime(0, 30).atZone(zone).toInstant().toEpochMilli();
+    ElapsedTimeClock autumn = new ElapsedTimeClock(autumnStart, zone);
+    assertEquals(
+        LocalDate.of(2026, 10, 25).atTime(5, 0).atZone(zone).toInstant().toEpochMilli(),
+        autumn.getElapsedTime(autumnStart + 5 * 3600_000L));
+    assertEquals(
+        LocalDate.of(2019, 7, 1).atTime(5, 0).atZone(zone).toInstant().toEpochMilli(),
+        autumn.getElapsedTimeComparison(autumnStart + 5 * 3600_000L));
+  }
+}
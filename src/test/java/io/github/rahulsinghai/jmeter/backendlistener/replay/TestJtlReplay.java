@@ -0,0 +1,250 @@
+/*
+ * Copyright 2019 Rahul Singhai.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.rahulsinghai.jmeter.backendlistener.replay;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.gson.Gson;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class TestJtlReplay {
+
+  private Path directory;
+
+  private static final String CSV_HEADER =
+      "timeStamp,elapsed,label,responseCode,responseMessage,threadName,dataType,success,"
+          + "failureMessage,bytes,sentBytes,grpThreads,allThreads,URL,Latency,IdleTime,Connect\n";
+
+  @BeforeEach
+  public void setUp() throws IOException {
+    this.directory = Files.createTempDirectory("jtl-replay");
+  }
+
+  @AfterEach
+  public void tearDown() throws IOException {
+    try (Stream<Path> paths = Files.walk(this.directory)) {
+      for (Path path : paths.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+        Files.delete(path);
+      }
+    }
+  }
+
+  @Test
+  public void testCsvResultsAreReplayedInOrderAcrossChunks() throws Exception {
+    Path jtl = this.directory.resolve("results.csv");
+    StringBuilder csv = new StringBuilder(CSV_HEADER);
+    for (int i = 0; i < 200; i++) {
+      boolean failed = i % 50 == 7;
+      csv.append(1561939200000L + i)
+          .append(',')
+          .append(10 + i % 90)
+          .append(",Sample ")
+          .append(i)
+          .append(failed ? ",500,\"Internal, error\",Thread Group 1-1,text,false," : ",200,OK,")
+          .append(failed ? "\"Expected \"\"ok\"\"\nin body\"," : "Thread Group 1-1,text,true,,")
+          .append("1024,120,4,4,https://shop.example.com/items/")
+          .append(i)
+          .append(",8,0,2\n");
+    }
+    Files.write(jtl, csv.toString().getBytes(StandardCharsets.UTF_8));
+
+    Path output = this.directory.resolve("rows");
+    JtlReplay.Report report =
+        JtlReplay.run(
+            JtlReplay.Settings.parse(
+                "replay.chunk.bytes=512",
+                "replay.threads=3",
+                "replay.batch.size=50",
+                "replay.rate=1000",
+                "replay.progress.seconds=0",
+                "kafka.sink.file.segment.bytes=16384",
+                "replay.output=" + output,
+                jtl.toString()));
+    assertEquals(200, report.samples);
+    assertEquals(0, report.skipped);
+    assertEquals(Files.size(jtl) - CSV_HEADER.length(), report.bytes);
+    assertEquals(report.totalBytes, report.bytes);
+    // The last batch is due after 150 samples at 1000 samples per second
+    assertTrue(report.seconds >= 0.14);
+
+    try (Stream<Path> files = Files.list(output)) {
+      assertTrue(files.count() > 1);
+    }
+    List<String> rows = readRows(output);
+    assertEquals(200, rows.size());
+    for (int i = 0; i < rows.size(); i++) {
+      assertTrue(rows.get(i), rows.get(i).contains("\"SampleLabel\":\"Sample " + i + "\""));
+    }
+    Map<String, Object> failed = parse(rows.get(57));
+    assertEquals(false, failed.get("Success"));
+    assertEquals("Internal, error", failed.get("ResponseMessage"));
+    assertEquals("Expected \"ok\"\nin body\n", failed.get("FailureMessage"));
+    assertEquals("https://shop.example.com/items/57", failed.get("URL"));
+    assertEquals(true, parse(rows.get(58)).get("Success"));
+  }
+
+  @Test
+  public void testQuotedLineBreaksFollowedByDigitsDoNotSplitResults() throws Exception {
+    Path jtl = this.directory.resolve("results.csv");
+    StringBuilder csv = new StringBuilder(CSV_HEADER);
+    for (int i = 0; i < 100; i++) {
+      csv.append(1561939200000L + i)
+          .append(",10,Sample ")
+          .append(i)
+          .append(",500,\"1 error\n2 errors\n")
+          .append(1561939200000L + i)
+          .append(" errors\",Thread Group 1-1,text,false,\"Expected 200\n500\n\"\"")
+          .append(i)
+          .append("\"\"\",1024,120,4,4,https://shop.example.com/items/")
+          .append(i)
+          .append(",8,0,2\n");
+    }
+    Files.write(jtl, csv.toString().getBytes(StandardCharsets.UTF_8));
+
+    for (int chunkBytes : new int[] {37, 100, 211}) {
+      Path output = this.directory.resolve("rows-" + chunkBytes);
+      JtlReplay.Report report =
+          JtlReplay.run(
+              JtlReplay.Settings.parse(
+                  "replay.chunk.bytes=" + chunkBytes,
+                  "replay.threads=4",
+                  "replay.progress.seconds=0",
+                  "replay.output=" + output,
+                  jtl.toString()));
+      assertEquals(100, report.samples);
+      assertEquals(0, report.skipped);
+      assertEquals(report.totalBytes, report.bytes);
+
+      List<String> rows = readRows(output);
+      assertEquals(100, rows.size());
+      for (int i = 0; i < rows.size(); i++) {
+        Map<String, Object> row = parse(rows.get(i));
+        assertEquals("Sample " + i, row.get("SampleLabel"));
+        assertEquals(
+            "1 error\n2 errors\n" + (1561939200000L + i) + " errors", row.get("ResponseMessage"));
+        assertEquals("Expected 200\n500\n\"" + i + "\"\n", row.get("FailureMessage"));
+      }
+    }
+  }
+
+  @Test
+  public void testTimesAreThoseOfTheReplayedTest() throws Exception {
+    Path jtl = this.directory.resolve("results.csv");
+    String csv =
+        CSV_HEADER
+            + "1561939200000,250,Login,200,OK,Thread Group 1-1,text,true,,1,1,1,1,,1,0,1\n"
+            + "1561939290000,1500,Search,200,OK,Thread Group 1-1,text,true,,1,1,1,1,,1,0,1\n"
+            + "1561942800000,10,Logout,200,OK,Thread Group 1-1,text,true,,1,1,1,1,,1,0,1\n";
+    Files.write(jtl, csv.getBytes(StandardCharsets.UTF_8));
+
+    Path output = this.directory.resolve("rows");
+    JtlReplay.run(
+        JtlReplay.Settings.parse(
+            "kafka.timestamp=HH:mm:ss",
+            "replay.progress.seconds=0",
+            "replay.output=" + output,
+            jtl.toString()));
+
+    List<String> rows = readRows(output);
+    assertEquals(3, rows.size());
+    // The timeStamp column holds the end times of the samples, the test starts 250 ms earlier
+    String[] elapsedTimes = {"00:00:00", "00:01:30", "01:00:00"};
+    for (int i = 0; i < rows.size(); i++) {
+      Map<String, Object> row = parse(rows.get(i));
+      assertEquals(1561939199750.0, row.get("TestStartTime"));
+      assertEquals(elapsedTimes[i], row.get("ElapsedTime"));
+    }
+  }
+
+  @Test
+  public void testXmlTopLevelResultsAreReplayed() throws Exception {
+    Path jtl = this.directory.resolve("results.jtl");
+    String xml =
+        "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<testResults version=\"1.2\">\n"
+            + "<httpSample t=\"12\" lt=\"10\" ct=\"3\" ts=\"1561939200000\" s=\"true\""
+            + " lb=\"GET /items?a=1&amp;b=2\" rc=\"200\" rm=\"OK\" tn=\"Thread Group 1-1\""
+            + " dt=\"text\" by=\"512\" sby=\"100\" ng=\"1\" na=\"1\">\n"
+            + "  <httpSample t=\"5\" ts=\"1561939200001\" s=\"true\" lb=\"Redirect\" rc=\"302\"/>\n"
+            + "  <java.net.URL>https://shop.example.com/items?a=1&amp;b=2</java.net.URL>\n"
+            + "</httpSample>\n"
+            + "<sample t=\"40\" ts=\"1561939200100\" s=\"false\" lb=\"Checkout\" rc=\"500\""
+            + " rm=\"Server &lt;error&gt;\" tn=\"Thread Group 1-2\" by=\"10\">\n"
+            + "  <assertionResult>\n"
+            + "    <name>Response Assertion</name>\n"
+            + "    <failure>true</failure>\n"
+            + "    <error>false</error>\n"
+            + "    <failureMessage>Test failed: code expected 200</failureMessage>\n"
+            + "  </assertionResult>\n"
+            + "</sample>\n"
+            + "<!-- a comment with <httpSample> inside -->\n"
+            + "<httpSample t=\"7\" ts=\"1561939200200\" s=\"true\" lb=\"Logout\" rc=\"200\"/>\n"
+            + "</testResults>\n";
+    Files.write(jtl, xml.getBytes(StandardCharsets.UTF_8));
+
+    Path output = this.directory.resolve("rows");
+    JtlReplay.Report report =
+        JtlReplay.run(
+            JtlReplay.Settings.parse(
+                "replay.chunk.bytes=64",
+                "replay.progress.seconds=0",
+                "replay.output=" + output,
+                jtl.toString()));
+    assertEquals(3, report.samples);
+
+    List<String> rows = readRows(output);
+    assertEquals(3, rows.size());
+    Map<String, Object> first = parse(rows.get(0));
+    assertEquals("GET /items?a=1&b=2", first.get("SampleLabel"));
+    assertEquals("https://shop.example.com/items?a=1&b=2", first.get("URL"));
+    assertEquals(10.0, first.get("Latency"));
+    Map<String, Object> second = parse(rows.get(1));
+    assertEquals(false, second.get("Success"));
+    assertEquals("Server <error>", second.get("ResponseMessage"));
+    assertEquals("Test failed: code expected 200\n", second.get("FailureMessage"));
+    assertEquals("Logout", parse(rows.get(2)).get("SampleLabel"));
+  }
+
+  /** @return the rows of the files of the file sink, in order */
+  private static List<String> readRows(Path directory) throws IOException {
+    List<String> rows = new ArrayList<>();
+    try (Stream<Path> files = Files.list(directory)) {
+      for (Path file : files.sorted().collect(Collectors.toList())) {
+        rows.addAll(Files.readAllLines(file, StandardCharsets.UTF_8));
+      }
+    }
+    return rows;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Map<String, Object> parse(String row) {
+    return new Gson().fromJson(row, Map.class);
+  }
+}
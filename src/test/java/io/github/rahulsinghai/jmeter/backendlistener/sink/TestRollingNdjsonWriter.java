@@ -0,0 +1,153 @@
+/*
+ * Copyright 2019 Rahul Singhai.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.rahulsinghai.jmeter.backendlistener.sink;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.GZIPInputStream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class TestRollingNdjsonWriter {
+
+  private Path directory;
+
+  @BeforeEach
+  public void setUp() throws IOException {
+    this.directory = Files.createTempDirectory("ndjson");
+  }
+
+  @AfterEach
+  public void tearDown() {
+    File[] files = this.directory.toFile().listFiles();
+    if (files != null) {
+      for (File file : files) {
+        file.delete();
+      }
+    }
+    this.directory.toFile().delete();
+  }
+
+  @Test
+  public void testLinesAreWrittenInOrderAcrossGzipSegments() throws Exception {
+    List<String> expected = new ArrayList<>();
+    AtomicInteger written = new AtomicInteger();
+    AtomicReference<IOException> failure = new AtomicReference<>();
+    // Random ids, so that the lines do not compress to almost nothing
+    Random random = new Random(42);
+    try (RollingNdjsonWriter writer =
+        RollingNdjsonWriter.open(this.directory, 1024, true, 256, 4)) {
+      for (int block = 0; block < 200; block++) {
+        StringBuilder lines = new StringBuilder();
+        for (int i = 0; i < 10; i++) {
+          String line =
+              "{\"SampleLabel\":\"sample"
+                  + (block * 10 + i)
+                  + "\",\"Id\":\""
+                  + Long.toHexString(random.nextLong())
+                  + Long.toHexString(random.nextLong())
+                  + "\"}";
+          expected.add(line);
+          lines.append(line).append('\n');
+        }
+        writer.append(
+            lines.toString().getBytes(StandardCharsets.UTF_8),
+            exception -> {
+              written.incrementAndGet();
+              failure.compareAndSet(null, exception);
+            });
+      }
+    }
+    assertEquals(200, written.get());
+    assertNull(failure.get());
+
+    List<Path> segments = segments();
+    assertTrue(segments.size() > 1);
+    List<String> lines = new ArrayList<>();
+    for (Path segment : segments) {
+      assertTrue(segment.toString(), segment.toString().endsWith(".ndjson.gz"));
+      lines.addAll(read(new GZIPInputStream(Files.newInputStream(segment))));
+    }
+    assertEquals(expected, lines);
+  }
+
+  @Test
+  public void testFlushedLinesCanBeReadAndSequenceNumbersContinue() throws Exception {
+    byte[] first = "{\"a\":1}\n{\"a\":2}\n".getBytes(StandardCharsets.UTF_8);
+    try (RollingNdjsonWriter writer =
+        RollingNdjsonWriter.open(this.directory, 1 << 20, false, 4096, 16)) {
+      writer.append(first, exception -> {});
+      writer.flush();
+      List<Path> segments = segments();
+      assertEquals(1, segments.size());
+      assertTrue(segments.get(0).toString().endsWith(".ndjson.part"));
+      assertEquals(Arrays.asList("{\"a\":1}", "{\"a\":2}"), read(segments.get(0)));
+    }
+
+    try (RollingNdjsonWriter writer =
+        RollingNdjsonWriter.open(this.directory, 1 << 20, false, 4096, 16)) {
+      writer.append("{\"a\":3}\n".getBytes(StandardCharsets.UTF_8), exception -> {});
+    }
+    List<Path> segments = segments();
+    assertEquals(2, segments.size());
+    assertTrue(segments.get(0).endsWith("rows-00000000000000000001.ndjson"));
+    assertTrue(segments.get(1).endsWith("rows-00000000000000000002.ndjson"));
+    assertEquals(Collections.singletonList("{\"a\":3}"), read(segments.get(1)));
+    assertFalse(Files.exists(this.directory.resolve("rows-00000000000000000001.ndjson.part")));
+  }
+
+  private List<Path> segments() throws IOException {
+    List<Path> segments = new ArrayList<>();
+    Files.list(this.directory).forEach(segments::add);
+    Collections.sort(segments);
+    return segments;
+  }
+
+  private static List<String> read(Path segment) throws IOException {
+    return read(Files.newInputStream(segment));
+  }
+
+  private static List<String> read(InputStream in) throws IOException {
+    List<String> lines = new ArrayList<>();
+    try (BufferedReader reader =
+        new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+      for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+        lines.add(line);
+      }
+    }
+    return lines;
+  }
+}